@@ -0,0 +1,161 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReader;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReaderSpi;
+
+/**
+ * End-to-end benchmarks of <code>J2KImageReader</code> and
+ * <code>J2KImageWriter</code> over a corpus of synthetic images. Scores are
+ * in milliseconds per image, including the creation of the reader or writer
+ * and the parsing of the headers.
+ * <p>
+ * The images are described by {@link ImageSpec} strings and are
+ * <code>size</code> pixels square. Each is encoded once per trial. The
+ * reads cover the whole image (<code>read</code> and
+ * <code>readRaster</code>), the centered quarter of it
+ * (<code>readRegion</code>) and the whole image at a quarter of the
+ * resolution (<code>readReduced</code>).
+ * <p>
+ * Run with <code>-t</code> to measure concurrent decoding, every thread
+ * uses its own reader or writer, or use {@link EndToEnd} to run the suite
+ * for several thread counts and to record the peak heap usage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-Djava.awt.headless=true" })
+public class CodecBenchmark
+{
+    /** The image corpus, encoded once per trial and shared by all threads */
+    @State(Scope.Benchmark)
+    public static class Corpus
+    {
+        /** The image, see {@link ImageSpec} */
+        @Param({
+            "gray8-53-l1-layer",
+            "gray12-97-l10-res",
+            "gray16-53-l1-layer",
+            "rgb8-53-l1-layer",
+            "rgb8-97-l20-layer",
+            "rgb8-t256-97-l5-res-pos",
+            "rgb12-97-l40-comp-pos",
+            "rgb16-t256-53-l40-pos-comp" })
+        public String image;
+
+        /** The image width and height */
+        @Param({ "1024" })
+        public int size;
+
+        BufferedImage img;
+        J2KImageWriteParam writeParam;
+        byte[] data;
+
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException
+        {
+            ImageSpec spec = new ImageSpec(image);
+            img = spec.image(size);
+            writeParam = spec.writeParam();
+            data = Synthetic.encode(img, writeParam);
+        }
+    }
+
+
+    private static J2KImageReader reader(Corpus corpus)
+    {
+        J2KImageReader reader = new J2KImageReader(new J2KImageReaderSpi());
+        reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(corpus.data)));
+        return reader;
+    }
+
+
+    @Benchmark
+    public BufferedImage read(Corpus corpus) throws IOException
+    {
+        J2KImageReader reader = reader(corpus);
+        try {
+            return reader.read(0, null);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+
+    @Benchmark
+    public Raster readRaster(Corpus corpus) throws IOException
+    {
+        J2KImageReader reader = reader(corpus);
+        try {
+            return reader.readRaster(0, null);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+
+    @Benchmark
+    public BufferedImage readRegion(Corpus corpus) throws IOException
+    {
+        J2KImageReader reader = reader(corpus);
+        try {
+            J2KImageReadParam param = new J2KImageReadParam();
+            int size = corpus.size;
+            param.setSourceRegion(new Rectangle(size / 4, size / 4, size / 2, size / 2));
+            return reader.read(0, param);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+
+    @Benchmark
+    public BufferedImage readReduced(Corpus corpus) throws IOException
+    {
+        J2KImageReader reader = reader(corpus);
+        try {
+            J2KImageReadParam param = new J2KImageReadParam();
+            param.setResolution(ImageSpec.LEVELS - 2);
+            return reader.read(0, param);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+
+    /** Returns the size of the written file, in bytes. */
+    @Benchmark
+    public int write(Corpus corpus) throws IOException
+    {
+        return Synthetic.encode(corpus.img, corpus.writeParam).length;
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jj2000.j2k.image.DataBlk;
+import jj2000.j2k.image.DataBlkFloat;
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.image.input.ImgReader;
+import jj2000.j2k.image.invcomptransf.InvCompTransf;
+
+/**
+ * Benchmarks the inverse component transforms on a synthetic 256x256 RGB
+ * image, in strips of 16 lines like the tiles of <code>J2KReadState</code>
+ * are read. Scores are in nanoseconds per pixel (three samples).
+ * <p>
+ * The transform type and the decoder specifications are taken from a
+ * codestream written by <code>J2KImageWriter</code>: lossless gives the
+ * reversible RCT, lossy the irreversible ICT. The transform input is the
+ * original image, the inverse wavelet transform is not part of the
+ * measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompTransfBenchmark
+{
+    /** The image size */
+    private static final int SIZE = 256;
+
+    /** The height of the requested strips */
+    private static final int STRIP = 16;
+
+    /** The number of pixels transformed per invocation */
+    static final int PIXELS = SIZE * SIZE;
+
+    /** Whether to use the reversible RCT or the irreversible ICT */
+    @Param({ "true", "false" })
+    public boolean lossless;
+
+    private InvCompTransf ictransf;
+    private final DataBlkInt blk = new DataBlkInt();
+
+
+    @Setup
+    public void setup() throws IOException
+    {
+        BufferedImage img = Synthetic.image(SIZE, SIZE, 3, 8, "natural");
+        Synthetic.Codestream cs = new Synthetic.Codestream(
+            Synthetic.encode(img, Synthetic.writeParam(lossless, 2.0)));
+        ictransf = new InvCompTransf(new PlaneSource(img), cs.decSpec, new int[] { 8, 8, 8 });
+        ictransf.setTile(0, 0);
+        if (ictransf.isReversible() != lossless)
+            throw new IllegalStateException("Unexpected component transform " + ictransf);
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int transform()
+    {
+        int sum = 0;
+        blk.w = SIZE;
+        blk.h = STRIP;
+        blk.ulx = 0;
+        for (int y = 0; y < SIZE; y += STRIP) {
+            for (int c = 0; c < 3; c++) {
+                blk.uly = y;
+                sum += ictransf.getInternCompData(blk, c).offset;
+            }
+        }
+        return sum;
+    }
+
+
+    /**
+     * A single tile image source serving the planes of an image as
+     * <code>int</code> or <code>float</code> data, without copies from
+     * <code>getInternCompData</code>, the way the inverse wavelet transform
+     * does.
+     */
+    static final class PlaneSource extends ImgReader
+    {
+        private final int[][] intPlanes;
+        private final float[][] floatPlanes;
+
+
+        PlaneSource(BufferedImage img)
+        {
+            w = img.getWidth();
+            h = img.getHeight();
+            nc = img.getRaster().getNumBands();
+            intPlanes = new int[nc][];
+            floatPlanes = new float[nc][];
+            for (int c = 0; c < nc; c++) {
+                intPlanes[c] = img.getRaster().getSamples(0, 0, w, h, c, (int[])null);
+                floatPlanes[c] = new float[w * h];
+                for (int i = 0; i < w * h; i++)
+                    floatPlanes[c][i] = intPlanes[c][i] - 128;
+                for (int i = 0; i < w * h; i++)
+                    intPlanes[c][i] -= 128;
+            }
+        }
+
+
+        @Override
+        public void close()
+        {
+        }
+
+
+        @Override
+        public boolean isOrigSigned(int c)
+        {
+            return false;
+        }
+
+
+        @Override
+        public int getNomRangeBits(int c)
+        {
+            return 8;
+        }
+
+
+        @Override
+        public int getFixedPoint(int c)
+        {
+            return 0;
+        }
+
+
+        @Override
+        public DataBlk getInternCompData(DataBlk blk, int c)
+        {
+            if (blk.getDataType() == DataBlk.TYPE_FLOAT)
+                ((DataBlkFloat)blk).setDataFloat(floatPlanes[c]);
+            else blk.setData(intPlanes[c]);
+            blk.offset = blk.uly * w + blk.ulx;
+            blk.scanw = w;
+            blk.progressive = false;
+            return blk;
+        }
+
+
+        @Override
+        public DataBlk getCompData(DataBlk blk, int c)
+        {
+            Object plane, data = blk.getData();
+            if (blk.getDataType() == DataBlk.TYPE_FLOAT) {
+                plane = floatPlanes[c];
+                if (data == null || ((float[])data).length < blk.w * blk.h)
+                    blk.setData(data = new float[blk.w * blk.h]);
+            }
+            else {
+                plane = intPlanes[c];
+                if (data == null || ((int[])data).length < blk.w * blk.h)
+                    blk.setData(data = new int[blk.w * blk.h]);
+            }
+            for (int y = 0; y < blk.h; y++)
+                System.arraycopy(plane, (blk.uly + y) * w + blk.ulx, data, y * blk.w, blk.w);
+            blk.offset = 0;
+            blk.scanw = blk.w;
+            blk.progressive = false;
+            return blk;
+        }
+    }
+}
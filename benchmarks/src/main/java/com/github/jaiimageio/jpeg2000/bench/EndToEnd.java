@@ -0,0 +1,101 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+/**
+ * Runs {@link CodecBenchmark} once per thread count, with the
+ * {@link PeakHeapProfiler}, and writes all results to a single JMH result
+ * file, JSON by default. The JSON records the thread count, the parameters,
+ * the scores and the peak heap of every run, so that files of different
+ * versions can be compared. The summary of all runs is then printed as JMH
+ * prints the one of a single run.
+ * <p>
+ * The arguments are JMH options, e.g. <code>-p image=rgb8-53-l1-layer
+ * readRegion</code>. Without a benchmark pattern all of
+ * <code>CodecBenchmark</code> is run. The result file and its format are
+ * given by the <code>-rff</code> and <code>-rf</code> options, by default
+ * <code>codec-benchmark.json</code> in JSON. The thread counts are given by
+ * the <code>bench.threads</code> system property, comma separated, by
+ * default 1 and then doubling up to the number of processors.
+ */
+public class EndToEnd
+{
+    public static void main(String[] args)
+        throws CommandLineOptionException, RunnerException, IOException
+    {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ResultFormatType format = cmd.getResultFormat().orElse(ResultFormatType.JSON);
+        String out = cmd.getResult().orElse("codec-benchmark." + format.toString().toLowerCase());
+
+        List<RunResult> results = new ArrayList<RunResult>();
+        for (int threads : threadCounts()) {
+            // Each run writes its results to the file, which is then
+            // overwritten by the results of all runs
+            ChainedOptionsBuilder opt = new OptionsBuilder().parent(cmd)
+                .threads(threads)
+                .resultFormat(format)
+                .result(out)
+                .addProfiler(PeakHeapProfiler.class);
+            if (cmd.getIncludes().isEmpty())
+                opt.include(CodecBenchmark.class.getName());
+            Collection<RunResult> run = new Runner(opt.build()).run();
+            results.addAll(run);
+        }
+
+        PrintStream ps = new PrintStream(new FileOutputStream(out), false, "UTF-8");
+        try {
+            ResultFormatFactory.getInstance(format, ps).writeOut(results);
+        }
+        finally {
+            ps.close();
+        }
+        OutputFormat log = OutputFormatFactory.createFormatInstance(System.out,
+            cmd.verbosity().orElse(VerboseMode.NORMAL));
+        log.endRun(results);
+    }
+
+
+    private static int[] threadCounts()
+    {
+        String prop = System.getProperty("bench.threads");
+        if (prop != null) {
+            String[] s = prop.split(",");
+            int[] counts = new int[s.length];
+            for (int i = 0; i < s.length; i++)
+                counts[i] = Integer.parseInt(s[i].trim());
+            return counts;
+        }
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        int n = 1;
+        while ((1 << n) <= ncpu)
+            n++;
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++)
+            counts[i] = 1 << i;
+        if (counts[n - 1] != ncpu) {
+            int[] c = new int[n + 1];
+            System.arraycopy(counts, 0, c, 0, n);
+            c[n] = ncpu;
+            counts = c;
+        }
+        return counts;
+    }
+}
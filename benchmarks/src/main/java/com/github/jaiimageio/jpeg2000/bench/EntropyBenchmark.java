@@ -0,0 +1,226 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+import jj2000.j2k.entropy.decoder.EntropyDecoder;
+import jj2000.j2k.entropy.encoder.CBlkRateDistStats;
+import jj2000.j2k.entropy.encoder.EntropyCoder;
+import jj2000.j2k.image.DataBlk;
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.image.ImgDataAdapter;
+import jj2000.j2k.quantization.quantizer.CBlkQuantDataSrcEnc;
+import jj2000.j2k.wavelet.Subband;
+import jj2000.j2k.wavelet.analysis.CBlkWTData;
+import jj2000.j2k.wavelet.analysis.SubbandAn;
+import jj2000.j2k.wavelet.synthesis.SubbandSyn;
+
+/**
+ * Benchmarks the standard entropy coder and decoder on all the 64x64
+ * code-blocks of a synthetic 256x256 gray image. Scores are in nanoseconds
+ * per coefficient.
+ * <p>
+ * The coder is fed the quantized code-blocks produced by the encoder chain
+ * of <code>J2KImageWriter</code>, so it codes all their bit-planes. The
+ * decoder reads the codestream written by <code>J2KImageWriter</code> with
+ * the same parameters, at the full rate when <code>lossless</code> and at 2
+ * bits per pixel otherwise.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntropyBenchmark
+{
+    /** The image size */
+    private static final int SIZE = 256;
+
+    /** The number of coefficients coded per invocation */
+    static final int COEFFS = SIZE * SIZE;
+
+    /** The image content, "natural" or "noise" */
+    @Param({ "natural", "noise" })
+    public String content;
+
+    /** Whether to use the reversible 5x3 or the irreversible 9x7 path */
+    @Param({ "true", "false" })
+    public boolean lossless;
+
+    private CBlkReplay replay;
+    private EntropyCoder coder;
+    private CBlkRateDistStats stats = new CBlkRateDistStats();
+
+    private EntropyDecoder decoder;
+    private SubbandSyn[] subbands;
+    private DataBlk blk = new DataBlkInt();
+
+
+    @Setup
+    public void setup() throws IOException
+    {
+        BufferedImage img = Synthetic.image(SIZE, SIZE, 1, 8, content);
+        J2KImageWriteParam p = Synthetic.writeParam(lossless, 2.0);
+
+        J2KImageWriteParamJava wp = Synthetic.writeParamJava(img, p);
+        replay = new CBlkReplay(Synthetic.quantizer(img, wp));
+        coder = EntropyCoder.createInstance(replay, wp,
+            wp.getCodeBlockSize(),
+            wp.getPrecinctPartition(),
+            wp.getBypass(),
+            wp.getResetMQ(),
+            wp.getTerminateOnByte(),
+            wp.getCausalCXInfo(),
+            wp.getCodeSegSymbol(),
+            wp.getMethodForMQLengthCalc(),
+            wp.getMethodForMQTermination());
+
+        Synthetic.Codestream cs = new Synthetic.Codestream(Synthetic.encode(img, p));
+        decoder = cs.hd.createEntropyDecoder(cs.createReader(), cs.param);
+        decoder.setTile(0, 0);
+        List<SubbandSyn> leaves = new ArrayList<SubbandSyn>();
+        addLeaves(decoder.getSynSubbandTree(0, 0), leaves);
+        subbands = leaves.toArray(new SubbandSyn[leaves.size()]);
+
+        if (encode() != decode())
+            throw new IllegalStateException("Coder and decoder disagree on the number of code-blocks");
+    }
+
+
+    private static void addLeaves(Subband sb, List<SubbandSyn> leaves)
+    {
+        if (sb.isNode) {
+            addLeaves(sb.getLL(), leaves);
+            addLeaves(sb.getHL(), leaves);
+            addLeaves(sb.getLH(), leaves);
+            addLeaves(sb.getHH(), leaves);
+        }
+        else if (sb.w > 0 && sb.h > 0) {
+            leaves.add((SubbandSyn)sb);
+        }
+    }
+
+
+    /** Entropy codes all code-blocks, returns their number. */
+    @Benchmark
+    @OperationsPerInvocation(COEFFS)
+    public int encode()
+    {
+        int n = 0;
+        replay.rewind();
+        while (coder.getNextCodeBlock(0, stats) != null)
+            n++;
+        return n;
+    }
+
+
+    /** Entropy decodes all code-blocks, returns their number. */
+    @Benchmark
+    @OperationsPerInvocation(COEFFS)
+    public int decode()
+    {
+        int n = 0;
+        for (SubbandSyn sb : subbands) {
+            for (int m = 0; m < sb.numCb.y; m++) {
+                for (int k = 0; k < sb.numCb.x; k++) {
+                    blk = decoder.getCodeBlock(0, m, k, sb, blk);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+
+    /**
+     * Returns the quantized code-blocks of the first component and tile of
+     * a source again and again. The blocks are fetched once, the entropy
+     * coder only reads them.
+     */
+    static final class CBlkReplay extends ImgDataAdapter implements CBlkQuantDataSrcEnc
+    {
+        private final CBlkQuantDataSrcEnc src;
+        private final List<CBlkWTData> blocks = new ArrayList<CBlkWTData>();
+        private int next;
+
+
+        CBlkReplay(CBlkQuantDataSrcEnc src)
+        {
+            super(src);
+            this.src = src;
+            CBlkWTData cblk;
+            while ((cblk = src.getNextCodeBlock(0, null)) != null)
+                blocks.add(cblk);
+        }
+
+
+        void rewind()
+        {
+            next = 0;
+        }
+
+
+        @Override
+        public boolean isReversible(int t, int c)
+        {
+            return src.isReversible(t, c);
+        }
+
+
+        @Override
+        public SubbandAn getAnSubbandTree(int t, int c)
+        {
+            return src.getAnSubbandTree(t, c);
+        }
+
+
+        @Override
+        public int getCbULX()
+        {
+            return src.getCbULX();
+        }
+
+
+        @Override
+        public int getCbULY()
+        {
+            return src.getCbULY();
+        }
+
+
+        @Override
+        public CBlkWTData getNextCodeBlock(int c, CBlkWTData cblk)
+        {
+            return getNextInternCodeBlock(c, cblk);
+        }
+
+
+        @Override
+        public CBlkWTData getNextInternCodeBlock(int c, CBlkWTData cblk)
+        {
+            if (c != 0)
+                throw new IllegalArgumentException("Only component 0 is replayed");
+            return next < blocks.size() ? blocks.get(next++) : null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.image.BufferedImage;
+
+import javax.imageio.ImageWriteParam;
+
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+
+/**
+ * The description of a synthetic test image and of its encoding, parsed
+ * from a compact string so that it can be a JMH parameter:
+ *
+ * <pre>
+ * (gray|rgb)&lt;bits&gt;[-t&lt;tile size&gt;]-(53|97)[-r&lt;rate&gt;]-l&lt;layers&gt;-&lt;progression&gt;
+ * </pre>
+ *
+ * For example <code>rgb8-t256-97-l20-res-pos</code> is an 8-bit RGB image
+ * in 256x256 tiles, encoded with the irreversible 9x7 wavelet at 2 bits per
+ * pixel in 20 quality layers, with the resolution-position-component-layer
+ * progression. The 5x3 encodings are lossless, the rate of 9x7 encodings
+ * defaults to 2 bits per pixel. The progression is one of the names taken
+ * by {@link J2KImageWriteParam#setProgressionType}.
+ * <p>
+ * The number of layers is an upper bound: the rate allocator drops layers
+ * that would be too small, which happens with many layers on small or
+ * tiled images, mostly lossless ones.
+ */
+final class ImageSpec
+{
+    /** The default rate of the lossy encodings, in bits per pixel */
+    private static final double DEFAULT_RATE = 2.0;
+
+    /** The number of decomposition levels of all encodings */
+    static final int LEVELS = 5;
+
+    final String spec;
+    final int bands;
+    final int bits;
+    final int tile;
+    final boolean lossless;
+    final double rate;
+    final int layers;
+    final String progression;
+
+
+    ImageSpec(String spec)
+    {
+        this.spec = spec;
+        String[] t = spec.split("-");
+        int i = 0;
+        try {
+            if (t[i].startsWith("gray")) {
+                bands = 1;
+                bits = Integer.parseInt(t[i++].substring(4));
+            }
+            else if (t[i].startsWith("rgb")) {
+                bands = 3;
+                bits = Integer.parseInt(t[i++].substring(3));
+            }
+            else throw new IllegalArgumentException("Unknown color type");
+
+            tile = t[i].startsWith("t") ? Integer.parseInt(t[i++].substring(1)) : 0;
+
+            if ("53".equals(t[i]))
+                lossless = true;
+            else if ("97".equals(t[i]))
+                lossless = false;
+            else throw new IllegalArgumentException("Unknown wavelet " + t[i]);
+            i++;
+
+            rate = t[i].startsWith("r") ? Double.parseDouble(t[i++].substring(1)) : DEFAULT_RATE;
+
+            if (!t[i].startsWith("l"))
+                throw new IllegalArgumentException("Missing layers");
+            layers = Integer.parseInt(t[i++].substring(1));
+
+            StringBuilder prog = new StringBuilder(t[i++]);
+            while (i < t.length)
+                prog.append('-').append(t[i++]);
+            progression = prog.toString();
+        }
+        catch (RuntimeException e) {
+            IllegalArgumentException iae = new IllegalArgumentException("Bad image spec: " + spec);
+            iae.initCause(e);
+            throw iae;
+        }
+        if (bits < 1 || bits > 16 || layers < 1)
+            throw new IllegalArgumentException("Bad image spec: " + spec);
+    }
+
+
+    /** Creates the "natural" content image of this spec. */
+    BufferedImage image(int size)
+    {
+        return Synthetic.image(size, size, bands, bits, "natural");
+    }
+
+
+    /** Returns the write parameters of this spec. */
+    J2KImageWriteParam writeParam()
+    {
+        J2KImageWriteParam p = new J2KImageWriteParam();
+        p.setNumDecompositionLevels(LEVELS);
+        p.setLossless(lossless);
+        if (lossless) {
+            p.setFilter(J2KImageWriteParam.FILTER_53);
+        }
+        else {
+            p.setFilter(J2KImageWriteParam.FILTER_97);
+            p.setEncodingRate(rate);
+        }
+        // A first layer at a low rate, then log-spaced layers up to the last
+        // one, which is always added at the encoding rate
+        p.setLayers(layers == 1 ? null : layers == 2 ? "0.1" : "0.1 +" + (layers - 2));
+        p.setProgressionType(progression);
+        if (tile > 0) {
+            p.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            p.setTiling(tile, tile, 0, 0);
+        }
+        return p;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jj2000.j2k.entropy.decoder.ByteInputBuffer;
+import jj2000.j2k.entropy.decoder.MQDecoder;
+import jj2000.j2k.entropy.encoder.ByteOutputBuffer;
+import jj2000.j2k.entropy.encoder.MQCoder;
+
+/**
+ * Benchmarks the MQ arithmetic coder and decoder on synthetic symbol
+ * streams. Scores are in nanoseconds per coded symbol.
+ * <p>
+ * The stream uses the 19 contexts and initial states of the standard
+ * entropy coder. Each context has its own fixed probability for its more
+ * probable symbol, drawn around <code>skew</code>, so that the coder
+ * adapts the way it would on real code-block data: 0.5 is incompressible
+ * noise, values close to 1 model the long runs of insignificant
+ * coefficients found in the high bit-planes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MQBenchmark
+{
+    /** The number of symbols coded per invocation */
+    static final int SYMBOLS = 1 << 16;
+
+    /** The number of contexts, as in the standard entropy coder */
+    private static final int NUM_CTXTS = 19;
+
+    /** The initial context states, as in the standard entropy coder */
+    private static final int MQ_INIT[] = { 46, 3, 4, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0 };
+
+    /** The mean probability of the more probable symbol */
+    @Param({ "0.5", "0.9", "0.99" })
+    public double skew;
+
+    private int[] bits;
+    private int[] ctxts;
+
+    private ByteOutputBuffer out;
+    private MQCoder coder;
+    private byte[] coded;
+    private MQDecoder decoder;
+    private int[] decoded;
+
+
+    @Setup
+    public void setup()
+    {
+        Random rnd = new Random(0x4a32);
+        double[] p = new double[NUM_CTXTS];
+        int[] mps = new int[NUM_CTXTS];
+        for (int c = 0; c < NUM_CTXTS; c++) {
+            p[c] = Math.min(skew + (1 - skew) * (rnd.nextDouble() - 0.5), 0.999);
+            mps[c] = rnd.nextInt(2);
+        }
+
+        bits = new int[SYMBOLS];
+        ctxts = new int[SYMBOLS];
+        for (int i = 0; i < SYMBOLS; i++) {
+            // Contexts are not uniformly used, the zero coding ones dominate
+            int c = rnd.nextInt(4) == 0 ? rnd.nextInt(NUM_CTXTS) : 2 + rnd.nextInt(9);
+            ctxts[i] = c;
+            bits[i] = rnd.nextDouble() < p[c] ? mps[c] : 1 - mps[c];
+        }
+
+        out = new ByteOutputBuffer();
+        coder = new MQCoder(out, NUM_CTXTS, MQ_INIT);
+        coded = encode();
+        decoder = new MQDecoder(new ByteInputBuffer(coded), NUM_CTXTS, MQ_INIT);
+        decoded = new int[SYMBOLS];
+        decodeSymbol();
+        for (int i = 0; i < SYMBOLS; i++) {
+            if (decoded[i] != bits[i])
+                throw new IllegalStateException("MQ round trip failed at symbol " + i);
+        }
+    }
+
+
+    private byte[] encode()
+    {
+        coder.reset();
+        for (int i = 0; i < SYMBOLS; i++)
+            coder.codeSymbol(bits[i], ctxts[i]);
+        int n = coder.terminate();
+        byte[] buf = new byte[n];
+        out.toByteArray(0, n, buf, 0);
+        return buf;
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS)
+    public int encodeSymbol()
+    {
+        coder.reset();
+        for (int i = 0; i < SYMBOLS; i++)
+            coder.codeSymbol(bits[i], ctxts[i]);
+        return coder.terminate();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS)
+    public int encodeSymbols()
+    {
+        coder.reset();
+        coder.codeSymbols(bits, ctxts, SYMBOLS);
+        return coder.terminate();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS)
+    public int[] decodeSymbol()
+    {
+        decoder.nextSegment(coded, 0, coded.length);
+        decoder.resetCtxts();
+        for (int i = 0; i < SYMBOLS; i++)
+            decoded[i] = decoder.decodeSymbol(ctxts[i]);
+        return decoded;
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS)
+    public int[] decodeSymbols()
+    {
+        decoder.nextSegment(coded, 0, coded.length);
+        decoder.resetCtxts();
+        decoder.decodeSymbols(decoded, ctxts, SYMBOLS);
+        return decoded;
+    }
+}
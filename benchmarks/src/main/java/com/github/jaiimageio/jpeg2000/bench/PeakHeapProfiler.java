@@ -0,0 +1,60 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports the peak heap usage of every iteration, in MiB, as the secondary
+ * result <code>peak.heap</code>. Enable it with
+ * <code>-prof com.github.jaiimageio.jpeg2000.bench.PeakHeapProfiler</code>.
+ * <p>
+ * The value is the sum of the peak usages of the heap memory pools, as
+ * recorded by the JVM since the start of the iteration. It includes garbage
+ * that was not collected yet, so it is an upper bound of the live data of
+ * the benchmark, and it depends on the heap size and the collector: compare
+ * runs with the same JVM options only.
+ */
+public class PeakHeapProfiler implements InternalProfiler
+{
+    @Override
+    public String getDescription()
+    {
+        return "Peak heap usage per iteration";
+    }
+
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams)
+    {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+        IterationParams iterationParams, IterationResult result)
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return Collections.singletonList(
+            new ScalarResult("peak.heap", peak / (1024.0 * 1024.0), "MiB", AggregationPolicy.MAX));
+    }
+}
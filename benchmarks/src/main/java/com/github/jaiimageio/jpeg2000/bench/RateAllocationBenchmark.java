@@ -0,0 +1,253 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+import jj2000.j2k.codestream.writer.FileCodestreamWriter;
+import jj2000.j2k.codestream.writer.HeaderEncoder;
+import jj2000.j2k.entropy.encoder.CBlkRateDistStats;
+import jj2000.j2k.entropy.encoder.CodedCBlkDataSrcEnc;
+import jj2000.j2k.entropy.encoder.EntropyCoder;
+import jj2000.j2k.entropy.encoder.PostCompRateAllocator;
+import jj2000.j2k.image.ImgDataAdapter;
+import jj2000.j2k.wavelet.analysis.SubbandAn;
+
+/**
+ * Benchmarks the post-compression rate allocation of a synthetic 1024x1024
+ * RGB image, encoded with the irreversible 9x7 wavelet at 2 bits per pixel
+ * in 10, 20 or 40 layers. Scores are in milliseconds per image.
+ * <p>
+ * The code-blocks are entropy coded once, the rate allocator is fed their
+ * coded data again at every invocation. An invocation covers the work of
+ * <code>J2KImageWriter</code> from the main header on: the collection of
+ * the code-blocks, the search of the layer thresholds and the writing of
+ * the packets, to a stream that discards them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-Djava.awt.headless=true" })
+@State(Scope.Thread)
+public class RateAllocationBenchmark
+{
+    /** The image width and height */
+    private static final int SIZE = 1024;
+
+    /** The number of quality layers */
+    @Param({ "10", "20", "40" })
+    public int layers;
+
+    /** The tile size, 0 for a single tile */
+    @Param({ "0", "256" })
+    public int tile;
+
+    private J2KImageWriteParamJava wp;
+    private Synthetic.EncoderChain chain;
+    private boolean[] signed;
+    private CodedCBlkReplay replay;
+
+
+    @Setup
+    public void setup()
+    {
+        ImageSpec spec = new ImageSpec("rgb8-" + (tile > 0 ? "t" + tile + "-" : "") +
+            "97-l" + layers + "-layer");
+        BufferedImage img = spec.image(SIZE);
+        wp = Synthetic.writeParamJava(img, spec.writeParam());
+        chain = new Synthetic.EncoderChain(img, wp);
+        signed = chain.isOrigSigned();
+        EntropyCoder coder = EntropyCoder.createInstance(chain.rois, wp,
+            wp.getCodeBlockSize(),
+            wp.getPrecinctPartition(),
+            wp.getBypass(),
+            wp.getResetMQ(),
+            wp.getTerminateOnByte(),
+            wp.getCausalCXInfo(),
+            wp.getCodeSegSymbol(),
+            wp.getMethodForMQLengthCalc(),
+            wp.getMethodForMQTermination());
+        replay = new CodedCBlkReplay(coder);
+    }
+
+
+    /** Allocates the layers and writes the packets, returns their length. */
+    @Benchmark
+    public int allocate() throws IOException
+    {
+        FileCodestreamWriter out = new FileCodestreamWriter(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+            }
+        }, Integer.MAX_VALUE);
+        PostCompRateAllocator ralloc = PostCompRateAllocator.createInstance(replay,
+            (float)wp.getEncodingRate(), out, wp);
+        HeaderEncoder headenc = new HeaderEncoder(chain.imgsrc, signed, chain.dwt,
+            chain.tiler, wp, chain.rois, ralloc);
+        ralloc.setHeaderEncoder(headenc);
+        headenc.encodeMainHeader();
+        ralloc.initialize();
+        headenc.reset();
+        headenc.encodeMainHeader();
+        out.commitBitstreamHeader(headenc);
+        ralloc.runAndWrite();
+        out.close();
+        return out.getLength();
+    }
+
+
+    /**
+     * Returns the coded code-blocks of all the tiles and components of a
+     * source again and again. The blocks are coded once, the rate allocator
+     * copies them.
+     */
+    static final class CodedCBlkReplay extends ImgDataAdapter implements CodedCBlkDataSrcEnc
+    {
+        private final CodedCBlkDataSrcEnc src;
+        private final List<List<List<CBlkRateDistStats>>> blocks =
+            new ArrayList<List<List<CBlkRateDistStats>>>();
+        private final int[] next;
+
+
+        CodedCBlkReplay(CodedCBlkDataSrcEnc src)
+        {
+            super(src);
+            this.src = src;
+            next = new int[src.getNumComps()];
+            int nt = src.getNumTiles();
+            src.setTile(0, 0);
+            for (int t = 0; t < nt; t++) {
+                if (t > 0)
+                    src.nextTile();
+                List<List<CBlkRateDistStats>> comps = new ArrayList<List<CBlkRateDistStats>>();
+                // The quantizer computes the distortion weights of the
+                // subbands when their tree is first requested, which the
+                // rate allocator does before any code-block is coded
+                for (int c = 0; c < next.length; c++)
+                    src.getAnSubbandTree(t, c);
+                for (int c = 0; c < next.length; c++) {
+                    List<CBlkRateDistStats> cblks = new ArrayList<CBlkRateDistStats>();
+                    CBlkRateDistStats ccb;
+                    while ((ccb = src.getNextCodeBlock(c, null)) != null)
+                        cblks.add(ccb);
+                    comps.add(cblks);
+                }
+                blocks.add(comps);
+            }
+        }
+
+
+        @Override
+        public void setTile(int x, int y)
+        {
+            super.setTile(x, y);
+            Arrays.fill(next, 0);
+        }
+
+
+        @Override
+        public void nextTile()
+        {
+            super.nextTile();
+            Arrays.fill(next, 0);
+        }
+
+
+        @Override
+        public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb)
+        {
+            List<CBlkRateDistStats> cblks = blocks.get(getTileIdx()).get(c);
+            return next[c] < cblks.size() ? cblks.get(next[c]++) : null;
+        }
+
+
+        @Override
+        public boolean isReversible(int t, int c)
+        {
+            return src.isReversible(t, c);
+        }
+
+
+        @Override
+        public SubbandAn getAnSubbandTree(int t, int c)
+        {
+            return src.getAnSubbandTree(t, c);
+        }
+
+
+        @Override
+        public int getCbULX()
+        {
+            return src.getCbULX();
+        }
+
+
+        @Override
+        public int getCbULY()
+        {
+            return src.getCbULY();
+        }
+
+
+        @Override
+        public int getPPX(int t, int c, int r)
+        {
+            return src.getPPX(t, c, r);
+        }
+
+
+        @Override
+        public int getPPY(int t, int c, int r)
+        {
+            return src.getPPY(t, c, r);
+        }
+
+
+        @Override
+        public boolean precinctPartitionUsed(int c, int t)
+        {
+            return src.precinctPartitionUsed(c, t);
+        }
+
+
+        @Override
+        public void setRDStatsEnabled(boolean enabled)
+        {
+            // The blocks are already coded with their statistics
+        }
+
+
+        @Override
+        public void setMinPassSlope(float slope)
+        {
+            // The blocks are already coded with all their passes
+        }
+    }
+}
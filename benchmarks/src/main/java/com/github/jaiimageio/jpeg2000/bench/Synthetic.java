@@ -0,0 +1,274 @@
+package com.github.jaiimageio.jpeg2000.bench;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.impl.IISRandomAccessIO;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriter;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriterSpi;
+import com.github.jaiimageio.jpeg2000.impl.RenderedImageSrc;
+
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.fileformat.reader.FileFormatReader;
+import jj2000.j2k.image.ImgDataConverter;
+import jj2000.j2k.image.Tiler;
+import jj2000.j2k.image.forwcomptransf.ForwCompTransf;
+import jj2000.j2k.io.RandomAccessIO;
+import jj2000.j2k.quantization.quantizer.Quantizer;
+import jj2000.j2k.roi.encoder.ROIScaler;
+import jj2000.j2k.wavelet.analysis.ForwardWT;
+
+/**
+ * Synthetic benchmark input: images, codestreams and the codec chains built
+ * on them.
+ * <p>
+ * The <code>natural</code> content is a smooth field of overlapping waves
+ * with a few hard edges and a little sensor noise, which compresses roughly
+ * like a photograph. The <code>noise</code> content is uniformly random and
+ * is the worst case for every stage of the codec.
+ */
+final class Synthetic
+{
+    private Synthetic()
+    {
+    }
+
+
+    /**
+     * Creates a synthetic image.
+     *
+     * @param w The image width.
+     *
+     * @param h The image height.
+     *
+     * @param bands The number of bands, 1 (gray) or 3 (RGB).
+     *
+     * @param bits The bit depth, up to 16. Deeper than 8 bits uses a
+     * <code>ushort</code> raster.
+     *
+     * @param content "natural" or "noise".
+     */
+    static BufferedImage image(int w, int h, int bands, int bits, String content)
+    {
+        ColorSpace cs = ColorSpace.getInstance(bands == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        int[] nbits = new int[bands];
+        for (int b = 0; b < bands; b++)
+            nbits[b] = bits;
+        ComponentColorModel cm = new ComponentColorModel(cs, nbits, false, false, Transparency.OPAQUE,
+            bits <= 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT);
+        WritableRaster raster = cm.createCompatibleWritableRaster(w, h);
+
+        boolean noise = "noise".equals(content);
+        if (!noise && !"natural".equals(content))
+            throw new IllegalArgumentException("content: " + content);
+
+        int max = (1 << bits) - 1;
+        Random rnd = new Random(0x4a32 + w * 31 + h);
+        int[] line = new int[w];
+        for (int b = 0; b < bands; b++) {
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int v;
+                    if (noise) {
+                        v = rnd.nextInt(max + 1);
+                    }
+                    else {
+                        double d = natural(x, y, b) + rnd.nextGaussian() * 0.01;
+                        v = (int)Math.round(d * max);
+                    }
+                    line[x] = v < 0 ? 0 : v > max ? max : v;
+                }
+                raster.setSamples(0, y, w, 1, b, line);
+            }
+        }
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+
+    /**
+     * Returns the "natural" content of band 'b' at (x, y) in [0, 1]. The
+     * bands are strongly correlated, like the colors of a photograph.
+     */
+    private static double natural(int x, int y, int b)
+    {
+        double v = 0.5 +
+            0.20 * Math.sin(x / 23.0 + b * 0.3) * Math.cos(y / 31.0) +
+            0.10 * Math.sin((x + 2 * y) / 7.0) +
+            0.05 * Math.cos((3 * x - y) / 3.1 + b);
+        // A few flat rectangles with hard edges
+        if (((x >> 6) + (y >> 6)) % 3 == 0 && (x & 63) > 12 && (y & 63) > 20)
+            v = 0.15 + 0.2 * b;
+        return v;
+    }
+
+
+    /**
+     * Returns 'n' samples of a single band "natural" image, 256 samples
+     * wide, with 'bits' bits per sample.
+     */
+    static int[] samples(int n, int bits)
+    {
+        BufferedImage img = image(256, (n + 255) / 256, 1, bits, "natural");
+        int[] s = img.getRaster().getSamples(0, 0, 256, (n + 255) / 256, 0, (int[])null);
+        int[] out = new int[n];
+        System.arraycopy(s, 0, out, 0, n);
+        return out;
+    }
+
+
+    /**
+     * Returns the write parameters for a reversible 5x3 or an irreversible
+     * 9x7 encoding with 64x64 code-blocks.
+     *
+     * @param lossless Whether to encode losslessly.
+     *
+     * @param rate The bits per pixel of the lossy encoding.
+     */
+    static J2KImageWriteParam writeParam(boolean lossless, double rate)
+    {
+        J2KImageWriteParam p = new J2KImageWriteParam();
+        p.setLossless(lossless);
+        if (lossless) {
+            p.setFilter(J2KImageWriteParam.FILTER_53);
+        }
+        else {
+            p.setFilter(J2KImageWriteParam.FILTER_97);
+            p.setEncodingRate(rate);
+        }
+        p.setCodeBlockSize(new int[] { 64, 64 });
+        return p;
+    }
+
+
+    /**
+     * Encodes an image to a JP2 file in memory.
+     */
+    static byte[] encode(BufferedImage img, J2KImageWriteParam p) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        J2KImageWriter writer = new J2KImageWriter(new J2KImageWriterSpi());
+        ImageOutputStream ios = new MemoryCacheImageOutputStream(bos);
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(img, null, null), p);
+        writer.dispose();
+        ios.close();
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Returns the internal write parameters for 'img', completed the way
+     * <code>J2KImageWriter</code> does it.
+     */
+    static J2KImageWriteParamJava writeParamJava(BufferedImage img, J2KImageWriteParam p)
+    {
+        J2KImageWriteParamJava wp = new J2KImageWriteParamJava(new IIOImage(img, null, null), p);
+        if (wp.getEncodingRate() == Double.MAX_VALUE) {
+            wp.setLossless(true);
+            wp.setQuantizationType("reversible");
+            wp.setFilters(J2KImageWriteParam.FILTER_53);
+        }
+        return wp;
+    }
+
+
+    /**
+     * Builds the encoder chain of <code>J2KImageWriter</code> for 'img' up
+     * to the quantized (and ROI scaled) code-blocks of the first tile.
+     */
+    static ROIScaler quantizer(BufferedImage img, J2KImageWriteParamJava wp)
+    {
+        ROIScaler rois = new EncoderChain(img, wp).rois;
+        rois.setTile(0, 0);
+        return rois;
+    }
+
+
+    /**
+     * The encoder chain of <code>J2KImageWriter</code> for an image, up to
+     * the quantized (and ROI scaled) code-blocks. The stages the header
+     * encoder needs are kept.
+     */
+    static final class EncoderChain
+    {
+        final RenderedImageSrc imgsrc;
+        final Tiler tiler;
+        final ForwardWT dwt;
+        final ROIScaler rois;
+
+
+        EncoderChain(BufferedImage img, J2KImageWriteParamJava wp)
+        {
+            imgsrc = new RenderedImageSrc(img, wp, new J2KImageWriter(null));
+            tiler = new Tiler(imgsrc, wp.getMinX(), wp.getMinY(),
+                wp.getTileGridXOffset(), wp.getTileGridYOffset(),
+                wp.getTileWidth(), wp.getTileHeight());
+            ForwCompTransf fctransf = new ForwCompTransf(tiler, wp);
+            ImgDataConverter converter = new ImgDataConverter(fctransf);
+            dwt = ForwardWT.createInstance(converter, wp);
+            Quantizer quant = Quantizer.createInstance(dwt, wp);
+            rois = ROIScaler.createInstance(quant, wp);
+        }
+
+
+        /** Returns whether each component of the source is signed. */
+        boolean[] isOrigSigned()
+        {
+            boolean[] signed = new boolean[imgsrc.getNumComps()];
+            for (int c = 0; c < signed.length; c++)
+                signed[c] = imgsrc.isOrigSigned(c);
+            return signed;
+        }
+    }
+
+
+    /**
+     * A parsed codestream, from which decoder chains are built the way
+     * <code>J2KReadState</code> does it.
+     */
+    static final class Codestream
+    {
+        final J2KImageReadParamJava param = new J2KImageReadParamJava();
+        final RandomAccessIO in;
+        final HeaderInfo hi = new HeaderInfo();
+        final HeaderDecoder hd;
+        final DecoderSpecs decSpec;
+
+
+        Codestream(byte[] data) throws IOException
+        {
+            in = new IISRandomAccessIO(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+            FileFormatReader ff = new FileFormatReader(in, null);
+            ff.readFileFormat();
+            in.seek(ff.getFirstCodeStreamPos());
+            hd = new HeaderDecoder(in, param, hi);
+            decSpec = hd.getDecoderSpecs();
+        }
+
+
+        /** Creates the bitstream reader, no tile is selected yet. */
+        BitstreamReaderAgent createReader() throws IOException
+        {
+            return BitstreamReaderAgent.createInstance(in, hd, param, decSpec, false, hi);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.jaiimageio.jpeg2000;
+
+import java.util.EventListener;
+
+/**
+ * A listener receiving the statistics of the decoding stages of a JPEG 2000
+ * image, see {@link J2KDecodeStats}. It is attached to a read with
+ * {@link J2KImageReadParam#setDecodeListener}. The statistics are only
+ * collected when a listener is set.
+ *
+ * <p>
+ * The methods are called by the thread decoding the image, and the
+ * statistics passed to them are accumulated since the start of the read.
+ * When the image is read as a <code>RenderedImage</code>, only
+ * <code>tileDecoded</code> is called, as the tiles are requested.
+ */
+public interface J2KDecodeListener extends EventListener
+{
+    /**
+     * Reports that a tile has been decoded.
+     *
+     * @param stats the statistics of the read so far.
+     * @param tileIdx the index of the tile in the codestream.
+     */
+    void tileDecoded(J2KDecodeStats stats, int tileIdx);
+
+
+    /**
+     * Reports that the image has been decoded.
+     *
+     * @param stats the statistics of the whole read.
+     */
+    void imageDecoded(J2KDecodeStats stats);
+}
@@ -0,0 +1,178 @@
+package com.github.jaiimageio.jpeg2000;
+
+import jj2000.j2k.util.StageStats;
+
+/**
+ * The statistics of a JPEG 2000 decoding, reported to a
+ * {@link J2KDecodeListener}.
+ *
+ * <p>
+ * The time of each stage of the decoder is the time spent in it exclusive
+ * of the stages it pulled its data from, so that the times of all stages
+ * add up to the total decoding time, in nanoseconds. The stages are:
+ *
+ * <table border=1>
+ * <caption><b>JPEG 2000 Decoding Stages</b></caption>
+ * <tr>
+ * <th>Stage</th>
+ * <th>Description</th>
+ * </tr>
+ * <tr>
+ * <td>{@link #FILE_FORMAT}</td>
+ * <td>Parsing of the JP2 file format boxes.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #HEADERS}</td>
+ * <td>Parsing of the main header and of the tile-part headers.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #PACKETS}</td>
+ * <td>Parsing of the packet headers and reading of the code-block data.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #ENTROPY}</td>
+ * <td>Entropy decoding of the code-blocks.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #DEQUANTIZATION}</td>
+ * <td>ROI de-scaling and dequantization of the code-blocks.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #IDWT}</td>
+ * <td>Inverse wavelet transform.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #COMPONENT_TRANSFORM}</td>
+ * <td>Inverse component transform.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #CONVERSION}</td>
+ * <td>Conversion of the decoded samples to integers and their storage in
+ * the destination raster.</td>
+ * </tr>
+ * </table>
+ *
+ * <p>
+ * The counters are the number of bytes read from the input stream
+ * ({@link #BYTES_READ}), the number of tiles ({@link #TILES}), code-blocks
+ * ({@link #CODE_BLOCKS}) and coding passes ({@link #PASSES}) decoded, the
+ * number of bytes allocated on the heap by the decoding threads
+ * ({@link #ALLOCATED_BYTES}), which is -1 if the JVM cannot report it, and
+ * the number of packet heads parsed ({@link #PACKET_HEADS}).
+ *
+ * <p>
+ * The values are accumulated over the whole decoding, from the parsing of
+ * the headers on. An instance is updated by the decoder while it runs, and
+ * is only consistent within the calls of the listener.
+ */
+public class J2KDecodeStats extends StageStats
+{
+    /** The stage of the file format parsing. */
+    public static final int FILE_FORMAT = 0;
+
+    /** The stage of the main and tile-part header parsing. */
+    public static final int HEADERS = 1;
+
+    /** The stage of the packet parsing. */
+    public static final int PACKETS = 2;
+
+    /** The stage of the entropy decoding. */
+    public static final int ENTROPY = 3;
+
+    /** The stage of the ROI de-scaling and dequantization. */
+    public static final int DEQUANTIZATION = 4;
+
+    /** The stage of the inverse wavelet transform. */
+    public static final int IDWT = 5;
+
+    /** The stage of the inverse component transform. */
+    public static final int COMPONENT_TRANSFORM = 6;
+
+    /** The stage of the sample conversion. */
+    public static final int CONVERSION = 7;
+
+    /** The counter of the bytes read from the input stream. */
+    public static final int BYTES_READ = 0;
+
+    /** The counter of the decoded tiles. */
+    public static final int TILES = 1;
+
+    /** The counter of the decoded code-blocks. */
+    public static final int CODE_BLOCKS = 2;
+
+    /** The counter of the decoded coding passes. */
+    public static final int PASSES = 3;
+
+    /** The counter of the bytes allocated on the heap. */
+    public static final int ALLOCATED_BYTES = 4;
+
+    /** The counter of the parsed packet heads. */
+    public static final int PACKET_HEADS = 5;
+
+    private static final String[] STAGE_NAMES = {
+        "fileFormat", "headers", "packets", "entropy", "dequantization",
+        "idwt", "componentTransform", "conversion" };
+
+    private static final String[] COUNTER_NAMES = {
+        "bytesRead", "tiles", "codeBlocks", "passes", "allocatedBytes",
+        "packetHeads" };
+
+
+    /** Constructs an instance with all times and counters set to 0. */
+    public J2KDecodeStats()
+    {
+        super(STAGE_NAMES, COUNTER_NAMES);
+        if (getThreadAllocatedBytes() < 0)
+            add(ALLOCATED_BYTES, -1);
+    }
+
+
+    /** Gets the number of bytes read from the input stream. */
+    public long getBytesRead()
+    {
+        return getCount(BYTES_READ);
+    }
+
+
+    /** Gets the number of decoded tiles. */
+    public long getTiles()
+    {
+        return getCount(TILES);
+    }
+
+
+    /** Gets the number of decoded code-blocks. */
+    public long getCodeBlocks()
+    {
+        return getCount(CODE_BLOCKS);
+    }
+
+
+    /** Gets the number of decoded coding passes. */
+    public long getPasses()
+    {
+        return getCount(PASSES);
+    }
+
+
+    /**
+     * Gets the number of bytes allocated on the heap while decoding, or -1
+     * if the JVM cannot report it.
+     */
+    public long getAllocatedBytes()
+    {
+        return getCount(ALLOCATED_BYTES);
+    }
+
+
+    /**
+     * Gets the number of packet heads parsed while decoding. The packets of
+     * the tiles restored from an index, see
+     * {@link J2KImageReadParam#setIndexStore}, are not parsed, and the
+     * parsing done to build the index is not counted.
+     */
+    public long getPacketHeads()
+    {
+        return getCount(PACKET_HEADS);
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.jaiimageio.jpeg2000;
+
+import java.util.EventListener;
+
+/**
+ * A listener receiving the statistics of the encoding stages of a JPEG 2000
+ * image, see {@link J2KEncodeStats}. It is attached to a write with
+ * {@link J2KImageWriteParam#setEncodeListener}. The statistics are only
+ * collected when a listener is set.
+ *
+ * <p>
+ * The listener is called by the thread writing the image, once the image
+ * has been written.
+ */
+public interface J2KEncodeListener extends EventListener
+{
+    /**
+     * Reports that the image has been written.
+     *
+     * @param stats the statistics of the whole write.
+     */
+    void imageEncoded(J2KEncodeStats stats);
+}
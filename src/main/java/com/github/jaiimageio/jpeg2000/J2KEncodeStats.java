@@ -0,0 +1,251 @@
+package com.github.jaiimageio.jpeg2000;
+
+import jj2000.j2k.util.StageStats;
+
+/**
+ * The statistics of a JPEG 2000 encoding, reported to a
+ * {@link J2KEncodeListener}.
+ *
+ * <p>
+ * The time of each stage of the encoder is the time spent in it by the
+ * writing thread, exclusive of the stages it pulled its data from, so that
+ * the times of all stages add up to the total encoding time, in
+ * nanoseconds. The stages are:
+ *
+ * <table border=1>
+ * <caption><b>JPEG 2000 Encoding Stages</b></caption>
+ * <tr>
+ * <th>Stage</th>
+ * <th>Description</th>
+ * </tr>
+ * <tr>
+ * <td>{@link #SOURCE}</td>
+ * <td>Extraction of the samples from the source image or raster, including
+ * its rendering.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #COMPONENT_TRANSFORM}</td>
+ * <td>Forward component transform.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #FWT}</td>
+ * <td>Forward wavelet transform, including the conversion of the samples
+ * to the data type of the transform.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #QUANTIZATION}</td>
+ * <td>Quantization of the code-blocks.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #ROI_SCALING}</td>
+ * <td>Region of interest scaling of the code-blocks.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #ENTROPY}</td>
+ * <td>Entropy coding of the code-blocks. When the entropy coder uses
+ * threads, this is the time spent waiting for them, and the time spent by
+ * each of them is reported as a worker time.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #RATE_ALLOCATION}</td>
+ * <td>Storage of the coded code-blocks and optimization of the layers,
+ * including the simulation of their packets.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #CODESTREAM}</td>
+ * <td>Encoding of the headers and packets and writing of the
+ * codestream.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #CODESTREAM_MANIPULATION}</td>
+ * <td>Rewriting of the codestream into tile-parts and packed packet
+ * headers, and writing of the TLM and PLT marker segments, if
+ * requested.</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #FILE_FORMAT}</td>
+ * <td>Creation of the metadata and writing of the JP2 file format boxes
+ * and of the codestream to the output stream.</td>
+ * </tr>
+ * </table>
+ *
+ * <p>
+ * The counters are the number of tiles ({@link #TILES}), code-blocks
+ * ({@link #CODE_BLOCKS}) and coding passes ({@link #PASSES}) coded, the
+ * number of bytes written to the output stream ({@link #BYTES_WRITTEN}),
+ * the peak number of bytes retained for the coded code-blocks until the
+ * codestream is written ({@link #CODE_BLOCK_DATA}), the peak number of bytes
+ * used on the heap, as sampled after each tile and stage
+ * ({@link #HEAP_USED}), and the number of bytes allocated on the heap by the
+ * writing thread ({@link #ALLOCATED_BYTES}), which is -1 if the JVM cannot
+ * report it, and the number of quality layers whose rate-distortion
+ * threshold was optimized ({@link #OPTIMIZED_LAYERS}).
+ *
+ * <p>
+ * The values are accumulated over the whole encoding. An instance is
+ * updated by the encoder while it runs, and is only consistent within the
+ * call of the listener.
+ */
+public class J2KEncodeStats extends StageStats
+{
+    /** The stage of the sample extraction from the source. */
+    public static final int SOURCE = 0;
+
+    /** The stage of the forward component transform. */
+    public static final int COMPONENT_TRANSFORM = 1;
+
+    /** The stage of the forward wavelet transform. */
+    public static final int FWT = 2;
+
+    /** The stage of the quantization. */
+    public static final int QUANTIZATION = 3;
+
+    /** The stage of the ROI scaling. */
+    public static final int ROI_SCALING = 4;
+
+    /** The stage of the entropy coding. */
+    public static final int ENTROPY = 5;
+
+    /** The stage of the rate allocation. */
+    public static final int RATE_ALLOCATION = 6;
+
+    /** The stage of the codestream writing. */
+    public static final int CODESTREAM = 7;
+
+    /** The stage of the codestream manipulation. */
+    public static final int CODESTREAM_MANIPULATION = 8;
+
+    /** The stage of the file format writing. */
+    public static final int FILE_FORMAT = 9;
+
+    /** The counter of the coded tiles. */
+    public static final int TILES = 0;
+
+    /** The counter of the coded code-blocks. */
+    public static final int CODE_BLOCKS = 1;
+
+    /** The counter of the coded coding passes. */
+    public static final int PASSES = 2;
+
+    /** The counter of the bytes written to the output stream. */
+    public static final int BYTES_WRITTEN = 3;
+
+    /** The high-water mark of the bytes retained for coded code-blocks. */
+    public static final int CODE_BLOCK_DATA = 4;
+
+    /** The high-water mark of the bytes used on the heap. */
+    public static final int HEAP_USED = 5;
+
+    /** The counter of the bytes allocated on the heap. */
+    public static final int ALLOCATED_BYTES = 6;
+
+    /** The counter of the quality layers optimized by the rate allocator. */
+    public static final int OPTIMIZED_LAYERS = 7;
+
+    private static final String[] STAGE_NAMES = {
+        "source", "componentTransform", "fwt", "quantization", "roiScaling",
+        "entropy", "rateAllocation", "codestream", "codestreamManipulation",
+        "fileFormat" };
+
+    private static final String[] COUNTER_NAMES = {
+        "tiles", "codeBlocks", "passes", "bytesWritten", "codeBlockData",
+        "heapUsed", "allocatedBytes", "optimizedLayers" };
+
+
+    /** Constructs an instance with all times and counters set to 0. */
+    public J2KEncodeStats()
+    {
+        super(STAGE_NAMES, COUNTER_NAMES);
+        if (getThreadAllocatedBytes() < 0)
+            add(ALLOCATED_BYTES, -1);
+    }
+
+
+    /** Gets the number of coded tiles. */
+    public long getTiles()
+    {
+        return getCount(TILES);
+    }
+
+
+    /** Gets the number of coded code-blocks. */
+    public long getCodeBlocks()
+    {
+        return getCount(CODE_BLOCKS);
+    }
+
+
+    /** Gets the number of coded coding passes. */
+    public long getPasses()
+    {
+        return getCount(PASSES);
+    }
+
+
+    /** Gets the number of bytes written to the output stream. */
+    public long getBytesWritten()
+    {
+        return getCount(BYTES_WRITTEN);
+    }
+
+
+    /**
+     * Gets the peak number of bytes retained for the coded code-blocks,
+     * their data and rate-distortion statistics.
+     */
+    public long getCodeBlockData()
+    {
+        return getCount(CODE_BLOCK_DATA);
+    }
+
+
+    /** Gets the peak number of bytes used on the heap, as sampled. */
+    public long getHeapUsed()
+    {
+        return getCount(HEAP_USED);
+    }
+
+
+    /**
+     * Gets the number of bytes allocated on the heap by the writing thread,
+     * or -1 if the JVM cannot report it. The allocations of the entropy
+     * coder threads are not included.
+     */
+    public long getAllocatedBytes()
+    {
+        return getCount(ALLOCATED_BYTES);
+    }
+
+
+    /**
+     * Gets the number of quality layers whose rate-distortion threshold was
+     * optimized. It is 0 when a single lossless layer with all the coding
+     * passes is written, which does not need any optimization.
+     */
+    public long getOptimizedLayers()
+    {
+        return getCount(OPTIMIZED_LAYERS);
+    }
+
+
+    /**
+     * Gets the number of entropy coder threads, or 0 if the entropy coding
+     * was done by the writing thread.
+     */
+    public int getNumEntropyThreads()
+    {
+        return getNumWorkers();
+    }
+
+
+    /**
+     * Gets the time spent coding code-blocks by an entropy coder thread.
+     *
+     * @param thread the index of the thread.
+     * @return the time in nanoseconds.
+     */
+    public long getEntropyThreadTime(int thread)
+    {
+        return getWorkerTime(thread);
+    }
+}
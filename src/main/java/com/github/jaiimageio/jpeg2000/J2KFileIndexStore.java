@@ -0,0 +1,69 @@
+package com.github.jaiimageio.jpeg2000;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link J2KIndexStore} keeping the index of an image in a file, by
+ * default next to the image file, with the same name followed by
+ * <code>.j2i</code>.
+ */
+public class J2KFileIndexStore implements J2KIndexStore
+{
+    /** The extension appended to the name of an image file. */
+    public static final String EXTENSION = ".j2i";
+
+    private final File file;
+
+
+    /**
+     * Constructs a store keeping the index in the given file.
+     *
+     * @param file the file of the index.
+     */
+    public J2KFileIndexStore(File file)
+    {
+        if (file == null) {
+            throw new IllegalArgumentException("file == null!");
+        }
+        this.file = file;
+    }
+
+
+    /**
+     * Constructs a store keeping the index of an image file next to it.
+     *
+     * @param image the image file.
+     * @return the store of the index of the image.
+     */
+    public static J2KFileIndexStore forImage(File image)
+    {
+        if (image == null) {
+            throw new IllegalArgumentException("image == null!");
+        }
+        return new J2KFileIndexStore(new File(image.getPath() + EXTENSION));
+    }
+
+
+    /** Gets the file of the index. */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    public InputStream openIndex() throws IOException
+    {
+        return file.isFile() ? new FileInputStream(file) : null;
+    }
+
+
+    public OutputStream createIndex() throws IOException
+    {
+        return new FileOutputStream(file);
+    }
+}
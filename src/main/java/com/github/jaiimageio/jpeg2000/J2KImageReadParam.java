@@ -81,6 +81,49 @@ import javax.imageio.ImageReadParam;
  * The default value, -1, means to use the resolution level at encoding.
  * </td>
  * </tr>
+ * <tr>
+ * <td>qualityLayers</td>
+ * <td>Specifies the number of quality layers to decode, starting with the
+ * first one. The code-block data of the following layers is neither read
+ * nor entropy decoded. When the layers are the outermost level of the
+ * progression order, the packets of the following layers are not even
+ * parsed. Unlike <code>decodingRate</code>, this cuts all code-blocks at
+ * the same layer boundary chosen by the encoder. The default value, -1,
+ * means to decode all the layers.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>tilePartChunkSize</td>
+ * <td>Specifies the maximum number of bytes of a tile-part that are read
+ * from the stream with one read operation. The packets of the tile being
+ * decoded are read in chunks of this size and served from memory, so that
+ * packet headers and code-block data do not each cause a seek and a small
+ * read on the stream. A tile-part that is not longer is read in one piece.
+ * At most 32 chunks are held in memory, the least recently used ones being
+ * read again when needed. A value of 0 disables the buffering. The default
+ * is 1 MB.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>decodeListener</td>
+ * <td>Specifies a <code>J2KDecodeListener</code> receiving the time spent
+ * in each stage of the decoder, the number of bytes read, of code-blocks
+ * and of coding passes decoded, and the amount of memory allocated. The
+ * statistics are only collected when a listener is set. The default is
+ * <code>null</code>.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>indexStore</td>
+ * <td>Specifies a <code>J2KIndexStore</code> keeping the index of the
+ * tile-parts, packets and code-blocks of the codestream. The index is
+ * loaded from the store if it is valid for the codestream, otherwise it is
+ * built by scanning all the tile-part and packet headers once and saved to
+ * the store. The tiles are then located from the index instead of from the
+ * codestream. The default is <code>null</code>, in which case no index is
+ * used.
+ * </td>
+ * </tr>
  * </table>
  */
 public class J2KImageReadParam extends ImageReadParam
@@ -105,6 +148,31 @@ public class J2KImageReadParam extends ImageReadParam
      */
     private int resolution = -1;
 
+    /**
+     * Specifies the number of quality layers to decode, starting with the
+     * first one, or -1 to decode all the layers.
+     */
+    private int qualityLayers = -1;
+
+    /**
+     * Specifies the maximum number of bytes of a tile-part that are read
+     * from the stream with one read operation, or 0 to read the packet
+     * headers and code-block data from the stream directly.
+     */
+    private int tilePartChunkSize = 1 << 20;
+
+    /**
+     * Specifies the listener receiving the decoding statistics, or null
+     * if none are collected.
+     */
+    private J2KDecodeListener decodeListener = null;
+
+    /**
+     * Specifies the store of the index of the codestream, or null if no
+     * index is used.
+     */
+    private J2KIndexStore indexStore = null;
+
 
     /** Constructs a default instance of <code>J2KImageReadParam</code>. */
     public J2KImageReadParam()
@@ -161,4 +229,108 @@ public class J2KImageReadParam extends ImageReadParam
     {
         return resolution;
     }
+
+
+    /**
+     * Sets <code>qualityLayers</code>.
+     *
+     * @param layers the number of quality layers to decode, or -1
+     * to decode all of them.
+     * @see #getQualityLayers()
+     */
+    public void setQualityLayers(int layers)
+    {
+        this.qualityLayers = Math.max(layers, -1);
+    }
+
+
+    /**
+     * Gets <code>qualityLayers</code>.
+     *
+     * @return the number of quality layers to decode, or -1
+     * if all of them are decoded.
+     * @see #setQualityLayers(int)
+     */
+    public int getQualityLayers()
+    {
+        return qualityLayers;
+    }
+
+
+    /**
+     * Sets <code>tilePartChunkSize</code>.
+     *
+     * @param size the maximum number of bytes read at once, or 0
+     * to disable the buffering of tile-parts.
+     * @see #getTilePartChunkSize()
+     */
+    public void setTilePartChunkSize(int size)
+    {
+        this.tilePartChunkSize = Math.max(size, 0);
+    }
+
+
+    /**
+     * Gets <code>tilePartChunkSize</code>.
+     *
+     * @return the maximum number of bytes read at once, or 0
+     * if the tile-parts are not buffered.
+     * @see #setTilePartChunkSize(int)
+     */
+    public int getTilePartChunkSize()
+    {
+        return tilePartChunkSize;
+    }
+
+
+    /**
+     * Sets <code>decodeListener</code>.
+     *
+     * @param listener the listener receiving the decoding statistics,
+     * or null to not collect them.
+     * @see #getDecodeListener()
+     */
+    public void setDecodeListener(J2KDecodeListener listener)
+    {
+        this.decodeListener = listener;
+    }
+
+
+    /**
+     * Gets <code>decodeListener</code>.
+     *
+     * @return the listener receiving the decoding statistics, or null
+     * if they are not collected.
+     * @see #setDecodeListener(J2KDecodeListener)
+     */
+    public J2KDecodeListener getDecodeListener()
+    {
+        return decodeListener;
+    }
+
+
+    /**
+     * Sets <code>indexStore</code>.
+     *
+     * @param store the store of the index of the codestream, or null
+     * to not use any index.
+     * @see #getIndexStore()
+     */
+    public void setIndexStore(J2KIndexStore store)
+    {
+        this.indexStore = store;
+    }
+
+
+    /**
+     * Gets <code>indexStore</code>.
+     *
+     * @return the store of the index of the codestream, or null if
+     * no index is used.
+     * @see #setIndexStore(J2KIndexStore)
+     */
+    public J2KIndexStore getIndexStore()
+    {
+        return indexStore;
+    }
 }
@@ -94,6 +94,36 @@ import javax.imageio.ImageWriteParam;
  * </td>
  * </tr>
  * <tr>
+ * <td>layers</td>
+ * <td>Specifies the codestream quality layer formation as a list of
+ * <code>&lt;rate&gt; [+&lt;layers&gt;]</code> pairs. Each rate (in
+ * bits-per-pixel) defines an optimized layer, followed by the number of
+ * extra, log-spaced layers to add after it. A last layer optimized to
+ * <code>encodingRate</code> is always added. With <code>null</code> a
+ * single layer is generated, which for lossless compression allows to
+ * skip the rate-distortion optimization altogether. The default value is
+ * <code>"0.015 +20 2.0 +10"</code>.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>earlyPassTermination</td>
+ * <td>Indicates whether code-blocks may stop being entropy coded once
+ * their remaining coding passes can no longer be part of the codestream
+ * at the target <code>encodingRate</code>. This saves block coding time
+ * at low bitrates, possibly at the price of a small loss of quality. It
+ * has no effect without a target <code>encodingRate</code>. The default
+ * is <code>false</code>.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>directCodeBlockStorage</td>
+ * <td>Indicates whether the compressed code-block data is kept in direct
+ * buffers, outside of the Java heap, until the codestream is written.
+ * This relieves the heap when encoding large images. The default is
+ * <code>false</code>.
+ * </td>
+ * </tr>
+ * <tr>
  * <td>componentTransformation</td>
  * <td>Specifies to utilize the component transformation on some tiles.
  * If the wavelet transform is reversible (w5x3 filter), the Reversible
@@ -108,6 +138,17 @@ import javax.imageio.ImageWriteParam;
  * </td>
  * </tr>
  * <tr>
+ * <td>waveletTransform</td>
+ * <td>Specifies how the wavelet transform is computed. With
+ * <code>"full"</code> each tile-component is entirely decomposed before
+ * being entropy coded. With <code>"line"</code> the source rows are
+ * transformed as they are read and the code-blocks are coded as soon as
+ * they are complete, so that only a strip of each tile-component is held
+ * in memory. This allows large untiled images to be encoded. Both produce
+ * the same codestream. The default value is <code>"full"</code>.
+ * </td>
+ * </tr>
+ * <tr>
  * <td>codeBlockSize</td>
  * <td>Specifies the maximum code-block size to use for tile-component.
  * The maximum width and height is 1024, however the block size
@@ -147,11 +188,33 @@ import javax.imageio.ImageWriteParam;
  * </td>
  * </tr>
  * <tr>
+ * <td>TLM</td>
+ * <td>Specifies whether tile-part lengths (TLM) marker segments should be
+ * written in the main header, so that a reader can locate the tile-parts
+ * without reading their headers. The default value is false.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>PLT</td>
+ * <td>Specifies whether packet lengths (PLT) marker segments should be
+ * written in the tile-part headers, so that a reader can locate the packets
+ * without decoding their headers. The default value is false.
+ * </td>
+ * </tr>
+ * <tr>
  * <td>writeCodeStreamOnly</td>
  * <td>Specifies whether write only the jpeg2000 code stream, i.e, no any
  * box is written. The default value is false.
  * </td>
  * </tr>
+ * <tr>
+ * <td>encodeListener</td>
+ * <td>Specifies a <code>J2KEncodeListener</code> receiving the time spent
+ * in each stage of the encoder, the number of code-blocks and coding passes
+ * coded, and the amount of memory used. The statistics are only collected
+ * when a listener is set. The default is <code>null</code>.
+ * </td>
+ * </tr>
  * </table>
  */
 public class J2KImageWriteParam extends ImageWriteParam
@@ -180,6 +243,25 @@ public class J2KImageWriteParam extends ImageWriteParam
      */
     private boolean lossless = true;
 
+    /**
+     * The codestream layer formation parameters. If <code>null</code> a
+     * single layer is generated.
+     */
+    private String layers = "0.015 +20 2.0 +10";
+
+    /**
+     * Indicates whether the entropy coding of code-blocks may stop early,
+     * when the remaining coding passes would be discarded by the rate
+     * allocation anyway.
+     */
+    private boolean earlyPassTermination = false;
+
+    /**
+     * Indicates whether the compressed code-block data is kept in direct
+     * buffers until the codestream is written.
+     */
+    private boolean directCodeBlockStorage = false;
+
     /**
      * Specifies to utilize the component transformation with some tiles.
      * If the wavelet transform is reversible (w5x3 filter), the
@@ -195,6 +277,12 @@ public class J2KImageWriteParam extends ImageWriteParam
      */
     private String filter = FILTER_53;
 
+    /**
+     * Specifies how the wavelet transform is computed, either "full" or
+     * "line". Default: full.
+     */
+    private String waveletTransform = "full";
+
     /**
      * Specifies the maximum code-block size to use for tile-component.
      * The maximum width and height is 1024, however the image area
@@ -220,12 +308,30 @@ public class J2KImageWriteParam extends ImageWriteParam
      */
     private boolean SOP = false;
 
+    /**
+     * Specifies whether tile-part lengths (TLM) marker segments should be
+     * written. true enables, false disables it. Default: false.
+     */
+    private boolean TLM = false;
+
+    /**
+     * Specifies whether packet lengths (PLT) marker segments should be
+     * written. true enables, false disables it. Default: false.
+     */
+    private boolean PLT = false;
+
     /**
      * Specifies whether write only the jpeg2000 code stream, i.e, no any
      * box is written. The default value is false.
      */
     private boolean writeCodeStreamOnly = false;
 
+    /**
+     * The listener receiving the encoding statistics, or <code>null</code>
+     * if none are collected.
+     */
+    private J2KEncodeListener encodeListener = null;
+
 
     /**
      * Constructor which sets the <code>Locale</code>.
@@ -351,6 +457,90 @@ public class J2KImageWriteParam extends ImageWriteParam
     }
 
 
+    /**
+     * Sets <code>layers</code>.
+     *
+     * With <code>null</code> and an unlimited <code>encodingRate</code>, if
+     * every tile-component is reversible (lossless), the single layer holds
+     * all the coding passes of all the code-blocks: the entropy coder then
+     * computes no rate-distortion statistics and the rate allocator does not
+     * optimize any layer (see {@link J2KEncodeStats#getOptimizedLayers()}).
+     *
+     * @param layers the layer formation parameters, or <code>null</code> to
+     * generate a single quality layer.
+     * @see #getLayers()
+     */
+    public void setLayers(String layers)
+    {
+        this.layers = layers;
+    }
+
+
+    /**
+     * Gets <code>layers</code>.
+     *
+     * @return the layer formation parameters, or <code>null</code> if a
+     * single quality layer is generated.
+     * @see #setLayers(String)
+     */
+    public String getLayers()
+    {
+        return layers;
+    }
+
+
+    /**
+     * Sets <code>earlyPassTermination</code>.
+     *
+     * @param value whether code-blocks may stop being coded once their
+     * remaining passes would not survive the rate allocation.
+     * @see #getEarlyPassTermination()
+     */
+    public void setEarlyPassTermination(boolean value)
+    {
+        this.earlyPassTermination = value;
+    }
+
+
+    /**
+     * Gets <code>earlyPassTermination</code>.
+     *
+     * @return whether code-blocks may stop being coded once their remaining
+     * passes would not survive the rate allocation.
+     * @see #setEarlyPassTermination(boolean)
+     */
+    public boolean getEarlyPassTermination()
+    {
+        return earlyPassTermination;
+    }
+
+
+    /**
+     * Sets <code>directCodeBlockStorage</code>.
+     *
+     * @param value whether the compressed code-block data is kept in direct
+     * buffers, outside of the Java heap.
+     * @see #getDirectCodeBlockStorage()
+     */
+    public void setDirectCodeBlockStorage(boolean value)
+    {
+        this.directCodeBlockStorage = value;
+    }
+
+
+    /**
+     * Gets <code>directCodeBlockStorage</code>.
+     *
+     * @return whether the compressed code-block data is kept in direct
+     * buffers, outside of the Java heap.
+     * @see #setDirectCodeBlockStorage(boolean)
+     */
+    public boolean getDirectCodeBlockStorage()
+    {
+        return directCodeBlockStorage;
+    }
+
+
     /**
      * Sets <code>filter</code>.
      *
@@ -377,6 +567,32 @@ public class J2KImageWriteParam extends ImageWriteParam
     }
 
 
+    /**
+     * Sets <code>waveletTransform</code>.
+     *
+     * @param value how the wavelet transform is computed, either
+     * <code>"full"</code> or <code>"line"</code>.
+     * @see #getWaveletTransform()
+     */
+    public void setWaveletTransform(String value)
+    {
+        waveletTransform = value;
+    }
+
+
+    /**
+     * Gets <code>waveletTransform</code>.
+     *
+     * @return how the wavelet transform is computed, either
+     * <code>"full"</code> or <code>"line"</code>.
+     * @see #setWaveletTransform(String)
+     */
+    public String getWaveletTransform()
+    {
+        return waveletTransform;
+    }
+
+
     /**
      * Sets <code>componentTransformation</code>.
      *
@@ -473,6 +689,58 @@ public class J2KImageWriteParam extends ImageWriteParam
     }
 
 
+    /**
+     * Sets <code>TLM</code>.
+     *
+     * @param value whether tile-part lengths (TLM) marker segments should be
+     * written in the main header.
+     * @see #getTLM()
+     */
+    public void setTLM(boolean value)
+    {
+        TLM = value;
+    }
+
+
+    /**
+     * Gets <code>TLM</code>.
+     *
+     * @return whether tile-part lengths (TLM) marker segments should be
+     * written in the main header.
+     * @see #setTLM(boolean)
+     */
+    public boolean getTLM()
+    {
+        return TLM;
+    }
+
+
+    /**
+     * Sets <code>PLT</code>.
+     *
+     * @param value whether packet lengths (PLT) marker segments should be
+     * written in the tile-part headers.
+     * @see #getPLT()
+     */
+    public void setPLT(boolean value)
+    {
+        PLT = value;
+    }
+
+
+    /**
+     * Gets <code>PLT</code>.
+     *
+     * @return whether packet lengths (PLT) marker segments should be
+     * written in the tile-part headers.
+     * @see #setPLT(boolean)
+     */
+    public boolean getPLT()
+    {
+        return PLT;
+    }
+
+
     /**
      * Sets <code>progressionType</code>.
      *
@@ -523,4 +791,30 @@ public class J2KImageWriteParam extends ImageWriteParam
     {
         return writeCodeStreamOnly;
     }
+
+
+    /**
+     * Sets <code>encodeListener</code>.
+     *
+     * @param listener the listener receiving the encoding statistics,
+     * or null to not collect them.
+     * @see #getEncodeListener()
+     */
+    public void setEncodeListener(J2KEncodeListener listener)
+    {
+        this.encodeListener = listener;
+    }
+
+
+    /**
+     * Gets <code>encodeListener</code>.
+     *
+     * @return the listener receiving the encoding statistics, or null
+     * if they are not collected.
+     * @see #setEncodeListener(J2KEncodeListener)
+     */
+    public J2KEncodeListener getEncodeListener()
+    {
+        return encodeListener;
+    }
 }
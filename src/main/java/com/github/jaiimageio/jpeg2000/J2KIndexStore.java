@@ -0,0 +1,43 @@
+package com.github.jaiimageio.jpeg2000;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A store for the index of the tile-parts, packets and code-blocks of a
+ * JPEG 2000 codestream. It is attached to a read with
+ * {@link J2KImageReadParam#setIndexStore}.
+ *
+ * <p>
+ * When an image is read, the reader opens the index of the store. If there
+ * is none, or if it is not valid for the codestream, it builds the index by
+ * reading the headers of all the tile-parts and packets of the codestream,
+ * and writes it to the store. The tiles are then read from the locations of
+ * the index, so that with a stored index the first tile of a large
+ * codestream is decoded without scanning the codestream. An index is only
+ * used for a codestream with the same length and main header as the one it
+ * was built for.
+ *
+ * @see J2KFileIndexStore
+ */
+public interface J2KIndexStore
+{
+    /**
+     * Opens the stored index for reading. The reader closes the stream.
+     *
+     * @return the stream of the index, or null if there is none.
+     * @throws IOException if the index cannot be opened.
+     */
+    InputStream openIndex() throws IOException;
+
+
+    /**
+     * Creates or replaces the stored index. The reader writes the index to
+     * the returned stream and closes it.
+     *
+     * @return the stream to write the index to, or null to not store it.
+     * @throws IOException if the index cannot be created.
+     */
+    OutputStream createIndex() throws IOException;
+}
@@ -44,6 +44,7 @@
  */
 package com.github.jaiimageio.jpeg2000.impl;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteOrder;
 
@@ -55,13 +56,65 @@ import jj2000.j2k.io.RandomAccessIO;
 /**
  * A wrapper for converting an <code>ImageInputStream</code> into a
  * <code>RandomAccessIO</code>. The resulting class is read-only.
+ *
+ * <p>
+ * The data is read ahead from the <code>ImageInputStream</code> into an
+ * internal buffer, so that the byte and multi-byte reads done while parsing
+ * the headers do not each result in a call to the
+ * <code>ImageInputStream</code>. Seeking within the buffered data only moves
+ * the position in the buffer, seeking outside of it discards the buffer.
+ * After such a seek only a few bytes are read ahead, and the amount doubles
+ * with each sequential refill, so that random accesses do not read much more
+ * data than requested.
+ * Since the data may have been read ahead, the position of the
+ * <code>ImageInputStream</code> is not the one of this object, and the
+ * <code>ImageInputStream</code> is seeked before data is read from it.
+ * The position of this object starts at the one the
+ * <code>ImageInputStream</code> has when it is first needed.
+ * </p>
  */
 public class IISRandomAccessIO implements RandomAccessIO
 {
 
+    /** The size of the read-ahead buffer */
+    private static final int BUF_SIZE = 8192;
+
+    /** The number of bytes read ahead after a seek outside of the buffer */
+    private static final int MIN_AHEAD = 128;
+
     /** The <code>ImageInputStream</code> that is wrapped */
     private ImageInputStream iis;
 
+    /** The read-ahead buffer */
+    private byte[] buf = new byte[BUF_SIZE];
+
+    /**
+     * The stream position of the first byte in the buffer, or -1 until the
+     * position of the <code>ImageInputStream</code> is first needed
+     */
+    private long bufOff = -1;
+
+    /** The index in the buffer of the current position */
+    private int bufPos;
+
+    /** The number of valid bytes in the buffer */
+    private int bufLen;
+
+    /**
+     * The number of bytes to read ahead, which doubles up to the buffer size
+     * as long as the data is read sequentially
+     */
+    private int ahead = MIN_AHEAD;
+
+    /**
+     * The length found by searching for the end of the stream, if the
+     * <code>ImageInputStream</code> does not know its length, or -1
+     */
+    private int length = -1;
+
+    /** The number of bytes read from the <code>ImageInputStream</code> */
+    private long bytesRead;
+
 
     /**
      * Creates a <code>RandomAccessIO</code> instance from the supplied
@@ -78,9 +131,95 @@ public class IISRandomAccessIO implements RandomAccessIO
     }
 
 
+    /**
+     * Takes the position of the <code>ImageInputStream</code> as the current
+     * position, if it has not been set yet by reading or seeking.
+     */
+    private void locate() throws IOException
+    {
+        if (bufOff < 0) {
+            bufOff = iis.getStreamPosition();
+        }
+    }
+
+
+    /**
+     * Reads the data following the current position into the buffer, which
+     * must be exhausted.
+     *
+     * @return false if the end of the stream has been reached.
+     */
+    private boolean fill() throws IOException
+    {
+        locate();
+        if (bufLen > 0 && ahead < BUF_SIZE) {
+            ahead <<= 1;
+        }
+        bufOff += bufPos;
+        bufPos = bufLen = 0;
+        if (iis.getStreamPosition() != bufOff) {
+            iis.seek(bufOff);
+        }
+        int n = iis.read(buf, 0, ahead);
+        if (n <= 0) {
+            return false;
+        }
+        bufLen = n;
+        bytesRead += n;
+        return true;
+    }
+
+
+    /**
+     * Makes sure that at least 'n' bytes, which must not be more than the
+     * buffer size, follow the current position in the buffer.
+     *
+     * @throws EOFException If the stream ends before.
+     */
+    private void require(int n) throws IOException
+    {
+        int rem = bufLen - bufPos;
+        if (rem >= n) {
+            return;
+        }
+        locate();
+        if (bufLen > 0 && ahead < BUF_SIZE) {
+            ahead <<= 1;
+        }
+        // Keep the remaining bytes and read what follows them
+        System.arraycopy(buf, bufPos, buf, 0, rem);
+        bufOff += bufPos;
+        bufPos = 0;
+        bufLen = rem;
+        if (iis.getStreamPosition() != bufOff + rem) {
+            iis.seek(bufOff + rem);
+        }
+        int max = Math.max(n, ahead);
+        while (bufLen < n) {
+            int k = iis.read(buf, bufLen, max - bufLen);
+            if (k <= 0) {
+                throw new EOFException();
+            }
+            bufLen += k;
+            bytesRead += k;
+        }
+    }
+
+
+    /**
+     * Returns the number of bytes read from the <code>ImageInputStream</code>
+     * so far, including the data read ahead.
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+
     @Override
     public void close() throws IOException
     {
+        bufPos = bufLen = 0;
         iis.close();
     }
 
@@ -92,15 +231,28 @@ public class IISRandomAccessIO implements RandomAccessIO
     @Override
     public int getPos() throws IOException
     {
-        long pos = iis.getStreamPosition();
+        locate();
+        long pos = bufOff + bufPos;
         return pos > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)pos;
     }
 
 
+    /**
+     * Moves the current position. If the new position is not within the
+     * buffered data the buffer is discarded, the
+     * <code>ImageInputStream</code> is only seeked when data is read.
+     */
     @Override
     public void seek(int off) throws IOException
     {
-        iis.seek(off);
+        if (off >= bufOff && off <= bufOff + bufLen) {
+            bufPos = (int)(off - bufOff);
+        }
+        else {
+            bufOff = off;
+            bufPos = bufLen = 0;
+            ahead = MIN_AHEAD;
+        }
     }
 
 
@@ -111,10 +263,13 @@ public class IISRandomAccessIO implements RandomAccessIO
      * If the length of the <code>ImageInputStream</code> is not
      * <code>-1</code>, then it is returned after being clamped to
      * a maximum value of <code>Integer.MAX_VALUE</code>. If the
-     * <code>ImageInputStream</code> is <code>-1</code>, the stream
-     * is read to a maximum position of <code>Integer.MAX_VALUE</code>
-     * and its final position is returned. The position of the stream
-     * is unchanged from the value it had prior to the call.
+     * <code>ImageInputStream</code> is <code>-1</code>, the end of the
+     * stream is searched for, up to a maximum position of
+     * <code>Integer.MAX_VALUE</code>, by reading single bytes at doubling
+     * distances and then bisecting between the last byte found and the
+     * first one not found. The data itself is not transferred, and the
+     * result is kept since the stream is not written to. The position of
+     * this object is unchanged.
      * </p>
      */
     @Override
@@ -126,35 +281,92 @@ public class IISRandomAccessIO implements RandomAccessIO
         if (len != -1L) {
             return len > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)len;
         }
-
-        // If the length is negative, read until the stream ends.
-        iis.mark();
-        int bufLen = 1024;
-        byte[] buf = new byte[bufLen];
-        long pos = iis.getStreamPosition();
-        while (pos < Integer.MAX_VALUE) {
-            int numRead = iis.read(buf, 0, bufLen);
-            if (numRead == -1) break; // EOF
-            pos += numRead;
+        if (length >= 0) {
+            return length;
+        }
+        locate();
+
+        // Otherwise find the last readable position 'lo', with 'hi' the
+        // first known unreadable one, starting from the buffered data.
+        long lo = bufOff + bufLen - 1;
+        long hi = -1;
+        for (long step = BUF_SIZE; hi < 0; step <<= 1) {
+            long p = Math.max(lo, 0) + step;
+            if (p > Integer.MAX_VALUE) {
+                p = Integer.MAX_VALUE;
+            }
+            if (readable(p)) {
+                lo = p;
+                if (p == Integer.MAX_VALUE) {
+                    hi = p + 1;
+                }
+            }
+            else {
+                hi = p;
+            }
+        }
+        while (hi - lo > 1) {
+            long p = (lo + hi) >>> 1;
+            if (readable(p)) {
+                lo = p;
+            }
+            else {
+                hi = p;
+            }
         }
-        iis.reset();
+        length = (int)(hi > Integer.MAX_VALUE ? Integer.MAX_VALUE : hi);
+        return length;
+    }
 
-        // Return the last position.
-        return pos > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)pos;
+
+    /** Returns whether or not the byte at position 'p' can be read */
+    private boolean readable(long p) throws IOException
+    {
+        try {
+            iis.seek(p);
+            return iis.read() >= 0;
+        }
+        catch (EOFException e) {
+            return false;
+        }
     }
 
 
     @Override
     public int read() throws IOException
     {
-        return iis.read();
+        if (bufPos == bufLen && !fill()) {
+            return -1;
+        }
+        return buf[bufPos++] & 0xFF;
     }
 
 
     @Override
     public void readFully(byte b[], int off, int n) throws IOException
     {
-        iis.readFully(b, off, n);
+        int k = Math.min(n, bufLen - bufPos);
+        System.arraycopy(buf, bufPos, b, off, k);
+        bufPos += k;
+        off += k;
+        n -= k;
+        if (n >= ahead) {
+            // Large reads go directly to the destination
+            locate();
+            bufOff += bufPos;
+            bufPos = bufLen = 0;
+            if (iis.getStreamPosition() != bufOff) {
+                iis.seek(bufOff);
+            }
+            iis.readFully(b, off, n);
+            bufOff += n;
+            bytesRead += n;
+        }
+        else if (n > 0) {
+            require(n);
+            System.arraycopy(buf, bufPos, b, off, n);
+            bufPos += n;
+        }
     }
 
 
@@ -168,70 +380,97 @@ public class IISRandomAccessIO implements RandomAccessIO
     @Override
     public byte readByte() throws IOException
     {
-        return iis.readByte();
+        if (bufPos == bufLen && !fill()) {
+            throw new EOFException();
+        }
+        return buf[bufPos++];
     }
 
 
     @Override
     public int readUnsignedByte() throws IOException
     {
-        return iis.readUnsignedByte();
+        return readByte() & 0xFF;
     }
 
 
     @Override
     public short readShort() throws IOException
     {
-        return iis.readShort();
+        require(2);
+        byte[] b = buf;
+        int p = bufPos;
+        bufPos += 2;
+        if (iis.getByteOrder() == ByteOrder.BIG_ENDIAN) {
+            return (short)((b[p] << 8) | (b[p + 1] & 0xFF));
+        }
+        return (short)((b[p + 1] << 8) | (b[p] & 0xFF));
     }
 
 
     @Override
     public int readUnsignedShort() throws IOException
     {
-        return iis.readUnsignedShort();
+        return readShort() & 0xFFFF;
     }
 
 
     @Override
     public int readInt() throws IOException
     {
-        return iis.readInt();
+        require(4);
+        byte[] b = buf;
+        int p = bufPos;
+        bufPos += 4;
+        if (iis.getByteOrder() == ByteOrder.BIG_ENDIAN) {
+            return (b[p] << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+        }
+        return (b[p + 3] << 24) | ((b[p + 2] & 0xFF) << 16) | ((b[p + 1] & 0xFF) << 8) | (b[p] & 0xFF);
     }
 
 
     @Override
     public long readUnsignedInt() throws IOException
     {
-        return iis.readUnsignedInt();
+        return readInt() & 0xFFFFFFFFL;
     }
 
 
     @Override
     public long readLong() throws IOException
     {
-        return iis.readLong();
+        long i0 = readInt();
+        long i1 = readInt();
+        if (iis.getByteOrder() == ByteOrder.BIG_ENDIAN) {
+            return (i0 << 32) | (i1 & 0xFFFFFFFFL);
+        }
+        return (i1 << 32) | (i0 & 0xFFFFFFFFL);
     }
 
 
     @Override
     public float readFloat() throws IOException
     {
-        return iis.readFloat();
+        return Float.intBitsToFloat(readInt());
     }
 
 
     @Override
     public double readDouble() throws IOException
     {
-        return iis.readDouble();
+        return Double.longBitsToDouble(readLong());
     }
 
 
+    /**
+     * Skips 'n' bytes, without checking for the end of the stream like
+     * <code>ImageInputStream.skipBytes()</code>.
+     */
     @Override
     public int skipBytes(int n) throws IOException
     {
-        return iis.skipBytes(n);
+        seek(getPos() + n);
+        return n;
     }
 
 
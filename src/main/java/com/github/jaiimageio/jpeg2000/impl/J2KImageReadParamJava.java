@@ -84,6 +84,31 @@ import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
  * </td>
  * </tr>
  * <tr>
+ * <td>qualityLayers</td>
+ * <td>Specifies the number of quality layers to decode, starting with the
+ * first one, or -1 to decode all the layers.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>tilePartChunkSize</td>
+ * <td>Specifies the maximum number of bytes of a tile-part that are read
+ * from the stream with one read operation. A value of 0 reads the packet
+ * headers and code-block data from the stream directly.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>decodeListener</td>
+ * <td>Specifies the listener receiving the decoding statistics, or
+ * <code>null</code> if none are collected.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>indexStore</td>
+ * <td>Specifies the store of the index of the codestream, or
+ * <code>null</code> if no index is used.
+ * </td>
+ * </tr>
+ * <tr>
  * <td>noROIDescaling</td>
  * <td>Ensures that no ROI de-scaling is performed. Decompression is done
  * like there is no ROI in the image.
@@ -156,6 +181,10 @@ public class J2KImageReadParamJava extends J2KImageReadParam
         }
         setDecodingRate(j2kParam.getDecodingRate());
         setResolution(j2kParam.getResolution());
+        setQualityLayers(j2kParam.getQualityLayers());
+        setTilePartChunkSize(j2kParam.getTilePartChunkSize());
+        setDecodeListener(j2kParam.getDecodeListener());
+        setIndexStore(j2kParam.getIndexStore());
     }
 
 
@@ -246,6 +246,20 @@ import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
  * <td>No</td>
  * </tr>
  * <tr>
+ * <td>TLM</td>
+ * <td>Indicates that tile-part lengths (TLM) marker segments are written in
+ * the main header. The default is false.
+ * </td>
+ * <td>No</td>
+ * </tr>
+ * <tr>
+ * <td>PLT</td>
+ * <td>Indicates that packet lengths (PLT) marker segments are written in
+ * the tile-part headers. The default is false.
+ * </td>
+ * <td>No</td>
+ * </tr>
+ * <tr>
  * <td>ROIs</td>
  * <td>Specifies ROIs shape and location. The component index specifies
  * which components contain the ROI. If this parameter is used, the
@@ -422,6 +436,18 @@ public class J2KImageWriteParamJava extends ImageWriteParam
      */
     private int packetPerTilePart = 0;
 
+    /**
+     * Indicates that tile-part lengths marker segments are written in the
+     * main header.
+     */
+    private boolean TLM = false;
+
+    /**
+     * Indicates that packet lengths marker segments are written in the
+     * tile-part headers.
+     */
+    private boolean PLT = false;
+
     /**
      * The bitrate in bits-per-pixel for encoding. Should be set when lossy
      * compression scheme is used. The default is
@@ -451,6 +477,13 @@ public class J2KImageWriteParamJava extends ImageWriteParam
      */
     private AnWTFilterSpec filters = null;
 
+    /**
+     * Specifies how the wavelet transform is computed: "full" decomposes
+     * each tile-component at once, "line" transforms the rows as they are
+     * read and returns the code-blocks as soon as they are complete.
+     */
+    private String waveletTransform = "full";
+
     /**
      * Specifies the number of wavelet decomposition levels to apply to
      * the image. If it is 0, no wavelet transform is performed, in which
@@ -647,6 +680,19 @@ public class J2KImageWriteParamJava extends ImageWriteParam
      */
     private String layers = "0.015 +20 2.0 +10";
 
+    /**
+     * Whether the entropy coding of code-blocks may stop once the remaining
+     * coding passes can not be part of the codestream at the target
+     * bitrate.
+     */
+    private boolean earlyPassTermination = false;
+
+    /**
+     * Whether the compressed code-block data is kept in direct buffers until
+     * the codestream is written.
+     */
+    private boolean directCodeBlockStorage = false;
+
     /**
      * Specifies whether end of packet header (EPH) markers should be used.
      * true enables, false disables it. Default: false.
@@ -715,9 +761,15 @@ public class J2KImageWriteParamJava extends ImageWriteParam
         setDecompositionLevel("" + j2kParam.getNumDecompositionLevels());
         setEncodingRate(j2kParam.getEncodingRate());
         setLossless(j2kParam.getLossless());
+        setLayers(j2kParam.getLayers());
+        setEarlyPassTermination(j2kParam.getEarlyPassTermination());
+        setDirectCodeBlockStorage(j2kParam.getDirectCodeBlockStorage());
         setFilters(j2kParam.getFilter());
+        setWaveletTransform(j2kParam.getWaveletTransform());
         setEPH("" + j2kParam.getEPH());
         setSOP("" + j2kParam.getSOP());
+        setTLM(j2kParam.getTLM());
+        setPLT(j2kParam.getPLT());
         setProgressionName(j2kParam.getProgressionType());
         int[] size = j2kParam.getCodeBlockSize();
         setCodeBlockSize("" + size[0] + " " + size[1]);
@@ -885,6 +937,34 @@ public class J2KImageWriteParamJava extends ImageWriteParam
     }
 
 
+    /** Sets <code>TLM</code> */
+    public void setTLM(boolean TLM)
+    {
+        this.TLM = TLM;
+    }
+
+
+    /** Gets <code>TLM</code> */
+    public boolean getTLM()
+    {
+        return TLM;
+    }
+
+
+    /** Sets <code>PLT</code> */
+    public void setPLT(boolean PLT)
+    {
+        this.PLT = PLT;
+    }
+
+
+    /** Gets <code>PLT</code> */
+    public boolean getPLT()
+    {
+        return PLT;
+    }
+
+
     /** Sets <code>packPacketHeaderInTile</code> */
     public void setPackPacketHeaderInTile(boolean packPacketHeaderInTile)
     {
@@ -1369,6 +1449,48 @@ public class J2KImageWriteParamJava extends ImageWriteParam
     }
 
 
+    /** Sets <code>earlyPassTermination</code> */
+    public void setEarlyPassTermination(boolean earlyPassTermination)
+    {
+        this.earlyPassTermination = earlyPassTermination;
+    }
+
+
+    /** Gets <code>earlyPassTermination</code> */
+    public boolean getEarlyPassTermination()
+    {
+        return earlyPassTermination;
+    }
+
+
+    /** Sets <code>directCodeBlockStorage</code> */
+    public void setDirectCodeBlockStorage(boolean directCodeBlockStorage)
+    {
+        this.directCodeBlockStorage = directCodeBlockStorage;
+    }
+
+
+    /** Gets <code>directCodeBlockStorage</code> */
+    public boolean getDirectCodeBlockStorage()
+    {
+        return directCodeBlockStorage;
+    }
+
+
+    /** Sets <code>waveletTransform</code> */
+    public void setWaveletTransform(String waveletTransform)
+    {
+        this.waveletTransform = waveletTransform;
+    }
+
+
+    /** Gets <code>waveletTransform</code> */
+    public String getWaveletTransform()
+    {
+        return waveletTransform;
+    }
+
+
     /** Sets <code>minX</code> */
     public void setMinX(int minX)
     {
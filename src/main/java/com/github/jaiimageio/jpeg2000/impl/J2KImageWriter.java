@@ -78,9 +78,12 @@ import jj2000.j2k.image.forwcomptransf.ForwCompTransf;
 import jj2000.j2k.quantization.quantizer.Quantizer;
 import jj2000.j2k.roi.encoder.ROIScaler;
 import jj2000.j2k.util.CodestreamManipulator;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.analysis.ForwardWT;
 
 import com.github.jaiimageio.impl.common.ImageUtil;
+import com.github.jaiimageio.jpeg2000.J2KEncodeListener;
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
 
 /**
@@ -264,6 +267,18 @@ public class J2KImageWriter extends ImageWriter
 
         J2KImageWriteParamJava j2kwparam = new J2KImageWriteParamJava(image, param);
 
+        // The statistics are only collected for a listener
+        J2KEncodeListener listener = (param instanceof J2KImageWriteParam) ?
+            ((J2KImageWriteParam)param).getEncodeListener() : null;
+        J2KEncodeStats stats = null;
+        long allocMark = 0;
+        long streamMark = 0;
+        if (listener != null) {
+            stats = new J2KEncodeStats();
+            allocMark = StageStats.getThreadAllocatedBytes();
+            streamMark = stream.getStreamPosition();
+        }
+
         // Packet header cannot exist in two places.
         if (j2kwparam.getPackPacketHeaderInTile() &&
             j2kwparam.getPackPacketHeaderInMain())
@@ -294,9 +309,25 @@ public class J2KImageWriter extends ImageWriter
         // Gets parameters from the write parameter
         boolean pphTile = j2kwparam.getPackPacketHeaderInTile();
         boolean pphMain = j2kwparam.getPackPacketHeaderInMain();
+        boolean tlm = j2kwparam.getTLM();
+        boolean plt = j2kwparam.getPLT();
         boolean tempSop = false;
         boolean tempEph = false;
 
+        // The lengths markers are written by the codestream manipulator,
+        // which finds the packets by their SOP and EPH markers. If they are
+        // not requested, use them temporarily and remove them afterwards.
+        if (tlm || plt) {
+            if (!"true".equalsIgnoreCase((String)j2kwparam.getSOP().getDefault())) {
+                tempSop = true;
+                j2kwparam.setSOP("true");
+            }
+            if (!"true".equalsIgnoreCase((String)j2kwparam.getEPH().getDefault())) {
+                tempEph = true;
+                j2kwparam.setEPH("true");
+            }
+        }
+
         int[] bands = param.getSourceBands();
         int ncomp = sampleModel.getNumBands();
 
@@ -366,6 +397,15 @@ public class J2KImageWriter extends ImageWriter
             j2kwparam.getMethodForMQLengthCalc(),
             j2kwparam.getMethodForMQTermination());
 
+        if (stats != null) {
+            imgsrc.setStats(stats);
+            fctransf.setStats(stats);
+            dwt.setStats(stats);
+            quant.setStats(stats);
+            rois.setStats(stats);
+            ecoder.setStats(stats);
+        }
+
         // Rely on rate allocator to limit amount of data
         File tmpFile = File.createTempFile("jiio-", ".tmp");
         tmpFile.deleteOnExit();
@@ -385,9 +425,15 @@ public class J2KImageWriter extends ImageWriter
             j2kwparam, rois, ralloc);
 
         ralloc.setHeaderEncoder(headenc);
+        if (stats != null)
+            ralloc.setStats(stats);
 
         // Writes header to be able to estimate header overhead
+        if (stats != null)
+            stats.enter(J2KEncodeStats.CODESTREAM);
         headenc.encodeMainHeader();
+        if (stats != null)
+            stats.exit();
 
         //Initializes rate allocator, with proper header
         // overhead. This will also encode all the data
@@ -405,6 +451,8 @@ public class J2KImageWriter extends ImageWriter
         }
 
         // Write header (final)
+        if (stats != null)
+            stats.enter(J2KEncodeStats.CODESTREAM);
         headenc.reset();
         headenc.encodeMainHeader();
 
@@ -416,21 +464,31 @@ public class J2KImageWriter extends ImageWriter
 
         //Done for data encoding
         bwriter.close();
+        if (stats != null) {
+            stats.exit();
+            stats.max(J2KEncodeStats.HEAP_USED, StageStats.getUsedHeap());
+        }
 
         // Calculate file length
         int fileLength = bwriter.getLength();
 
-        // Tile-parts and packed packet headers
+        // Tile-parts, packed packet headers and lengths markers
         int pktspertp = j2kwparam.getPacketPerTilePart();
         int ntiles = imgtiler.getNumTiles();
-        if (pktspertp > 0 || pphTile || pphMain) {
+        if (pktspertp > 0 || pphTile || pphMain || tlm || plt) {
+            if (stats != null)
+                stats.enter(J2KEncodeStats.CODESTREAM_MANIPULATION);
             CodestreamManipulator cm = new CodestreamManipulator(tmpFile, ntiles, pktspertp,
                 pphMain, pphTile, tempSop,
-                tempEph);
+                tempEph, tlm, plt);
             fileLength += cm.doCodestreamManipulation();
+            if (stats != null)
+                stats.exit();
         }
 
         // File Format
+        if (stats != null)
+            stats.enter(J2KEncodeStats.FILE_FORMAT);
         int nc = imgsrc.getNumComps();
         int[] bpc = new int[nc];
         for (int comp = 0; comp < nc; comp++)
@@ -507,6 +565,16 @@ public class J2KImageWriter extends ImageWriter
         fileLength += ffw.writeFileFormat();
         tmpFile.delete();
 
+        if (stats != null) {
+            stats.exit();
+            stats.add(J2KEncodeStats.BYTES_WRITTEN, stream.getStreamPosition() - streamMark);
+            stats.max(J2KEncodeStats.HEAP_USED, StageStats.getUsedHeap());
+            long alloc = StageStats.getThreadAllocatedBytes();
+            if (alloc >= 0 && allocMark >= 0)
+                stats.add(J2KEncodeStats.ALLOCATED_BYTES, alloc - allocMark);
+            listener.imageEncoded(stats);
+        }
+
         processImageComplete();
     }
 
@@ -59,6 +59,8 @@ import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Hashtable;
 
 import javax.imageio.IIOException;
@@ -67,6 +69,8 @@ import javax.imageio.stream.ImageInputStream;
 
 import jj2000.j2k.codestream.HeaderInfo;
 import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.CodestreamIndex;
+import jj2000.j2k.codestream.reader.FileBitstreamReaderAgent;
 import jj2000.j2k.codestream.reader.HeaderDecoder;
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.entropy.decoder.EntropyDecoder;
@@ -74,12 +78,16 @@ import jj2000.j2k.fileformat.reader.FileFormatReader;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.image.ImgDataConverter;
 import jj2000.j2k.image.invcomptransf.InvCompTransf;
-import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.quantization.dequantizer.Dequantizer;
 import jj2000.j2k.roi.ROIDeScaler;
+import jj2000.j2k.util.CodecEvents;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.synthesis.InverseWT;
 
 import com.github.jaiimageio.impl.common.ImageUtil;
+import com.github.jaiimageio.jpeg2000.J2KDecodeListener;
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
+import com.github.jaiimageio.jpeg2000.J2KIndexStore;
 
 public class J2KReadState
 {
@@ -89,7 +97,7 @@ public class J2KReadState
     private FileFormatReader ff;
     private HeaderInfo hi;
     private HeaderDecoder hd;
-    private RandomAccessIO in;
+    private IISRandomAccessIO in;
     private BitstreamReaderAgent breader;
     private EntropyDecoder entdec;
     private ROIDeScaler roids;
@@ -153,6 +161,21 @@ public class J2KReadState
      */
     private J2KImageReader reader;
 
+    /** The listener receiving the decoding statistics, or null */
+    private J2KDecodeListener listener;
+
+    /** The decoding statistics, or null if there is no listener */
+    private J2KDecodeStats stats;
+
+    /** The bytes allocated by the thread when the statistics were started */
+    private long allocMark;
+
+    /** The profiling event of the tile being decoded, or null */
+    private Object tileEvent;
+
+    /** The bytes read from the stream when the tile decoding started */
+    private long tileBytesMark;
+
 
     /**
      * Constructs <code>J2KReadState</code>.
@@ -234,6 +257,7 @@ public class J2KReadState
             if (tileX >= nT.x || tileY >= nT.y)
                 throw new IllegalArgumentException(I18N.getString("J2KImageReader0"));
 
+            startTile();
             ictransf.setTile(tileX * tileStepX, tileY * tileStepY);
 
             // The offset of the active tiles is the same for all components,
@@ -344,6 +368,7 @@ public class J2KReadState
                     }
                 }
             }
+            endTile();
         }
         else {
             readSubsampledRaster(raster);
@@ -396,6 +421,8 @@ public class J2KReadState
         readSubsampledRaster(raster);
         destinationRegion.setLocation(x, y);
         destImage = null;
+        if (stats != null)
+            listener.imageDecoded(stats);
         return image;
     }
 
@@ -417,14 +444,68 @@ public class J2KReadState
         else raster = image.getWritableTile(0, 0);
 
         readSubsampledRaster(raster);
+        if (stats != null)
+            listener.imageDecoded(stats);
         return raster;
     }
 
 
+    /**
+     * Reads the index of the codestream from a store or, if it has none
+     * which is valid for the codestream, builds it and writes it to the
+     * store. The index is still used if it cannot be written.
+     */
+    private CodestreamIndex getCodestreamIndex(J2KIndexStore store)
+        throws IOException
+    {
+        int start = hd.mainHeadOff;
+        CodestreamIndex index = null;
+        try {
+            InputStream is = store.openIndex();
+            if (is != null) {
+                try {
+                    index = CodestreamIndex.read(is, in, start);
+                }
+                finally {
+                    is.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            // A corrupted index is built again
+        }
+        if (index != null)
+            return index;
+
+        index = CodestreamIndex.build(in, start);
+        try {
+            OutputStream os = store.createIndex();
+            if (os != null) {
+                try {
+                    index.write(os);
+                }
+                finally {
+                    os.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            // The index is only used for this read
+        }
+        return index;
+    }
+
+
     private void initializeRead(int imageIndex, J2KImageReadParamJava param,
         J2KMetadata metadata)
     {
         try {
+            listener = param.getDecodeListener();
+            if (listener != null) {
+                stats = new J2KDecodeStats();
+                allocMark = StageStats.getThreadAllocatedBytes();
+            }
+
             iis.mark();
             in = new IISRandomAccessIO(iis);
 
@@ -432,10 +513,16 @@ public class J2KReadState
             // If the codestream is wrapped in the jp2 fileformat, Read the
             // file format wrapper
             ff = new FileFormatReader(in, metadata);
+            if (stats != null)
+                stats.enter(J2KDecodeStats.FILE_FORMAT);
             ff.readFileFormat();
+            if (stats != null)
+                stats.exit();
             in.seek(ff.getFirstCodeStreamPos());
 
             hi = new HeaderInfo();
+            if (stats != null)
+                stats.enter(J2KDecodeStats.HEADERS);
             try {
                 hd = new HeaderDecoder(in, j2krparam, hi);
             }
@@ -445,6 +532,8 @@ public class J2KReadState
             catch (IOException ioe) {
                 throw new RuntimeException(ioe);
             }
+            if (stats != null)
+                stats.exit();
 
             this.width = hd.getImgWidth();
             this.height = hd.getImgHeight();
@@ -579,11 +668,19 @@ public class J2KReadState
             }
 
             // **** Bitstream reader ****
+            if (stats != null)
+                stats.enter(J2KDecodeStats.HEADERS);
             try {
                 boolean logJJ2000Messages = Boolean.getBoolean("jj2000.j2k.decoder.log");
                 breader = BitstreamReaderAgent.createInstance(in, hd,
                     j2krparam, decSpec,
                     logJJ2000Messages, hi);
+                J2KIndexStore indexStore = j2krparam.getIndexStore();
+                if (indexStore != null &&
+                    breader instanceof FileBitstreamReaderAgent) {
+                    ((FileBitstreamReaderAgent)breader).setCodestreamIndex(
+                        getCodestreamIndex(indexStore));
+                }
             }
             catch (IOException e) {
                 throw new RuntimeException(I18N.getString("J2KReadState3") + " " +
@@ -593,6 +690,8 @@ public class J2KReadState
                 throw new RuntimeException(I18N.getString("J2KReadState4") + " " +
                     ((e.getMessage() != null) ? (":\n" + e.getMessage()) : ""));
             }
+            if (stats != null)
+                stats.exit();
 
             // **** Entropy decoder ****
             try {
@@ -642,6 +741,17 @@ public class J2KReadState
             // **** Inverse component transformation ****
             ictransf = new InvCompTransf(converter, decSpec, depth);
 
+            // Account the work of the decoding chain to the statistics
+            if (stats != null) {
+                breader.setStats(stats);
+                entdec.setStats(stats);
+                roids.setStats(stats);
+                deq.setStats(stats);
+                invWT.setStats(stats);
+                converter.setStats(stats);
+                ictransf.setStats(stats);
+            }
+
             // If the destination band is set used it
             sourceBands = j2krparam.getSourceBands();
 
@@ -664,6 +774,21 @@ public class J2KReadState
                 hd.getNumComps(),
                 destinationBands.length);
 
+            // Only decode the components of the source bands, and those
+            // the inverse component transformation needs to compute them
+            boolean[] outComps = new boolean[hd.getNumComps()];
+            for (int i = 0; i < nComp && outComps != null; i++) {
+                int c = channelMap[sourceBands[i]];
+                if (c >= 0 && c < outComps.length)
+                    outComps[c] = true;
+                else
+                    outComps = null;
+            }
+            if (outComps != null) {
+                ictransf.setOutputComps(outComps);
+                breader.setNeededComps(ictransf.getSourceComps(outComps));
+            }
+
             levelShift = new int[nComp];
             minValues = new int[nComp];
             maxValues = new int[nComp];
@@ -699,6 +824,8 @@ public class J2KReadState
             }
 
             iis.reset();
+            if (stats != null)
+                updateStats();
         }
         catch (IllegalArgumentException e) {
             throw new RuntimeException(e.getMessage(), e);
@@ -724,6 +851,54 @@ public class J2KReadState
     }
 
 
+    /**
+     * Starts accounting the decoding of a tile to the statistics, if any,
+     * and the profiling event. The time not spent in the decoding chain is
+     * the sample conversion.
+     */
+    private void startTile()
+    {
+        tileEvent = CodecEvents.beginTileDecode();
+        tileBytesMark = in.getBytesRead();
+        if (stats != null) {
+            allocMark = StageStats.getThreadAllocatedBytes();
+            stats.enter(J2KDecodeStats.CONVERSION);
+        }
+    }
+
+
+    /**
+     * Ends the accounting of the decoding of the current tile and reports
+     * the statistics to the listener, if any, and the profiling event.
+     */
+    private void endTile()
+    {
+        CodecEvents.endTileDecode(tileEvent, ictransf.getTileIdx(), ictransf.getTileWidth(),
+            ictransf.getTileHeight(), in.getBytesRead() - tileBytesMark);
+        tileEvent = null;
+        if (stats != null) {
+            stats.exit();
+            stats.add(J2KDecodeStats.TILES, 1);
+            updateStats();
+            listener.tileDecoded(stats, ictransf.getTileIdx());
+        }
+    }
+
+
+    /**
+     * Adds the bytes read and allocated since the last update to the
+     * statistics.
+     */
+    private void updateStats()
+    {
+        long alloc = StageStats.getThreadAllocatedBytes();
+        if (alloc >= 0 && allocMark >= 0)
+            stats.add(J2KDecodeStats.ALLOCATED_BYTES, alloc - allocMark);
+        allocMark = alloc;
+        stats.add(J2KDecodeStats.BYTES_READ, in.getBytesRead() - stats.getBytesRead());
+    }
+
+
     private Raster readSubsampledRaster(WritableRaster raster) throws IOException
     {
         if (raster == null)
@@ -775,6 +950,7 @@ public class J2KReadState
 
                 float initialFraction = (x - startXTile + (y - startYTile) * totalXTiles) / totalTiles;
 
+                startTile();
                 ictransf.setTile(x * tileStepX, y * tileStepY);
 
                 int sx = hd.getCompSubsX(0);
@@ -996,6 +1172,7 @@ public class J2KReadState
                         (l - ty + 1.0F) / cTileHeight / totalTiles;
                     reader.processImageProgressWrapper(100.0f * fraction);
                 }
+                endTile();
             } // End loop on horizontal tiles
         } // End loop on vertical tiles
 
@@ -47,11 +47,19 @@ package com.github.jaiimageio.jpeg2000.impl;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.imageio.ImageWriteParam;
 
@@ -60,8 +68,10 @@ import jj2000.j2k.image.BlkImgDataSrc;
 import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.image.ImgData;
+import jj2000.j2k.util.StageStats;
 
 import com.github.jaiimageio.impl.common.ImageUtil;
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 
 public class RenderedImageSrc implements BlkImgDataSrc
 {
@@ -102,8 +112,8 @@ public class RenderedImageSrc implements BlkImgDataSrc
     /** Data block used only to store coordinates of the buffered blocks */
     private DataBlkInt dbi = new DataBlkInt();
 
-    /** The line buffer. */
-    private byte buf[];
+    /** The line buffer used when copying source data. */
+    private int buf[];
 
     /**
      * Temporary DataBlkInt object (needed when encoder uses floating-point
@@ -120,6 +130,12 @@ public class RenderedImageSrc implements BlkImgDataSrc
     /** The raster for a destination tile */
     private Raster aTile;
 
+    /**
+     * The tiles of 'src' that have been fetched and may still be needed by
+     * the next destination tiles, indexed by tile coordinates.
+     */
+    private Map<Point, Raster> srcTiles = new HashMap<Point, Raster>();
+
     private Point co = new Point();
 
     private int dcOffset = 0;
@@ -144,6 +160,12 @@ public class RenderedImageSrc implements BlkImgDataSrc
      */
     private boolean inputIsRaster = false;
 
+    /**
+     * The statistics to which the sample extraction is accounted, or null
+     * if none are collected
+     */
+    private StageStats stats;
+
 
     /**
      * Creates <code>RenderedImageSrc</code> for encoding a <code>Raster</code>.
@@ -314,6 +336,17 @@ public class RenderedImageSrc implements BlkImgDataSrc
     }
 
 
+    /**
+     * Sets the statistics to which the sample extraction is accounted.
+     *
+     * @param stats The statistics, or null to not collect any.
+     */
+    public void setStats(StageStats stats)
+    {
+        this.stats = stats;
+    }
+
+
     @Override
     public int getTilePartULX()
     {
@@ -844,6 +877,25 @@ public class RenderedImageSrc implements BlkImgDataSrc
      */
     @Override
     public final DataBlk getInternCompData(DataBlk blk, int c)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return readCompData(blk, c);
+        }
+        stats.enter(J2KEncodeStats.SOURCE);
+        try {
+            return readCompData(blk, c);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCompData().
+     */
+    private DataBlk readCompData(DataBlk blk, int c)
     {
         if (writer != null && writer.getAbortRequest())
             throw new RuntimeException(J2KImageWriter.WRITE_ABORTED);
@@ -900,10 +952,12 @@ public class RenderedImageSrc implements BlkImgDataSrc
                     temp.y - minY);
             }
 
-            for (i = 0; i < nc; i++) {
-                aTile.getSamples(blk.ulx, blk.uly, blk.w, blk.h, i, barr[i]);
-                for (k = 0; k < barr[i].length; k++)
-                    barr[i][k] -= dcOffset;
+            if (!getDirectData(blk.ulx, blk.uly, blk.w, blk.h)) {
+                for (i = 0; i < nc; i++) {
+                    aTile.getSamples(blk.ulx, blk.uly, blk.w, blk.h, i, barr[i]);
+                    for (k = 0; k < barr[i].length; k++)
+                        barr[i][k] -= dcOffset;
+                }
             }
             //getByteData(raster, new Rectangle(blk.ulx, blk.uly, blk.w, blk.h), barr);
 
@@ -914,8 +968,8 @@ public class RenderedImageSrc implements BlkImgDataSrc
         }
         else { //Asking for the 2nd or 3rd block component
             blk.setData(barr[c]);
-            blk.offset = (blk.ulx - dbi.ulx) * dbi.w + blk.ulx - dbi.ulx;
-            blk.scanw = dbi.scanw;
+            blk.offset = (blk.uly - dbi.uly) * dbi.w + blk.ulx - dbi.ulx;
+            blk.scanw = dbi.w;
         }
 
         // Turn off the progressive attribute
@@ -924,6 +978,109 @@ public class RenderedImageSrc implements BlkImgDataSrc
     }
 
 
+    /**
+     * Reads the specified area of all the components of the current tile
+     * straight from the backing array of 'aTile' into 'barr', removing the
+     * DC offset on the fly. Each row of the area is scanned once for all the
+     * components, which saves the per component and per sample dispatch of
+     * Raster.getSamples().
+     *
+     * <P>
+     * Only the layouts of the common image types are handled: byte and
+     * unsigned short samples in a ComponentSampleModel (interleaved or
+     * banded), and pixels packed in ints by a
+     * SinglePixelPackedSampleModel. For any other layout nothing is read.
+     *
+     * @param ulx The horizontal coordinate of the area, in 'aTile'.
+     *
+     * @param uly The vertical coordinate of the area, in 'aTile'.
+     *
+     * @param w The width of the area.
+     *
+     * @param h The height of the area.
+     *
+     * @return True if the data was read, false if the layout of 'aTile' is
+     * not supported and the generic path has to be used.
+     */
+    private boolean getDirectData(int ulx, int uly, int w, int h)
+    {
+        SampleModel tsm = aTile.getSampleModel();
+        DataBuffer db = aTile.getDataBuffer();
+        if (isBinary || !isDirectLayout(tsm, db))
+            return false;
+
+        int x0 = ulx - aTile.getSampleModelTranslateX();
+        int y0 = uly - aTile.getSampleModelTranslateY();
+        int i, j, k, n, off, end;
+
+        if (tsm instanceof ComponentSampleModel) {
+            ComponentSampleModel csm = (ComponentSampleModel)tsm;
+            int pstride = csm.getPixelStride();
+            int sstride = csm.getScanlineStride();
+            int bandOffsets[] = csm.getBandOffsets();
+            int bankIndices[] = csm.getBankIndices();
+            int dbOffsets[] = db.getOffsets();
+            boolean isByte = db instanceof DataBufferByte;
+
+            for (j = 0; j < h; j++) {
+                k = j * w;
+                for (n = 0; n < nc; n++) {
+                    int out[] = barr[n];
+                    off = dbOffsets[bankIndices[n]] + (y0 + j) * sstride +
+                        x0 * pstride + bandOffsets[n];
+                    end = k + w;
+                    if (isByte) {
+                        byte data[] = ((DataBufferByte)db).getData(bankIndices[n]);
+                        for (i = k; i < end; i++, off += pstride)
+                            out[i] = (data[off] & 0xFF) - dcOffset;
+                    }
+                    else {
+                        short data[] = ((DataBufferUShort)db).getData(bankIndices[n]);
+                        for (i = k; i < end; i++, off += pstride)
+                            out[i] = (data[off] & 0xFFFF) - dcOffset;
+                    }
+                }
+            }
+            return true;
+        }
+        else {
+            SinglePixelPackedSampleModel spsm = (SinglePixelPackedSampleModel)tsm;
+            int sstride = spsm.getScanlineStride();
+            int masks[] = spsm.getBitMasks();
+            int shifts[] = spsm.getBitOffsets();
+            int data[] = ((DataBufferInt)db).getData();
+            int v;
+
+            for (j = 0; j < h; j++) {
+                off = db.getOffset() + (y0 + j) * sstride + x0;
+                end = (j + 1) * w;
+                for (k = j * w; k < end; k++, off++) {
+                    v = data[off];
+                    for (n = 0; n < nc; n++)
+                        barr[n][k] = ((v & masks[n]) >>> shifts[n]) - dcOffset;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Returns true if the samples of a raster with the given sample model and
+     * data buffer can be read by getDirectData().
+     *
+     * @param sm The sample model of the raster.
+     *
+     * @param db The data buffer of the raster.
+     */
+    static boolean isDirectLayout(SampleModel sm, DataBuffer db)
+    {
+        if (sm instanceof ComponentSampleModel)
+            return db instanceof DataBufferByte || db instanceof DataBufferUShort;
+        return sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt;
+    }
+
+
     /**
      * Returns, in the blk argument, a block of image data containing the
      * specifed rectangular area, in the specified component. The data is
@@ -1036,6 +1193,9 @@ public class RenderedImageSrc implements BlkImgDataSrc
         if (sm.getDataType() == DataBuffer.TYPE_USHORT ||
             sm.getDataType() == DataBuffer.TYPE_BYTE)
             return false;
+        // Packed pixels (e.g. TYPE_INT_RGB) hold unsigned bit fields
+        if (sm instanceof SinglePixelPackedSampleModel)
+            return false;
         return true;
     }
 
@@ -1082,28 +1242,7 @@ public class RenderedImageSrc implements BlkImgDataSrc
             }
 
             WritableRaster ras = Raster.createWritableRaster(sm, new Point(sx, sy));
-
-            int x = mapToSourceX(sx);
-            int y = mapToSourceY(sy);
-
-            int minY = raster.getMinY();
-            int maxY = raster.getMinY() + raster.getHeight();
-
-            int cTileWidth = getTileWidth();
-            for (int j = 0; j < getTileHeight(); j++, sy++, y += scaleY) {
-                if (y < minY || y >= maxY)
-                    continue;
-                Raster source = raster.createChild(x, y, (cTileWidth - 1) * scaleX + 1, 1,
-                    x, y, null);
-                int tempX = sx;
-                for (int i = 0, offset = x; i < cTileWidth; i++, tempX++, offset += scaleX) {
-                    for (int k = 0; k < nc; k++) {
-                        int p = source.getSample(offset, y, sourceBands[k]);
-                        ras.setSample(tempX, sy, k, p);
-                    }
-                }
-            }
-
+            copySourceData(raster, ras);
             return ras;
 
         }
@@ -1120,38 +1259,132 @@ public class RenderedImageSrc implements BlkImgDataSrc
 
             WritableRaster ras = Raster.createWritableRaster(sm, new Point(sx, sy));
 
+            // Source area covered by the tile, clipped to the source region
             int x = mapToSourceX(sx);
             int y = mapToSourceY(sy);
+            int x1 = Math.min(x + (tileWidth - 1) * scaleX,
+                sourceRegion.x + sourceRegion.width - 1);
+            int y1 = Math.min(y + (tileHeight - 1) * scaleY,
+                sourceRegion.y + sourceRegion.height - 1);
+            x = Math.max(x, sourceRegion.x);
+            y = Math.max(y, sourceRegion.y);
+
+            // First source column of the next tile in this row, and first
+            // source row of the next row of tiles, if there are any
+            boolean nextX = sx + tileWidth < minX + w;
+            boolean nextY = sy + tileHeight < minY + h;
+            int xn = mapToSourceX(sx + tileWidth);
+            int yn = mapToSourceY(sy + tileHeight);
+            if (x > x1 || y > y1) {
+                if (!nextX && !nextY)
+                    srcTiles.clear();
+                return ras;
+            }
 
-            int minY = src.getMinY();
-            int maxY = src.getMinY() + src.getHeight();
-            int length = tileWidth * scaleX;
-
-            if (x + length >= src.getWidth())
-                length = src.getWidth() - x;
-            int dLength = (length + scaleX - 1) / scaleX;
-
-            for (int j = 0; j < tileHeight; j++, sy++, y += scaleY) {
-                if (y < minY || y >= maxY)
-                    continue;
+            // Copy from the source tiles rather than from rectangles of the
+            // image, which may straddle (and recompute) source tiles. Tiles
+            // are read in raster order, so that the source tiles reaching
+            // the next tile of this row or the next row of tiles are kept,
+            // and each source tile is only fetched once.
+            int tgx = src.getTileGridXOffset();
+            int tgy = src.getTileGridYOffset();
+            int stw = src.getTileWidth();
+            int sth = src.getTileHeight();
+            int tx0 = ToTile(x, tgx, stw), tx1 = ToTile(x1, tgx, stw);
+            int ty0 = ToTile(y, tgy, sth), ty1 = ToTile(y1, tgy, sth);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    Point key = new Point(tx, ty);
+                    Raster source = srcTiles.get(key);
+                    if (source == null) {
+                        source = src.getTile(tx, ty);
+                        srcTiles.put(key, source);
+                    }
+                    copySourceData(source, ras);
+                }
+            }
+            if (!nextX && !nextY) {
+                // Last tile
+                srcTiles.clear();
+                return ras;
+            }
+            Iterator<Map.Entry<Point, Raster>> it = srcTiles.entrySet().iterator();
+            while (it.hasNext()) {
+                Point key = it.next().getKey();
+                if (!(nextX && tgx + (key.x + 1) * stw > xn) &&
+                    !(nextY && tgy + (key.y + 1) * sth > yn))
+                    it.remove();
+            }
+            return ras;
+        }
+    }
 
-                Raster source = src.getData(new Rectangle(x, y, length, 1));
 
-                int tempX = sx;
-                for (int i = 0, offset = x; i < dLength; i++, tempX++, offset += scaleX) {
+    /**
+     * Returns the number of source tiles kept for the next tiles.
+     */
+    int getNumCachedSourceTiles()
+    {
+        return srcTiles.size();
+    }
 
-                    for (int k = 0; k < nc; k++) {
-                        int p = source.getSample(offset, y, sourceBands[k]);
 
-                        ras.setSample(tempX, sy, k, p);
-                    }
+    /**
+     * Copies the samples of the selected bands of 'source' that fall on the
+     * subsampling grid of the destination tile 'ras' into it. Only the part
+     * of the tile covered by 'source' is written.
+     *
+     * @param source A source raster, in the source image coordinates.
+     *
+     * @param ras The destination tile, in the destination coordinates.
+     */
+    private void copySourceData(Raster source, WritableRaster ras)
+    {
+        int sx = ras.getMinX();
+        int sy = ras.getMinY();
+        int x = mapToSourceX(sx);
+        int y = mapToSourceY(sy);
+
+        // Range of destination pixels whose source pixel is in 'source'
+        int i0 = firstOnGrid(source.getMinX() - x, scaleX);
+        int i1 = Math.min(ras.getWidth(),
+            firstOnGrid(source.getMinX() + source.getWidth() - x, scaleX));
+        int j0 = firstOnGrid(source.getMinY() - y, scaleY);
+        int j1 = Math.min(ras.getHeight(),
+            firstOnGrid(source.getMinY() + source.getHeight() - y, scaleY));
+        if (i0 >= i1 || j0 >= j1)
+            return;
+
+        int n = i1 - i0;
+        int span = (n - 1) * scaleX + 1;
+        if (buf == null || buf.length < span)
+            buf = new int[span];
+
+        for (int j = j0; j < j1; j++) {
+            for (int k = 0; k < nc; k++) {
+                source.getSamples(x + i0 * scaleX, y + j * scaleY, span, 1,
+                    sourceBands[k], buf);
+                if (scaleX > 1) {
+                    for (int i = 1; i < n; i++)
+                        buf[i] = buf[i * scaleX];
                 }
+                ras.setSamples(sx + i0, sy + j, n, 1, k, buf);
             }
-            return ras;
         }
     }
 
 
+    /**
+     * Returns the index of the first point of a subsampling grid, starting at
+     * 0 with the given step, that is not before the given position. Negative
+     * positions give 0.
+     */
+    private static int firstOnGrid(int pos, int step)
+    {
+        return pos <= 0 ? 0 : (pos + step - 1) / step;
+    }
+
+
     private int mapToSourceX(int x)
     {
         return x * scaleX + xOffset;
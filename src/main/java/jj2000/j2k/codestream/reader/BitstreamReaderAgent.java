@@ -54,6 +54,7 @@ import jj2000.j2k.entropy.decoder.CodedCBlkDataSrcDec;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.quantization.dequantizer.StdDequantizerParams;
 import jj2000.j2k.util.MathUtil;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 
@@ -236,6 +237,18 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec
     /** Actual decoding rate in bpp */
     protected float arate;
 
+    /**
+     * For each component whether its data is going to be requested, or null
+     * if the data of all components may be
+     */
+    protected boolean[] neededComps;
+
+    /**
+     * The statistics to which the work of this object is accounted, or null
+     * if none are collected
+     */
+    protected StageStats stats;
+
 
     /**
      * Initializes members of this class. This constructor takes a
@@ -380,7 +393,7 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec
     {
         // The minumum number of decomposition levels between all the
         // components
-        int mindl = decSpec.dls.getMinInTile(getTileIdx());
+        int mindl = decSpec.getTileSpecs(getTileIdx()).minDls;
         if (rl > mindl) {
             throw new IllegalArgumentException("Requested resolution level" +
                 " is not available for, at " +
@@ -428,7 +441,7 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec
     {
         // The minumum number of decomposition levels between all the
         // components
-        int mindl = decSpec.dls.getMinInTile(getTileIdx());
+        int mindl = decSpec.getTileSpecs(getTileIdx()).minDls;
         if (rl > mindl) {
             throw new IllegalArgumentException("Requested resolution level" +
                 " is not available for, at " +
@@ -1150,6 +1163,32 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec
     }
 
 
+    /**
+     * Specifies which components are going to be requested. The packets of
+     * the other components need not be read when the progression order
+     * allows to skip them. This must be called before the first tile is
+     * set.
+     *
+     * @param comps For each component whether its data is going to be
+     * requested, or null if the data of all components may be.
+     */
+    public void setNeededComps(boolean[] comps)
+    {
+        neededComps = comps;
+    }
+
+
+    /**
+     * Sets the statistics to which the work of this object is accounted.
+     *
+     * @param stats The statistics, or null to not collect any.
+     */
+    public void setStats(StageStats stats)
+    {
+        this.stats = stats;
+    }
+
+
     /**
      * Return the target decoding rate in bits per pixel.
      *
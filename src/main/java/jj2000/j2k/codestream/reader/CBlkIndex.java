@@ -0,0 +1,510 @@
+/*
+ * Class:                   CBlkIndex
+ *
+ * Description:             Location of the code-blocks' codewords in
+ *                          the current tile, in flat primitive arrays.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.codestream.reader;
+
+import java.util.Arrays;
+
+/**
+ * This class contains the location of the code-blocks' pieces of codewords
+ * in the current tile (there is one piece per layer), and some other
+ * information about the code-blocks.
+ *
+ * <P>
+ * All the code-blocks of the tile are given an ordinal (the 'id'), by
+ * component, resolution level, subband and then in raster order within the
+ * subband (see getId()). The per code-block information is kept in
+ * primitive arrays indexed by the id, and the per layer information in
+ * primitive arrays indexed by 'id*nl+l', where 'nl' is the number of layers
+ * of the tile. The arrays are reused from one tile to the next and only
+ * grow when a tile has more code-blocks or layers than any previous one, so
+ * that restarting a tile does not allocate one object per code-block.
+ *
+ * <P>
+ * A code-block is 'found' once it has been encountered in a packet head
+ * (see create()). The contents of the arrays for code-blocks which are not
+ * found are undefined.
+ */
+public class CBlkIndex
+{
+
+    /** The number of layers in the current tile */
+    private int nl;
+
+    /** The number of code-blocks in the current tile */
+    private int nBlk;
+
+    /**
+     * The id of the first code-block of each subband, indexed by component,
+     * resolution level and subband.
+     */
+    private int[][][] sbOff;
+
+    /** The number of code-blocks in each subband, horizontally */
+    private int[][][] sbNumX;
+
+    /** The number of code-blocks in each subband, vertically */
+    private int[][][] sbNumY;
+
+    /** Whether each code-block has been found in the codestream */
+    private boolean[] found;
+
+    /**
+     * Upper-left x-coordinate of each code-block (relative to the tile)
+     */
+    public int[] ulx;
+
+    /**
+     * Upper-left y-coordinate of each code-block (relative to the tile)
+     */
+    public int[] uly;
+
+    /** Width of each code-block */
+    public int[] w;
+
+    /** Height of each code-block */
+    public int[] h;
+
+    /**
+     * The number of most significant bits which are skipped for each
+     * code-block (= Mb-1-bitDepth). See VM text
+     */
+    public int[] msbSkipped;
+
+    /** The cumulative number of truncation points of each code-block */
+    public int[] ctp;
+
+    /**
+     * Length of each piece of code-block's codewords, indexed by
+     * 'id*nl+l'
+     */
+    public int[] len;
+
+    /**
+     * Offset of each piece of code-block's codewords in the file, indexed
+     * by 'id*nl+l'
+     */
+    public int[] off;
+
+    /** The number of truncation points of each layer, indexed by 'id*nl+l' */
+    public int[] ntp;
+
+    /**
+     * Index of the packet where each layer has been found, indexed by
+     * 'id*nl+l'
+     */
+    public int[] pktIdx;
+
+    /**
+     * The position in 'segLen' of the segment lengths of each layer, indexed
+     * by 'id*nl+l', or -1 if there is a single segment in the layer (whose
+     * length is then 'len').
+     */
+    public int[] segIdx;
+
+    /**
+     * The length of the segments (used with regular termination or in
+     * selective arithmetic bypass coding mode). At the position given by
+     * 'segIdx' is the number of segments in the layer, followed by their
+     * lengths.
+     */
+    public int[] segLen = new int[64];
+
+    /** The number of used elements in 'segLen' */
+    private int segUsed;
+
+
+    /** Creates an empty index. It must be reset before being used. */
+    public CBlkIndex()
+    {
+        found = new boolean[0];
+        ulx = uly = w = h = msbSkipped = ctp = new int[0];
+    }
+
+
+    /**
+     * Starts the index of a new tile. All the code-blocks of the previous
+     * tile are forgotten and the subbands of the new tile must then be
+     * added with addSubband().
+     *
+     * @param nc The number of components in the tile
+     *
+     * @param mdl The maximum number of decomposition levels in each
+     * component of the tile
+     *
+     * @param nl The number of layers in the tile
+     */
+    public void reset(int nc, int[] mdl, int nl)
+    {
+        Arrays.fill(found, 0, nBlk, false);
+        nBlk = 0;
+        segUsed = 0;
+        if (this.nl != nl) {
+            this.nl = nl;
+            len = null;
+        }
+        if (sbOff == null || sbOff.length != nc) {
+            sbOff = new int[nc][][];
+            sbNumX = new int[nc][][];
+            sbNumY = new int[nc][][];
+        }
+        for (int c = 0; c < nc; c++) {
+            if (sbOff[c] == null || sbOff[c].length != mdl[c] + 1) {
+                sbOff[c] = new int[mdl[c] + 1][4];
+                sbNumX[c] = new int[mdl[c] + 1][4];
+                sbNumY[c] = new int[mdl[c] + 1][4];
+            }
+            for (int r = 0; r <= mdl[c]; r++) {
+                Arrays.fill(sbNumX[c][r], 0);
+                Arrays.fill(sbNumY[c][r], 0);
+            }
+        }
+    }
+
+
+    /**
+     * Adds the code-blocks of a subband to the index. The subbands must be
+     * added by increasing component, resolution level and subband index.
+     * Subbands may be added after code-blocks of the previous ones have
+     * been found, their information is kept.
+     *
+     * @param c The component index
+     *
+     * @param r The resolution level index
+     *
+     * @param s The subband index
+     *
+     * @param nx The number of code-blocks in the subband, horizontally
+     *
+     * @param ny The number of code-blocks in the subband, vertically
+     */
+    public void addSubband(int c, int r, int s, int nx, int ny)
+    {
+        sbOff[c][r][s] = nBlk;
+        sbNumX[c][r][s] = nx;
+        sbNumY[c][r][s] = ny;
+        nBlk += nx * ny;
+
+        // The arrays are copied when they grow, as code-blocks of the
+        // subbands added before may already have been found
+        if (found.length < nBlk) {
+            int n = Math.max(nBlk, found.length + (found.length >> 1));
+            found = Arrays.copyOf(found, n);
+            ulx = Arrays.copyOf(ulx, n);
+            uly = Arrays.copyOf(uly, n);
+            w = Arrays.copyOf(w, n);
+            h = Arrays.copyOf(h, n);
+            msbSkipped = Arrays.copyOf(msbSkipped, n);
+            ctp = Arrays.copyOf(ctp, n);
+        }
+        if (len == null) {
+            // The number of layers changed in reset(), nothing is found yet
+            int n = found.length * nl;
+            len = new int[n];
+            off = new int[n];
+            ntp = new int[n];
+            pktIdx = new int[n];
+            segIdx = new int[n];
+        }
+        else if (len.length < found.length * nl) {
+            int n = found.length * nl;
+            len = Arrays.copyOf(len, n);
+            off = Arrays.copyOf(off, n);
+            ntp = Arrays.copyOf(ntp, n);
+            pktIdx = Arrays.copyOf(pktIdx, n);
+            segIdx = Arrays.copyOf(segIdx, n);
+        }
+    }
+
+
+    /** Returns the number of code-blocks of the current tile */
+    public int getNumCBlks()
+    {
+        return nBlk;
+    }
+
+
+    /** Returns the number of layers of the current tile */
+    public int getNumLayers()
+    {
+        return nl;
+    }
+
+
+    /**
+     * Returns the number of components of the current tile, or 0 if the
+     * index has not been reset yet.
+     */
+    public int getNumComps()
+    {
+        return (sbOff == null) ? 0 : sbOff.length;
+    }
+
+
+    /**
+     * Returns the number of resolution levels of a component in the current
+     * tile.
+     *
+     * @param c The component index
+     */
+    public int getNumResLvls(int c)
+    {
+        return sbOff[c].length;
+    }
+
+
+    /**
+     * Returns the number of code-blocks of a subband, horizontally, or 0 if
+     * the subband does not exist in the current tile.
+     *
+     * @param c The component index
+     *
+     * @param r The resolution level index
+     *
+     * @param s The subband index
+     */
+    public int getNumCBlksX(int c, int r, int s)
+    {
+        if (c >= sbOff.length || r >= sbOff[c].length || s > 3) {
+            return 0;
+        }
+        return sbNumX[c][r][s];
+    }
+
+
+    /**
+     * Returns the number of code-blocks of a subband, vertically, or 0 if
+     * the subband does not exist in the current tile.
+     *
+     * @param c The component index
+     *
+     * @param r The resolution level index
+     *
+     * @param s The subband index
+     */
+    public int getNumCBlksY(int c, int r, int s)
+    {
+        if (c >= sbOff.length || r >= sbOff[c].length || s > 3) {
+            return 0;
+        }
+        return sbNumY[c][r][s];
+    }
+
+
+    /**
+     * Returns the id of a code-block in the current tile.
+     *
+     * @param c The component index
+     *
+     * @param r The resolution level index
+     *
+     * @param s The subband index
+     *
+     * @param m The vertical index of the code-block in the subband
+     *
+     * @param n The horizontal index of the code-block in the subband
+     *
+     * @return The code-block id, or -1 if there is no such code-block in
+     * the current tile.
+     */
+    public int getId(int c, int r, int s, int m, int n)
+    {
+        if (c < 0 || c >= sbOff.length || r < 0 || r >= sbOff[c].length ||
+            s < 0 || s > 3) {
+            return -1;
+        }
+        int nx = sbNumX[c][r][s];
+        if (m < 0 || m >= sbNumY[c][r][s] || n < 0 || n >= nx) {
+            return -1;
+        }
+        return sbOff[c][r][s] + m * nx + n;
+    }
+
+
+    /**
+     * Returns true if the code-block has been found in the codestream.
+     *
+     * @param id The code-block id
+     */
+    public boolean isFound(int id)
+    {
+        return found[id];
+    }
+
+
+    /**
+     * Marks a code-block as found in the codestream and initializes its
+     * information, without any truncation point in any layer.
+     *
+     * @param id The code-block id
+     *
+     * @param ulx The upper-left x-coordinate
+     *
+     * @param uly The upper-left y-coordinate
+     *
+     * @param w Width of the code-block
+     *
+     * @param h Height of the code-block
+     */
+    public void create(int id, int ulx, int uly, int w, int h)
+    {
+        found[id] = true;
+        this.ulx[id] = ulx;
+        this.uly[id] = uly;
+        this.w[id] = w;
+        this.h[id] = h;
+        msbSkipped[id] = 0;
+        ctp[id] = 0;
+        int k0 = id * nl, k1 = k0 + nl;
+        Arrays.fill(len, k0, k1, 0);
+        Arrays.fill(off, k0, k1, 0);
+        Arrays.fill(ntp, k0, k1, 0);
+        Arrays.fill(pktIdx, k0, k1, -1);
+        Arrays.fill(segIdx, k0, k1, -1);
+    }
+
+
+    /**
+     * Removes the information found for a code-block in a layer. If the
+     * layer is the first one, the code-block is marked as not found.
+     *
+     * @param id The code-block id
+     *
+     * @param l The layer index
+     */
+    public void remove(int id, int l)
+    {
+        if (l == 0) {
+            found[id] = false;
+        }
+        else {
+            int k = id * nl + l;
+            off[k] = len[k] = 0;
+            ctp[id] -= ntp[k];
+            ntp[k] = 0;
+            pktIdx[k] = -1;
+        }
+    }
+
+
+    /**
+     * Marks a code-block as not found.
+     *
+     * @param id The code-block id
+     */
+    public void remove(int id)
+    {
+        found[id] = false;
+    }
+
+
+    /**
+     * Sets the number of new truncation points of a code-block for the
+     * specified layer.
+     *
+     * @param id The code-block id
+     *
+     * @param l layer index
+     *
+     * @param newtp Number of new truncation points
+     */
+    public void addNTP(int id, int l, int newtp)
+    {
+        int k0 = id * nl;
+        ntp[k0 + l] = newtp;
+        int n = 0;
+        for (int k = k0 + l; k >= k0; k--) {
+            n += ntp[k];
+        }
+        ctp[id] = n;
+    }
+
+
+    /**
+     * Allocates the segment lengths of a code-block in a layer. The lengths
+     * are then to be written in 'segLen', from the returned position on.
+     *
+     * @param id The code-block id
+     *
+     * @param l layer index
+     *
+     * @param nSeg The number of segments
+     *
+     * @return The position in 'segLen' of the first segment length.
+     */
+    public int allocSegLen(int id, int l, int nSeg)
+    {
+        if (segUsed + nSeg + 1 > segLen.length) {
+            segLen = Arrays.copyOf(segLen,
+                Math.max(segUsed + nSeg + 1, 2 * segLen.length));
+        }
+        segIdx[id * nl + l] = segUsed;
+        segLen[segUsed] = nSeg;
+        segUsed += nSeg + 1;
+        return segUsed - nSeg;
+    }
+
+
+    /**
+     * Code-block information in a string.
+     *
+     * @param id The code-block id
+     *
+     * @return Code-block information
+     */
+    public String toString(int id)
+    {
+        String string = "(ulx,uly,w,h)= " + ulx[id] + "," + uly[id] + "," + w[id] + "," + h[id];
+        string += ", " + msbSkipped[id] + " MSB bit(s) skipped\n";
+        for (int i = 0; i < nl; i++) {
+            int k = id * nl + i;
+            string += "\tl:" + i + ", start:" + off[k] +
+                ", len:" + len[k] + ", ntp:" + ntp[k] + ", pktIdx=" +
+                pktIdx[k];
+            if (segIdx[k] >= 0) {
+                string += " { ";
+                for (int j = 1; j <= segLen[segIdx[k]]; j++)
+                    string += segLen[segIdx[k] + j] + " ";
+                string += "}";
+            }
+            string += "\n";
+        }
+        string += "\tctp=" + ctp[id];
+        return string;
+    }
+}
@@ -52,7 +52,11 @@ package jj2000.j2k.codestream.reader;
  * This class contains location of code-blocks' piece of codewords
  * (there is one piece per layer) and some other information.
  *
+ * @deprecated The decoder keeps the code-blocks of the current tile in a
+ * {@link CBlkIndex}. Instances of this class are only created as a copy of
+ * it, see {@link FileBitstreamReaderAgent#getCBlkInfo()}.
  */
+@Deprecated
 public class CBlkInfo
 {
 
@@ -152,6 +156,81 @@ public class CBlkInfo
     }
 
 
+    /**
+     * Copies the code-blocks of the current tile of an index into a new
+     * array, indexed as the decoder did before using the index: by
+     * component, resolution level, subband and then vertical and
+     * horizontal code-block index. The elements of code-blocks which have
+     * not been found are null.
+     *
+     * @param idx The code-blocks index
+     *
+     * @return The code-blocks array
+     *
+     */
+    static CBlkInfo[][][][][] fromIndex(CBlkIndex idx)
+    {
+        int nl = idx.getNumLayers();
+        CBlkInfo[][][][][] cbI = new CBlkInfo[idx.getNumComps()][][][][];
+        for (int c = 0; c < cbI.length; c++) {
+            cbI[c] = new CBlkInfo[idx.getNumResLvls(c)][][][];
+            for (int r = 0; r < cbI[c].length; r++) {
+                int mins = (r == 0) ? 0 : 1;
+                int maxs = (r == 0) ? 1 : 4;
+                cbI[c][r] = new CBlkInfo[maxs + 1][][];
+                for (int s = mins; s < maxs; s++) {
+                    int nx = idx.getNumCBlksX(c, r, s);
+                    int ny = idx.getNumCBlksY(c, r, s);
+                    cbI[c][r][s] = new CBlkInfo[ny][nx];
+                    for (int m = 0; m < ny; m++) {
+                        for (int n = 0; n < nx; n++) {
+                            int id = idx.getId(c, r, s, m, n);
+                            if (idx.isFound(id)) {
+                                cbI[c][r][s][m][n] = fromIndex(idx, id, nl);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return cbI;
+    }
+
+
+    /**
+     * Copies one code-block of an index.
+     *
+     * @param idx The code-blocks index
+     *
+     * @param id The code-block id
+     *
+     * @param nl The number of layers
+     *
+     * @return The code-block information
+     *
+     */
+    private static CBlkInfo fromIndex(CBlkIndex idx, int id, int nl)
+    {
+        CBlkInfo ci = new CBlkInfo(idx.ulx[id], idx.uly[id], idx.w[id],
+                                   idx.h[id], nl);
+        ci.msbSkipped = idx.msbSkipped[id];
+        ci.ctp = idx.ctp[id];
+        System.arraycopy(idx.len, id * nl, ci.len, 0, nl);
+        System.arraycopy(idx.off, id * nl, ci.off, 0, nl);
+        System.arraycopy(idx.ntp, id * nl, ci.ntp, 0, nl);
+        System.arraycopy(idx.pktIdx, id * nl, ci.pktIdx, 0, nl);
+        for (int l = 0; l < nl; l++) {
+            int k = idx.segIdx[id * nl + l];
+            if (k >= 0) {
+                ci.segLen[l] = new int[idx.segLen[k]];
+                System.arraycopy(idx.segLen, k + 1, ci.segLen[l], 0,
+                                 ci.segLen[l].length);
+            }
+        }
+        return ci;
+    }
+
+
     /**
      * Object information in a string.
      *
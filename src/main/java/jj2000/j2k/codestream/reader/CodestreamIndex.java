@@ -0,0 +1,645 @@
+/*
+ * Class:                   CodestreamIndex
+ *
+ * Description:             Persistent index of the tile-parts, packets
+ *                          and code-blocks of a codestream.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.codestream.reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
+
+import jj2000.j2k.codestream.CorruptedCodestreamException;
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.Markers;
+import jj2000.j2k.io.RandomAccessIO;
+
+/**
+ * This class contains the location of the tile-parts, packets and
+ * code-block data of all the tiles of a codestream, so that a
+ * FileBitstreamReaderAgent can seek directly to the tile-parts of any tile
+ * and skip the parsing of its packet heads, without TLM or PLT marker
+ * segments in the codestream.
+ *
+ * <P>
+ * An index is built once by reading the headers of all the tile-parts and
+ * packets (see build()). It can be written to a stream in a compact binary
+ * form and read back when the codestream is opened again. It records the
+ * length of the stream, the position of the codestream in it and a SHA-1
+ * hash of the main header, and is only read back for a stream on which all
+ * of them match. The written index ends with a CRC-32 of its contents.
+ *
+ * <P>
+ * The packets and code-blocks of each tile are kept compressed, in a flat
+ * array of integers which is only decompressed when the tile is read. The
+ * array starts with the number of values of the packets, followed by 7
+ * values per packet as in PktIndex. Then come the number of code-blocks
+ * and layers of the tile and the number of code-blocks found, followed for
+ * each found code-block by its id, upper-left coordinates, dimensions,
+ * number of skipped most significant bit-planes and cumulative number of
+ * truncation points, and for each of its layers by the length and offset
+ * of its data, its number of truncation points, the index of its packet
+ * and the number of its segment lengths (-1 if there are none) followed by
+ * these lengths. See CBlkIndex.
+ *
+ * @see FileBitstreamReaderAgent#setCodestreamIndex
+ */
+public class CodestreamIndex
+{
+
+    /** The first bytes of a written index ("J2KI") */
+    private static final int MAGIC = 0x4a324b49;
+
+    /** The version of the format of a written index */
+    private static final int VERSION = 1;
+
+    /** The number of values kept for each packet, see getPackets() */
+    static final int PKT_SIZE = 7;
+
+    /** The position of the head length among the values of a packet */
+    static final int PKT_HEAD_LEN = 5;
+
+    /** The position of the length among the values of a packet */
+    static final int PKT_LEN = 6;
+
+    /** The number of values kept for each found code-block, before layers */
+    private static final int CBLK_SIZE = 7;
+
+    /** The number of values kept for each layer of a code-block */
+    private static final int LYR_SIZE = 5;
+
+    /** The length of the stream */
+    private final int length;
+
+    /** The position of the codestream in the stream */
+    private final int start;
+
+    /** The SHA-1 hash of the main header */
+    private final byte[] hash;
+
+    /**
+     * The stream position of the tile-parts of each tile, or null for a
+     * tile of which no tile-part was found.
+     */
+    private final long[][] tilePartPos;
+
+    /** The compressed packets and code-blocks of each tile */
+    private final byte[][] data;
+
+    /** The number of values of the packets and code-blocks of each tile */
+    private final int[] dataLen;
+
+    /** The tile whose packets and code-blocks are decompressed, or -1 */
+    private int curTile = -1;
+
+    /** The decompressed packets and code-blocks of 'curTile' */
+    private int[] cur;
+
+
+    private CodestreamIndex(int length, int start, byte[] hash, int nt)
+    {
+        this.length = length;
+        this.start = start;
+        this.hash = hash;
+        tilePartPos = new long[nt][];
+        data = new byte[nt][];
+        dataLen = new int[nt];
+    }
+
+
+    /**
+     * Builds the index of a codestream by reading the headers of all its
+     * tile-parts and packets. The position of the stream is restored.
+     *
+     * @param in The stream.
+     *
+     * @param start The position of the codestream in the stream.
+     *
+     * @return The index of the codestream.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted.
+     */
+    public static CodestreamIndex build(RandomAccessIO in, int start)
+        throws IOException
+    {
+        int savePos = in.getPos();
+        try {
+            byte[] hash = hashMainHeader(in, start);
+            in.seek(start);
+            J2KImageReadParamJava param = new J2KImageReadParamJava();
+            HeaderInfo hi = new HeaderInfo();
+            HeaderDecoder hd = new HeaderDecoder(in, param, hi);
+            FileBitstreamReaderAgent breader = new FileBitstreamReaderAgent(hd,
+                in, hd.getDecoderSpecs(), param, false, hi);
+            PktIndex pktIndex = new PktIndex();
+            breader.setPktIndex(pktIndex);
+
+            int ntX = breader.getNumTiles(null).x;
+            int nt = breader.getNumTiles();
+            CodestreamIndex index = new CodestreamIndex(in.length(), start,
+                hash, nt);
+            for (int t = 0; t < nt; t++) {
+                breader.setTile(t % ntX, t / ntX);
+                int[] d = getTileData(pktIndex, breader.getCBlkIndex());
+                index.data[t] = deflate(d);
+                index.dataLen[t] = d.length;
+            }
+            // The tile-parts of a tile may follow those of the next tiles
+            for (int t = 0; t < nt; t++) {
+                index.tilePartPos[t] = breader.getTilePartPositions(t);
+            }
+            return index;
+        }
+        finally {
+            in.seek(savePos);
+        }
+    }
+
+
+    /**
+     * Reads an index written with write(), for the codestream at the given
+     * position of a stream. The position of the stream is restored.
+     *
+     * @param is The stream from which the index is read. It is not closed.
+     *
+     * @param in The stream of the codestream.
+     *
+     * @param start The position of the codestream in the stream.
+     *
+     * @return The index, or null if it was written by another version of
+     * this class or for another stream or codestream.
+     *
+     * @exception IOException If an I/O error occurs, or if the index or the
+     * main header of the codestream are corrupted.
+     */
+    public static CodestreamIndex read(InputStream is, RandomAccessIO in,
+        int start) throws IOException
+    {
+        CheckedInputStream cis = new CheckedInputStream(
+            new BufferedInputStream(is), new CRC32());
+        DataInputStream din = new DataInputStream(cis);
+        if (din.readInt() != MAGIC) {
+            throw new IOException("Not a codestream index");
+        }
+        if (din.readInt() != VERSION) {
+            return null;
+        }
+        int length = din.readInt();
+        int st = din.readInt();
+        byte[] hash = new byte[din.readUnsignedByte()];
+        din.readFully(hash);
+        int nt = din.readInt();
+
+        int savePos = in.getPos();
+        try {
+            if (length != in.length() || st != start ||
+                !Arrays.equals(hash, hashMainHeader(in, start))) {
+                return null;
+            }
+        }
+        finally {
+            in.seek(savePos);
+        }
+
+        if (nt < 0) {
+            throw new IOException("Corrupted codestream index");
+        }
+        CodestreamIndex index = new CodestreamIndex(length, start, hash, nt);
+        for (int t = 0; t < nt; t++) {
+            int n = din.readInt();
+            if (n >= 0) {
+                long[] pos = index.tilePartPos[t] = new long[n];
+                for (int i = 0; i < n; i++) {
+                    pos[i] = din.readLong();
+                }
+            }
+            index.dataLen[t] = din.readInt();
+            n = din.readInt();
+            if (index.dataLen[t] < 0 || n < 0) {
+                throw new IOException("Corrupted codestream index");
+            }
+            din.readFully(index.data[t] = new byte[n]);
+        }
+        int crc = (int)cis.getChecksum().getValue();
+        if (din.readInt() != crc) {
+            throw new IOException("Corrupted codestream index");
+        }
+        return index;
+    }
+
+
+    /**
+     * Writes the index in a compact binary form.
+     *
+     * @param os The stream to which the index is written. It is not closed.
+     *
+     * @exception IOException If an I/O error occurs.
+     */
+    public void write(OutputStream os) throws IOException
+    {
+        CheckedOutputStream cos = new CheckedOutputStream(
+            new BufferedOutputStream(os), new CRC32());
+        DataOutputStream out = new DataOutputStream(cos);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(length);
+        out.writeInt(start);
+        out.writeByte(hash.length);
+        out.write(hash);
+        out.writeInt(tilePartPos.length);
+        for (int t = 0; t < tilePartPos.length; t++) {
+            long[] pos = tilePartPos[t];
+            out.writeInt(pos == null ? -1 : pos.length);
+            for (int i = 0; pos != null && i < pos.length; i++) {
+                out.writeLong(pos[i]);
+            }
+            out.writeInt(dataLen[t]);
+            out.writeInt(data[t].length);
+            out.write(data[t]);
+        }
+        out.writeInt((int)cos.getChecksum().getValue());
+        out.flush();
+    }
+
+
+    /** Returns the number of tiles of the codestream. */
+    public int getNumTiles()
+    {
+        return tilePartPos.length;
+    }
+
+
+    /**
+     * Returns the stream position of the tile-parts of each tile, in the
+     * form of FileBitstreamReaderAgent.tilePartPositions, or null if no
+     * tile-part of some tile was found.
+     */
+    long[][] getTilePartPositions()
+    {
+        for (int t = 0; t < tilePartPos.length; t++) {
+            if (tilePartPos[t] == null) {
+                return null;
+            }
+        }
+        return tilePartPos;
+    }
+
+
+    /**
+     * Returns the packets of a tile, in the order in which they are found in
+     * the codestream. Each packet takes PKT_SIZE values: its layer, resolution
+     * level, component, precinct, stream offset, head length and length, as
+     * in PktIndex. The packets start at index 1 of the returned array, and
+     * their number of values is at index 0. The array must not be modified.
+     *
+     * @param t The tile index.
+     *
+     * @return The packets, or null if the packets of the tile cannot be
+     * decompressed.
+     */
+    int[] getPackets(int t)
+    {
+        return loadTile(t) ? cur : null;
+    }
+
+
+    /**
+     * Restores the code-block information of a tile, as found when reading
+     * its packets. The index must have been reset for the tile, and none of
+     * its code-blocks found.
+     *
+     * @param t The tile index.
+     *
+     * @param cbI The code-block index of the tile.
+     *
+     * @return False if the code-blocks of the tile cannot be decompressed,
+     * or if the tile of the codestream index has not the same number of
+     * code-blocks or layers, in which case nothing is restored.
+     */
+    boolean restore(int t, CBlkIndex cbI)
+    {
+        if (!loadTile(t)) {
+            return false;
+        }
+        int[] d = cur;
+        int i = 1 + d[0];
+        int nl = cbI.getNumLayers();
+        if (d[i] != cbI.getNumCBlks() || d[i + 1] != nl) {
+            return false;
+        }
+        int nFound = d[i + 2];
+        i += 3;
+        for (int b = 0; b < nFound; b++) {
+            int id = d[i];
+            cbI.create(id, d[i + 1], d[i + 2], d[i + 3], d[i + 4]);
+            cbI.msbSkipped[id] = d[i + 5];
+            cbI.ctp[id] = d[i + 6];
+            i += CBLK_SIZE;
+            for (int l = 0, k = id * nl; l < nl; l++, k++) {
+                cbI.len[k] = d[i];
+                cbI.off[k] = d[i + 1];
+                cbI.ntp[k] = d[i + 2];
+                cbI.pktIdx[k] = d[i + 3];
+                int nSeg = d[i + 4];
+                i += LYR_SIZE;
+                if (nSeg >= 0) {
+                    int pos = cbI.allocSegLen(id, l, nSeg);
+                    System.arraycopy(d, i, cbI.segLen, pos, nSeg);
+                    i += nSeg;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Decompresses the packets and code-blocks of a tile, unless they
+     * already are.
+     *
+     * @return False if they cannot be decompressed or are not consistent.
+     */
+    private boolean loadTile(int t)
+    {
+        if (curTile == t) {
+            return true;
+        }
+        curTile = -1;
+        cur = null;
+        int[] d;
+        try {
+            d = inflate(data[t], dataLen[t]);
+        }
+        catch (DataFormatException e) {
+            return false;
+        }
+        if (!isValid(d)) {
+            return false;
+        }
+        cur = d;
+        curTile = t;
+        return true;
+    }
+
+
+    /**
+     * Returns the packets and code-blocks of the current tile of a packet
+     * index and a code-block index, in the form kept for each tile.
+     */
+    private static int[] getTileData(PktIndex pktIndex, CBlkIndex cbI)
+    {
+        int nPkt = pktIndex.getNumPackets();
+        int nBlk = cbI.getNumCBlks();
+        int nl = cbI.getNumLayers();
+        int n = 1 + nPkt * PKT_SIZE + 3;
+        int nFound = 0;
+        for (int id = 0; id < nBlk; id++) {
+            if (!cbI.isFound(id)) {
+                continue;
+            }
+            nFound++;
+            n += CBLK_SIZE + nl * LYR_SIZE;
+            for (int k = id * nl; k < (id + 1) * nl; k++) {
+                if (cbI.segIdx[k] >= 0) {
+                    n += cbI.segLen[cbI.segIdx[k]];
+                }
+            }
+        }
+
+        int[] d = new int[n];
+        int i = 0;
+        d[i++] = nPkt * PKT_SIZE;
+        for (int p = 0; p < nPkt; p++) {
+            d[i++] = pktIndex.getLayer(p);
+            d[i++] = pktIndex.getResLvl(p);
+            d[i++] = pktIndex.getComp(p);
+            d[i++] = pktIndex.getPrecinct(p);
+            d[i++] = pktIndex.getOffset(p);
+            d[i++] = pktIndex.getHeadLength(p);
+            d[i++] = pktIndex.getLength(p);
+        }
+        d[i++] = nBlk;
+        d[i++] = nl;
+        d[i++] = nFound;
+        for (int id = 0; id < nBlk; id++) {
+            if (!cbI.isFound(id)) {
+                continue;
+            }
+            d[i++] = id;
+            d[i++] = cbI.ulx[id];
+            d[i++] = cbI.uly[id];
+            d[i++] = cbI.w[id];
+            d[i++] = cbI.h[id];
+            d[i++] = cbI.msbSkipped[id];
+            d[i++] = cbI.ctp[id];
+            for (int k = id * nl; k < (id + 1) * nl; k++) {
+                d[i++] = cbI.len[k];
+                d[i++] = cbI.off[k];
+                d[i++] = cbI.ntp[k];
+                d[i++] = cbI.pktIdx[k];
+                int s = cbI.segIdx[k];
+                if (s < 0) {
+                    d[i++] = -1;
+                }
+                else {
+                    int nSeg = cbI.segLen[s];
+                    d[i++] = nSeg;
+                    System.arraycopy(cbI.segLen, s + 1, d, i, nSeg);
+                    i += nSeg;
+                }
+            }
+        }
+        return d;
+    }
+
+
+    /**
+     * Checks that the packets and code-blocks of a tile are consistent, so
+     * that they can be restored.
+     */
+    private static boolean isValid(int[] d)
+    {
+        if (d.length < 4 || d[0] < 0 || d[0] % PKT_SIZE != 0 ||
+            d[0] > d.length - 4) {
+            return false;
+        }
+        int i = 1 + d[0];
+        int nBlk = d[i], nl = d[i + 1], nFound = d[i + 2];
+        if (nBlk < 0 || nl < 0 || nFound < 0 || nFound > nBlk) {
+            return false;
+        }
+        i += 3;
+        for (int b = 0; b < nFound; b++) {
+            if (i + CBLK_SIZE > d.length || d[i] < 0 || d[i] >= nBlk) {
+                return false;
+            }
+            i += CBLK_SIZE;
+            for (int l = 0; l < nl; l++) {
+                if (i + LYR_SIZE > d.length) {
+                    return false;
+                }
+                int nSeg = d[i + 4];
+                i += LYR_SIZE;
+                if (nSeg > d.length - i) {
+                    return false;
+                }
+                if (nSeg > 0) {
+                    i += nSeg;
+                }
+            }
+        }
+        return i == d.length;
+    }
+
+
+    /** Compresses an array of integers. */
+    private static byte[] deflate(int[] d)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4 * d.length);
+        buf.asIntBuffer().put(d);
+        Deflater deflater = new Deflater();
+        deflater.setInput(buf.array());
+        deflater.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] out = new byte[4096];
+        while (!deflater.finished()) {
+            bos.write(out, 0, deflater.deflate(out));
+        }
+        deflater.end();
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Decompresses an array of integers compressed with deflate().
+     *
+     * @param z The compressed data.
+     *
+     * @param n The number of integers.
+     */
+    private static int[] inflate(byte[] z, int n) throws DataFormatException
+    {
+        byte[] b = new byte[4 * n];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(z);
+            int off = 0;
+            while (off < b.length && !inflater.finished()) {
+                int k = inflater.inflate(b, off, b.length - off);
+                if (k == 0 && inflater.needsInput()) {
+                    break;
+                }
+                off += k;
+            }
+            // Reaching the end of the data checks its checksum
+            if (off != b.length || inflater.inflate(new byte[1]) != 0 ||
+                !inflater.finished()) {
+                throw new DataFormatException("Unexpected length");
+            }
+        }
+        finally {
+            inflater.end();
+        }
+        int[] d = new int[n];
+        ByteBuffer.wrap(b).asIntBuffer().get(d);
+        return d;
+    }
+
+
+    /**
+     * Computes the SHA-1 hash of the main header of a codestream, from its
+     * SOC marker to its first SOT marker.
+     *
+     * @param in The stream, which is left after the main header.
+     *
+     * @param start The position of the codestream in the stream.
+     */
+    private static byte[] hashMainHeader(RandomAccessIO in, int start)
+        throws IOException
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-1 digest not available");
+        }
+        in.seek(start);
+        if (in.readShort() != Markers.SOC) {
+            throw new CorruptedCodestreamException("SOC marker not found");
+        }
+        byte[] buf = new byte[256];
+        buf[0] = (byte)(Markers.SOC >> 8);
+        buf[1] = (byte)Markers.SOC;
+        md.update(buf, 0, 2);
+        short marker;
+        while ((marker = in.readShort()) != Markers.SOT) {
+            int len = in.readUnsignedShort();
+            if (len < 2) {
+                throw new CorruptedCodestreamException("Marker segment " +
+                    Integer.toHexString(marker & 0xffff) + " too short");
+            }
+            if (len + 2 > buf.length) {
+                buf = new byte[len + 2];
+            }
+            buf[0] = (byte)(marker >> 8);
+            buf[1] = (byte)marker;
+            buf[2] = (byte)(len >> 8);
+            buf[3] = (byte)len;
+            in.readFully(buf, 4, len - 2);
+            md.update(buf, 0, len + 2);
+        }
+        return md.digest();
+    }
+}
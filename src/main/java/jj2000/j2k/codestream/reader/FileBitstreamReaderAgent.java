@@ -49,11 +49,11 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
 
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageInputStreamImpl;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
 
 import jj2000.j2k.JJ2KExceptionHandler;
@@ -65,6 +65,7 @@ import jj2000.j2k.codestream.Markers;
 import jj2000.j2k.codestream.PrecInfo;
 import jj2000.j2k.codestream.ProgressionType;
 import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.decoder.TileDecoderSpecs;
 import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.entropy.decoder.DecLyrdCBlk;
 import jj2000.j2k.io.RandomAccessIO;
@@ -72,6 +73,7 @@ import jj2000.j2k.quantization.dequantizer.StdDequantizerParams;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MathUtil;
 import jj2000.j2k.util.MsgLogger;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 
 /**
@@ -111,6 +113,19 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     /** The RandomAccessIO where to get data from */
     private RandomAccessIO in;
 
+    /** The buffer serving the packets of the current tile, reading from 'in' */
+    private TilePartBuffer tpBuf;
+
+
+    /**
+     * Gets the reference to the buffer serving the packets of the current
+     * tile, which also counts the read and seek operations on the stream
+     */
+    public TilePartBuffer getTilePartBuffer()
+    {
+        return tpBuf;
+    }
+
     /** The number of tiles in the image */
     private int nt;
 
@@ -175,7 +190,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     private int[][] tilePartHeadLen;
 
     /** Length of each packet head found in the tile */
-    private Vector pktHL;
+    private int[] pktHL = new int[64];
+
+    /** Number of packet heads found in the tile */
+    private int nPktHL;
+
+    /** Whether the packets of the tile were restored from the index */
+    private boolean pktsRestored;
 
     /** True if truncation mode is used. False if parsing mode */
     private boolean isTruncMode;
@@ -210,22 +231,133 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      */
     private HeaderInfo hi;
 
-    /**
-     * Array containing info. for all the code-blocks:<br>
-     * - 1st dim: component index.<br>
-     * - 2nd dim: resolution level index.<br>
-     * - 3rd dim: subband index.<br>
-     * - 4th/5th dim: code-block index (vert. and horiz.).<br>
-     */
-    private CBlkInfo[][][][][] cbI;
+    /** Index with info. for all the code-blocks of the current tile */
+    private CBlkIndex cbI = new CBlkIndex();
+
+    /** The index receiving the packets of each tile read, or null */
+    private PktIndex pktIndex;
+
+    /** The index of the tile-parts and packets of the codestream, or null */
+    private CodestreamIndex index;
+
+    /** Whether PPM marker segments are present in the main header */
+    private boolean ppmFound;
 
 
-    /** Gets the reference to the CBlkInfo array */
+    /**
+     * Gets a copy of the information of the code-blocks of the current
+     * tile, indexed by component, resolution level, subband and then
+     * vertical and horizontal code-block index.
+     *
+     * @deprecated Use getCBlkIndex(), this method copies the whole index
+     * each time it is called and changes to the copy are not seen by the
+     * decoder.
+     */
+    @Deprecated
     public CBlkInfo[][][][][] getCBlkInfo()
+    {
+        return CBlkInfo.fromIndex(cbI);
+    }
+
+    /** Gets the reference to the code-blocks index */
+    public CBlkIndex getCBlkIndex()
     {
         return cbI;
     }
 
+
+    /**
+     * Sets the index to which the location of the packets is added when a
+     * tile is read. The index is reset at the start of each tile.
+     *
+     * @param pktIndex The packet index, or null to not record the packets.
+     */
+    public void setPktIndex(PktIndex pktIndex)
+    {
+        this.pktIndex = pktIndex;
+    }
+
+
+    /**
+     * Sets the index of the tile-parts and packets of the codestream. The
+     * tile-parts of each tile are then read from the positions of the index,
+     * unless TLM or PPM marker segments are present, and the packet heads of
+     * a tile are not parsed when all its data is to be read. It must be
+     * called before the first tile is read.
+     *
+     * @param index The index of the codestream, or null to not use any.
+     *
+     * @exception IllegalArgumentException If the index is not for the same
+     * number of tiles.
+     */
+    public void setCodestreamIndex(CodestreamIndex index)
+    {
+        if (index != null && index.getNumTiles() != nt) {
+            throw new IllegalArgumentException("Codestream index for " +
+                index.getNumTiles() + " tiles instead of " + nt);
+        }
+        this.index = index;
+        if (index != null && tilePartPositions == null && !ppmFound &&
+            totTilePartsRead == 0) {
+            tilePartPositions = index.getTilePartPositions();
+        }
+    }
+
+
+    /**
+     * Returns the stream position of the tile-parts of a tile read so far,
+     * or null if none has been read.
+     *
+     * @param t The tile index.
+     */
+    long[] getTilePartPositions(int t)
+    {
+        int n = tilePartsRead[t];
+        if (n == 0) {
+            return null;
+        }
+        long[] pos = new long[n];
+        for (int tp = 0; tp < n; tp++) {
+            pos[tp] = firstPackOff[t][tp] - tilePartHeadLen[t][tp];
+        }
+        return pos;
+    }
+
+
+    /**
+     * Returns the geometry of a precinct of the current tile.
+     *
+     * @param c The component index.
+     *
+     * @param r The resolution level.
+     *
+     * @param p The precinct index.
+     */
+    public PrecInfo getPrecInfo(int c, int r, int p)
+    {
+        return pktDec.getPrecInfo(c, r, p);
+    }
+
+
+    /**
+     * Returns the number of precincts of a resolution level of the current
+     * tile.
+     *
+     * @param c The component index.
+     *
+     * @param r The resolution level.
+     */
+    public int getNumPrecinct(int c, int r)
+    {
+        return pktDec.getNumPrecinct(c, r);
+    }
+
+    /**
+     * The size of the first chunk in which the tile-parts are read when the
+     * reading of the tiles may stop before their end
+     */
+    private static final int FIRST_CHUNK_SIZE = 4096;
+
     /** The maximum number of layers to decode for any code-block */
     private int lQuit;
 
@@ -285,13 +417,17 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                 "the same time.");
         }
 
-//        lQuit = j2krparam.getLQuit();
-        lQuit = -1;
+        lQuit = j2krparam.getQualityLayers();
 
         // initializations
         nt = ntX * ntY;
-        in = ehs;
-        pktDec = new PktDecoder(decSpec, hd, ehs, this, isTruncMode, ncbQuit);
+        in = tpBuf = new TilePartBuffer(ehs, j2krparam.getTilePartChunkSize());
+        // If the reading of the tiles may stop before their end, read their
+        // tile-parts in growing chunks
+        if (lQuit != -1 || tnbytes != Integer.MAX_VALUE) {
+            tpBuf.setFirstChunkSize(FIRST_CHUNK_SIZE);
+        }
+        pktDec = new PktDecoder(decSpec, hd, in, this, isTruncMode, ncbQuit);
 
         tileParts = new int[nt];
         totTileParts = new int[nt];
@@ -416,6 +552,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                     in.readFully(tlmSegments[Ztlm], 0, markerLength - 3);
                 }
                 else {
+                    if (marker == PPM) {
+                        ppmFound = true;
+                    }
                     in.skipBytes(markerLength - 2);
                 }
             }
@@ -425,6 +564,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             tlmSegments = null;
         }
 
+        // The packed packet headers of the PPM marker segments are assigned
+        // to the tile-parts in the order their headers are read, so these
+        // must be read in codestream order.
+        if (ppmFound) {
+            tlmSegments = null;
+        }
+
         if (tlmSegments != null) {
             ArrayList[] tlmOffsets = null;
 
@@ -1066,7 +1212,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                         // If packed packet headers are used, there is no need
                         // to check that there are bytes enough to read header
                         if (pph) {
-                            pktDec.readPktHead(l, r, c, p, cbI[c][r], nBytes);
+                            pktDec.readPktHead(l, r, c, p, cbI, nBytes);
                         }
 
                         // If we are about to read outside of tile-part,
@@ -1078,6 +1224,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             lastByte = in.getPos() +
                                 tilePartLen[t][curTilePart] - 1 -
                                 tilePartHeadLen[t][curTilePart];
+                            start = in.getPos();
                         }
 
                         // Read SOP marker segment if necessary
@@ -1091,7 +1238,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                         }
 
                         if (!pph) {
-                            status = pktDec.readPktHead(l, r, c, p, cbI[c][r], nBytes);
+                            status = pktDec.readPktHead(l, r, c, p, cbI, nBytes);
                         }
 
                         if (status) {
@@ -1103,11 +1250,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                         // Store packet's head length
                         hlen = in.getPos() - start;
-                        pktHL.addElement(Integer.valueOf(hlen));
+                        addPktHeadLen(hlen);
 
                         // Reads packet's body
-                        status = pktDec.readPktBody(l, r, c, p, cbI[c][r], nBytes);
+                        status = pktDec.readPktBody(l, r, c, p, cbI, nBytes);
                         plen = in.getPos() - start;
+                        if (pktIndex != null)
+                            pktIndex.add(l, r, c, p, start, hlen, plen);
                         if (printInfo)
                             strInfo += " Pkt l=" + l + ",r=" + r + ",c=" + c + ",p=" + p + ": " +
                                 start + ", " + plen + ", " + hlen + "\n";
@@ -1201,7 +1350,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                         // If packed packet headers are used, there is no need
                         // to check that there are bytes enough to read header
                         if (pph) {
-                            pktDec.readPktHead(l, r, c, p, cbI[c][r], nBytes);
+                            pktDec.readPktHead(l, r, c, p, cbI, nBytes);
                         }
 
                         // If we are about to read outside of tile-part,
@@ -1213,6 +1362,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             lastByte = in.getPos() +
                                 tilePartLen[t][curTilePart] - 1 -
                                 tilePartHeadLen[t][curTilePart];
+                            start = in.getPos();
                         }
 
                         // Read SOP marker segment if necessary
@@ -1226,7 +1376,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                         }
 
                         if (!pph) {
-                            status = pktDec.readPktHead(l, r, c, p, cbI[c][r], nBytes);
+                            status = pktDec.readPktHead(l, r, c, p, cbI, nBytes);
                         }
 
                         if (status) {
@@ -1239,11 +1389,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                         // Store packet's head length
                         hlen = in.getPos() - start;
-                        pktHL.addElement(Integer.valueOf(hlen));
+                        addPktHeadLen(hlen);
 
                         // Reads packet's body
-                        status = pktDec.readPktBody(l, r, c, p, cbI[c][r], nBytes);
+                        status = pktDec.readPktBody(l, r, c, p, cbI, nBytes);
                         plen = in.getPos() - start;
+                        if (pktIndex != null)
+                            pktIndex.add(l, r, c, p, start, hlen, plen);
                         if (printInfo)
                             strInfo += " Pkt l=" + l + ",r=" + r + ",c=" + c + ",p=" + p + ": " +
                                 start + ", " + plen + ", " + hlen + "\n";
@@ -1405,7 +1557,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             // read header
                             if (pph) {
                                 pktDec.readPktHead(l, r, c, nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
                             // If we are about to read outside of tile-part,
                             // skip to next tile-part
@@ -1416,6 +1568,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                 lastByte = in.getPos() +
                                     tilePartLen[t][curTilePart] - 1 -
                                     tilePartHeadLen[t][curTilePart];
+                                start = in.getPos();
                             }
 
                             // Read SOP marker segment if necessary
@@ -1432,7 +1585,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             if (!pph) {
                                 status = pktDec.readPktHead(l, r, c,
                                     nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
 
                             if (status) {
@@ -1444,13 +1597,15 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                             // Store packet's head length
                             hlen = in.getPos() - start;
-                            pktHL.addElement(Integer.valueOf(hlen));
+                            addPktHeadLen(hlen);
 
 
                             // Reads packet's body
                             status = pktDec.readPktBody(l, r, c, nextPrec[c][r],
-                                cbI[c][r], nBytes);
+                                cbI, nBytes);
                             plen = in.getPos() - start;
+                            if (pktIndex != null)
+                                pktIndex.add(l, r, c, nextPrec[c][r], start, hlen, plen);
                             if (printInfo)
                                 strInfo += " Pkt l=" + l + ",r=" + r + ",c=" + c + ",p=" +
                                     nextPrec[c][r] + ": " +
@@ -1623,7 +1778,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             // read header
                             if (pph) {
                                 pktDec.readPktHead(l, r, c, nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
                             // Read SOP marker segment if necessary
                             status = pktDec.readSOPMarker(nBytes,
@@ -1639,7 +1794,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             if (!pph) {
                                 status = pktDec.readPktHead(l, r, c,
                                     nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
 
                             if (status) {
@@ -1651,12 +1806,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                             // Store packet's head length
                             hlen = in.getPos() - start;
-                            pktHL.addElement(Integer.valueOf(hlen));
+                            addPktHeadLen(hlen);
 
                             // Reads packet's body
                             status = pktDec.readPktBody(l, r, c, nextPrec[c][r],
-                                cbI[c][r], nBytes);
+                                cbI, nBytes);
                             plen = in.getPos() - start;
+                            if (pktIndex != null)
+                                pktIndex.add(l, r, c, nextPrec[c][r], start, hlen, plen);
                             if (printInfo)
                                 strInfo += " Pkt l=" + l + ",r=" + r + ",c=" + c + ",p=" +
                                     nextPrec[c][r] + ": " +
@@ -1832,7 +1989,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             // read header
                             if (pph) {
                                 pktDec.readPktHead(l, r, c, nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
                             // If we are about to read outside of tile-part,
                             // skip to next tile-part
@@ -1843,6 +2000,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                 lastByte = in.getPos() +
                                     tilePartLen[t][curTilePart] - 1 -
                                     tilePartHeadLen[t][curTilePart];
+                                start = in.getPos();
                             }
 
                             // Read SOP marker segment if necessary
@@ -1859,7 +2017,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             if (!pph) {
                                 status = pktDec.readPktHead(l, r, c,
                                     nextPrec[c][r],
-                                    cbI[c][r], nBytes);
+                                    cbI, nBytes);
                             }
 
                             if (status) {
@@ -1871,12 +2029,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                             // Store packet's head length
                             hlen = in.getPos() - start;
-                            pktHL.addElement(Integer.valueOf(hlen));
+                            addPktHeadLen(hlen);
 
                             // Reads packet's body
                             status = pktDec.readPktBody(l, r, c, nextPrec[c][r],
-                                cbI[c][r], nBytes);
+                                cbI, nBytes);
                             plen = in.getPos() - start;
+                            if (pktIndex != null)
+                                pktIndex.add(l, r, c, nextPrec[c][r], start, hlen, plen);
                             if (printInfo)
                                 strInfo += " Pkt l=" + l + ",r=" + r + ",c=" + c + ",p=" +
                                     nextPrec[c][r] + ": " +
@@ -1915,6 +2075,20 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     }
 
 
+    /**
+     * Stores the length of a packet head found in the current tile.
+     *
+     * @param hlen The length of the packet head
+     */
+    private void addPktHeadLen(int hlen)
+    {
+        if (nPktHL == pktHL.length) {
+            pktHL = Arrays.copyOf(pktHL, 2 * nPktHL);
+        }
+        pktHL[nPktHL++] = hlen;
+    }
+
+
     /**
      * Finish initialization of members for specified tile, reads packets head
      * of each tile and keeps location of each code-block's codewords. The
@@ -1933,7 +2107,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      */
     private void readTilePkts(int t) throws IOException
     {
-        pktHL = new Vector();
+        nPktHL = 0;
+        pktsRestored = false;
+        if (pktIndex != null) {
+            pktIndex.reset(t);
+        }
 
         int oldNBytes = nBytes[t];
 
@@ -1947,11 +2125,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             ByteArrayInputStream pphbais = hd.getPackedPktHead(t);
 
             // Restarts PktDecoder instance
-            cbI = pktDec.restart(nc, mdl, nl, cbI, true, pphbais);
+            pktDec.restart(nc, mdl, nl, cbI, true, pphbais);
         }
         else {
             // Restarts PktDecoder instance
-            cbI = pktDec.restart(nc, mdl, nl, cbI, false, null);
+            pktDec.restart(nc, mdl, nl, cbI, false, null);
         }
 
         // Reads packets of the tile according to the progression order
@@ -1987,7 +2165,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             }
         }
 
-        // Seeks to the first packet of the first tile-part
+        // Registers the tile-parts with the buffer and seeks to the first
+        // packet of the first tile-part
+        tpBuf.clear();
         try {
             // If in truncation mode, the first tile-part may be beyond the
             // target decoding rate. In this case, the offset of the first
@@ -1995,6 +2175,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             if (isTruncMode && firstPackOff == null || firstPackOff[t] == null) {
                 return;
             }
+            for (int tp = 0; tp < firstPackOff[t].length; tp++) {
+                tpBuf.addTilePart(firstPackOff[t][tp], tilePartLen[t][tp] - tilePartHeadLen[t][tp]);
+            }
             in.seek(firstPackOff[t][0]);
         }
         catch (EOFException e) {
@@ -2002,6 +2185,24 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             return;
         }
 
+        // With all the data of the tile to read, the packets found when the
+        // index was built are restored instead of parsing their heads
+        if (index != null && isTruncMode && lQuit == -1 &&
+            tnbytes == Integer.MAX_VALUE && index.restore(t, cbI)) {
+            int[] pkts = index.getPackets(t);
+            for (int i = 1; i <= pkts[0]; i += CodestreamIndex.PKT_SIZE) {
+                int headLen = pkts[i + CodestreamIndex.PKT_HEAD_LEN];
+                int len = pkts[i + CodestreamIndex.PKT_LEN];
+                addPktHeadLen(headLen);
+                if (pktIndex != null)
+                    pktIndex.add(pkts[i], pkts[i + 1], pkts[i + 2], pkts[i + 3],
+                        pkts[i + 4], headLen, len);
+                anbytes += len;
+            }
+            pktsRestored = true;
+            return;
+        }
+
         curTilePart = 0;
 
         // Start and end indexes for layers, resolution levels and components.
@@ -2018,10 +2219,25 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             for (int chg = 0; chg < nChg; chg++) {
 
                 lye = change[chg][1];
+                // With the layers outermost in the last progression, the
+                // packets after the last layer to decode need not be read
+                if (lQuit != -1 && lye > lQuit && chg == nChg - 1 &&
+                    change[chg][0] == LY_RES_COMP_POS_PROG) {
+                    lye = lQuit;
+                }
                 ress = change[chg][2];
                 rese = change[chg][3];
                 comps = change[chg][4];
                 compe = change[chg][5];
+                // Likewise with the components outermost, for the components
+                // after the last needed one
+                if (neededComps != null && chg == nChg - 1 &&
+                    change[chg][0] == COMP_POS_RES_LY_PROG) {
+                    compe = Math.min(compe, nc);
+                    while (compe > comps && !neededComps[compe - 1]) {
+                        compe--;
+                    }
+                }
 
                 switch (change[chg][0]) {
                     case LY_RES_COMP_POS_PROG:
@@ -2078,84 +2294,60 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             // tile. Then, parses the bit stream so as to create a virtual
             // layer-resolution-component progressive bit stream that will be
             // truncated and decoded afterwards.
-            CBlkInfo cb;
+            int id; // code-block id
+            int k; // index of code-block's layer
 
             // Systematicaly reject all remaining code-blocks if one
             // code-block, at least, is refused.
             boolean reject;
             // Stop reading any data from the bit stream
             boolean stopCount = false;
-            // Length of each packet's head (in an array)
-            int[] pktHeadLen = new int[pktHL.size()];
-            for (int i = pktHL.size() - 1; i >= 0; i--) {
-                pktHeadLen[i] = ((Integer)pktHL.elementAt(i)).intValue();
-            }
+            // Length of each packet's head. It is only used here for this
+            // tile so it can be modified.
+            int[] pktHeadLen = pktHL;
 
             // Parse each code-block, layer per layer until nBytes[t] is
             // reached
             reject = false;
             for (int l = 0; l < nl; l++) { // layers
-                if (cbI == null) continue;
-                int nc = cbI.length;
-
                 int mres = 0;
                 for (int c = 0; c < nc; c++) {
-                    if (cbI[c] != null && cbI[c].length > mres)
-                        mres = cbI[c].length;
+                    if (mdl[c] + 1 > mres)
+                        mres = mdl[c] + 1;
                 }
                 for (int r = 0; r < mres; r++) { // resolutions
-
-
-                    int msub = 0;
-                    for (int c = 0; c < nc; c++) {
-                        if (cbI[c] != null && cbI[c][r] != null
-                            && cbI[c][r].length > msub)
-                            msub = cbI[c][r].length;
-                    }
-                    for (int s = 0; s < msub; s++) { // subbands
-                        // Only LL subband resolution level 0
-                        if (r == 0 && s != 0) {
-                            continue;
-                        }
-                        else if (r != 0 && s == 0) {
-                            // No LL subband in resolution level > 0
-                            continue;
-                        }
-
+                    int mins = (r == 0) ? 0 : 1;
+                    int maxs = (r == 0) ? 1 : 4;
+                    for (int s = mins; s < maxs; s++) { // subbands
                         int mnby = 0;
                         for (int c = 0; c < nc; c++) {
-                            if (cbI[c] != null && cbI[c][r] != null &&
-                                cbI[c][r][s] != null &&
-                                cbI[c][r][s].length > mnby)
-                                mnby = cbI[c][r][s].length;
+                            if (cbI.getNumCBlksY(c, r, s) > mnby)
+                                mnby = cbI.getNumCBlksY(c, r, s);
                         }
                         for (int m = 0; m < mnby; m++) {
 
                             int mnbx = 0;
                             for (int c = 0; c < nc; c++) {
-                                if (cbI[c] != null && cbI[c][r] != null &&
-                                    cbI[c][r][s] != null && cbI[c][r][s][m] != null
-                                    && cbI[c][r][s][m].length > mnbx)
-                                    mnbx = cbI[c][r][s][m].length;
+                                if (m < cbI.getNumCBlksY(c, r, s) &&
+                                    cbI.getNumCBlksX(c, r, s) > mnbx)
+                                    mnbx = cbI.getNumCBlksX(c, r, s);
                             }
                             for (int n = 0; n < mnbx; n++) {
 
                                 for (int c = 0; c < nc; c++) {
 
-                                    if (cbI[c] == null || cbI[c][r] == null ||
-                                        cbI[c][r][s] == null ||
-                                        cbI[c][r][s][m] == null ||
-                                        cbI[c][r][s][m][n] == null) {
+                                    id = cbI.getId(c, r, s, m, n);
+                                    if (id < 0 || !cbI.isFound(id)) {
                                         continue;
                                     }
-                                    cb = cbI[c][r][s][m][n];
+                                    k = id * nl + l;
 
                                     // If no code-block has been refused until
                                     // now
                                     if (!reject) {
                                         // Rate is to low to allow reading of
                                         // packet's head
-                                        if (nBytes[t] < pktHeadLen[cb.pktIdx[l]]) {
+                                        if (nBytes[t] < pktHeadLen[cbI.pktIdx[k]]) {
                                             // Stop parsing
                                             stopCount = true;
                                             // Reject all next
@@ -2169,18 +2361,18 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                                 //If parsing was not stopped
                                                 //Takes into account packet's
                                                 //head length
-                                                nBytes[t] -= pktHeadLen[cb.pktIdx[l]];
-                                                anbytes += pktHeadLen[cb.pktIdx[l]];
+                                                nBytes[t] -= pktHeadLen[cbI.pktIdx[k]];
+                                                anbytes += pktHeadLen[cbI.pktIdx[k]];
                                                 // Set packet's head length to
                                                 // 0, so that it won't be
                                                 // taken into account next
                                                 // time
-                                                pktHeadLen[cb.pktIdx[l]] = 0;
+                                                pktHeadLen[cbI.pktIdx[k]] = 0;
                                             }
                                         }
                                     }
                                     // Code-block has no data in this layer
-                                    if (cb.len[l] == 0) {
+                                    if (cbI.len[k] == 0) {
                                         continue;
                                     }
 
@@ -2188,15 +2380,15 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                     // if this code-block was not refused in a
                                     // previous layer and if no code-block was
                                     // refused in current component
-                                    if (cb.len[l] < nBytes[t]
+                                    if (cbI.len[k] < nBytes[t]
                                         && !reject) {
-                                        nBytes[t] -= cb.len[l];
-                                        anbytes += cb.len[l];
+                                        nBytes[t] -= cbI.len[k];
+                                        anbytes += cbI.len[k];
                                     }
                                     else {
                                         // Refuses code-block
                                         // Forgets code-block's data
-                                        cb.len[l] = cb.off[l] = cb.ntp[l] = 0;
+                                        cbI.len[k] = cbI.off[k] = cbI.ntp[k] = 0;
                                         // Refuses all other code-block in
                                         // current and next component
                                         reject = true;
@@ -2225,6 +2417,27 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     }
 
 
+    /**
+     * Specifies which components are going to be requested. If some are not,
+     * the tile-parts are read in growing chunks since the reading of the
+     * tiles may stop before their end.
+     *
+     * @param comps For each component whether its data is going to be
+     * requested, or null if the data of all components may be.
+     */
+    @Override
+    public void setNeededComps(boolean[] comps)
+    {
+        super.setNeededComps(comps);
+        for (int c = 0; comps != null && c < comps.length; c++) {
+            if (!comps[c]) {
+                tpBuf.setFirstChunkSize(FIRST_CHUNK_SIZE);
+                break;
+            }
+        }
+    }
+
+
     /**
      * Changes the current tile, given the new indexes. An
      * IllegalArgumentException is thrown if the indexes do not correspond to
@@ -2236,6 +2449,26 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      */
     @Override
     public void setTile(int x, int y)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            initTileData(x, y);
+            return;
+        }
+        stats.enter(J2KDecodeStats.PACKETS);
+        try {
+            initTileData(x, y);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements setTile(), reading the packets of the tile.
+     */
+    private void initTileData(int x, int y)
     {
 
         int i; // counter
@@ -2283,11 +2516,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         params = new StdDequantizerParams[nc];
         gb = new int[nc];
 
+        // The headers of the tile have been read, the values of its
+        // specifications are final
+        TileDecoderSpecs ts = decSpec.compileTile(t);
         for (int c = 0; c < nc; c++) {
-            derived[c] = decSpec.qts.isDerived(t, c);
-            params[c] = (StdDequantizerParams)decSpec.qsss.getTileCompVal(t, c);
-            gb[c] = ((Integer)decSpec.gbs.getTileCompVal(t, c)).intValue();
-            mdl[c] = ((Integer)decSpec.dls.getTileCompVal(t, c)).intValue();
+            derived[c] = ts.derived[c];
+            params[c] = ts.qsss[c];
+            gb[c] = ts.gbs[c];
+            mdl[c] = ts.dls[c];
 
             subbTrees[c] = new SubbandSyn(getTileCompWidth(t, c, mdl[c]),
                 getTileCompHeight(t, c, mdl[c]),
@@ -2305,6 +2541,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             e.printStackTrace();
             throw new Error("IO Error when reading tile " + x + " x " + y);
         }
+        if (stats != null && !pktsRestored) {
+            stats.add(J2KDecodeStats.PACKET_HEADS, nPktHL);
+        }
     }
 
 
@@ -2389,25 +2628,47 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     public DecLyrdCBlk getCodeBlock(int c, int m, int n, SubbandSyn sb, int fl,
         int nl, DecLyrdCBlk ccb)
     {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return readCodeBlock(c, m, n, sb, fl, nl, ccb);
+        }
+        stats.enter(J2KDecodeStats.PACKETS);
+        try {
+            return readCodeBlock(c, m, n, sb, fl, nl, ccb);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getCodeBlock().
+     */
+    private DecLyrdCBlk readCodeBlock(int c, int m, int n, SubbandSyn sb, int fl,
+        int nl, DecLyrdCBlk ccb)
+    {
 
         int t = getTileIdx();
-        CBlkInfo rcb; // requested code-block
+        int id; // requested code-block
+        int k0; // index of requested code-block's first layer
         int r = sb.resLvl; // Resolution level
         int s = sb.sbandIdx; // Subband index
         int tpidx;
         int passtype;
 
         // Number of layers
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
-        int options = ((Integer)decSpec.ecopts.getTileCompVal(t, c)).intValue();
+        TileDecoderSpecs ts = decSpec.getTileSpecs(t);
+        int numLayers = ts.nls;
+        int options = ts.ecopts[c];
         if (nl < 0) {
             nl = numLayers - fl + 1;
         }
 
         // If the l quit condition is used, Make sure that no layer
         // after lquit is returned
-        if (lQuit != -1 && fl + nl > lQuit) {
-            nl = lQuit - fl;
+        if (lQuit != -1 && fl + nl - 1 > lQuit) {
+            nl = Math.max(lQuit - fl + 1, 0);
         }
 
         // Check validity of resquested resolution level (according to the
@@ -2421,23 +2682,16 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         */
 
         // Check validity of all the arguments
-        try {
-            rcb = cbI[c][r][s][m][n];
-
-            if (fl < 1 || fl > numLayers || fl + nl - 1 > numLayers) {
-                throw new IllegalArgumentException();
-            }
-        }
-        catch (ArrayIndexOutOfBoundsException e) {
+        id = cbI.getId(c, r, s, m, n);
+        if (id < 0) {
             throw new IllegalArgumentException("Code-block (t:" + t + ", c:" +
                 c + ", r:" + r + ", s:" + s + ", " + m + "x" +
                 +n + ") not found in codestream");
         }
-        catch (NullPointerException e) {
-            throw new IllegalArgumentException("Code-block (t:" + t + ", c:" +
-                c + ", r:" + r + ", s:" + s + ", " + m + "x"
-                + n + ") not found in bit stream");
+        if (fl < 1 || fl > numLayers || fl + nl - 1 > numLayers) {
+            throw new IllegalArgumentException();
         }
+        k0 = id * cbI.getNumLayers();
 
         // Create DecLyrdCBlk object if necessary
         if (ccb == null) {
@@ -2449,7 +2703,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         ccb.dl = 0;
         ccb.nTrunc = 0;
 
-        if (rcb == null) {
+        if (!cbI.isFound(id)) {
             // This code-block was skipped when reading. Returns no data
             ccb.skipMSBP = 0;
             ccb.prog = false;
@@ -2458,18 +2712,18 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         }
 
         // ccb initialization
-        ccb.skipMSBP = rcb.msbSkipped;
-        ccb.ulx = rcb.ulx;
-        ccb.uly = rcb.uly;
-        ccb.w = rcb.w;
-        ccb.h = rcb.h;
+        ccb.skipMSBP = cbI.msbSkipped[id];
+        ccb.ulx = cbI.ulx[id];
+        ccb.uly = cbI.uly[id];
+        ccb.w = cbI.w[id];
+        ccb.h = cbI.h[id];
         ccb.ftpIdx = 0;
 
         // Search for index of first truncation point (first layer where
         // length of data is not zero)
         int l = 0;
-        while ((l < rcb.len.length) && (rcb.len[l] == 0)) {
-            ccb.ftpIdx += rcb.ntp[l];
+        while ((l < cbI.getNumLayers()) && (cbI.len[k0 + l] == 0)) {
+            ccb.ftpIdx += cbI.ntp[k0 + l];
             l++;
         }
 
@@ -2477,8 +2731,8 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         // truncation points
         for (l = fl - 1; l < fl + nl - 1; l++) {
             ccb.nl++;
-            ccb.dl += rcb.len[l];
-            ccb.nTrunc += rcb.ntp[l];
+            ccb.dl += cbI.len[k0 + l];
+            ccb.nTrunc += cbI.ntp[k0 + l];
         }
 
         // Calculate number of terminated segments
@@ -2539,19 +2793,20 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         // point for the current layer layer
         int tsidx = 0;
         int j;
+        int seg; // position of the segment lengths in the index
 
         for (l = fl - 1; l < fl + nl - 1; l++) {
-            ctp += rcb.ntp[l];
+            ctp += cbI.ntp[k0 + l];
             // No data in this layer
-            if (rcb.len[l] == 0) continue;
+            if (cbI.len[k0 + l] == 0) continue;
 
             // Read data
             // NOTE: we should never get an EOFException here since all
             // data is checked to be within the file.
             try {
-                in.seek(rcb.off[l]);
-                in.readFully(ccb.data, dataIdx + 1, rcb.len[l]);
-                dataIdx += rcb.len[l];
+                in.seek(cbI.off[k0 + l]);
+                in.readFully(ccb.data, dataIdx + 1, cbI.len[k0 + l]);
+                dataIdx += cbI.len[k0 + l];
             }
             catch (IOException e) {
                 JJ2KExceptionHandler.handleException(e);
@@ -2559,14 +2814,15 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
             // Get the terminated segment lengths, if any
             if (nts == 1) continue;
+            seg = cbI.segIdx[k0 + l];
             if ((options & OPT_TERM_PASS) != 0) {
                 // Regular termination => each pass is terminated
                 for (j = 0; tpidx < ctp; j++, tpidx++) {
-                    if (rcb.segLen[l] != null) {
-                        ccb.tsLengths[tsidx++] = rcb.segLen[l][j];
+                    if (seg >= 0) {
+                        ccb.tsLengths[tsidx++] = cbI.segLen[seg + 1 + j];
                     }
                     else { // Only one terminated segment in packet
-                        ccb.tsLengths[tsidx++] = rcb.len[l];
+                        ccb.tsLengths[tsidx++] = cbI.len[k0 + l];
                     }
                 }
             }
@@ -2579,13 +2835,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             // lazy pass just before MQ pass or MQ
                             // pass just before lazy pass =>
                             // terminated
-                            if (rcb.segLen[l] != null) {
-                                ccb.tsLengths[tsidx++] += rcb.segLen[l][j++];
-                                rcb.len[l] -= rcb.segLen[l][j - 1];
+                            if (seg >= 0) {
+                                ccb.tsLengths[tsidx++] += cbI.segLen[seg + 1 + j++];
+                                cbI.len[k0 + l] -= cbI.segLen[seg + j];
                             }
                             else { // Only one terminated segment in packet
-                                ccb.tsLengths[tsidx++] += rcb.len[l];
-                                rcb.len[l] = 0;
+                                ccb.tsLengths[tsidx++] += cbI.len[k0 + l];
+                                cbI.len[k0 + l] = 0;
                             }
                         }
 
@@ -2594,14 +2850,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
                 // Last length in packet always in (either terminated segment
                 // or contribution to terminated segment)
-                if (rcb.segLen[l] != null && j < rcb.segLen[l].length) {
-                    ccb.tsLengths[tsidx] += rcb.segLen[l][j];
-                    rcb.len[l] -= rcb.segLen[l][j];
+                if (seg >= 0 && j < cbI.segLen[seg]) {
+                    ccb.tsLengths[tsidx] += cbI.segLen[seg + 1 + j];
+                    cbI.len[k0 + l] -= cbI.segLen[seg + 1 + j];
                 }
                 else { // Only one terminated segment in packet
                     if (tsidx < nts) {
-                        ccb.tsLengths[tsidx] += rcb.len[l];
-                        rcb.len[l] = 0;
+                        ccb.tsLengths[tsidx] += cbI.len[k0 + l];
+                        cbI.len[k0 + l] = 0;
                     }
                 }
             }
@@ -2615,7 +2871,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         if (lastlayer < numLayers - 1) {
             for (l = lastlayer + 1; l < numLayers; l++) {
                 // It remains data for this code-block in the bit stream
-                if (rcb.len[l] != 0) {
+                if (cbI.len[k0 + l] != 0) {
                     ccb.prog = true;
                 }
             }
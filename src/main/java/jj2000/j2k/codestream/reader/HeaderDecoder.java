@@ -2736,15 +2736,16 @@ return Resampler.createInstance(src, csMap); }
                     pkdPktHeaders[t].write(temp);
                 }
             }
-            else {
-                int tp;
-                // Write all packed packet headers to pkdPktHeaders
-                for (t = nTiles - 1; t >= 0; t--) {
-                    for (tp = 0; tp < nTileParts[t]; tp++) {
-                        for (i = 0; i < nPPTMarkSeg[t][tp]; i++) {
-                            pkdPktHeaders[t].write(tilePartPkdPktHeaders[t][tp][i]);
-                        }
-                    }
+        }
+
+        if (nPPMMarkSeg == 0) {
+            // The tiles may be read in any order, so that the tile-part
+            // headers of the other tiles may not have been read yet. Write
+            // the packed packet headers of the requested tile only.
+            pkdPktHeaders[tile].reset();
+            for (int tp = 0; tp < nTileParts[tile]; tp++) {
+                for (int i = 0; i < nPPTMarkSeg[tile][tp]; i++) {
+                    pkdPktHeaders[tile].write(tilePartPkdPktHeaders[tile][tp][i]);
                 }
             }
         }
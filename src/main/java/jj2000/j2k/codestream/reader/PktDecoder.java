@@ -49,12 +49,13 @@ import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Vector;
+import java.util.HashMap;
 
 import jj2000.j2k.codestream.CBlkCoordInfo;
 import jj2000.j2k.codestream.Markers;
 import jj2000.j2k.codestream.PrecInfo;
 import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.decoder.TileDecoderSpecs;
 import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.util.MathUtil;
@@ -92,6 +93,9 @@ public class PktDecoder implements StdEntropyCoderOptions
     /** The wrapper to read bits for the packet heads */
     private PktHeaderBitReader bin;
 
+    /** The wrapper to read bits for the packed packet heads (PPM/PPT) */
+    private PktHeaderBitReader pphBin;
+
     /** Reference to the stream where to read from */
     private RandomAccessIO ehs;
 
@@ -121,16 +125,10 @@ public class PktDecoder implements StdEntropyCoderOptions
     private PrecInfo[][][] ppinfo;
 
     /**
-     * Lblock value used to read code size information in each packet head:
-     *
-     * <ul>
-     * <li>1st dim: component index.</li>
-     * <li>2nd dim: resolution level index.</li>
-     * <li>3rd dim: subband index.</li>
-     * <li>4th/5th dim: code-block index (vert. and horiz.).</li>
-     * </ul>
+     * Lblock value used to read code size information in each packet head,
+     * indexed by code-block id (see CBlkIndex).
      */
-    private int[][][][][] lblock;
+    private int[] lblock;
 
     /**
      * Tag tree used to read inclusion informations in packet's head:
@@ -155,6 +153,39 @@ public class PktDecoder implements StdEntropyCoderOptions
      */
     private TagTreeDecoder[][][][] ttMaxBP;
 
+    /**
+     * The tag tree decoders allocated so far, which are reused from one
+     * tile to the next by getTagTree().
+     */
+    private TagTreeDecoder[] ttPool = new TagTreeDecoder[0];
+
+    /** The number of tag tree decoders in 'ttPool' used by the current tile */
+    private int nTtPool;
+
+    /**
+     * The code-blocks of each precinct and subband of the tile-component
+     * resolution levels seen so far, keyed by their geometry relative to the
+     * precinct partition (see getGeomKey()). All the interior tiles of a
+     * regular tiling share the same geometry, so that the code-blocks
+     * coordinates are only computed and allocated once for them.
+     */
+    private HashMap<GeomKey, CBlkCoordInfo[][][][]> cblkCache =
+        new HashMap<GeomKey, CBlkCoordInfo[][][][]>();
+
+    /**
+     * The maximum number of entries in 'cblkCache'. It is cleared when it
+     * grows beyond that, which only happens with irregular geometries.
+     */
+    private static final int MAX_CBLK_CACHE = 256;
+
+    /**
+     * The keys used to look up 'cblkCache', for the lowest and for the
+     * other resolution levels. They are reused for each lookup and only
+     * copied when an entry is added.
+     */
+    private GeomKey[] geomKeys = { new GeomKey(new int[11 + 8]),
+        new GeomKey(new int[11 + 8 * 3]) };
+
     /** Number of layers in t he current tile */
     private int nl = 0;
 
@@ -173,11 +204,11 @@ public class PktDecoder implements StdEntropyCoderOptions
      */
     private int pktIdx;
 
-    /**
-     * List of code-blocks found in last read packet head (one list
-     * per subband)
-     */
-    private Vector[] cblks;
+    /** Ids of the code-blocks found in last read packet head */
+    private int[] cblks = new int[64];
+
+    /** Number of code-blocks found in last read packet head */
+    private int ncblks;
 
     /** Number of codeblocks encountered. used for ncb quit condition */
     private int ncb;
@@ -194,20 +225,8 @@ public class PktDecoder implements StdEntropyCoderOptions
     /** The tile in which the ncb quit condition was reached */
     private int tQuit;
 
-    /** The component in which the ncb quit condition was reached */
-    private int cQuit;
-
-    /** The subband in which the ncb quit condition was reached */
-    private int sQuit;
-
-    /** The resolution in which the ncb quit condition was reached */
-    private int rQuit;
-
-    /** The x position of the last code block before ncb quit reached */
-    private int xQuit;
-
-    /** The y position of the last code block before ncb quit reached */
-    private int yQuit;
+    /** The id of the last code block before ncb quit reached */
+    private int idQuit;
 
     /** True if truncation mode is used. False if it is parsing mode */
     private boolean isTruncMode;
@@ -257,15 +276,14 @@ public class PktDecoder implements StdEntropyCoderOptions
      *
      * @param nl The number of layers in this tile
      *
-     * @param cbI The code-blocks array
+     * @param cbI The code-blocks index, which is reset for this tile
      *
      * @param pph Flag indicating whether packed packet headers was used
      *
      * @param pphbais Stream containing the packed packet headers
      */
-    public CBlkInfo[][][][][] restart(int nc, int[] mdl, int nl,
-        CBlkInfo[][][][][] cbI, boolean pph,
-        ByteArrayInputStream pphbais)
+    public void restart(int nc, int[] mdl, int nl, CBlkIndex cbI,
+        boolean pph, ByteArrayInputStream pphbais)
     {
         this.nc = nc;
         this.nl = nl;
@@ -273,12 +291,13 @@ public class PktDecoder implements StdEntropyCoderOptions
         this.pph = pph;
         this.pphbais = pphbais;
 
-        sopUsed = ((Boolean)decSpec.sops.getTileDef(tIdx)).booleanValue();
+        TileDecoderSpecs ts = decSpec.getTileSpecs(tIdx);
+        sopUsed = ts.sops;
         pktIdx = 0;
-        ephUsed = ((Boolean)decSpec.ephs.getTileDef(tIdx)).booleanValue();
+        ephUsed = ts.ephs;
 
-        cbI = new CBlkInfo[nc][][][][];
-        lblock = new int[nc][][][][];
+        cbI.reset(nc, mdl, nl);
+        nTtPool = 0;
         ttIncl = new TagTreeDecoder[nc][][][];
         ttMaxBP = new TagTreeDecoder[nc][][][];
         numPrec = new Point[nc][];
@@ -299,8 +318,6 @@ public class PktDecoder implements StdEntropyCoderOptions
         int cb0y = src.getCbULY();
 
         for (int c = 0; c < nc; c++) {
-            cbI[c] = new CBlkInfo[mdl[c] + 1][][][];
-            lblock[c] = new int[mdl[c] + 1][][][];
             ttIncl[c] = new TagTreeDecoder[mdl[c] + 1][][];
             ttMaxBP[c] = new TagTreeDecoder[mdl[c] + 1][][];
             numPrec[c] = new Point[mdl[c] + 1];
@@ -348,8 +365,6 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                 ttIncl[c][r] = new TagTreeDecoder[maxPrec][maxs + 1];
                 ttMaxBP[c][r] = new TagTreeDecoder[maxPrec][maxs + 1];
-                cbI[c][r] = new CBlkInfo[maxs + 1][][];
-                lblock[c][r] = new int[maxs + 1][][];
 
                 ppinfo[c][r] = new PrecInfo[maxPrec];
                 fillPrecInfo(c, r, mdl[c]);
@@ -359,17 +374,16 @@ public class PktDecoder implements StdEntropyCoderOptions
                     sb = (SubbandSyn)root.getSubbandByIdx(r, s);
                     nBlk = sb.numCb;
 
-                    cbI[c][r][s] = new CBlkInfo[nBlk.y][nBlk.x];
-                    lblock[c][r][s] = new int[nBlk.y][nBlk.x];
-
-                    for (int i = nBlk.y - 1; i >= 0; i--) {
-                        Arrays.fill(lblock[c][r][s][i], INIT_LBLOCK);
-                    }
+                    cbI.addSubband(c, r, s, nBlk.x, nBlk.y);
                 } // loop on subbands
             } // End loop on resolution levels
         } // End loop on components
 
-        return cbI;
+        int numCBlks = cbI.getNumCBlks();
+        if (lblock == null || lblock.length < numCBlks) {
+            lblock = new int[numCBlks];
+        }
+        Arrays.fill(lblock, 0, numCBlks, INIT_LBLOCK);
     }
 
 
@@ -458,6 +472,15 @@ public class PktDecoder implements StdEntropyCoderOptions
 
         CBlkCoordInfo cb;
 
+        // Look up the code-blocks of the precincts for this geometry
+        GeomKey key = getGeomKey(r, trx0, try0, trx1, try1, istart, iend,
+            jstart, jend, (int)twoppx, (int)twoppy, root);
+        CBlkCoordInfo[][][][] pcblk = (key == null) ? null : cblkCache.get(key);
+        boolean cached = (pcblk != null);
+        if (!cached) {
+            pcblk = new CBlkCoordInfo[maxPrec][][][];
+        }
+
         for (int i = istart; i <= iend; i++) { // Vertical precincts
             for (int j = jstart; j <= jend; j++, nPrec++) { // Horizontal precincts
                 if (j == jstart && (trx0 - cb0x) % (xrsiz * ((int)twoppx)) != 0) {
@@ -477,6 +500,12 @@ public class PktDecoder implements StdEntropyCoderOptions
                     (int)twoppx, (int)twoppy,
                     prg_ulx, prg_uly, prg_w, prg_h);
 
+                if (cached) {
+                    setPrecCBlks(c, r, nPrec, pcblk[nPrec]);
+                    continue;
+                }
+                pcblk[nPrec] = ppinfo[c][r][nPrec].cblk;
+
                 if (r == 0) { // LL subband
                     acb0x = cb0x;
                     acb0y = cb0y;
@@ -504,12 +533,12 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                     if (s1x - s0x <= 0 || s1y - s0y <= 0) {
                         ppinfo[c][r][nPrec].nblk[0] = 0;
-                        ttIncl[c][r][nPrec][0] = new TagTreeDecoder(0, 0);
-                        ttMaxBP[c][r][nPrec][0] = new TagTreeDecoder(0, 0);
+                        ttIncl[c][r][nPrec][0] = getTagTree(0, 0);
+                        ttMaxBP[c][r][nPrec][0] = getTagTree(0, 0);
                     }
                     else {
-                        ttIncl[c][r][nPrec][0] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
-                        ttMaxBP[c][r][nPrec][0] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
+                        ttIncl[c][r][nPrec][0] = getTagTree(kend - kstart + 1, lend - lstart + 1);
+                        ttMaxBP[c][r][nPrec][0] = getTagTree(kend - kstart + 1, lend - lstart + 1);
                         ppinfo[c][r][nPrec].cblk[0] = new CBlkCoordInfo[kend - kstart + 1][lend - lstart + 1];
                         ppinfo[c][r][nPrec].nblk[0] = (kend - kstart + 1) * (lend - lstart + 1);
 
@@ -571,12 +600,12 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                     if (s1x - s0x <= 0 || s1y - s0y <= 0) {
                         ppinfo[c][r][nPrec].nblk[1] = 0;
-                        ttIncl[c][r][nPrec][1] = new TagTreeDecoder(0, 0);
-                        ttMaxBP[c][r][nPrec][1] = new TagTreeDecoder(0, 0);
+                        ttIncl[c][r][nPrec][1] = getTagTree(0, 0);
+                        ttMaxBP[c][r][nPrec][1] = getTagTree(0, 0);
                     }
                     else {
-                        ttIncl[c][r][nPrec][1] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
-                        ttMaxBP[c][r][nPrec][1] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
+                        ttIncl[c][r][nPrec][1] = getTagTree(kend - kstart + 1, lend - lstart + 1);
+                        ttMaxBP[c][r][nPrec][1] = getTagTree(kend - kstart + 1, lend - lstart + 1);
                         ppinfo[c][r][nPrec].cblk[1] = new CBlkCoordInfo[kend - kstart + 1][lend - lstart + 1];
                         ppinfo[c][r][nPrec].nblk[1] = (kend - kstart + 1) * (lend - lstart + 1);
 
@@ -637,12 +666,12 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                     if (s1x - s0x <= 0 || s1y - s0y <= 0) {
                         ppinfo[c][r][nPrec].nblk[2] = 0;
-                        ttIncl[c][r][nPrec][2] = new TagTreeDecoder(0, 0);
-                        ttMaxBP[c][r][nPrec][2] = new TagTreeDecoder(0, 0);
+                        ttIncl[c][r][nPrec][2] = getTagTree(0, 0);
+                        ttMaxBP[c][r][nPrec][2] = getTagTree(0, 0);
                     }
                     else {
-                        ttIncl[c][r][nPrec][2] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
-                        ttMaxBP[c][r][nPrec][2] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
+                        ttIncl[c][r][nPrec][2] = getTagTree(kend - kstart + 1, lend - lstart + 1);
+                        ttMaxBP[c][r][nPrec][2] = getTagTree(kend - kstart + 1, lend - lstart + 1);
                         ppinfo[c][r][nPrec].cblk[2] = new CBlkCoordInfo[kend - kstart + 1][lend - lstart + 1];
                         ppinfo[c][r][nPrec].nblk[2] = (kend - kstart + 1) * (lend - lstart + 1);
 
@@ -703,12 +732,12 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                     if (s1x - s0x <= 0 || s1y - s0y <= 0) {
                         ppinfo[c][r][nPrec].nblk[3] = 0;
-                        ttIncl[c][r][nPrec][3] = new TagTreeDecoder(0, 0);
-                        ttMaxBP[c][r][nPrec][3] = new TagTreeDecoder(0, 0);
+                        ttIncl[c][r][nPrec][3] = getTagTree(0, 0);
+                        ttMaxBP[c][r][nPrec][3] = getTagTree(0, 0);
                     }
                     else {
-                        ttIncl[c][r][nPrec][3] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
-                        ttMaxBP[c][r][nPrec][3] = new TagTreeDecoder(kend - kstart + 1, lend - lstart + 1);
+                        ttIncl[c][r][nPrec][3] = getTagTree(kend - kstart + 1, lend - lstart + 1);
+                        ttMaxBP[c][r][nPrec][3] = getTagTree(kend - kstart + 1, lend - lstart + 1);
                         ppinfo[c][r][nPrec].cblk[3] = new CBlkCoordInfo[kend - kstart + 1][lend - lstart + 1];
                         ppinfo[c][r][nPrec].nblk[3] = (kend - kstart + 1) * (lend - lstart + 1);
 
@@ -745,6 +774,187 @@ public class PktDecoder implements StdEntropyCoderOptions
                 }
             } // Horizontal precincts
         } // Vertical precincts
+
+        if (key != null && !cached) {
+            if (cblkCache.size() >= MAX_CBLK_CACHE) {
+                cblkCache.clear();
+            }
+            cblkCache.put(new GeomKey(key.v.clone()), pcblk);
+        }
+    }
+
+
+    /**
+     * Returns the key identifying the geometry of the code-blocks in the
+     * precincts of a tile-component resolution level, for 'cblkCache'.
+     *
+     * <P>
+     * In each direction, the geometry is translated by a whole number of
+     * precincts, so that the first precinct of the resolution level starts
+     * at the origin. If there is a single precinct in that direction, its
+     * boundaries do not matter and the geometry is instead translated by a
+     * whole number of code-blocks, as close to the origin as possible. Since
+     * code-blocks never cross precinct boundaries and since the translation
+     * in the subbands is a whole number of code-blocks, the code-blocks
+     * coordinates and indexes, relative to the tile-component, are the same
+     * for all the tile-component resolution levels with the same key.
+     *
+     * @param r Resolution level index.
+     *
+     * @param trx0 The horizontal tile's upper-left coordinate in the
+     * resolution level.
+     *
+     * @param try0 The vertical tile's upper-left coordinate in the
+     * resolution level.
+     *
+     * @param trx1 The horizontal tile's lower-right coordinate in the
+     * resolution level (exclusive).
+     *
+     * @param try1 The vertical tile's lower-right coordinate in the
+     * resolution level (exclusive).
+     *
+     * @param istart The vertical index of the first precinct.
+     *
+     * @param iend The vertical index of the last precinct.
+     *
+     * @param jstart The horizontal index of the first precinct.
+     *
+     * @param jend The horizontal index of the last precinct.
+     *
+     * @param twoppx The precinct partition width.
+     *
+     * @param twoppy The precinct partition height.
+     *
+     * @param root The subband tree of the tile-component.
+     *
+     * @return The key, or null if the geometry cannot be translated. The key
+     * is only valid until the next call.
+     */
+    private GeomKey getGeomKey(int r, int trx0, int try0, int trx1, int try1,
+        int istart, int iend, int jstart, int jend, int twoppx, int twoppy,
+        SubbandSyn root)
+    {
+        int mins = (r == 0) ? 0 : 1;
+        int maxs = (r == 0) ? 1 : 4;
+
+        // Code-block partition dimensions, reported in the resolution level
+        int cbpx = 0, cbpy = 0;
+        for (int s = mins; s < maxs; s++) {
+            SubbandSyn sb = (SubbandSyn)root.getSubbandByIdx(r, s);
+            cbpx = Math.max(cbpx, sb.nomCBlkW);
+            cbpy = Math.max(cbpy, sb.nomCBlkH);
+        }
+        if (r > 0) {
+            cbpx <<= 1;
+            cbpy <<= 1;
+        }
+
+        // Translation in the resolution level and in its subbands
+        int tx = (jstart == jend) ? trx0 / cbpx * cbpx : jstart * twoppx;
+        int ty = (istart == iend) ? try0 / cbpy * cbpy : istart * twoppy;
+        int tsx = tx, tsy = ty;
+        if (r > 0) {
+            if ((tx & 1) != 0 || (ty & 1) != 0) {
+                return null;
+            }
+            tsx >>= 1;
+            tsy >>= 1;
+        }
+
+        GeomKey key = geomKeys[(r == 0) ? 0 : 1];
+        int[] v = key.v;
+        int k = 0;
+        v[k++] = r;
+        v[k++] = iend - istart;
+        v[k++] = jend - jstart;
+        v[k++] = twoppx;
+        v[k++] = twoppy;
+        v[k++] = src.getCbULX();
+        v[k++] = src.getCbULY();
+        v[k++] = trx0 - tx;
+        v[k++] = try0 - ty;
+        v[k++] = trx1 - tx;
+        v[k++] = try1 - ty;
+        for (int s = mins; s < maxs; s++) {
+            SubbandSyn sb = (SubbandSyn)root.getSubbandByIdx(r, s);
+            if (tsx % sb.nomCBlkW != 0 || tsy % sb.nomCBlkH != 0) {
+                return null;
+            }
+            v[k++] = sb.ulcx - tsx;
+            v[k++] = sb.ulcy - tsy;
+            v[k++] = sb.w;
+            v[k++] = sb.h;
+            v[k++] = sb.ulx;
+            v[k++] = sb.uly;
+            v[k++] = sb.nomCBlkW;
+            v[k++] = sb.nomCBlkH;
+        }
+        key.hash = Arrays.hashCode(v);
+        return key;
+    }
+
+
+    /**
+     * Sets the code-blocks of a precinct from 'cblkCache' and creates its
+     * tag trees.
+     *
+     * @param c Component index.
+     *
+     * @param r Resolution level index.
+     *
+     * @param p Precinct index.
+     *
+     * @param cblk The code-blocks of the precinct in each subband.
+     */
+    private void setPrecCBlks(int c, int r, int p, CBlkCoordInfo[][][] cblk)
+    {
+        PrecInfo prec = ppinfo[c][r][p];
+        prec.cblk = cblk;
+
+        int mins = (r == 0) ? 0 : 1;
+        int maxs = (r == 0) ? 1 : 4;
+        for (int s = mins; s < maxs; s++) {
+            if (cblk[s] == null) {
+                prec.nblk[s] = 0;
+                ttIncl[c][r][p][s] = getTagTree(0, 0);
+                ttMaxBP[c][r][p][s] = getTagTree(0, 0);
+            }
+            else {
+                int h = cblk[s].length;
+                int w = cblk[s][0].length;
+                prec.nblk[s] = h * w;
+                ttIncl[c][r][p][s] = getTagTree(h, w);
+                ttMaxBP[c][r][p][s] = getTagTree(h, w);
+            }
+        }
+    }
+
+
+    /**
+     * Returns a tag tree decoder with the given dimensions for the current
+     * tile. The decoders of the previous tiles are reset and reused, so that
+     * their arrays need not be allocated again for each precinct.
+     *
+     * @param h The number of elements along the vertical direction.
+     *
+     * @param w The number of elements along the horizontal direction.
+     *
+     * @return The tag tree decoder, as if newly created.
+     */
+    private TagTreeDecoder getTagTree(int h, int w)
+    {
+        if (nTtPool == ttPool.length) {
+            TagTreeDecoder[] tmp = new TagTreeDecoder[Math.max(16, 2 * nTtPool)];
+            System.arraycopy(ttPool, 0, tmp, 0, nTtPool);
+            ttPool = tmp;
+        }
+        TagTreeDecoder tt = ttPool[nTtPool];
+        if (tt != null) {
+            nTtPool++;
+            tt.reset(h, w);
+            return tt;
+        }
+        return ttPool[nTtPool++] = new TagTreeDecoder(h, w);
     }
 
 
@@ -773,15 +983,14 @@ public class PktDecoder implements StdEntropyCoderOptions
      *
      * @param p Precinct index
      *
-     * @param cbI CBlkInfo array of relevant component and resolution
-     * level.
+     * @param cbI The code-blocks index of the tile.
      *
      * @param nb The number of bytes to read in each tile before reaching
      * output rate (used by truncation mode)
      *
      * @return True if specified output rate or EOF is reached.
      */
-    public boolean readPktHead(int l, int r, int c, int p, CBlkInfo[][][] cbI,
+    public boolean readPktHead(int l, int r, int c, int p, CBlkIndex cbI,
         int[] nb) throws IOException
     {
         try {
@@ -793,10 +1002,11 @@ public class PktDecoder implements StdEntropyCoderOptions
     }
 
 
-    private boolean readPktHeadInternal(int l, int r, int c, int p, CBlkInfo[][][] cbI,
+    private boolean readPktHeadInternal(int l, int r, int c, int p, CBlkIndex cbI,
         int[] nb) throws IOException
     {
-        CBlkInfo ccb;
+        int id; // code-block id
+        int k; // index of code-block's layer
         int nSeg; // number of segment to read
         int cbLen; // Length of cblk's code-words
         int ltp; // last truncation point index
@@ -813,14 +1023,17 @@ public class PktDecoder implements StdEntropyCoderOptions
         int tIdx = src.getTileIdx();
         PktHeaderBitReader bin;
         int mend, nend;
-        int b;
-        SubbandSyn sb;
-        SubbandSyn root = src.getSynSubbandTree(tIdx, c);
 
         // If packed packet headers was used, use separate stream for reading
         // of packet headers
         if (pph) {
-            bin = new PktHeaderBitReader(pphbais);
+            if (pphBin == null) {
+                pphBin = new PktHeaderBitReader(pphbais);
+            }
+            else {
+                pphBin.setInput(pphbais);
+            }
+            bin = pphBin;
         }
         else {
             bin = this.bin;
@@ -847,11 +1060,9 @@ public class PktDecoder implements StdEntropyCoderOptions
         // If packet is empty there is no info in it (i.e. no code-blocks)
         if (bin.readBit() == 0) {
             // No code-block is included
-            cblks = new Vector[maxs + 1];
-            for (int s = mins; s < maxs; s++) {
-                cblks[s] = new Vector();
-            }
+            ncblks = 0;
             pktIdx++;
+            bin.finish();
 
             // If truncation mode, checks if output rate is reached
             // unless ncb quit condition is used in which case headers
@@ -876,18 +1087,8 @@ public class PktDecoder implements StdEntropyCoderOptions
 
         // Packet is not empty => decode info
         // Loop on each subband in this resolution level
-        if (cblks == null || cblks.length < maxs + 1) {
-            cblks = new Vector[maxs + 1];
-        }
-
+        ncblks = 0;
         for (int s = mins; s < maxs; s++) {
-            if (cblks[s] == null) {
-                cblks[s] = new Vector();
-            }
-            else {
-                cblks[s].removeAllElements();
-            }
-            sb = (SubbandSyn)root.getSubbandByIdx(r, s);
             // No code-block in this precinct
             if (prec.nblk[s] == 0) {
                 // Go to next subband
@@ -902,20 +1103,19 @@ public class PktDecoder implements StdEntropyCoderOptions
                 nend = (prec.cblk[s][m] == null) ? 0 : prec.cblk[s][m].length;
                 for (int n = 0; n < nend; n++) { // Horizontal code-blocks
                     cbc = prec.cblk[s][m][n].idx;
-                    b = cbc.x + cbc.y * sb.numCb.x;
-
-                    ccb = cbI[s][cbc.y][cbc.x];
+                    id = cbI.getId(c, r, s, cbc.y, cbc.x);
+                    k = id * nl + l;
 
                     try {
                         // If code-block not included in previous layer(s)
-                        if (ccb == null || ccb.ctp == 0) {
-                            if (ccb == null) {
-                                ccb = cbI[s][cbc.y][cbc.x] = new CBlkInfo(prec.cblk[s][m][n].ulx,
+                        if (!cbI.isFound(id) || cbI.ctp[id] == 0) {
+                            if (!cbI.isFound(id)) {
+                                cbI.create(id, prec.cblk[s][m][n].ulx,
                                     prec.cblk[s][m][n].uly,
                                     prec.cblk[s][m][n].w,
-                                    prec.cblk[s][m][n].h, nl);
+                                    prec.cblk[s][m][n].h);
                             }
-                            ccb.pktIdx[l] = pktIdx;
+                            cbI.pktIdx[k] = pktIdx;
 
                             // Read inclusion using tag-tree
                             tmp = tdIncl.update(m, n, l + 1, bin);
@@ -928,11 +1128,11 @@ public class PktDecoder implements StdEntropyCoderOptions
                             for (tmp2 = 1; tmp >= tmp2; tmp2++) {
                                 tmp = tdBD.update(m, n, tmp2, bin);
                             }
-                            ccb.msbSkipped = tmp2 - 2;
+                            cbI.msbSkipped[id] = tmp2 - 2;
 
                             // New code-block => at least one truncation point
                             totnewtp = 1;
-                            ccb.addNTP(l, 0);
+                            cbI.addNTP(id, l, 0);
 
                             // Check whether ncb quit condition is reached
                             ncb++;
@@ -940,18 +1140,14 @@ public class PktDecoder implements StdEntropyCoderOptions
                                 // ncb quit contidion reached
                                 ncbQuit = true;
                                 tQuit = tIdx;
-                                cQuit = c;
-                                sQuit = s;
-                                rQuit = r;
-                                xQuit = cbc.x;
-                                yQuit = cbc.y;
+                                idQuit = id;
                             }
 
                         }
                         else { // If code-block already included in one of
                                // the previous layers.
 
-                            ccb.pktIdx[l] = pktIdx;
+                            cbI.pktIdx[k] = pktIdx;
 
                             // If not inclused
                             if (bin.readBit() != 1) {
@@ -985,9 +1181,12 @@ public class PktDecoder implements StdEntropyCoderOptions
                                 }
                             }
                         }
-                        ccb.addNTP(l, totnewtp);
+                        cbI.addNTP(id, l, totnewtp);
                         sumtotnewtp += totnewtp;
-                        cblks[s].addElement(prec.cblk[s][m][n]);
+                        if (ncblks == cblks.length) {
+                            cblks = Arrays.copyOf(cblks, 2 * ncblks);
+                        }
+                        cblks[ncblks++] = id;
 
                         // Code-block length
 
@@ -1005,7 +1204,7 @@ public class PktDecoder implements StdEntropyCoderOptions
                         // then there is one termination per bypass/MQ and
                         // MQ/bypass transition. Otherwise the only
                         // termination is at the end of the code-block.
-                        int options = ((Integer)decSpec.ecopts.getTileCompVal(tIdx, c)).intValue();
+                        int options = decSpec.getTileSpecs(tIdx).ecopts[c];
 
                         if ((options & OPT_TERM_PASS) != 0) {
                             // Regular termination in use, one segment per new
@@ -1020,14 +1219,14 @@ public class PktDecoder implements StdEntropyCoderOptions
                             // bit-plane, one segment upto the end of the 2nd
                             // pass and one upto the end of the 3rd pass.
 
-                            if (ccb.ctp <= FIRST_BYPASS_PASS_IDX) {
+                            if (cbI.ctp[id] <= FIRST_BYPASS_PASS_IDX) {
                                 nSeg = 1;
                             }
                             else {
                                 nSeg = 1; // One at least for last pass
                                 // And one for each other terminated pass
-                                for (tpidx = ccb.ctp - totnewtp;
-                                    tpidx < ccb.ctp - 1; tpidx++) {
+                                for (tpidx = cbI.ctp[id] - totnewtp;
+                                    tpidx < cbI.ctp[id] - 1; tpidx++) {
                                     if (tpidx >= FIRST_BYPASS_PASS_IDX - 1) {
                                         passtype = (tpidx + NUM_EMPTY_PASSES_IN_MS_BP) %
                                             NUM_PASSES;
@@ -1048,76 +1247,68 @@ public class PktDecoder implements StdEntropyCoderOptions
 
                         // Reads lblock increment (common to all segments)
                         while (bin.readBit() != 0) {
-                            lblock[c][r][s][cbc.y][cbc.x]++;
+                            lblock[id]++;
                         }
 
                         if (nSeg == 1) { // Only one segment in packet
-                            cbLen = bin.readBits(lblock[c][r][s][cbc.y][cbc.x] +
+                            cbLen = bin.readBits(lblock[id] +
                                 MathUtil.log2(totnewtp));
                         }
                         else {
                             // We must read one length per segment
-                            ccb.segLen[l] = new int[nSeg];
+                            int seg = cbI.allocSegLen(id, l, nSeg);
                             cbLen = 0;
                             int j;
                             if ((options & OPT_TERM_PASS) != 0) {
                                 // Regular termination: each pass is terminated
-                                for (tpidx = ccb.ctp - totnewtp, j = 0;
-                                    tpidx < ccb.ctp; tpidx++, j++) {
+                                for (tpidx = cbI.ctp[id] - totnewtp, j = 0;
+                                    tpidx < cbI.ctp[id]; tpidx++, j++) {
 
-                                    lblockCur = lblock[c][r][s][cbc.y][cbc.x];
+                                    lblockCur = lblock[id];
 
                                     tmp = bin.readBits(lblockCur);
-                                    ccb.segLen[l][j] = tmp;
+                                    cbI.segLen[seg + j] = tmp;
                                     cbLen += tmp;
                                 }
                             }
                             else {
                                 // Bypass coding: only some passes are
                                 // terminated
-                                ltp = ccb.ctp - totnewtp - 1;
-                                for (tpidx = ccb.ctp - totnewtp, j = 0;
-                                    tpidx < ccb.ctp - 1; tpidx++) {
+                                ltp = cbI.ctp[id] - totnewtp - 1;
+                                for (tpidx = cbI.ctp[id] - totnewtp, j = 0;
+                                    tpidx < cbI.ctp[id] - 1; tpidx++) {
                                     if (tpidx >= FIRST_BYPASS_PASS_IDX - 1) {
                                         passtype = (tpidx + NUM_EMPTY_PASSES_IN_MS_BP) %
                                             NUM_PASSES;
                                         if (passtype == 0) continue;
 
-                                        lblockCur = lblock[c][r][s][cbc.y][cbc.x];
+                                        lblockCur = lblock[id];
                                         tmp = bin.readBits(lblockCur +
                                             MathUtil.log2(tpidx - ltp));
-                                        ccb.segLen[l][j] = tmp;
+                                        cbI.segLen[seg + j] = tmp;
                                         cbLen += tmp;
                                         ltp = tpidx;
                                         j++;
                                     }
                                 }
                                 // Last pass has always the length sent
-                                lblockCur = lblock[c][r][s][cbc.y][cbc.x];
+                                lblockCur = lblock[id];
                                 tmp = bin.readBits(lblockCur +
                                     MathUtil.log2(tpidx - ltp));
                                 cbLen += tmp;
-                                ccb.segLen[l][j] = tmp;
+                                cbI.segLen[seg + j] = tmp;
                             }
                         }
-                        ccb.len[l] = cbLen;
+                        cbI.len[k] = cbLen;
 
                         // If truncation mode, checks if output rate is reached
                         // unless ncb and lbody quit contitions used.
                         if (isTruncMode && maxCB == -1) {
-                            tmp = ehs.getPos() - startPktHead;
+                            tmp = (pph ? ehs.getPos() : bin.getPos()) - startPktHead;
                             if (tmp > nb[tIdx]) {
                                 nb[tIdx] = 0;
                                 // Remove found information in this code-block
-                                if (l == 0) {
-                                    cbI[s][cbc.y][cbc.x] = null;
-                                }
-                                else {
-                                    ccb.off[l] = ccb.len[l] = 0;
-                                    ccb.ctp -= ccb.ntp[l];
-                                    ccb.ntp[l] = 0;
-                                    ccb.pktIdx[l] = -1;
-                                }
+                                cbI.remove(id, l);
                                 return true;
                             }
                         }
@@ -1125,21 +1316,14 @@ public class PktDecoder implements StdEntropyCoderOptions
                     }
                     catch (EOFException e) {
                         // Remove found information in this code-block
-                        if (l == 0) {
-                            cbI[s][cbc.y][cbc.x] = null;
-                        }
-                        else {
-                            ccb.off[l] = ccb.len[l] = 0;
-                            ccb.ctp -= ccb.ntp[l];
-                            ccb.ntp[l] = 0;
-                            ccb.pktIdx[l] = -1;
-                        }
+                        cbI.remove(id, l);
 //                         throw new EOFException();
                         return true;
                     }
                 } // End loop on horizontal code-blocks
             } // End loop on vertical code-blocks
         } // End loop on subbands
+        bin.finish();
 
         // Read EPH marker if needed
         if (ephUsed) {
@@ -1176,23 +1360,21 @@ public class PktDecoder implements StdEntropyCoderOptions
      *
      * @param p Precinct index
      *
-     * @param cbI CBlkInfo array of relevant component and resolution
-     * level.
+     * @param cbI The code-blocks index of the tile.
      *
      * @param nb The remainding number of bytes to read from the bit stream in
      * each tile before reaching the decoding rate (in truncation mode)
      *
      * @return True if decoding rate is reached
      */
-    public boolean readPktBody(int l, int r, int c, int p, CBlkInfo[][][] cbI,
+    public boolean readPktBody(int l, int r, int c, int p, CBlkIndex cbI,
         int[] nb) throws IOException
     {
         int curOff = ehs.getPos();
-        Point curCB;
-        CBlkInfo ccb;
+        int id; // code-block id
+        int k; // index of code-block's layer
         boolean stopRead = false;
         int tIdx = src.getTileIdx();
-        Point cbc;
 
         boolean precFound = false;
         int mins = (r == 0) ? 0 : 1;
@@ -1206,55 +1388,36 @@ public class PktDecoder implements StdEntropyCoderOptions
             return false;
         }
 
-        for (int s = mins; s < maxs; s++) {
-            for (int numCB = 0; numCB < cblks[s].size(); numCB++) {
-                cbc = ((CBlkCoordInfo)cblks[s].elementAt(numCB)).idx;
-                ccb = cbI[s][cbc.y][cbc.x];
-                ccb.off[l] = curOff;
-                curOff += ccb.len[l];
-                try {
-                    ehs.seek(curOff);
-                }
-                catch (EOFException e) {
-                    if (l == 0) {
-                        cbI[s][cbc.y][cbc.x] = null;
-                    }
-                    else {
-                        ccb.off[l] = ccb.len[l] = 0;
-                        ccb.ctp -= ccb.ntp[l];
-                        ccb.ntp[l] = 0;
-                        ccb.pktIdx[l] = -1;
-                    }
-                    throw new EOFException();
-                }
+        for (int numCB = 0; numCB < ncblks; numCB++) {
+            id = cblks[numCB];
+            k = id * nl + l;
+            cbI.off[k] = curOff;
+            curOff += cbI.len[k];
+            try {
+                ehs.seek(curOff);
+            }
+            catch (EOFException e) {
+                cbI.remove(id, l);
+                throw new EOFException();
+            }
 
-                // If truncation mode
-                if (isTruncMode) {
-                    if (stopRead || ccb.len[l] > nb[tIdx]) {
-                        // Remove found information in this code-block
-                        if (l == 0) {
-                            cbI[s][cbc.y][cbc.x] = null;
-                        }
-                        else {
-                            ccb.off[l] = ccb.len[l] = 0;
-                            ccb.ctp -= ccb.ntp[l];
-                            ccb.ntp[l] = 0;
-                            ccb.pktIdx[l] = -1;
-                        }
-                        stopRead = true;
-                    }
-                    if (!stopRead) {
-                        nb[tIdx] -= ccb.len[l];
-                    }
-                }
-                // If ncb quit condition reached
-                if (ncbQuit && r == rQuit && s == sQuit && cbc.x == xQuit &&
-                    cbc.y == yQuit && tIdx == tQuit && c == cQuit) {
-                    cbI[s][cbc.y][cbc.x] = null;
+            // If truncation mode
+            if (isTruncMode) {
+                if (stopRead || cbI.len[k] > nb[tIdx]) {
+                    // Remove found information in this code-block
+                    cbI.remove(id, l);
                     stopRead = true;
                 }
-            } // Loop on code-blocks
-        } // End loop on subbands
+                if (!stopRead) {
+                    nb[tIdx] -= cbI.len[k];
+                }
+            }
+            // If ncb quit condition reached
+            if (ncbQuit && id == idQuit && tIdx == tQuit) {
+                cbI.remove(id);
+                stopRead = true;
+            }
+        } // Loop on code-blocks
 
         // Seek to the end of the packet
         ehs.seek(curOff);
@@ -1439,4 +1602,42 @@ public class PktDecoder implements StdEntropyCoderOptions
         return ppinfo[c][r][p];
     }
 
+
+    /** Key of 'cblkCache', comparing the geometry values by content. */
+    private static class GeomKey
+    {
+
+        /** The geometry values */
+        final int[] v;
+
+        /** The hash code of the values */
+        int hash;
+
+
+        /**
+         * Creates a key.
+         *
+         * @param v The geometry values
+         */
+        GeomKey(int[] v)
+        {
+            this.v = v;
+            this.hash = Arrays.hashCode(v);
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof GeomKey && Arrays.equals(v, ((GeomKey)o).v);
+        }
+    }
+
 }
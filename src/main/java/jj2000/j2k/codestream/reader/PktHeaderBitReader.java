@@ -58,10 +58,33 @@ import jj2000.j2k.io.RandomAccessIO;
  * This class provides a bit based reading facility from a byte based one,
  * applying the bit unstuffing procedure as required by the packet headers.
  *
+ * <P>
+ * The bytes are read from the source several at a time into a small
+ * buffer, and unstuffed from there into a 64 bit accumulator from which the
+ * bits are served. Since the source is therefore read ahead of the packet
+ * head, finish() must be called at the end of each packet head, before
+ * reading directly from the source again, to move the source back to the
+ * end of the packet head.
+ *
+ * <P>
+ * The end of the packet head is the end of the last byte from which at
+ * least one bit was read, or of the byte following it if the last byte is
+ * 0xFF, since it then contains a stuffed bit (this is the position the
+ * source had when the packet head was read one byte at a time).
  */
 class PktHeaderBitReader
 {
 
+    /** The size of the read-ahead buffer */
+    private static final int BUF_SIZE = 32;
+
+    /**
+     * The number of bytes kept at the start of the buffer when it is
+     * refilled, which must cover all the bytes with bits left in the
+     * accumulator and the byte before them
+     */
+    private static final int KEEP = 11;
+
     /** The byte based source of data */
     RandomAccessIO in;
 
@@ -74,20 +97,35 @@ class PktHeaderBitReader
     /** Flag indicating whether the data should be read from the buffer */
     boolean usebais;
 
-    /** The current bit buffer */
-    int bbuf;
+    /** The bit accumulator, the next bit to read is bit 'nbits-1' */
+    private long acc;
 
-    /**
-     * The position of the next bit to read in the bit buffer (0 means
-     * empty, 8 full)
-     */
-    int bpos;
+    /** The number of bits left in the accumulator */
+    private int nbits;
+
+    /** The last byte unstuffed into the accumulator */
+    private int last;
+
+    /** The bytes read from the source */
+    private byte[] buf = new byte[BUF_SIZE];
+
+    /** The number of valid bytes in 'buf' */
+    private int bufLen;
+
+    /** The index in 'buf' of the next byte to unstuff */
+    private int bufPos;
 
     /**
-     * The next bit buffer, if bit stuffing occurred (i.e. current bit
-     * buffer holds 0xFF)
+     * The offset of buf[0] in the source, relative to the position of the
+     * source at the last call to sync()
      */
-    int nextbbuf;
+    private int bufOff;
+
+    /** The byte before buf[0], or 0 if none */
+    private int prevByte;
+
+    /** The position of the source at the last call to sync() */
+    private int syncPos;
 
 
     /**
@@ -130,27 +168,13 @@ class PktHeaderBitReader
      */
     final int readBit() throws IOException
     {
-        if (bpos == 0) { // Is bit buffer empty?
-            if (bbuf != 0xFF) { // No bit stuffing
-                if (usebais)
-                    bbuf = bais.read();
-                else bbuf = in.read();
-                bpos = 8;
-                if (bbuf == 0xFF) { // If new bit stuffing get next byte
-                    if (usebais)
-                        nextbbuf = bais.read();
-                    else nextbbuf = in.read();
-                }
-            }
-            else { // We had bit stuffing, nextbuf can not be 0xFF
-                bbuf = nextbbuf;
-                bpos = 7;
-            }
-            if (bbuf == -1) {
+        if (nbits == 0) {
+            fillAcc();
+            if (nbits == 0) {
                 throw new EOFException("Could not read next bit. End of stream reached");
             }
         }
-        return (bbuf >> --bpos) & 0x01;
+        return (int)(acc >>> --nbits) & 0x01;
     }
 
 
@@ -169,49 +193,110 @@ class PktHeaderBitReader
      */
     final int readBits(int n) throws IOException
     {
-        int bits; // The read bits
+        if (nbits < n) {
+            fillAcc();
+            if (nbits < n) {
+                throw new EOFException("Could not read bits. End of stream reached");
+            }
+        }
+        nbits -= n;
+        return (int)(acc >>> nbits) & ((1 << n) - 1);
+    }
+
+
+    /**
+     * Unstuffs bytes into the accumulator until it holds more than 56 bits
+     * or the source is exhausted. A byte following 0xFF only contributes its
+     * 7 least significant bits.
+     */
+    private void fillAcc() throws IOException
+    {
+        while (nbits <= 56) {
+            // Make sure the byte following a 0xFF is available, if any, so
+            // that the end of the packet head is known.
+            if (bufPos >= bufLen - 1 && !readMore() && bufPos == bufLen) {
+                return;
+            }
+            int b = buf[bufPos++] & 0xFF;
+            if (last == 0xFF) {
+                acc = (acc << 7) | (b & 0x7F);
+                nbits += 7;
+            }
+            else {
+                acc = (acc << 8) | b;
+                nbits += 8;
+            }
+            last = b;
+        }
+    }
+
 
-        // Can we get all bits from the bit buffer?
-        if (n <= bpos) {
-            return (bbuf >> (bpos -= n)) & ((1 << n) - 1);
+    /**
+     * Reads more bytes from the source into the buffer, keeping the bytes
+     * which may still have bits in the accumulator.
+     *
+     * @return false if no more bytes are available from the source
+     */
+    private boolean readMore() throws IOException
+    {
+        int drop = bufPos - KEEP;
+        if (drop > 0) {
+            prevByte = buf[drop - 1] & 0xFF;
+            System.arraycopy(buf, drop, buf, 0, bufLen - drop);
+            bufOff += drop;
+            bufPos -= drop;
+            bufLen -= drop;
+        }
+        int n = BUF_SIZE - bufLen;
+        if (usebais) {
+            n = bais.read(buf, bufLen, n);
         }
         else {
-            // NOTE: The implementation need not be recursive but the not
-            // recursive one exploits a bug in the IBM x86 JIT and caused
-            // incorrect decoding (Diego Santa Cruz).
-            bits = 0;
-            do {
-                // Get all the bits we can from the bit buffer
-                bits <<= bpos;
-                n -= bpos;
-                bits |= readBits(bpos);
-                // Get an extra bit to load next byte (here bpos is 0)
-                if (bbuf != 0xFF) { // No bit stuffing
-                    if (usebais)
-                        bbuf = bais.read();
-                    else bbuf = in.read();
-
-                    bpos = 8;
-                    if (bbuf == 0xFF) { // If new bit stuffing get next byte
-                        if (usebais)
-                            nextbbuf = bais.read();
-                        else nextbbuf = in.read();
-                    }
-                }
-                else { // We had bit stuffing, nextbuf can not be 0xFF
-                    bbuf = nextbbuf;
-                    bpos = 7;
-                }
-                if (bbuf == -1) {
-                    throw new EOFException("Could not read bits. End of stream reached");
-                }
-            } while (n > bpos);
-            // Get the last bits, if any
-            bits <<= n;
-            bits |= (bbuf >> (bpos -= n)) & ((1 << n) - 1);
-            // Return result
-            return bits;
+            n = Math.min(n, in.length() - in.getPos());
+            if (n > 0) {
+                in.readFully(buf, bufLen, n);
+            }
+        }
+        if (n <= 0) {
+            return false;
+        }
+        bufLen += n;
+        return true;
+    }
+
+
+    /**
+     * Returns the number of bytes of the packet head read so far, that is
+     * since the last call to sync(), including the byte following a last
+     * 0xFF byte.
+     */
+    private int getLength()
+    {
+        // Skip the bytes with all their bits still in the accumulator
+        int i = bufPos;
+        int r = nbits;
+        while (i > 0) {
+            int w = ((i >= 2 ? buf[i - 2] & 0xFF : prevByte) == 0xFF) ? 7 : 8;
+            if (w > r) {
+                break;
+            }
+            r -= w;
+            i--;
+        }
+        if (i > 0 && (buf[i - 1] & 0xFF) == 0xFF && i < bufLen) {
+            i++;
         }
+        return bufOff + i;
+    }
+
+
+    /**
+     * Returns the position in the RandomAccessIO source of the end of the
+     * packet head read so far. Its own position is further ahead.
+     */
+    int getPos()
+    {
+        return syncPos + getLength();
     }
 
 
@@ -226,10 +311,43 @@ class PktHeaderBitReader
      * 'readBits()' or 'readBit()' before a new call to any of those methods.
      *
      */
-    void sync()
+    void sync() throws IOException
+    {
+        acc = 0;
+        nbits = 0;
+        last = 0;
+        bufLen = bufPos = bufOff = 0;
+        prevByte = 0;
+        if (usebais) {
+            bais.mark(0);
+        }
+        else {
+            syncPos = in.getPos();
+        }
+    }
+
+
+    /**
+     * Moves the underlying byte based input to the end of the packet head,
+     * i.e. back over the bytes read ahead, and discards any buffered bits.
+     * It must be called at the end of a packet head, before data is read
+     * directly from the underlying input.
+     */
+    void finish() throws IOException
     {
-        bbuf = 0;
-        bpos = 0;
+        int len = getLength();
+        if (usebais) {
+            bais.reset();
+            bais.skip(len);
+        }
+        else {
+            in.seek(syncPos + len);
+        }
+        acc = 0;
+        nbits = 0;
+        last = 0;
+        bufLen = bufPos = bufOff = 0;
+        prevByte = 0;
     }
 
 
@@ -248,8 +366,8 @@ class PktHeaderBitReader
     void setInput(RandomAccessIO in)
     {
         this.in = in;
-        bbuf = 0;
-        bpos = 0;
+        usebais = false;
+        nbits = 0;
     }
 
 
@@ -268,7 +386,7 @@ class PktHeaderBitReader
     void setInput(ByteArrayInputStream bais)
     {
         this.bais = bais;
-        bbuf = 0;
-        bpos = 0;
+        usebais = true;
+        nbits = 0;
     }
 }
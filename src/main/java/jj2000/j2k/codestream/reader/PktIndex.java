@@ -0,0 +1,211 @@
+/*
+ * Class:                   PktIndex
+ *
+ * Description:             Location of the packets of the current tile
+ *                          in the codestream.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.codestream.reader;
+
+import java.util.Arrays;
+
+/**
+ * This class contains the location of the packets of a tile in the
+ * codestream, in the order in which they are found by the bitstream reader,
+ * and their layer, resolution level, component and precinct.
+ *
+ * <P>
+ * An instance is attached to a FileBitstreamReaderAgent, which resets it at
+ * the start of each tile it reads and adds each packet it parses. Only the
+ * packets which are actually read are added, so that all the packets of the
+ * tile are found only if the reader was created for the full decoding rate
+ * and all the quality layers. The packet information is kept in primitive
+ * arrays indexed by the packet's ordinal in the tile, which only grow when a
+ * tile has more packets than any previous one.
+ *
+ * @see FileBitstreamReaderAgent#setPktIndex
+ */
+public class PktIndex
+{
+
+    /** The index of the tile, or -1 if no tile has been read */
+    private int tile = -1;
+
+    /** The number of packets found in the tile */
+    private int n;
+
+    /** The layer of each packet */
+    private int[] lyr = new int[64];
+
+    /** The resolution level of each packet */
+    private int[] res = new int[64];
+
+    /** The component of each packet */
+    private int[] comp = new int[64];
+
+    /** The precinct of each packet */
+    private int[] prec = new int[64];
+
+    /** The stream offset of each packet, including its SOP marker */
+    private int[] off = new int[64];
+
+    /** The length of the head of each packet, including its SOP marker */
+    private int[] headLen = new int[64];
+
+    /** The total length of each packet */
+    private int[] len = new int[64];
+
+
+    /**
+     * Forgets the packets of the previous tile.
+     *
+     * @param t The index of the tile whose packets are to be added.
+     */
+    public void reset(int t)
+    {
+        tile = t;
+        n = 0;
+    }
+
+
+    /**
+     * Adds a packet of the current tile.
+     *
+     * @param l The layer of the packet.
+     *
+     * @param r The resolution level of the packet.
+     *
+     * @param c The component of the packet.
+     *
+     * @param p The precinct of the packet.
+     *
+     * @param start The stream offset of the packet, including its SOP
+     * marker if any.
+     *
+     * @param hlen The length of the packet head, including its SOP marker.
+     * If packed packet headers are used, this is the length of the SOP
+     * marker only.
+     *
+     * @param plen The total length of the packet.
+     */
+    public void add(int l, int r, int c, int p, int start, int hlen, int plen)
+    {
+        if (n == lyr.length) {
+            lyr = Arrays.copyOf(lyr, 2 * n);
+            res = Arrays.copyOf(res, 2 * n);
+            comp = Arrays.copyOf(comp, 2 * n);
+            prec = Arrays.copyOf(prec, 2 * n);
+            off = Arrays.copyOf(off, 2 * n);
+            headLen = Arrays.copyOf(headLen, 2 * n);
+            len = Arrays.copyOf(len, 2 * n);
+        }
+        lyr[n] = l;
+        res[n] = r;
+        comp[n] = c;
+        prec[n] = p;
+        off[n] = start;
+        headLen[n] = hlen;
+        len[n] = plen;
+        n++;
+    }
+
+
+    /** Returns the index of the tile, or -1 if no tile has been read. */
+    public int getTile()
+    {
+        return tile;
+    }
+
+
+    /** Returns the number of packets found in the tile. */
+    public int getNumPackets()
+    {
+        return n;
+    }
+
+
+    /** Returns the layer of the i-th packet. */
+    public int getLayer(int i)
+    {
+        return lyr[i];
+    }
+
+
+    /** Returns the resolution level of the i-th packet. */
+    public int getResLvl(int i)
+    {
+        return res[i];
+    }
+
+
+    /** Returns the component of the i-th packet. */
+    public int getComp(int i)
+    {
+        return comp[i];
+    }
+
+
+    /** Returns the precinct of the i-th packet. */
+    public int getPrecinct(int i)
+    {
+        return prec[i];
+    }
+
+
+    /**
+     * Returns the stream offset of the i-th packet, including its SOP
+     * marker if any.
+     */
+    public int getOffset(int i)
+    {
+        return off[i];
+    }
+
+
+    /**
+     * Returns the length of the head of the i-th packet, including its SOP
+     * marker if any.
+     */
+    public int getHeadLength(int i)
+    {
+        return headLen[i];
+    }
+
+
+    /** Returns the total length of the i-th packet. */
+    public int getLength(int i)
+    {
+        return len[i];
+    }
+}
@@ -48,7 +48,7 @@ package jj2000.j2k.codestream.reader;
  * This class defines an object used to countain informations about a packet
  * to which the current code-block belongs.
  *
- * @see CBlkInfo
+ * @see CBlkIndex
  */
 public class PktInfo
 {
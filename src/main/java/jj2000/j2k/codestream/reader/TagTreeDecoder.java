@@ -84,18 +84,23 @@ public class TagTreeDecoder
     protected int lvls;
 
     /**
-     * The tag tree values. The first index is the level,
-     * starting at level 0 (leafs). The second index is the element
-     * within the level, in lexicographical order.
+     * The tag tree values. All the levels are stored one after the other,
+     * starting at level 0 (leafs), each one at the offset given by 'lvlOff'
+     * and with its elements in lexicographical order. The array may be
+     * longer than the tree, when it is reused.
      */
-    protected int treeV[][];
+    protected int treeV[];
 
     /**
-     * The tag tree state. The first index is the level, starting at
-     * level 0 (leafs). The second index is the element within the
-     * level, in lexicographical order.
+     * The tag tree state, stored in the same way as the values in 'treeV'.
      */
-    protected int treeS[][];
+    protected int treeS[];
+
+    /** The offset of each level in 'treeV' and 'treeS' */
+    protected int lvlOff[];
+
+    /** The number of elements along the horizontal direction of each level */
+    protected int lvlW[];
 
 
     /**
@@ -117,8 +122,27 @@ public class TagTreeDecoder
      */
     public TagTreeDecoder(int h, int w)
     {
-        int i;
+        treeV = treeS = new int[0];
+        lvlOff = lvlW = new int[0];
+        reset(h, w);
+    }
 
+
+    /**
+     * Reinitializes this tag tree decoder as a new one with 'w' elements
+     * along the horizontal dimension and 'h' elements along the vertical
+     * direction, as if it had just been created with these dimensions. The
+     * arrays of the previous tree are reused if they are large enough, so
+     * that the decoders of successive precincts need not be reallocated.
+     *
+     * @param h The number of elements along the vertical direction.
+     *
+     * @param w The number of elements along the horizontal direction.
+     *
+     * @see #TagTreeDecoder(int, int)
+     */
+    public void reset(int h, int w)
+    {
         // Check arguments
         if (w < 0 || h < 0) {
             throw new IllegalArgumentException();
@@ -126,33 +150,45 @@ public class TagTreeDecoder
         // Initialize dimensions
         this.w = w;
         this.h = h;
-        // Calculate the number of levels
+        // Calculate the number of levels and their total size
+        int size = 0;
         if (w == 0 || h == 0) {
             lvls = 0; // Empty tree
         }
         else {
             lvls = 1;
+            size = h * w;
             while (h != 1 || w != 1) { // Loop until we reach root
                 w = (w + 1) >> 1;
                 h = (h + 1) >> 1;
+                size += h * w;
                 lvls++;
             }
         }
-        // Allocate tree values and states
-        treeV = new int[lvls][];
-        treeS = new int[lvls][];
+        // Allocate or reuse the level offsets
+        if (lvlOff.length < lvls) {
+            lvlOff = new int[lvls];
+            lvlW = new int[lvls];
+        }
         w = this.w;
         h = this.h;
-        for (i = 0; i < lvls; i++) {
-            treeV[i] = new int[h * w];
-            // Initialize to infinite value
-            Arrays.fill(treeV[i], Integer.MAX_VALUE);
-
-            // (no need to initialize to 0 since it's the default)
-            treeS[i] = new int[h * w];
+        for (int i = 0, off = 0; i < lvls; i++) {
+            lvlOff[i] = off;
+            lvlW[i] = w;
+            off += h * w;
             w = (w + 1) >> 1;
             h = (h + 1) >> 1;
         }
+        // Allocate or reuse tree values and states
+        if (treeV.length < size) {
+            treeV = new int[size];
+            treeS = new int[size];
+        }
+        else {
+            Arrays.fill(treeS, 0, size, 0);
+        }
+        // Initialize to infinite value
+        Arrays.fill(treeV, 0, size, Integer.MAX_VALUE);
     }
 
 
@@ -220,28 +256,28 @@ public class TagTreeDecoder
 
         // Initialize
         k = lvls - 1;
-        tmin = treeS[k][0];
+        tmin = treeS[lvlOff[k]];
 
         // Loop on levels
-        idx = (m >> k) * ((w + (1 << k) - 1) >> k) + (n >> k);
+        idx = lvlOff[k] + (m >> k) * lvlW[k] + (n >> k);
         while (true) {
             // Cache state and value
-            ts = treeS[k][idx];
-            tv = treeV[k][idx];
+            ts = treeS[idx];
+            tv = treeV[idx];
             if (ts < tmin) {
                 ts = tmin;
             }
             while (t > ts) {
                 if (tv >= ts) { // We are not done yet
                     if (in.readBit() == 0) { // '0' bit
-                        // We know that 'value' > treeS[k][idx]
+                        // We know that 'value' > treeS[idx]
                         ts++;
                     }
                     else { // '1' bit
-                           // We know that 'value' = treeS[k][idx]
+                           // We know that 'value' = treeS[idx]
                         tv = ts++;
                     }
-                    // Increment of treeS[k][idx] done above
+                    // Increment of treeS[idx] done above
                 }
                 else { // We are done, we can set ts and get out
                     ts = t;
@@ -249,14 +285,14 @@ public class TagTreeDecoder
                 }
             }
             // Update state and value
-            treeS[k][idx] = ts;
-            treeV[k][idx] = tv;
+            treeS[idx] = ts;
+            treeV[idx] = tv;
             // Update tmin or terminate
             if (k > 0) {
                 tmin = ts < tv ? ts : tv;
                 k--;
                 // Index of element for next iteration
-                idx = (m >> k) * ((w + (1 << k) - 1) >> k) + (n >> k);
+                idx = lvlOff[k] + (m >> k) * lvlW[k] + (n >> k);
             }
             else {
                 // Return the updated value
@@ -287,6 +323,6 @@ public class TagTreeDecoder
             throw new IllegalArgumentException();
         }
         // Return value
-        return treeV[0][m * w + n];
+        return treeV[m * w + n];
     }
 }
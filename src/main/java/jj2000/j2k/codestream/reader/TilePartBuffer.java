@@ -0,0 +1,744 @@
+/*
+ * Class:                   TilePartBuffer
+ *
+ * Description:             Serves the packet data of the current tile
+ *                          from bulk reads of its tile-parts.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.codestream.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import jj2000.j2k.io.EndianType;
+import jj2000.j2k.io.RandomAccessIO;
+
+/**
+ * This class is a read-only RandomAccessIO which serves the packets of the
+ * tile being decoded from memory, so that packet heads and code-block
+ * segments do not each result in a seek and a small read on the underlying
+ * stream.
+ *
+ * <P>
+ * The packet data of the tile-parts of the current tile is registered with
+ * addTilePart(). Each tile-part body is split in chunks of at most
+ * 'chunkSize' bytes, and each chunk is read with one bulk read the first
+ * time it is accessed. A tile-part that is no longer than 'chunkSize' is
+ * therefore read in one piece, and chunks beyond the decoding rate are never
+ * read. The chunks are kept until clear() is called for the next tile, and
+ * their arrays are reused from one tile to the next.
+ *
+ * <P>
+ * At most 'maxChunks' chunks are held in memory, so that a tile whose
+ * tile-parts span gigabytes is not made resident as a whole. When a chunk
+ * has to be read and the limit is reached, the array of the least recently
+ * used chunk is taken over, and that chunk is read again if it is accessed
+ * later. The packets are mostly read in sequence, so this rarely happens
+ * unless the tile data is larger than the limit.
+ *
+ * <P>
+ * When the reading of the tiles is likely to stop well before the end of
+ * their tile-parts, a smaller size can be set for the first chunk of each
+ * tile-part with setFirstChunkSize(). The size of the following chunks then
+ * doubles up to 'chunkSize', so that little is read beyond the last packet
+ * used while the number of reads only grows logarithmically.
+ *
+ * <P>
+ * Everything outside of the registered tile-parts (main and tile-part
+ * headers, markers after the last packet) is read from the underlying
+ * stream. Seeks are deferred until data actually has to be read from the
+ * underlying stream at a position other than its current one.
+ *
+ * <P>
+ * The multi-byte read methods always use the big-endian byte ordering of
+ * the codestream. The number of read and seek operations performed on the
+ * underlying stream is counted, see getNumReads() and getNumSeeks().
+ */
+public class TilePartBuffer implements RandomAccessIO
+{
+
+    /** The default maximum number of chunks held in memory */
+    public static final int DEFAULT_MAX_CHUNKS = 32;
+
+    /** The underlying stream */
+    private RandomAccessIO in;
+
+    /** The maximum number of bytes read from 'in' in one chunk */
+    private int chunkSize;
+
+    /** The size of the first chunk of each tile-part */
+    private int firstChunkSize;
+
+    /** The maximum number of chunks held in memory */
+    private int maxChunks = DEFAULT_MAX_CHUNKS;
+
+    /** The current position */
+    private int pos;
+
+    /** The current position of 'in', or -1 if unknown */
+    private int inPos;
+
+    /** The length of 'in', or -1 if not known yet */
+    private int length = -1;
+
+    /** The number of registered tile-parts */
+    private int nWin;
+
+    /** The stream offset where the data of each tile-part starts */
+    private int[] wOff = new int[4];
+
+    /** The stream offset where the data of each tile-part ends (exclusive) */
+    private int[] wEnd = new int[4];
+
+    /** The index of the first chunk of each tile-part */
+    private int[] wChk = new int[4];
+
+    /** The size of the first chunk of each tile-part */
+    private int[] wFirst = new int[4];
+
+    /** The number of chunks of all the registered tile-parts */
+    private int nChk;
+
+    /** The data of each chunk, possibly longer than the chunk */
+    private byte[][] chk = new byte[4][];
+
+    /** Whether or not each chunk has been read */
+    private boolean[] loaded = new boolean[4];
+
+    /** The value of 'clock' when each chunk was last made current */
+    private long[] used = new long[4];
+
+    /** Incremented each time a chunk is made current */
+    private long clock;
+
+    /** The number of non-null arrays in 'chk' */
+    private int nArrays;
+
+    /** The chunk in use (the one last accessed) */
+    private byte[] cur;
+
+    /** The stream offset of the first byte of 'cur' */
+    private int curOff;
+
+    /** The stream offset where the data of 'cur' ends (exclusive) */
+    private int curEnd;
+
+    /** The number of read operations performed on 'in' */
+    private long nReads;
+
+    /** The number of seek operations performed on 'in' */
+    private long nSeeks;
+
+    /** The number of bytes read from 'in' */
+    private long nBytesRead;
+
+    /** The number of chunks dropped to stay within 'maxChunks' */
+    private long nEvictions;
+
+
+    /**
+     * Creates a new instance which reads from the given stream, starting at
+     * its current position.
+     *
+     * @param in The underlying stream.
+     *
+     * @param chunkSize The maximum number of bytes of a tile-part to read
+     * with one read operation. If 0 or negative, the tile-parts are not
+     * buffered and all data is read from 'in' directly.
+     */
+    public TilePartBuffer(RandomAccessIO in, int chunkSize) throws IOException
+    {
+        this.in = in;
+        this.chunkSize = firstChunkSize = chunkSize;
+        pos = inPos = in.getPos();
+    }
+
+
+    /**
+     * Sets the size of the first chunk of the tile-parts registered from now
+     * on. The size of each following chunk is twice the one of the previous
+     * chunk, up to the maximum chunk size.
+     *
+     * @param size The size of the first chunk. If 0 or negative, or not less
+     * than the maximum chunk size, all chunks have the maximum size.
+     */
+    public void setFirstChunkSize(int size)
+    {
+        firstChunkSize = size > 0 && size < chunkSize ? size : chunkSize;
+    }
+
+
+    /**
+     * Sets the maximum number of chunks held in memory. It applies to the
+     * chunks read from now on.
+     *
+     * @param n The maximum number of chunks, at least 1.
+     */
+    public void setMaxChunks(int n)
+    {
+        if (n < 1) {
+            throw new IllegalArgumentException("n < 1!");
+        }
+        maxChunks = n;
+    }
+
+
+    /**
+     * Returns the size of the chunk which follows a chunk of the given size
+     */
+    private int nextChunkSize(int size)
+    {
+        return size < chunkSize - size ? 2 * size : chunkSize;
+    }
+
+
+    /**
+     * Forgets all the registered tile-parts. The data read so far is
+     * discarded, although the arrays are kept for the next tile.
+     */
+    public void clear()
+    {
+        for (int j = 0; j < nChk; j++) {
+            loaded[j] = false;
+        }
+        nWin = nChk = 0;
+        cur = null;
+        curOff = curEnd = 0;
+    }
+
+
+    /**
+     * Registers the packet data of a tile-part of the current tile, which is
+     * to be served from memory. The data is clipped to the length of the
+     * stream, and nothing is registered if buffering is disabled.
+     *
+     * @param off The stream offset of the first packet of the tile-part.
+     *
+     * @param len The number of bytes of packet data in the tile-part.
+     */
+    public void addTilePart(int off, int len) throws IOException
+    {
+        if (chunkSize <= 0) {
+            return;
+        }
+        if (len > length() - off) {
+            len = length() - off;
+        }
+        if (len <= 0) {
+            return;
+        }
+        if (nWin == wOff.length) {
+            wOff = grow(wOff, 2 * nWin);
+            wEnd = grow(wEnd, 2 * nWin);
+            wChk = grow(wChk, 2 * nWin);
+            wFirst = grow(wFirst, 2 * nWin);
+        }
+        int n = 0;
+        int rem = len;
+        for (int sz = firstChunkSize; sz < chunkSize && rem > 0; sz = nextChunkSize(sz)) {
+            rem -= sz;
+            n++;
+        }
+        if (rem > 0) {
+            n += (int)(((long)rem + chunkSize - 1) / chunkSize);
+        }
+        if (nChk + n > loaded.length) {
+            int sz = Math.max(2 * loaded.length, nChk + n);
+            boolean[] tmpl = new boolean[sz];
+            System.arraycopy(loaded, 0, tmpl, 0, nChk);
+            loaded = tmpl;
+            long[] tmpu = new long[sz];
+            System.arraycopy(used, 0, tmpu, 0, nChk);
+            used = tmpu;
+            byte[][] tmpc = new byte[sz][];
+            System.arraycopy(chk, 0, tmpc, 0, chk.length);
+            chk = tmpc;
+        }
+        wOff[nWin] = off;
+        wEnd[nWin] = off + len;
+        wChk[nWin] = nChk;
+        wFirst[nWin] = firstChunkSize;
+        nWin++;
+        nChk += n;
+    }
+
+
+    /** Returns a copy of 'a' with length 'n' */
+    private static int[] grow(int[] a, int n)
+    {
+        int[] tmp = new int[n];
+        System.arraycopy(a, 0, tmp, 0, a.length);
+        return tmp;
+    }
+
+
+    /**
+     * Makes the chunk which contains the current position the current
+     * chunk, reading it if necessary.
+     *
+     * @return The number of bytes which can be read from the underlying
+     * stream at the current position before reaching a registered tile-part,
+     * or 0 if the current position is within a registered tile-part (in
+     * which case the current chunk contains it).
+     */
+    private int locate() throws IOException
+    {
+        int next = Integer.MAX_VALUE;
+        for (int i = 0; i < nWin; i++) {
+            if (pos < wOff[i]) {
+                if (wOff[i] < next) next = wOff[i];
+                continue;
+            }
+            if (pos >= wEnd[i]) continue;
+
+            // Skip the growing chunks, then the ones of the maximum size
+            int j = wChk[i];
+            int off = wOff[i];
+            int sz = wFirst[i];
+            while (sz < chunkSize && pos - off >= sz) {
+                off += sz;
+                sz = nextChunkSize(sz);
+                j++;
+            }
+            int k = (pos - off) / sz;
+            j += k;
+            off += k * sz;
+            int end = Math.min(off + sz, wEnd[i]);
+            if (!loaded[j]) {
+                byte[] buf = chk[j];
+                if (buf == null) {
+                    if (nArrays >= maxChunks) {
+                        buf = evict();
+                    }
+                    nArrays++;
+                }
+                if (buf == null || buf.length < end - off) {
+                    buf = new byte[end - off];
+                }
+                chk[j] = buf;
+                if (inPos != off) {
+                    inPos = -1;
+                    in.seek(off);
+                    nSeeks++;
+                }
+                in.readFully(chk[j], 0, end - off);
+                inPos = end;
+                nReads++;
+                nBytesRead += end - off;
+                loaded[j] = true;
+            }
+            cur = chk[j];
+            curOff = off;
+            curEnd = end;
+            used[j] = ++clock;
+            return 0;
+        }
+        return next - pos;
+    }
+
+
+    /**
+     * Drops an array of 'chk', preferably one whose chunk is not loaded,
+     * otherwise the one of the least recently used chunk.
+     *
+     * @return The dropped array.
+     */
+    private byte[] evict()
+    {
+        int v = -1;
+        for (int j = 0; j < chk.length; j++) {
+            if (chk[j] == null) continue;
+            if (j >= nChk || !loaded[j]) {
+                v = j;
+                break;
+            }
+            if (v < 0 || used[j] < used[v]) {
+                v = j;
+            }
+        }
+        byte[] buf = chk[v];
+        if (v < nChk && loaded[v]) {
+            loaded[v] = false;
+            nEvictions++;
+        }
+        if (cur == buf) {
+            cur = null;
+            curOff = curEnd = 0;
+        }
+        chk[v] = null;
+        nArrays--;
+        return buf;
+    }
+
+
+    /** Seeks the underlying stream to the current position, if needed */
+    private void sync() throws IOException
+    {
+        if (inPos != pos) {
+            inPos = -1;
+            in.seek(pos);
+            inPos = pos;
+            nSeeks++;
+        }
+    }
+
+
+    /**
+     * Returns whether the next 'n' bytes are all outside of the registered
+     * tile-parts, in which case they have to be read from the underlying
+     * stream.
+     */
+    private boolean direct(int n) throws IOException
+    {
+        return (pos < curOff || pos >= curEnd) && locate() >= n;
+    }
+
+
+    /** Reads a byte, throwing an EOFException at the end of the stream */
+    private int readU8() throws IOException
+    {
+        int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+
+    /** Returns the number of read operations performed on the underlying stream */
+    public long getNumReads()
+    {
+        return nReads;
+    }
+
+
+    /** Returns the number of seek operations performed on the underlying stream */
+    public long getNumSeeks()
+    {
+        return nSeeks;
+    }
+
+
+    /** Returns the number of bytes read from the underlying stream */
+    public long getNumBytesRead()
+    {
+        return nBytesRead;
+    }
+
+
+    /**
+     * Returns the number of chunk arrays held in memory, which is at most
+     * the maximum number of chunks
+     */
+    public int getNumChunks()
+    {
+        return nArrays;
+    }
+
+
+    /**
+     * Returns the number of read chunks which were dropped to stay within
+     * the maximum number of chunks
+     */
+    public long getNumEvictions()
+    {
+        return nEvictions;
+    }
+
+
+    @Override
+    public int read() throws IOException
+    {
+        if (pos >= curOff && pos < curEnd) {
+            return cur[pos++ - curOff] & 0xFF;
+        }
+        if (locate() == 0) {
+            return cur[pos++ - curOff] & 0xFF;
+        }
+        sync();
+        int b = in.read();
+        nReads++;
+        if (b >= 0) {
+            pos++;
+            inPos++;
+            nBytesRead++;
+        }
+        return b;
+    }
+
+
+    @Override
+    public void readFully(byte[] b, int off, int n) throws IOException
+    {
+        while (n > 0) {
+            int k;
+            if (pos >= curOff && pos < curEnd || (k = locate()) == 0) {
+                k = Math.min(n, curEnd - pos);
+                System.arraycopy(cur, pos - curOff, b, off, k);
+            }
+            else {
+                k = Math.min(n, k);
+                sync();
+                in.readFully(b, off, k);
+                inPos += k;
+                nReads++;
+                nBytesRead += k;
+            }
+            pos += k;
+            off += k;
+            n -= k;
+        }
+    }
+
+
+    @Override
+    public byte readByte() throws IOException
+    {
+        return (byte)readU8();
+    }
+
+
+    @Override
+    public int readUnsignedByte() throws IOException
+    {
+        return readU8();
+    }
+
+
+    @Override
+    public short readShort() throws IOException
+    {
+        if (direct(2)) {
+            sync();
+            short v = in.readShort();
+            pos = inPos += 2;
+            nReads++;
+            nBytesRead += 2;
+            return v;
+        }
+        return (short)((readU8() << 8) | readU8());
+    }
+
+
+    @Override
+    public int readUnsignedShort() throws IOException
+    {
+        return readShort() & 0xFFFF;
+    }
+
+
+    @Override
+    public int readInt() throws IOException
+    {
+        if (direct(4)) {
+            sync();
+            int v = in.readInt();
+            pos = inPos += 4;
+            nReads++;
+            nBytesRead += 4;
+            return v;
+        }
+        return (readU8() << 24) | (readU8() << 16) | (readU8() << 8) | readU8();
+    }
+
+
+    @Override
+    public long readUnsignedInt() throws IOException
+    {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+
+    @Override
+    public long readLong() throws IOException
+    {
+        return ((long)readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+
+    @Override
+    public float readFloat() throws IOException
+    {
+        return Float.intBitsToFloat(readInt());
+    }
+
+
+    @Override
+    public double readDouble() throws IOException
+    {
+        return Double.longBitsToDouble(readLong());
+    }
+
+
+    @Override
+    public int skipBytes(int n) throws IOException
+    {
+        if (n <= 0) {
+            return 0;
+        }
+        if (n > length() - pos) {
+            n = Math.max(length() - pos, 0);
+        }
+        pos += n;
+        return n;
+    }
+
+
+    @Override
+    public int getPos()
+    {
+        return pos;
+    }
+
+
+    /**
+     * Moves the current position. The underlying stream is only seeked when
+     * data is read from it, so seeking beyond EOF only fails if it does and
+     * reading is then attempted, as with the underlying stream itself.
+     */
+    @Override
+    public void seek(int off) throws IOException
+    {
+        pos = off;
+    }
+
+
+    /**
+     * Returns the length of the underlying stream, which is only asked once
+     * since the stream is not written to.
+     */
+    @Override
+    public int length() throws IOException
+    {
+        if (length < 0) {
+            length = in.length();
+        }
+        return length;
+    }
+
+
+    @Override
+    public int getByteOrdering()
+    {
+        return EndianType.BIG_ENDIAN;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        clear();
+        in.close();
+    }
+
+
+    /**
+     * A null operation as writing is not supported.
+     */
+    @Override
+    public void flush()
+    {
+        // Intentionally empty.
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeByte(int v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeShort(int v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeInt(int v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeLong(long v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeFloat(float v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+
+
+    /**
+     * Throws an IOException as writing is not supported.
+     */
+    @Override
+    public void writeDouble(double v) throws IOException
+    {
+        throw new IOException("Writing is not supported!");
+    }
+}
@@ -1181,7 +1181,7 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions
         int compIdx = 0;
         for (int c = 0; c < nc && notFound; c++) {
             tmpI = ((Integer)wp.getDecompositionLevel().getTileCompVal(tIdx, c)).intValue();
-            tmpStr = (String)wp.getQuantizationStep().getTileCompVal(tIdx, c);
+            tmpStr = (String)wp.getQuantizationType().getTileCompVal(tIdx, c);
             if (tmpI == mrl && tmpStr.equals(qType)) {
                 compIdx = c;
                 notFound = false;
@@ -53,7 +53,7 @@ import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 import jj2000.j2k.codestream.CBlkCoordInfo;
 import jj2000.j2k.codestream.PrecInfo;
-import jj2000.j2k.entropy.encoder.CBlkRateDistStats;
+import jj2000.j2k.entropy.encoder.CBlkRateDistStore;
 import jj2000.j2k.entropy.encoder.CodedCBlkDataSrcEnc;
 import jj2000.j2k.util.MathUtil;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
@@ -158,8 +158,9 @@ public class PktEncoder
      * order within the subband tile.
      *
      * <P>
-     * What is actually stored is the index of the element in
-     * CBlkRateDistStats.truncIdxs that gives the real truncation point.
+     * What is actually stored is the index of the valid truncation point,
+     * as in CBlkRateDistStore.getTruncIdx(), that gives the real truncation
+     * point.
      *
      * <ul>
      * <li>1st index: tile index, in lexicographical order</li>
@@ -616,21 +617,20 @@ public class PktEncoder
 
     /**
      * Encodes a packet and returns the buffer containing the encoded packet
-     * header. The code-blocks appear in a 3D array of CBlkRateDistStats,
-     * 'cbs'. The first index is the tile index in lexicographical order, the
-     * second index is the subband index (as defined in the Subband class),
-     * and the third index is the code-block index (whithin the subband tile)
-     * in lexicographical order as well. The indexes of the new truncation
-     * points for each code-block are specified by the 3D array of int
-     * 'tIndx'. The indices of this array are the same as for cbs. The
-     * truncation point indices in 'tIndx' are the indices of the elements of
-     * the 'truncIdxs' array, of the CBlkRateDistStats class, that give the
-     * real truncation points. If a truncation point index is negative it
-     * means that the code-block has not been included in any layer yet. If
-     * the truncation point is less than or equal to the highest truncation
-     * point used in previous layers then the code-block is not included in
-     * the packet. Otherwise, if larger, the code-block is included in the
-     * packet. The body of the packet can be obtained with the
+     * header. The code-blocks are kept in 'store' and appear in 'cbs' as
+     * their ids in it. The first index of 'cbs' is the subband index (as
+     * defined in the Subband class), and the second index is the
+     * code-block index (whithin the subband tile) in lexicographical order.
+     * The indexes of the new truncation points for each code-block are
+     * specified by the 2D array of int 'tIndx'. The indices of this array
+     * are the same as for cbs. The truncation point indices in 'tIndx' are
+     * the indices of the valid truncation points, as used by the
+     * CBlkRateDistStore class, that give the real truncation points. If a
+     * truncation point index is negative it means that the code-block has
+     * not been included in any layer yet. If the truncation point is less
+     * than or equal to the highest truncation point used in previous layers
+     * then the code-block is not included in the packet. Otherwise, if
+     * larger, the code-block is included in the packet. The body of the packet can be obtained with the
      * getLastBodyBuf() and getLastBodyLen() methods.
      *
      * <p>
@@ -648,7 +648,9 @@ public class PktEncoder
      *
      * @param t Index of the current tile
      *
-     * @param cbs The 3D array of coded code-blocks.
+     * @param store The store of the coded code-blocks.
+     *
+     * @param cbs The ids of the coded code-blocks in 'store'.
      *
      * @param tIndx The truncation point indices for each code-block.
      *
@@ -663,7 +665,7 @@ public class PktEncoder
      * @return The buffer containing the packet header.
      */
     public BitOutputBuffer encodePacket(int ly, int c, int r, int t,
-        CBlkRateDistStats cbs[][],
+        CBlkRateDistStore store, int cbs[][],
         int tIndx[][], BitOutputBuffer hbuf,
         byte bbuf[], int pIdx)
     {
@@ -676,7 +678,7 @@ public class PktEncoder
         TagTreeEncoder cur_ttIncl, cur_ttMaxBP; // inclusion and bit-depth tag
         // trees
         int cur_prevtIdxs[]; // last encoded truncation points
-        CBlkRateDistStats cur_cbs[];
+        int cur_cbs[]; // ids of the code-blocks in 'store'
         int cur_tIndx[]; // truncation points to encode
         int minsb = (r == 0) ? 0 : 1;
         int maxsb = (r == 0) ? 1 : 4;
@@ -772,7 +774,7 @@ public class PktEncoder
                         cur_ttIncl.setValue(m, n, ly - 1);
                     }
                     if (ly == 1) { // First layer, need to set the skip of MSBP
-                        cur_ttMaxBP.setValue(m, n, cur_cbs[b].skipMSBP);
+                        cur_ttMaxBP.setValue(m, n, store.getSkipMSBP(cur_cbs[b]));
                     }
                 }
             }
@@ -791,29 +793,29 @@ public class PktEncoder
                             cur_ttIncl.encode(m, n, ly, hbuf);
 
                             // 2) Max bitdepth info. Encode value
-                            thmax = cur_cbs[b].skipMSBP + 1;
+                            thmax = store.getSkipMSBP(cur_cbs[b]) + 1;
                             for (i = 1; i <= thmax; i++) {
                                 cur_ttMaxBP.encode(m, n, i, hbuf);
                             }
 
                             // Count body size for packet
-                            lblen += cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_tIndx[b]]];
+                            lblen += store.getVldTruncRate(cur_cbs[b], cur_tIndx[b]);
                         }
                         else { // Already in previous layer
                                // Send "1" bit
                             hbuf.writeBit(1);
                             // Count body size for packet
-                            lblen += cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_tIndx[b]]] -
-                                cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_prevtIdxs[b]]];
+                            lblen += store.getVldTruncRate(cur_cbs[b], cur_tIndx[b]) -
+                                store.getVldTruncRate(cur_cbs[b], cur_prevtIdxs[b]);
                         }
 
                         // 3) Truncation point information
                         if (cur_prevtIdxs[b] < 0) {
-                            newtp = cur_cbs[b].truncIdxs[cur_tIndx[b]];
+                            newtp = store.getTruncIdx(cur_cbs[b], cur_tIndx[b]);
                         }
                         else {
-                            newtp = cur_cbs[b].truncIdxs[cur_tIndx[b]] -
-                                cur_cbs[b].truncIdxs[cur_prevtIdxs[b]] - 1;
+                            newtp = store.getTruncIdx(cur_cbs[b], cur_tIndx[b]) -
+                                store.getTruncIdx(cur_cbs[b], cur_prevtIdxs[b]) - 1;
                         }
 
                         // Mix of switch and if is faster
@@ -867,19 +869,18 @@ public class PktEncoder
                     // signal the length of each terminated segment and the
                     // final truncation point.
                     newtp = 1;
-                    maxi = cur_cbs[b].truncIdxs[cur_tIndx[b]];
-                    cblen = (cur_prevtIdxs[b] < 0) ? 0 : cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_prevtIdxs[b]]];
+                    maxi = store.getTruncIdx(cur_cbs[b], cur_tIndx[b]);
+                    cblen = (cur_prevtIdxs[b] < 0) ? 0 : store.getVldTruncRate(cur_cbs[b], cur_prevtIdxs[b]);
 
                     // Loop on truncation points
-                    i = (cur_prevtIdxs[b] < 0) ? 0 : cur_cbs[b].truncIdxs[cur_prevtIdxs[b]] + 1;
+                    i = (cur_prevtIdxs[b] < 0) ? 0 : store.getTruncIdx(cur_cbs[b], cur_prevtIdxs[b]) + 1;
                     int minbits = 0;
                     for (; i < maxi; i++, newtp++) {
                         // If terminated truncation point calculate length
-                        if (cur_cbs[b].isTermPass != null &&
-                            cur_cbs[b].isTermPass[i]) {
+                        if (store.isTermPass(cur_cbs[b], i)) {
 
                             // Calculate length
-                            cblen = cur_cbs[b].truncRates[i] - cblen;
+                            cblen = store.getTruncRate(cur_cbs[b], i) - cblen;
 
                             // Calculate number of needed bits
                             prednbits = lblock[t][c][r][s][b] +
@@ -893,13 +894,13 @@ public class PktEncoder
                             }
                             // Initialize for next length
                             newtp = 0;
-                            cblen = cur_cbs[b].truncRates[i];
+                            cblen = store.getTruncRate(cur_cbs[b], i);
                         }
                     }
                     // Last truncation point length always sent
 
                     // Calculate length
-                    cblen = cur_cbs[b].truncRates[i] - cblen;
+                    cblen = store.getTruncRate(cur_cbs[b], i) - cblen;
 
                     // Calculate number of bits
                     prednbits = lblock[t][c][r][s][b] + MathUtil.log2(newtp);
@@ -917,28 +918,27 @@ public class PktEncoder
                     // info for all terminated truncation points in addition
                     // to final one
                     newtp = 1;
-                    maxi = cur_cbs[b].truncIdxs[cur_tIndx[b]];
-                    cblen = (cur_prevtIdxs[b] < 0) ? 0 : cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_prevtIdxs[b]]];
+                    maxi = store.getTruncIdx(cur_cbs[b], cur_tIndx[b]);
+                    cblen = (cur_prevtIdxs[b] < 0) ? 0 : store.getVldTruncRate(cur_cbs[b], cur_prevtIdxs[b]);
                     // Loop on truncation points and count the groups
-                    i = (cur_prevtIdxs[b] < 0) ? 0 : cur_cbs[b].truncIdxs[cur_prevtIdxs[b]] + 1;
+                    i = (cur_prevtIdxs[b] < 0) ? 0 : store.getTruncIdx(cur_cbs[b], cur_prevtIdxs[b]) + 1;
                     for (; i < maxi; i++, newtp++) {
                         // If terminated truncation point, send length
-                        if (cur_cbs[b].isTermPass != null &&
-                            cur_cbs[b].isTermPass[i]) {
+                        if (store.isTermPass(cur_cbs[b], i)) {
 
-                            cblen = cur_cbs[b].truncRates[i] - cblen;
+                            cblen = store.getTruncRate(cur_cbs[b], i) - cblen;
                             nbits = MathUtil.log2(newtp) + lblock[t][c][r][s][b];
                             hbuf.writeBits(cblen, nbits);
 
                             // Initialize for next length
                             newtp = 0;
-                            cblen = cur_cbs[b].truncRates[i];
+                            cblen = store.getTruncRate(cur_cbs[b], i);
                         }
                     }
                     // Last truncation point length is always signalled
                     // First calculate number of bits needed to signal
                     // Calculate length
-                    cblen = cur_cbs[b].truncRates[i] - cblen;
+                    cblen = store.getTruncRate(cur_cbs[b], i) - cblen;
                     nbits = MathUtil.log2(newtp) + lblock[t][c][r][s][b];
                     hbuf.writeBits(cblen, nbits);
 
@@ -975,24 +975,23 @@ public class PktEncoder
                         // Block included in this precinct -> Copy data to
                         // body buffer and get code-size
                         if (cur_prevtIdxs[b] < 0) {
-                            cblen = cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_tIndx[b]]];
-                            System.arraycopy(cur_cbs[b].data, 0,
-                                lbbuf, lblen, cblen);
+                            cblen = store.getVldTruncRate(cur_cbs[b], cur_tIndx[b]);
+                            store.getData(cur_cbs[b], 0, lbbuf, lblen, cblen);
                         }
                         else {
-                            cblen = cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_tIndx[b]]] -
-                                cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_prevtIdxs[b]]];
-                            System.arraycopy(cur_cbs[b].data,
-                                cur_cbs[b].truncRates[cur_cbs[b].truncIdxs[cur_prevtIdxs[b]]],
+                            cblen = store.getVldTruncRate(cur_cbs[b], cur_tIndx[b]) -
+                                store.getVldTruncRate(cur_cbs[b], cur_prevtIdxs[b]);
+                            store.getData(cur_cbs[b],
+                                store.getVldTruncRate(cur_cbs[b], cur_prevtIdxs[b]),
                                 lbbuf, lblen, cblen);
                         }
                         lblen += cblen;
 
                         // Verifies if this code-block contains new ROI
                         // information
-                        if (cur_cbs[b].nROIcoeff != 0 &&
+                        if (store.hasROICoeff(cur_cbs[b]) &&
                             (cur_prevtIdxs[b] == -1 ||
-                                cur_cbs[b].truncIdxs[cur_prevtIdxs[b]] <= cur_cbs[b].nROIcp - 1)) {
+                                store.getTruncIdx(cur_cbs[b], cur_prevtIdxs[b]) <= store.getNumROIPasses(cur_cbs[b]) - 1)) {
                             roiInPkt = true;
                             roiLen = lblen;
                         }
@@ -122,6 +122,15 @@ public class DecoderSpecs implements Cloneable
     /** Packed packet header specifications */
     public ModuleSpec pphs;
 
+    /** The number of components */
+    private int nc;
+
+    /**
+     * The compiled specifications of each tile, or null for the tiles that
+     * have not been compiled yet
+     */
+    private TileDecoderSpecs[] tileSpecs;
+
 
     /**
      * Returns a copy of the current object.
@@ -148,10 +157,46 @@ public class DecoderSpecs implements Cloneable
         if (rois != null) {
             decSpec2.rois = (MaxShiftSpec)rois.getCopy();
         }
+        // Compiled specifications are not shared, they refer to the specs
+        // above
+        decSpec2.tileSpecs = new TileDecoderSpecs[tileSpecs.length];
         return decSpec2;
     }
 
 
+    /**
+     * Builds the compiled specifications of the specified tile from the
+     * current values of the module specifications. This must be called once
+     * the headers of the tile have been read, since they may modify the
+     * values for the tile.
+     *
+     * @param t The index of the tile.
+     *
+     * @return The compiled specifications of the tile.
+     */
+    public TileDecoderSpecs compileTile(int t)
+    {
+        return tileSpecs[t] = new TileDecoderSpecs(this, t, nc);
+    }
+
+
+    /**
+     * Returns the compiled specifications of the specified tile. If the tile
+     * has not been compiled yet it is compiled from the current values.
+     *
+     * @param t The index of the tile.
+     *
+     * @return The compiled specifications of the tile.
+     *
+     * @see #compileTile
+     */
+    public TileDecoderSpecs getTileSpecs(int t)
+    {
+        TileDecoderSpecs ts = tileSpecs[t];
+        return ts != null ? ts : compileTile(t);
+    }
+
+
     /**
      * Initialize all members with the given number of tiles and components.
      *
@@ -190,5 +235,8 @@ public class DecoderSpecs implements Cloneable
         pphs = new ModuleSpec(nt, nc, ModuleSpec.SPEC_TYPE_TILE);
         iccs = new ModuleSpec(nt, nc, ModuleSpec.SPEC_TYPE_TILE);
         pphs.setDefault(Boolean.valueOf(false));
+
+        this.nc = nc;
+        tileSpecs = new TileDecoderSpecs[nt];
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Class:                   TileDecoderSpecs
+ *
+ * Description:             Primitive tables of the decoder specifications
+ *                          of one tile
+ *
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.decoder;
+
+import jj2000.j2k.quantization.dequantizer.StdDequantizerParams;
+
+/**
+ * This class holds the values that the decoder specifications take in one
+ * tile, as primitive values and arrays indexed by component. It is built by
+ * DecoderSpecs once the headers of the tile have been read, and is meant to
+ * be used on the paths that run for every packet or code-block, where the
+ * lookups in the ModuleSpec objects (string keys in a Hashtable and boxed
+ * values) are too costly.
+ *
+ * <P>
+ * Instances are never modified after construction, and the arrays must not
+ * be modified by the users.
+ *
+ * @see DecoderSpecs#getTileSpecs
+ */
+public final class TileDecoderSpecs
+{
+
+    /** The index of the tile */
+    public final int tIdx;
+
+    /** The entropy coding options of each component */
+    public final int[] ecopts;
+
+    /** Whether each component is quantized reversibly */
+    public final boolean[] reversible;
+
+    /** Whether each component uses derived quantization */
+    public final boolean[] derived;
+
+    /** The dequantization parameters of each component */
+    public final StdDequantizerParams[] qsss;
+
+    /** The number of guard bits of each component */
+    public final int[] gbs;
+
+    /** The number of decomposition levels of each component */
+    public final int[] dls;
+
+    /** The minimum number of decomposition levels among all components */
+    public final int minDls;
+
+    /**
+     * The ROI maxshift value of each component, or -1 if there is no ROI in
+     * the component
+     */
+    public final int[] rois;
+
+    /** The number of layers */
+    public final int nls;
+
+    /** Whether SOP markers are used */
+    public final boolean sops;
+
+    /** Whether EPH markers are used */
+    public final boolean ephs;
+
+
+    /**
+     * Builds the tables of the given tile from the current state of the
+     * decoder specifications.
+     *
+     * @param decSpec The decoder specifications.
+     *
+     * @param t The index of the tile.
+     *
+     * @param nc The number of components.
+     */
+    TileDecoderSpecs(DecoderSpecs decSpec, int t, int nc)
+    {
+        tIdx = t;
+        ecopts = new int[nc];
+        reversible = new boolean[nc];
+        derived = new boolean[nc];
+        qsss = new StdDequantizerParams[nc];
+        gbs = new int[nc];
+        dls = new int[nc];
+        rois = new int[nc];
+
+        int min = Integer.MAX_VALUE;
+        for (int c = 0; c < nc; c++) {
+            ecopts[c] = ((Integer)decSpec.ecopts.getTileCompVal(t, c)).intValue();
+            reversible[c] = decSpec.qts.isReversible(t, c);
+            derived[c] = decSpec.qts.isDerived(t, c);
+            qsss[c] = (StdDequantizerParams)decSpec.qsss.getTileCompVal(t, c);
+            gbs[c] = ((Integer)decSpec.gbs.getTileCompVal(t, c)).intValue();
+            dls[c] = ((Integer)decSpec.dls.getTileCompVal(t, c)).intValue();
+            if (dls[c] < min)
+                min = dls[c];
+            Object roi = decSpec.rois == null ? null : decSpec.rois.getTileCompVal(t, c);
+            rois[c] = roi == null ? -1 : ((Integer)roi).intValue();
+        }
+        minDls = min;
+
+        nls = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        sops = ((Boolean)decSpec.sops.getTileDef(t)).booleanValue();
+        ephs = ((Boolean)decSpec.ephs.getTileDef(t)).booleanValue();
+    }
+}
@@ -51,9 +51,12 @@ import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MsgLogger;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
+
 /**
  * This class implements the JPEG 2000 entropy decoder, which codes stripes in
  * code-blocks. This entropy decoding engine decodes one code-block at a time.
@@ -768,6 +771,33 @@ public class StdEntropyDecoder extends EntropyDecoder
     @Override
     public DataBlk getCodeBlock(int c, int m, int n, SubbandSyn sb,
         DataBlk cblk)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return decodeCodeBlock(c, m, n, sb, cblk);
+        }
+        stats.enter(J2KDecodeStats.ENTROPY);
+        try {
+            cblk = decodeCodeBlock(c, m, n, sb, cblk);
+            int npasses = srcblk.nl > 0 ? srcblk.nTrunc : 0;
+            if (mQuit != -1 && (mQuit * 3 - 2) < npasses) {
+                npasses = mQuit * 3 - 2;
+            }
+            stats.add(J2KDecodeStats.CODE_BLOCKS, 1);
+            stats.add(J2KDecodeStats.PASSES, Math.max(npasses, 0));
+            return cblk;
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Decodes the specified code-block, see getCodeBlock().
+     */
+    private DataBlk decodeCodeBlock(int c, int m, int n, SubbandSyn sb,
+        DataBlk cblk)
     {
         int zc_lut[]; // The ZC lookup table to use
         int out_data[]; // The outupt data buffer
@@ -784,7 +814,7 @@ public class StdEntropyDecoder extends EntropyDecoder
         srcblk = src.getCodeBlock(c, m, n, sb, 1, -1, srcblk);
 
         // Retrieve options from decSpec
-        options = ((Integer)decSpec.ecopts.getTileCompVal(tIdx, c)).intValue();
+        options = decSpec.getTileSpecs(tIdx).ecopts[c];
 
         // Reset state
         Arrays.fill(state, 0);
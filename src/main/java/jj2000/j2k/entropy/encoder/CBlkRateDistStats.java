@@ -109,7 +109,10 @@ public class CBlkRateDistStats extends CodedCBlk
      */
     public int truncRates[];
 
-    /** The distortion for each truncation point (valid and non-valid ones) */
+    /**
+     * The distortion for each truncation point (valid and non-valid ones).
+     * Null if no rate-distortion statistics have been computed.
+     */
     public double truncDists[];
 
     /**
@@ -350,6 +353,54 @@ public class CBlkRateDistStats extends CodedCBlk
     }
 
 
+    /**
+     * Selects the last truncation point as the only valid one, without any
+     * rate-distortion analysis. This is meant for the case where all the
+     * coded data is always sent (i.e. single layer lossless coding) and the
+     * distortion of the truncation points is therefore irrelevant. It will
+     * initialize 'truncRates' and 'isTermPass' arrays, as well as
+     * 'nTotTrunc', with all the truncation points, as 'selectConvexHull()'
+     * does. The 'truncDists' array is not allocated and the slope of the
+     * selected point is set to the maximum value, so that it is included at
+     * any threshold.
+     *
+     * <P>
+     * Note that the arrays 'rates' and 'termp' are copied, not
+     * referenced, so they can be modified after a call to this method.
+     *
+     * @param rates The rates (in bytes) for each truncation point in the
+     * compressed data.
+     *
+     * @param termp An array of boolean flags indicating, for each pass, if a
+     * pass is terminated or not (true if terminated). If null then it is
+     * assumed that no pass is terminated except the last one which always is.
+     *
+     * @param n The number of truncation points contained in 'rates' and
+     * 'termp'.
+     */
+    public void selectLastPass(int rates[], boolean termp[], int n)
+    {
+        nTotTrunc = n;
+        nVldTrunc = (n > 0 && rates[n - 1] > 0) ? 1 : 0;
+        truncRates = new int[n];
+        truncDists = null;
+        truncSlopes = new float[nVldTrunc];
+        truncIdxs = new int[nVldTrunc];
+        if (termp != null) {
+            isTermPass = new boolean[n];
+            System.arraycopy(termp, 0, isTermPass, 0, n);
+        }
+        else {
+            isTermPass = null;
+        }
+        System.arraycopy(rates, 0, truncRates, 0, n);
+        if (nVldTrunc != 0) {
+            truncSlopes[0] = Float.MAX_VALUE;
+            truncIdxs[0] = n - 1;
+        }
+    }
+
+
     /**
      * Returns the contents of the object in a string. This is used for
      * debugging.
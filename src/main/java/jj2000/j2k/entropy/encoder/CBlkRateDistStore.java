@@ -0,0 +1,446 @@
+/*
+ * Class:                   CBlkRateDistStore
+ *
+ * Description:             Compact storage of the coded code-blocks
+ *                          of an image and their rate-distortion
+ *                          statistics.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.entropy.encoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class stores the coded code-blocks of a whole image, together with
+ * their rate-distortion statistics, in a compact form. It replaces keeping
+ * one CBlkRateDistStats object, and its arrays, for each code-block until
+ * the codestream is written.
+ *
+ * <P>
+ * Each code-block added to the store gets an integer id, which is used to
+ * query it afterwards. The compressed data of all code-blocks is appended
+ * to large segments, which can be allocated outside of the Java heap (see
+ * 'direct' in the constructor). The statistics of the truncation points of
+ * all code-blocks are packed in primitive arrays, so that the retained
+ * heap is a few bytes per code-block and per truncation point.
+ *
+ * <P>
+ * As in CBlkRateDistStats, the truncation points are referred to either
+ * by their index among all the truncation points (i.e. the coding pass
+ * index), or by their index among the valid ones. The rate and the
+ * termination flag are available for all points, while the slope and the
+ * index of the coding pass are only available for the valid ones.
+ *
+ * <P>
+ * This class is not thread safe.
+ *
+ * @see CBlkRateDistStats
+ *
+ * @see EBCOTRateAllocator
+ */
+public class CBlkRateDistStore
+{
+
+    /** The base 2 logarithm of the size of the data segments */
+    private static final int SEG_BITS = 20;
+
+    /** The size of the data segments, in bytes */
+    private static final int SEG_SIZE = 1 << SEG_BITS;
+
+    /** The value of 'roiPasses' for code-blocks without ROI coefficients */
+    private static final short NO_ROI = Short.MIN_VALUE;
+
+    /** Whether the data segments are allocated outside of the heap */
+    private final boolean direct;
+
+    /** The data segments, in order */
+    private ByteBuffer[] segs = new ByteBuffer[0];
+
+    /** The total length of the data stored so far */
+    private long dataLen;
+
+    /** The number of code-blocks stored so far */
+    private int nblk;
+
+    /** The offset of the data of each code-block */
+    private long[] dataOff = new long[0];
+
+    /**
+     * The index of the first truncation point of each code-block in
+     * 'rates' and 'termPass'
+     */
+    private int[] passOff = new int[0];
+
+    /**
+     * The index of the first valid truncation point of each code-block in
+     * 'slopes' and 'idxs'
+     */
+    private int[] vldOff = new int[0];
+
+    /** The total number of truncation points of each code-block */
+    private byte[] nTot = new byte[0];
+
+    /** The number of valid truncation points of each code-block */
+    private byte[] nVld = new byte[0];
+
+    /** The number of skipped most significant bit-planes of each block */
+    private byte[] skipMSBP = new byte[0];
+
+    /**
+     * The number of ROI coding passes of each code-block, or NO_ROI if it
+     * has no ROI coefficients
+     */
+    private short[] roiPasses = new short[0];
+
+    /** The number of truncation points stored so far */
+    private int npass;
+
+    /** The rate of all the truncation points */
+    private int[] rates = new int[0];
+
+    /** The terminated pass flags of all the truncation points, as bits */
+    private long[] termPass = new long[0];
+
+    /** The number of valid truncation points stored so far */
+    private int nvld;
+
+    /** The slopes of all the valid truncation points */
+    private float[] slopes = new float[0];
+
+    /** The coding pass index of all the valid truncation points */
+    private byte[] idxs = new byte[0];
+
+
+    /**
+     * Creates a new empty store.
+     *
+     * @param direct If true the compressed data is kept in direct buffers,
+     * outside of the Java heap.
+     */
+    public CBlkRateDistStore(boolean direct)
+    {
+        this.direct = direct;
+    }
+
+
+    /**
+     * Adds a coded code-block to the store. Its data and statistics are
+     * copied, so that the object can be reused afterwards.
+     *
+     * @param ccb The coded code-block.
+     *
+     * @return The id of the code-block in this store.
+     */
+    public int add(CBlkRateDistStats ccb)
+    {
+        int id = nblk;
+        int n = ccb.nTotTrunc;
+        int v = ccb.nVldTrunc;
+        int len = (n > 0) ? ccb.truncRates[n - 1] : 0;
+
+        if (id == dataOff.length) {
+            int sz = Math.max(16, 2 * id);
+            dataOff = Arrays.copyOf(dataOff, sz);
+            passOff = Arrays.copyOf(passOff, sz);
+            vldOff = Arrays.copyOf(vldOff, sz);
+            nTot = Arrays.copyOf(nTot, sz);
+            nVld = Arrays.copyOf(nVld, sz);
+            skipMSBP = Arrays.copyOf(skipMSBP, sz);
+            roiPasses = Arrays.copyOf(roiPasses, sz);
+        }
+        if (npass + n > rates.length) {
+            int sz = Math.max(npass + n, 2 * rates.length);
+            rates = Arrays.copyOf(rates, sz);
+            termPass = Arrays.copyOf(termPass, (sz + 63) >>> 6);
+        }
+        if (nvld + v > slopes.length) {
+            int sz = Math.max(nvld + v, 2 * slopes.length);
+            slopes = Arrays.copyOf(slopes, sz);
+            idxs = Arrays.copyOf(idxs, sz);
+        }
+
+        dataOff[id] = dataLen;
+        passOff[id] = npass;
+        vldOff[id] = nvld;
+        nTot[id] = (byte)n;
+        nVld[id] = (byte)v;
+        skipMSBP[id] = (byte)ccb.skipMSBP;
+        roiPasses[id] = (ccb.nROIcoeff != 0) ? (short)ccb.nROIcp : NO_ROI;
+
+        System.arraycopy(ccb.truncRates, 0, rates, npass, n);
+        if (ccb.isTermPass != null) {
+            for (int i = 0; i < n; i++) {
+                if (ccb.isTermPass[i]) {
+                    termPass[(npass + i) >>> 6] |= 1L << (npass + i);
+                }
+            }
+        }
+        System.arraycopy(ccb.truncSlopes, 0, slopes, nvld, v);
+        for (int i = 0; i < v; i++) {
+            idxs[nvld + i] = (byte)ccb.truncIdxs[i];
+        }
+        npass += n;
+        nvld += v;
+
+        // Append the data, across segments if needed
+        for (int off = 0; off < len; ) {
+            int s = (int)(dataLen >>> SEG_BITS);
+            int pos = (int)dataLen & (SEG_SIZE - 1);
+            if (s == segs.length) {
+                segs = Arrays.copyOf(segs, s + 1);
+                segs[s] = direct ? ByteBuffer.allocateDirect(SEG_SIZE) :
+                    ByteBuffer.allocate(SEG_SIZE);
+            }
+            int l = Math.min(len - off, SEG_SIZE - pos);
+            segs[s].position(pos);
+            segs[s].put(ccb.data, off, l);
+            off += l;
+            dataLen += l;
+        }
+
+        nblk++;
+        return id;
+    }
+
+
+    /**
+     * Returns the number of bytes allocated by this store for the data and
+     * the statistics of the code-blocks, including the unused capacity of
+     * its arrays and data segments. The data segments are counted whether
+     * they are on the heap or not.
+     *
+     * @return The number of bytes.
+     */
+    public long getRetainedSize()
+    {
+        return (long)segs.length * SEG_SIZE +
+            8L * dataOff.length + 4L * passOff.length + 4L * vldOff.length +
+            nTot.length + nVld.length + skipMSBP.length + 2L * roiPasses.length +
+            4L * rates.length + 8L * termPass.length +
+            4L * slopes.length + idxs.length;
+    }
+
+
+    /**
+     * Returns the number of code-blocks in this store.
+     *
+     * @return The number of code-blocks.
+     */
+    public int getNumBlocks()
+    {
+        return nblk;
+    }
+
+
+    /**
+     * Returns the total number of truncation points of a code-block.
+     *
+     * @param id The id of the code-block.
+     *
+     * @return The total number of truncation points.
+     */
+    public int getNumTotTrunc(int id)
+    {
+        return nTot[id] & 0xFF;
+    }
+
+
+    /**
+     * Returns the number of valid truncation points of a code-block.
+     *
+     * @param id The id of the code-block.
+     *
+     * @return The number of valid truncation points.
+     */
+    public int getNumVldTrunc(int id)
+    {
+        return nVld[id] & 0xFF;
+    }
+
+
+    /**
+     * Returns the number of skipped most significant bit-planes of a
+     * code-block.
+     *
+     * @param id The id of the code-block.
+     *
+     * @return The number of skipped most significant bit-planes.
+     */
+    public int getSkipMSBP(int id)
+    {
+        return skipMSBP[id];
+    }
+
+
+    /**
+     * Returns the rate of a truncation point, valid or not, of a
+     * code-block. This is the number of bytes of data that have to be
+     * decoded to reach it.
+     *
+     * @param id The id of the code-block.
+     *
+     * @param i The index of the truncation point, among all of them.
+     *
+     * @return The rate, in bytes.
+     */
+    public int getTruncRate(int id, int i)
+    {
+        return rates[passOff[id] + i];
+    }
+
+
+    /**
+     * Returns whether a truncation point, valid or not, of a code-block is
+     * a terminated pass.
+     *
+     * @param id The id of the code-block.
+     *
+     * @param i The index of the truncation point, among all of them.
+     *
+     * @return True if the pass is terminated. The last pass is always
+     * terminated, but this method only returns true for it if the coder
+     * flagged it.
+     */
+    public boolean isTermPass(int id, int i)
+    {
+        int k = passOff[id] + i;
+        return (termPass[k >>> 6] & (1L << k)) != 0;
+    }
+
+
+    /**
+     * Returns the rate-distortion slope of a valid truncation point of a
+     * code-block.
+     *
+     * @param id The id of the code-block.
+     *
+     * @param n The index of the truncation point, among the valid ones.
+     *
+     * @return The negative of the rate-distortion slope.
+     */
+    public float getTruncSlope(int id, int n)
+    {
+        return slopes[vldOff[id] + n];
+    }
+
+
+    /**
+     * Returns the index, among all of them, of a valid truncation point of
+     * a code-block.
+     *
+     * @param id The id of the code-block.
+     *
+     * @param n The index of the truncation point, among the valid ones.
+     *
+     * @return The index of the truncation point among all of them.
+     */
+    public int getTruncIdx(int id, int n)
+    {
+        return idxs[vldOff[id] + n] & 0xFF;
+    }
+
+
+    /**
+     * Returns the rate of a valid truncation point of a code-block. This is
+     * the same as getTruncRate(id, getTruncIdx(id, n)).
+     *
+     * @param id The id of the code-block.
+     *
+     * @param n The index of the truncation point, among the valid ones.
+     *
+     * @return The rate, in bytes.
+     */
+    public int getVldTruncRate(int id, int n)
+    {
+        return rates[passOff[id] + (idxs[vldOff[id] + n] & 0xFF)];
+    }
+
+
+    /**
+     * Returns whether a code-block contains ROI coefficients.
+     *
+     * @param id The id of the code-block.
+     *
+     * @return True if there are ROI coefficients in the code-block.
+     */
+    public boolean hasROICoeff(int id)
+    {
+        return roiPasses[id] != NO_ROI;
+    }
+
+
+    /**
+     * Returns the number of ROI coding passes of a code-block. Only
+     * meaningful if it contains ROI coefficients.
+     *
+     * @param id The id of the code-block.
+     *
+     * @return The number of ROI coding passes.
+     */
+    public int getNumROIPasses(int id)
+    {
+        return roiPasses[id];
+    }
+
+
+    /**
+     * Copies compressed data of a code-block to a byte array.
+     *
+     * @param id The id of the code-block.
+     *
+     * @param off The offset of the first byte to copy, in the data of the
+     * code-block.
+     *
+     * @param buf The destination array.
+     *
+     * @param bufOff The offset in the destination array.
+     *
+     * @param len The number of bytes to copy.
+     */
+    public void getData(int id, int off, byte[] buf, int bufOff, int len)
+    {
+        long p = dataOff[id] + off;
+        while (len > 0) {
+            ByteBuffer seg = segs[(int)(p >>> SEG_BITS)];
+            int pos = (int)p & (SEG_SIZE - 1);
+            int l = Math.min(len, SEG_SIZE - pos);
+            seg.position(pos);
+            seg.get(buf, bufOff, l);
+            p += l;
+            bufOff += l;
+            len -= l;
+        }
+    }
+}
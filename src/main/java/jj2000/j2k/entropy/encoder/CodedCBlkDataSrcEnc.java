@@ -156,4 +156,38 @@ public interface CodedCBlkDataSrcEnc extends ForwWTDataProps
      *
      */
     public boolean precinctPartitionUsed(int c, int t);
+
+
+    /**
+     * Specifies whether the rate-distortion statistics of the coded
+     * code-blocks have to be computed. If disabled, no distortion estimates
+     * nor convex hull analysis are done and the last coding pass is returned
+     * as the only valid truncation point of each code-block. This is only
+     * adequate when all the coded data is included in the bit stream, as in
+     * single layer lossless coding. The statistics are computed by default.
+     *
+     * <P>
+     * This must be called before the first code-block is requested.
+     *
+     * @param enabled True to compute the rate-distortion statistics, false
+     * otherwise.
+     */
+    public void setRDStatsEnabled(boolean enabled);
+
+
+    /**
+     * Sets the rate-distortion slope below which coding passes are not
+     * worth generating. Coding of a code-block stops at the end of the first
+     * bit-plane whose refinement passes have a slope lower than this
+     * threshold, the last generated pass being terminated. A value of 0, the
+     * default, codes all the bit-planes.
+     *
+     * <P>
+     * The threshold can be changed between code-blocks and applies to the
+     * code-blocks requested after the call.
+     *
+     * @param slope The minimum rate-distortion slope, in the same units as
+     * the slopes of the returned truncation points.
+     */
+    public void setMinPassSlope(float slope);
 }
@@ -46,7 +46,9 @@ package jj2000.j2k.entropy.encoder;
 
 import java.awt.Point;
 import java.io.IOException;
+import java.util.Arrays;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 import jj2000.j2k.codestream.Markers;
@@ -56,9 +58,11 @@ import jj2000.j2k.codestream.writer.BitOutputBuffer;
 import jj2000.j2k.codestream.writer.CodestreamWriter;
 import jj2000.j2k.codestream.writer.PktEncoder;
 import jj2000.j2k.entropy.Progression;
+import jj2000.j2k.util.CodecEvents;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MathUtil;
 import jj2000.j2k.util.ProgressWatch;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
 
 /**
@@ -79,7 +83,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
 {
 
     /**
-     * 5D Array containing all the coded code-blocks:
+     * 5D Array containing the ids in 'store' of all the coded code-blocks:
      *
      * <ul>
      * <li>1st index: tile index</li>
@@ -89,12 +93,16 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
      * <li>5th index: code-block index</li>
      * </ul>
      **/
-    private CBlkRateDistStats cblks[][][][][];
+    private int cblks[][][][][];
+
+    /** The store of all the coded code-blocks. */
+    private CBlkRateDistStore store;
 
     /**
      * 6D Array containing the indices of the truncation points. It actually
-     * contains the index of the element in CBlkRateDistStats.truncIdxs that
-     * gives the real truncation point index.
+     * contains the index of the valid truncation point, as in
+     * CBlkRateDistStore.getTruncIdx(), that gives the real truncation point
+     * index.
      *
      * <ul>
      * <li>1st index: tile index</li>
@@ -130,12 +138,6 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
     /** The size of the summary table */
     private static final int RD_SUMMARY_SIZE = 64;
 
-    /**
-     * The relative precision for float data. This is the relative tolerance
-     * up to which the layer slope thresholds are calculated.
-     */
-    private static final float FLOAT_REL_PRECISION = 1e-4f;
-
     /**
      * The precision for float data type, in an absolute sense. Two float
      * numbers are considered "equal" if they are within this precision.
@@ -149,6 +151,18 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
      */
     private static final int MIN_AVG_PACKET_SZ = 32;
 
+    /**
+     * The factor applied to the lower bound of the final slope threshold
+     * before handing it to the entropy coder, with early pass termination.
+     * The coder decides on a whole bit-plane, whose slope is only an
+     * approximation of the one of the convex hull, so some margin is kept.
+     * Without it (a factor of 1), truncation points that end up below the
+     * final threshold are lost and the PSNR drops by 0.15 dB at 0.05 bpp.
+     * With 0.5 the PSNR is kept within 0.02 dB while about 30% of the passes
+     * are skipped at that rate. Lower factors skip fewer passes for no gain.
+     */
+    private static final float EARLY_TERM_SLOPE_FACTOR = 0.5f;
+
     /**
      * The R-D summary information collected from the coding of all
      * code-blocks. For each entry it contains the accumulated length of all
@@ -168,6 +182,26 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
      **/
     private int RDSlopesRates[];
 
+    /**
+     * The distinct slopes of all the valid truncation points of all
+     * code-blocks, in decreasing order. This is the exact counterpart of the
+     * 'RDSlopesRates' summary, used to search the layer thresholds.
+     */
+    private float rdSlopes[];
+
+    /**
+     * The accumulated length of all truncation points that have a slope not
+     * less than 'rdSlopes[k]', where 'k' is the entry index, without the
+     * packet head overhead.
+     */
+    private int rdRates[];
+
+    /**
+     * The number of truncation points that have a slope not less than
+     * 'rdSlopes[k]', where 'k' is the entry index.
+     */
+    private int rdCounts[];
+
     /** Packet encoder. */
     private PktEncoder pktEnc;
 
@@ -180,6 +214,13 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
     /** The minimum slope accross all code-blocks and truncation points. */
     private float minSlope;
 
+    /**
+     * Whether all the coded data goes into a single layer, as in lossless
+     * coding without target bitrate. In that case no rate-distortion
+     * statistics are collected and no layer optimization is done.
+     */
+    private boolean allPasses;
+
 
     /**
      * Initializes the EBCOT rate allocator of entropy coded data. The layout
@@ -216,8 +257,14 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         int nt = src.getNumTiles();
         int nc = getNumComps();
 
+        // A single layer without target bitrate includes all coding passes.
+        // This is only the case if every tile-component is reversible,
+        // otherwise there would be no point in sending all the passes.
+        allPasses = numLayers == 1 && Float.isInfinite(lyrs.getTotBitrate());
+
         //Allocate the coded code-blocks and truncation points indexes arrays
-        cblks = new CBlkRateDistStats[nt][nc][][][];
+        cblks = new int[nt][nc][][][];
+        store = new CBlkRateDistStore(wp.getDirectCodeBlockStorage());
         truncIdxs = new int[nt][numLayers][nc][][][];
 
         int cblkPerSubband; // Number of code-blocks per subband
@@ -267,6 +314,10 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                 sb = src.getAnSubbandTree(t, c);
                 mrl = sb.resLvl + 1;
 
+                if (!src.isReversible(t, c)) {
+                    allPasses = false;
+                }
+
                 // Initialize maximum number of precincts per resolution array
                 if (numPrec == null) {
                     numPrec = new Point[nt][nc][];
@@ -285,7 +336,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                 tcx1 = (int)Math.ceil(tx1 / (double)(xrsiz));
                 tcy1 = (int)Math.ceil(ty1 / (double)(yrsiz));
 
-                cblks[t][c] = new CBlkRateDistStats[mrl][][];
+                cblks[t][c] = new int[mrl][][];
 
                 for (l = 0; l < numLayers; l++) {
                     truncIdxs[t][l][c] = new int[mrl][][];
@@ -324,7 +375,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                     minsbi = (r == 0) ? 0 : 1;
                     maxsbi = (r == 0) ? 1 : 4;
 
-                    cblks[t][c][r] = new CBlkRateDistStats[maxsbi][];
+                    cblks[t][c][r] = new int[maxsbi][];
                     for (l = 0; l < numLayers; l++) {
                         truncIdxs[t][l][c][r] = new int[maxsbi][];
                     }
@@ -334,7 +385,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                         sb2 = (SubbandAn)sb.getSubbandByIdx(r, s);
                         ncblks = sb2.numCb;
                         cblkPerSubband = ncblks.x * ncblks.y;
-                        cblks[t][c][r][s] = new CBlkRateDistStats[cblkPerSubband];
+                        cblks[t][c][r][s] = new int[cblkPerSubband];
 
                         for (l = 0; l < numLayers; l++) {
                             truncIdxs[t][l][c][r][s] = new int[cblkPerSubband];
@@ -353,6 +404,9 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         //Initialize the packet encoder
         pktEnc = new PktEncoder(src, wp, numPrec);
 
+        // No need for R-D statistics if everything is sent
+        src.setRDStatsEnabled(!allPasses);
+
         // The layers array has to be initialized after the constructor since
         // it is needed that the bit stream header has been entirely written
     }
@@ -365,8 +419,19 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
     @Override
     public void runAndWrite() throws IOException
     {
-        //Now, run the rate allocation
-        buildAndWriteLayers();
+        StageStats stats = this.stats;
+        if (stats == null) {
+            //Now, run the rate allocation
+            buildAndWriteLayers();
+            return;
+        }
+        stats.enter(J2KEncodeStats.RATE_ALLOCATION);
+        try {
+            buildAndWriteLayers();
+        }
+        finally {
+            stats.exit();
+        }
     }
 
 
@@ -378,6 +443,80 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
      */
     @Override
     public void initialize() throws IOException
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            initializeAllocation();
+            return;
+        }
+        stats.enter(J2KEncodeStats.RATE_ALLOCATION);
+        try {
+            initializeAllocation();
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements initialize().
+     */
+    private void initializeAllocation() throws IOException
+    {
+        int numTiles = src.getNumTiles();
+
+        // Start by getting all the code-blocks, we need this in order to have
+        // an idea of the total encoded bitrate.
+        getAllCodeBlocks();
+
+        if (allPasses) {
+            // A single layer with all the coded data, nothing to optimize
+            layers = new EBCOTLayer[] { new EBCOTLayer() };
+            layers[0].maxBytes = Integer.MAX_VALUE;
+        }
+        else {
+            initializeLayers();
+            buildRDTable();
+        }
+
+        // Re-initialize progression order changes if needed Default values
+        Progression[] prog1, prog2;
+        prog1 = (Progression[])wp.getProgressionType().getDefault();
+        int nValidProg = prog1.length;
+        for (int prg = 0; prg < prog1.length; prg++) {
+            if (prog1[prg].lye > numLayers) {
+                prog1[prg].lye = numLayers;
+            }
+        }
+        if (nValidProg == 0)
+            throw new Error("Unable to initialize rate allocator: No " +
+                "default progression type has been defined.");
+
+        // Tile specific values
+        for (int t = 0; t < numTiles; t++) {
+            if (wp.getProgressionType().isTileSpecified(t)) {
+                prog1 = (Progression[])wp.getProgressionType().getTileDef(t);
+                nValidProg = prog1.length;
+                for (int prg = 0; prg < prog1.length; prg++) {
+                    if (prog1[prg].lye > numLayers) {
+                        prog1[prg].lye = numLayers;
+                    }
+                }
+                if (nValidProg == 0)
+                    throw new Error("Unable to initialize rate allocator: No " +
+                        "default progression type has been defined.");
+            }
+        } // End loop on tiles
+    }
+
+
+    /**
+     * Initializes the target bitrates of the layers, according to the
+     * specifications, taking into account the header overhead. Layers which
+     * would be too small are removed.
+     */
+    private void initializeLayers() throws IOException
     {
         int n, i, l;
         int ho; // The header overhead (in bytes)
@@ -394,10 +533,6 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         int numLvls;
         int avgPktLen;
 
-        // Start by getting all the code-blocks, we need this in order to have
-        // an idea of the total encoded bitrate.
-        getAllCodeBlocks();
-
         // Now get the total encoded length
         totenclength = RDSlopesRates[0]; // all the encoded data
         // Make a rough estimation of the packet head overhead, as 2 bytes per
@@ -533,35 +668,6 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         n++;
         layers[n].maxBytes = nextbytes;
         layers[n].optimize = true;
-
-        // Re-initialize progression order changes if needed Default values
-        Progression[] prog1, prog2;
-        prog1 = (Progression[])wp.getProgressionType().getDefault();
-        int nValidProg = prog1.length;
-        for (int prg = 0; prg < prog1.length; prg++) {
-            if (prog1[prg].lye > numLayers) {
-                prog1[prg].lye = numLayers;
-            }
-        }
-        if (nValidProg == 0)
-            throw new Error("Unable to initialize rate allocator: No " +
-                "default progression type has been defined.");
-
-        // Tile specific values
-        for (int t = 0; t < numTiles; t++) {
-            if (wp.getProgressionType().isTileSpecified(t)) {
-                prog1 = (Progression[])wp.getProgressionType().getTileDef(t);
-                nValidProg = prog1.length;
-                for (int prg = 0; prg < prog1.length; prg++) {
-                    if (prog1[prg].lye > numLayers) {
-                        prog1[prg].lye = numLayers;
-                    }
-                }
-                if (nValidProg == 0)
-                    throw new Error("Unable to initialize rate allocator: No " +
-                        "default progression type has been defined.");
-            }
-        } // End loop on tiles
     }
 
 
@@ -574,6 +680,14 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
      * <P>
      * For each code-block, the valid slopes are computed and converted
      * into the mantissa-exponent representation.
+     *
+     * <P>
+     * If early pass termination is enabled, the summary R-D information of
+     * the code-blocks obtained so far is used to bound the slope threshold
+     * of the last layer: as soon as the truncation points above some slope
+     * already exceed the overall target length, that slope is a lower bound
+     * on the final threshold. The entropy coder is told so and can stop
+     * coding passes which would be discarded anyway.
      */
     private void getAllCodeBlocks()
     {
@@ -586,10 +700,22 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         Point ncblks = null;
         int last_sidx;
         float fslope;
+        int termBytes; // Overall target length, or -1 if no early termination
+        int term_sidx; // Summary index of the known lower bound threshold
 
         maxSlope = 0f;
         minSlope = Float.MAX_VALUE;
 
+        if (wp.getEarlyPassTermination() && !allPasses &&
+            !Float.isInfinite(lyrSpec.getTotBitrate())) {
+            termBytes = (int)Math.min(Integer.MAX_VALUE, lyrSpec.getTotBitrate() *
+                (src.getImgWidth() * (double)src.getImgHeight() / 8));
+        }
+        else {
+            termBytes = -1;
+        }
+        term_sidx = 0;
+
         //Get the number of components and tiles
         numComps = src.getNumComps();
         numTiles = src.getNumTiles();
@@ -602,6 +728,9 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         //Get all coded code-blocks Goto first tile
         src.setTile(0, 0);
         for (t = 0; t < numTiles; t++) { //loop on tiles
+            Object event = CodecEvents.beginTileEncode();
+            int nTileCblk = 0;
+            long tileBytes = 0;
             nEncCblk = 0;
             cblkToEncode = 0;
             for (c = 0; c < numComps; c++) {
@@ -646,9 +775,9 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                     ncblks = subb.numCb;
 
                     // Add code-block contribution to summary R-D table
-                    // RDSlopesRates
+                    // RDSlopesRates, unless there are no R-D statistics
                     last_sidx = -1;
-                    for (k = ccb.nVldTrunc - 1; k >= 0; k--) {
+                    for (k = allPasses ? -1 : ccb.nVldTrunc - 1; k >= 0; k--) {
                         fslope = ccb.truncSlopes[k];
                         if (fslope > maxSlope) maxSlope = fslope;
                         if (fslope < minSlope) minSlope = fslope;
@@ -659,11 +788,35 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                         last_sidx = getLimitedSIndexFromSlope(fslope);
                     }
 
-                    //Fills code-blocks array
-                    cblks[t][c][r][s][(ccb.m * ncblks.x) + ccb.n] = ccb;
-                    ccb = null;
+                    // Raise the minimum slope of the entropy coder if the
+                    // lower bound on the final threshold went up
+                    if (termBytes > 0 && last_sidx > term_sidx) {
+                        for (sidx = term_sidx;
+                            sidx < RD_SUMMARY_SIZE - 1 && RDSlopesRates[sidx + 1] >= termBytes;
+                            sidx++) {
+                        }
+                        if (sidx > term_sidx) {
+                            term_sidx = sidx;
+                            src.setMinPassSlope(getSlopeFromSIndex(term_sidx) *
+                                EARLY_TERM_SLOPE_FACTOR);
+                        }
+                    }
+
+                    // Copy the code-block to the store and fill the ids
+                    // array. The object is handed back to the entropy coder
+                    // for reuse.
+                    cblks[t][c][r][s][(ccb.m * ncblks.x) + ccb.n] = store.add(ccb);
+                    nTileCblk++;
+                    tileBytes += (ccb.nTotTrunc > 0) ? ccb.truncRates[ccb.nTotTrunc - 1] : 0;
                 }
             }
+            CodecEvents.endTileEncode(event, t, src.getTileWidth(), src.getTileHeight(),
+                nTileCblk, tileBytes);
+            if (stats != null) {
+                stats.add(J2KEncodeStats.TILES, 1);
+                stats.max(J2KEncodeStats.CODE_BLOCK_DATA, store.getRetainedSize());
+                stats.max(J2KEncodeStats.HEAP_USED, StageStats.getUsedHeap());
+            }
 
             if (pw != null) {
                 pw.terminateProgressWatch();
@@ -673,6 +826,11 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
             if (t < numTiles - 1) //not at last tile
                 src.nextTile();
         }
+
+        // Do not let the threshold leak into a later use of the coder
+        if (termBytes > 0) {
+            src.setMinPassSlope(0f);
+        }
     }
 
 
@@ -711,9 +869,17 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         // Bitstream is simulated to know tile length
         for (int l = 0; l < numLayers; l++) { //loop on layers
 
+            Object event = CodecEvents.beginLayerAllocation();
             maxBytes = layers[l].maxBytes;
-            if (layers[l].optimize) {
+            if (allPasses) {
+                // All truncation points are included
+                rdThreshold = 0f;
+            }
+            else if (layers[l].optimize) {
                 rdThreshold = optimizeBitstreamLayer(l, rdThreshold, maxBytes, actualBytes);
+                if (stats != null) {
+                    stats.add(J2KEncodeStats.OPTIMIZED_LAYERS, 1);
+                }
             }
             else {
                 if (l <= 0 || l >= numLayers - 1) {
@@ -756,7 +922,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                             findTruncIndices(l, c, r, t, sb, rdThreshold, p);
 
                             hBuff = pktEnc.encodePacket(l + 1, c, r, t,
-                                cblks[t][c][r],
+                                store, cblks[t][c][r],
                                 truncIdxs[t][l][c][r],
                                 hBuff, bBuff, p);
                             if (pktEnc.isPacketWritable()) {
@@ -777,9 +943,36 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
             } // end loop on tiles
             layers[l].rdThreshold = rdThreshold;
             layers[l].actualBytes = actualBytes;
+            CodecEvents.endLayerAllocation(event, l, maxBytes, actualBytes);
         } // end loop on layers
 
         // The bit-stream was not yet generated (only simulated).
+        StageStats stats = this.stats;
+        if (stats == null) {
+            writeTiles(tileLengths);
+            return;
+        }
+        stats.enter(J2KEncodeStats.CODESTREAM);
+        try {
+            writeTiles(tileLengths);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Writes the packets of all the tiles according to their progression
+     * order, once the layers have been built by buildAndWriteLayers().
+     *
+     * @param tileLengths The length of each tile, as simulated when the
+     * layers were built.
+     */
+    private void writeTiles(int[] tileLengths) throws IOException
+    {
+        int nc = src.getNumComps();
+        int nt = src.getNumTiles();
 
         // +--------------------------------------------------+
         // | Write tiles according to their Progression order |
@@ -918,7 +1111,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                         threshold = layers[l].rdThreshold;
                         findTruncIndices(l, c, r, t, sb, threshold, p);
 
-                        hBuff = pktEnc.encodePacket(l + 1, c, r, t, cblks[t][c][r],
+                        hBuff = pktEnc.encodePacket(l + 1, c, r, t, store, cblks[t][c][r],
                             truncIdxs[t][l][c][r],
                             hBuff, bBuff, p);
 
@@ -1003,7 +1196,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                         threshold = layers[l].rdThreshold;
                         findTruncIndices(l, c, r, t, sb, threshold, p);
 
-                        hBuff = pktEnc.encodePacket(l + 1, c, r, t, cblks[t][c][r],
+                        hBuff = pktEnc.encodePacket(l + 1, c, r, t, store, cblks[t][c][r],
                             truncIdxs[t][l][c][r],
                             hBuff, bBuff, p);
 
@@ -1160,7 +1353,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
 
 
                             hBuff = pktEnc.encodePacket(l + 1, c, r, t,
-                                cblks[t][c][r],
+                                store, cblks[t][c][r],
                                 truncIdxs[t][l][c][r],
                                 hBuff, bBuff,
                                 nextPrec[c][r]);
@@ -1349,7 +1542,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                                 nextPrec[c][r]);
 
                             hBuff = pktEnc.encodePacket(l + 1, c, r, t,
-                                cblks[t][c][r],
+                                store, cblks[t][c][r],
                                 truncIdxs[t][l][c][r],
                                 hBuff, bBuff,
                                 nextPrec[c][r]);
@@ -1538,7 +1731,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                                 nextPrec[c][r]);
 
                             hBuff = pktEnc.encodePacket(l + 1, c, r, t,
-                                cblks[t][c][r],
+                                store, cblks[t][c][r],
                                 truncIdxs[t][l][c][r],
                                 hBuff, bBuff,
                                 nextPrec[c][r]);
@@ -1592,12 +1785,25 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
     /**
      * This function implements the rate-distortion optimization algorithm.
      * It saves the state of any previously generated bit-stream layers and
-     * then simulate the formation of a new layer in the bit stream as often
+     * then simulates the formation of a new layer in the bit stream as often
      * as necessary to find the smallest rate-distortion threshold such that
      * the total number of bytes required to represent the layer does not
      * exceed `maxBytes' minus `prevBytes'. It then restores the state of any
      * previously generated bit-stream layers and returns the threshold.
      *
+     * <P>
+     * Only the distinct slopes of the 'rdSlopes' table are candidates,
+     * since any threshold in between selects the same truncation points.
+     * The code-block data length of each candidate is known exactly from
+     * 'rdRates', so only the packet head overhead has to be estimated. It
+     * is modeled as a linear function of the number of new truncation
+     * points, which is fitted to the simulations already done. Each
+     * simulation is made at the candidate that the model predicts to be the
+     * last one to fit, which narrows the search to a couple of simulations
+     * in most cases. A bisection step is forced whenever a prediction did
+     * not at least halve the search interval, so that the number of
+     * simulations never exceeds twice that of a plain binary search.
+     *
      * @param layerIdx The index of the current layer
      *
      * @param fmaxt The maximum admissible slope value. Normally the threshold
@@ -1615,161 +1821,273 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         int maxBytes, int prevBytes)
         throws IOException
     {
+        int lo; // Largest candidate known to fit
+        int hi; // Smallest candidate known not to fit
+        int k; // Current candidate
+        int n; // Number of new truncation points at the current candidate
+        int width; // Width of the search interval before a simulation
+        int baseRate; // Code-block data already in the previous layers
+        int baseCnt; // Truncation points already in the previous layers
+        int actualBytes; // Actual number of bytes for a layer
+        int hdrBytes; // Packet head overhead of the layer
+        int lastCnt; // Number of new truncation points at last simulation
+        int lastHdr; // Packet head overhead at last simulation
+        double hdrFix; // Fixed part of the head overhead model
+        double hdrPerPnt; // Overhead per new truncation point
+        boolean bisect; // Whether the next candidate is a middle point
+
+        // Candidates up to 'lo' select the same truncation points as
+        // 'fmaxt', that is nothing new. We assume that this always fits,
+        // there is nothing else to do anyways.
+        lo = getSlopeClass(fmaxt) - 1;
+        baseRate = (layerIdx == 0 || lo < 0) ? 0 : rdRates[lo];
+        baseCnt = (layerIdx == 0 || lo < 0) ? 0 : rdCounts[lo];
+
+        // The code-block data alone is a lower bound of the layer length,
+        // so the search can be limited to the candidates that pass it.
+        hi = rdSlopes.length;
+        for (int i = lo + 1, j = hi; i < j; ) {
+            k = (i + j) >>> 1;
+            if (prevBytes + rdRates[k] - baseRate > maxBytes) {
+                hi = j = k;
+            }
+            else {
+                i = k + 1;
+            }
+        }
+
+        // Start with a rough head overhead estimation, as in
+        // initializeLayers(): 2 bytes per packet plus SOP / EPH, and one more
+        // per truncation point for the inclusion and length information.
+        hdrFix = 0;
+        for (int t = 0; t < src.getNumTiles(); t++) {
+            int avgPktLen = 2;
+            if (((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true")) {
+                avgPktLen += Markers.SOP_LENGTH;
+            }
+            if (((String)wp.getEPH().getTileDef(t)).equalsIgnoreCase("true")) {
+                avgPktLen += Markers.EPH_LENGTH;
+            }
+            for (int c = 0; c < src.getNumComps(); c++) {
+                for (int r = src.getAnSubbandTree(t, c).resLvl; r >= 0; r--) {
+                    hdrFix += avgPktLen * numPrec[t][c][r].x * numPrec[t][c][r].y;
+                }
+            }
+        }
+        hdrPerPnt = 1;
+        lastCnt = -1;
+        lastHdr = 0;
+        bisect = false;
+
+        // Save the packet encoder state
+        pktEnc.save();
 
+        while (hi - lo > 1) {
+            if (bisect) {
+                k = (lo + hi) >>> 1;
+            }
+            else {
+                // Last candidate that fits according to the model
+                k = lo + 1;
+                for (int i = lo + 2, j = hi; i < j; ) {
+                    int m = (i + j) >>> 1;
+                    if (prevBytes + rdRates[m] - baseRate +
+                        hdrFix + hdrPerPnt * (rdCounts[m] - baseCnt) > maxBytes) {
+                        j = m;
+                    }
+                    else {
+                        k = m;
+                        i = m + 1;
+                    }
+                }
+            }
+
+            actualBytes = simulateLayer(layerIdx, rdSlopes[k], prevBytes);
+            // Restore previous packet encoder state
+            pktEnc.restore();
+
+            width = hi - lo;
+            if (actualBytes > maxBytes) {
+                hi = k;
+            }
+            else {
+                lo = k;
+            }
+            bisect = !bisect && (hi - lo) * 2 > width;
+
+            // Fit the head overhead model to the last two simulations
+            n = rdCounts[k] - baseCnt;
+            hdrBytes = actualBytes - prevBytes - (rdRates[k] - baseRate);
+            if (lastCnt >= 0 && lastCnt != n) {
+                hdrPerPnt = Math.max(0, (hdrBytes - lastHdr) / (double)(n - lastCnt));
+            }
+            hdrFix = hdrBytes - hdrPerPnt * n;
+            lastCnt = n;
+            lastHdr = hdrBytes;
+        }
+
+        // If everything fits, set the threshold to 0 so that everything is
+        // taken into the layer. This is to avoid not sending some least
+        // significant bit-planes in the lossless case.
+        if (lo == rdSlopes.length - 1) {
+            return 0f;
+        }
+        return (lo < 0 || rdSlopes[lo] >= fmaxt) ? fmaxt : rdSlopes[lo];
+    }
+
+
+    /**
+     * Simulates the formation of a layer with the given rate-distortion
+     * threshold and returns the resulting number of bytes. The packet
+     * encoder state is changed, so it must be saved before and restored
+     * afterwards by the caller.
+     *
+     * @param layerIdx The index of the current layer
+     *
+     * @param ft The value of the slope threshold.
+     *
+     * @param prevBytes The number of bytes of all the previous layers.
+     *
+     * @return The number of bytes of the layer and all the previous layers.
+     */
+    private int simulateLayer(int layerIdx, float ft, int prevBytes)
+        throws IOException
+    {
         int nt; // The total number of tiles
         int nc; // The total number of components
         int numLvls; // The total number of resolution levels
         int actualBytes; // Actual number of bytes for a layer
-        float fmint; // Minimum of the current threshold interval
-        float ft; // Current threshold
         SubbandAn sb; // Current subband
         BitOutputBuffer hBuff;// The packet head buffer
         byte[] bBuff; // The packet body buffer
-        int sidx; // The index in the summary table
         boolean sopUsed; // Should SOP markers be used ?
         boolean ephUsed; // Should EPH markers be used ?
-        int precinctIdx; // Precinct index for current packet
         int nPrec; // Number of precincts in the current resolution level
 
-        // Save the packet encoder state
-        pktEnc.save();
-
         nt = src.getNumTiles();
         nc = src.getNumComps();
         hBuff = null;
         bBuff = null;
 
-        // Estimate the minimum slope to start with from the summary
-        // information in 'RDSlopesRates'. This is a real minimum since it
-        // does not include the packet head overhead, which is always
-        // non-zero.
+        actualBytes = prevBytes;
+        src.setTile(0, 0);
 
-        // Look for the summary entry that gives 'maxBytes' or more data
-        for (sidx = RD_SUMMARY_SIZE - 1; sidx > 0; sidx--) {
-            if (RDSlopesRates[sidx] >= maxBytes) {
-                break;
-            }
-        }
-        // Get the corresponding minimum slope
-        fmint = getSlopeFromSIndex(sidx);
-        // Ensure that it is smaller the maximum slope
-        if (fmint >= fmaxt) {
-            sidx--;
-            fmint = getSlopeFromSIndex(sidx);
-        }
-        // If we are using the last entry of the summary, then that
-        // corresponds to all the data, Thus, set the minimum slope to 0.
-        if (sidx <= 0) fmint = 0;
-
-        // We look for the best threshold 'ft', which is the lowest threshold
-        // that generates no more than 'maxBytes' code bytes.
-
-        // The search is done iteratively using a binary split algorithm. We
-        // start with 'fmaxt' as the maximum possible threshold, and 'fmint'
-        // as the minimum threshold. The threshold 'ft' is calculated as the
-        // middle point of 'fmaxt'-'fmint' interval. The 'fmaxt' or 'fmint'
-        // bounds are moved according to the number of bytes obtained from a
-        // simulation, where 'ft' is used as the threshold.
-
-        // We stop whenever the interval is sufficiently small, and thus
-        // enough precision is achieved.
-
-        // Initialize threshold as the middle point of the interval.
-        ft = (fmaxt + fmint) / 2f;
-        // If 'ft' reaches 'fmint' it means that 'fmaxt' and 'fmint' are so
-        // close that the average is 'fmint', due to rounding. Force it to
-        // 'fmaxt' instead, since 'fmint' is normally an exclusive lower
-        // bound.
-        if (ft <= fmint) ft = fmaxt;
-
-        do {
-            // Get the number of bytes used by this layer, if 'ft' is the
-            // threshold, by simulation.
-            actualBytes = prevBytes;
-            src.setTile(0, 0);
-
-            for (int t = 0; t < nt; t++) {
-                for (int c = 0; c < nc; c++) {
-                    // set boolean sopUsed here (SOP markers)
-                    sopUsed = ((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true");
-                    // set boolean ephUsed here (EPH markers)
-                    ephUsed = ((String)wp.getEPH().getTileDef(t)).equalsIgnoreCase("true");
+        for (int t = 0; t < nt; t++) {
+            // set boolean sopUsed here (SOP markers)
+            sopUsed = ((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true");
+            // set boolean ephUsed here (EPH markers)
+            ephUsed = ((String)wp.getEPH().getTileDef(t)).equalsIgnoreCase("true");
 
-                    // Get LL subband
-                    sb = src.getAnSubbandTree(t, c);
-                    numLvls = sb.resLvl + 1;
-                    sb = (SubbandAn)sb.getSubbandByIdx(0, 0);
-                    //loop on resolution levels
-                    for (int r = 0; r < numLvls; r++) {
+            for (int c = 0; c < nc; c++) {
+                // Get LL subband
+                sb = src.getAnSubbandTree(t, c);
+                numLvls = sb.resLvl + 1;
+                sb = (SubbandAn)sb.getSubbandByIdx(0, 0);
+                //loop on resolution levels
+                for (int r = 0; r < numLvls; r++) {
 
-                        nPrec = numPrec[t][c][r].x * numPrec[t][c][r].y;
-                        for (int p = 0; p < nPrec; p++) {
+                    nPrec = numPrec[t][c][r].x * numPrec[t][c][r].y;
+                    for (int p = 0; p < nPrec; p++) {
 
-                            findTruncIndices(layerIdx, c, r, t, sb, ft, p);
-                            hBuff = pktEnc.encodePacket(layerIdx + 1, c, r, t,
-                                cblks[t][c][r],
-                                truncIdxs[t][layerIdx][c][r], hBuff, bBuff, p);
+                        findTruncIndices(layerIdx, c, r, t, sb, ft, p);
+                        hBuff = pktEnc.encodePacket(layerIdx + 1, c, r, t,
+                            store, cblks[t][c][r],
+                            truncIdxs[t][layerIdx][c][r], hBuff, bBuff, p);
 
-                            if (pktEnc.isPacketWritable()) {
-                                bBuff = pktEnc.getLastBodyBuf();
-                                actualBytes += bsWriter.writePacketHead(hBuff.getBuffer(),
-                                    hBuff.getLength(),
-                                    true, sopUsed, ephUsed);
-                                actualBytes += bsWriter.writePacketBody(bBuff,
-                                    pktEnc.getLastBodyLen(),
-                                    true, pktEnc.isROIinPkt(),
-                                    pktEnc.getROILen());
-                            }
-                        } // end loop on precincts
-                        sb = sb.parent;
-                    } // End loop on resolution levels
-                } // End loop on components
-            } // End loop on tiles
+                        if (pktEnc.isPacketWritable()) {
+                            bBuff = pktEnc.getLastBodyBuf();
+                            actualBytes += bsWriter.writePacketHead(hBuff.getBuffer(),
+                                hBuff.getLength(),
+                                true, sopUsed, ephUsed);
+                            actualBytes += bsWriter.writePacketBody(bBuff,
+                                pktEnc.getLastBodyLen(),
+                                true, pktEnc.isROIinPkt(),
+                                pktEnc.getROILen());
+                        }
+                    } // end loop on precincts
+                    sb = sb.parent;
+                } // End loop on resolution levels
+            } // End loop on components
+        } // End loop on tiles
+        return actualBytes;
+    }
 
-            // Move the interval bounds according to simulation result
-            if (actualBytes > maxBytes) {
-                // 'ft' is too low and generates too many bytes, make it the
-                // new minimum.
-                fmint = ft;
+
+    /**
+     * Builds the 'rdSlopes', 'rdRates' and 'rdCounts' tables from the
+     * truncation points of all the code-blocks.
+     */
+    private void buildRDTable()
+    {
+        int n, m, nb, prev, bits, lastBits, rate, cnt;
+        long[] pnts;
+
+        // Collect every valid truncation point as its slope (positive, so
+        // its bits sort like the value) and the data it adds to the block
+        nb = store.getNumBlocks();
+        n = 0;
+        for (int id = 0; id < nb; id++) {
+            n += store.getNumVldTrunc(id);
+        }
+        pnts = new long[n];
+        m = 0;
+        for (int id = 0; id < nb; id++) {
+            prev = 0;
+            for (int k = 0; k < store.getNumVldTrunc(id); k++) {
+                rate = store.getVldTruncRate(id, k);
+                pnts[m++] = (long)Float.floatToIntBits(store.getTruncSlope(id, k)) << 32 |
+                    (rate - prev);
+                prev = rate;
             }
-            else {
-                // 'ft' is too high and does not generate as many bytes as we
-                // are allowed too, make it the new maximum.
-                fmaxt = ft;
+        }
+        Arrays.sort(pnts);
+
+        // Accumulate in decreasing slope order, merging equal slopes
+        rdSlopes = new float[n];
+        rdRates = new int[n];
+        rdCounts = new int[n];
+        m = -1;
+        lastBits = 0;
+        rate = 0;
+        cnt = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            bits = (int)(pnts[i] >>> 32);
+            rate += (int)pnts[i];
+            cnt++;
+            if (m < 0 || bits != lastBits) {
+                rdSlopes[++m] = Float.intBitsToFloat(bits);
+                lastBits = bits;
             }
+            rdRates[m] = rate;
+            rdCounts[m] = cnt;
+        }
+        rdSlopes = Arrays.copyOf(rdSlopes, m + 1);
+        rdRates = Arrays.copyOf(rdRates, m + 1);
+        rdCounts = Arrays.copyOf(rdCounts, m + 1);
+    }
 
-            // Update 'ft' for the new iteration as the middle point of the
-            // new interval.
-            ft = (fmaxt + fmint) / 2f;
-            // If 'ft' reaches 'fmint' it means that 'fmaxt' and 'fmint' are
-            // so close that the average is 'fmint', due to rounding. Force it
-            // to 'fmaxt' instead, since 'fmint' is normally an exclusive
-            // lower bound.
-            if (ft <= fmint) ft = fmaxt;
-
-            // Restore previous packet encoder state
-            pktEnc.restore();
 
-            // We continue to iterate, until the threshold reaches the upper
-            // limit of the interval, within a FLOAT_REL_PRECISION relative
-            // tolerance, or a FLOAT_ABS_PRECISION absolute tolerance. This is
-            // the sign that the interval is sufficiently small.
-        } while (ft < fmaxt * (1f - FLOAT_REL_PRECISION) &&
-            ft < (fmaxt - FLOAT_ABS_PRECISION));
-
-        // If we have a threshold which is close to 0, set it to 0 so that
-        // everything is taken into the layer. This is to avoid not sending
-        // some least significant bit-planes in the lossless case. We use the
-        // FLOAT_ABS_PRECISION value as a measure of "close" to 0.
-        if (ft <= FLOAT_ABS_PRECISION) {
-            ft = 0f;
-        }
-        else {
-            // Otherwise make the threshold 'fmaxt', just to be sure that we
-            // will not send more bytes than allowed.
-            ft = fmaxt;
+    /**
+     * Returns the number of entries of 'rdSlopes' that are not less than
+     * the given slope.
+     *
+     * @param slope The slope value
+     *
+     * @return The index of the first entry of 'rdSlopes' below the slope.
+     */
+    private int getSlopeClass(float slope)
+    {
+        int lo = 0, hi = rdSlopes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rdSlopes[mid] >= slope) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
         }
-        return ft;
+        return lo;
     }
 
 
@@ -1942,7 +2260,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
         int minsbi, maxsbi, b, bIdx, n;
         Point ncblks = null;
         SubbandAn sb;
-        CBlkRateDistStats cur_cblk;
+        int cur_cblk;
         PrecInfo prec = pktEnc.getPrecInfo(tileIdx, compIdx, lvlIdx, precinctIdx);
         Point cbCoord;
 
@@ -1965,8 +2283,8 @@ public class EBCOTRateAllocator extends PostCompRateAllocator
                     b = cbCoord.x + cbCoord.y * sb.numCb.x;
                     //Get the current code-block
                     cur_cblk = cblks[tileIdx][compIdx][lvlIdx][s][b];
-                    for (n = 0; n < cur_cblk.nVldTrunc; n++) {
-                        if (cur_cblk.truncSlopes[n] < fthresh) {
+                    for (n = 0; n < store.getNumVldTrunc(cur_cblk); n++) {
+                        if (store.getTruncSlope(cur_cblk, n) < fthresh) {
                             break;
                         }
                         else {
@@ -55,10 +55,13 @@ import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.quantization.quantizer.CBlkQuantDataSrcEnc;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MsgLogger;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.util.ThreadPool;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.analysis.CBlkWTData;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
+
 /**
  * This class implements the JPEG 2000 entropy coder, which codes stripes in
  * code-blocks. This entropy coding engine can function in a single-threaded
@@ -646,6 +649,18 @@ public class StdEntropyCoder extends EntropyCoder
      */
     private boolean precinctPartition[][];
 
+    /**
+     * Whether the rate-distortion statistics are computed for the coded
+     * code-blocks.
+     */
+    private boolean rdStats = true;
+
+    /**
+     * The rate-distortion slope below which no more bit-planes are coded, 0
+     * if all bit-planes are to be coded.
+     */
+    private float minSlope = 0f;
+
     /**
      * Class that takes care of running the 'compressCodeBlock()' method with
      * thread local arguments. Used only in multithreaded implementation.
@@ -682,6 +697,23 @@ public class StdEntropyCoder extends EntropyCoder
         // Should be private, but some buggy JDK 1.1 compilers complain
         int tType;
 
+        /** The rate-distortion statistics flag to use in compression */
+        // Should be private, but some buggy JDK 1.1 compilers complain
+        boolean rdStats;
+
+        /** The minimum rate-distortion slope to use in compression */
+        // Should be private, but some buggy JDK 1.1 compilers complain
+        float minSlope;
+
+        /** Whether the time spent in compression is measured */
+        boolean timed;
+
+        /**
+         * The time spent in compression since it was last collected, in
+         * nanoseconds, if measured
+         */
+        long time;
+
 
         /**
          * Creates a new compressor object with the given index.
@@ -704,15 +736,19 @@ public class StdEntropyCoder extends EntropyCoder
         @Override
         public void run()
         {
+            long start = timed ? System.nanoTime() : 0;
             // Start the code-block compression
             try {
                 compressCodeBlock(c, ccb, srcblkT[idx], mqT[idx], boutT[idx],
                     outT[idx], stateT[idx], distbufT[idx],
                     ratebufT[idx], istermbufT[idx],
                     symbufT[idx], ctxtbufT[idx], options,
-                    rev, lcType, tType);
+                    rev, lcType, tType, rdStats, minSlope);
             }
             finally {
+                if (timed) {
+                    time += System.nanoTime() - start;
+                }
                 // Join the queue of completed compression, even if exceptions
                 // occurred.
                 completedComps[c].push(this);
@@ -1169,6 +1205,30 @@ public class StdEntropyCoder extends EntropyCoder
      */
     @Override
     public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return codeNextCodeBlock(c, ccb);
+        }
+        stats.enter(J2KEncodeStats.ENTROPY);
+        try {
+            ccb = codeNextCodeBlock(c, ccb);
+            if (ccb != null) {
+                stats.add(J2KEncodeStats.CODE_BLOCKS, 1);
+                stats.add(J2KEncodeStats.PASSES, ccb.nTotTrunc);
+            }
+            return ccb;
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getNextCodeBlock().
+     */
+    private CBlkRateDistStats codeNextCodeBlock(int c, CBlkRateDistStats ccb)
     {
         if (tPool == null) { // Use single threaded implementation
             // Get code-block data from source
@@ -1190,7 +1250,7 @@ public class StdEntropyCoder extends EntropyCoder
                 stateT[0], distbufT[0], ratebufT[0],
                 istermbufT[0], symbufT[0], ctxtbufT[0],
                 opts[tIdx][c], isReversible(tIdx, c),
-                lenCalc[tIdx][c], tType[tIdx][c]);
+                lenCalc[tIdx][c], tType[tIdx][c], rdStats, minSlope);
             // Return result
             return ccb;
         }
@@ -1218,6 +1278,9 @@ public class StdEntropyCoder extends EntropyCoder
                     compr.rev = isReversible(tIdx, c);
                     compr.lcType = lenCalc[tIdx][c];
                     compr.tType = tType[tIdx][c];
+                    compr.rdStats = rdStats;
+                    compr.minSlope = minSlope;
+                    compr.timed = stats != null;
                     nBusyComps[c]++;
                     ccb = null;
                     // Send compressor to execution in thread pool
@@ -1248,6 +1311,11 @@ public class StdEntropyCoder extends EntropyCoder
                     cIdx = compr.getIdx();
                     nBusyComps[c]--;
                     idleComps.push(compr);
+                    // Account the compression time to the compressor
+                    if (stats != null) {
+                        stats.addWorkerTime(cIdx, compr.time);
+                    }
+                    compr.time = 0;
                     // Check targets error condition
                     tPool.checkTargetErrors();
                     // Get the result of compression and return that.
@@ -1264,6 +1332,36 @@ public class StdEntropyCoder extends EntropyCoder
     }
 
 
+    /**
+     * Specifies whether the rate-distortion statistics of the coded
+     * code-blocks have to be computed. If disabled, the distortion is not
+     * accumulated and no convex hull analysis is done, the last coding pass
+     * being the only valid truncation point of each code-block.
+     *
+     * @param enabled True to compute the rate-distortion statistics, false
+     * otherwise.
+     */
+    @Override
+    public void setRDStatsEnabled(boolean enabled)
+    {
+        rdStats = enabled;
+    }
+
+
+    /**
+     * Sets the rate-distortion slope below which no more bit-planes of a
+     * code-block are coded. Applies to the code-blocks requested after this
+     * call.
+     *
+     * @param slope The minimum slope, 0 to code all bit-planes.
+     */
+    @Override
+    public void setMinPassSlope(float slope)
+    {
+        minSlope = slope;
+    }
+
+
     /**
      * Changes the current tile, given the new indexes. An
      * IllegalArgumentException is thrown if the indexes do not
@@ -1356,6 +1454,14 @@ public class StdEntropyCoder extends EntropyCoder
      *
      * @param tType The type of termination to use with the MQ coder.
      *
+     * @param rdstats If false no distortion is accumulated and the last
+     * coding pass is selected as the only valid truncation point, instead of
+     * those on the rate-distortion convex hull.
+     *
+     * @param minslope If positive, coding stops after the cleanup pass of the
+     * first bit-plane whose significance propagation and magnitude refinement
+     * passes have a rate-distortion slope lower than this value.
+     *
      * @see #getNextCodeBlock
      */
     static private void compressCodeBlock(int c, CBlkRateDistStats ccb,
@@ -1367,7 +1473,8 @@ public class StdEntropyCoder extends EntropyCoder
         boolean istermbuf[], int symbuf[],
         int ctxtbuf[], int options,
         boolean rev,
-        int lcType, int tType)
+        int lcType, int tType,
+        boolean rdstats, float minslope)
     {
         // NOTE: This method should not access any non-final instance or
         // static variables, either directly or indirectly through other
@@ -1383,6 +1490,7 @@ public class StdEntropyCoder extends EntropyCoder
         double msew; // The distortion (MSE weight) for the current bit-plane
         double totdist;// The total cumulative distortion decrease
         int ltpidx; // The index of the last pass which is terminated
+        boolean lastbp; // If the current bit-plane is the last one to code
 
 
         // Check error-resilient termination
@@ -1441,8 +1549,9 @@ public class StdEntropyCoder extends EntropyCoder
         curbp = 30 - skipbp;
         fs = FS_LOSSY;
         fm = FM_LOSSY;
-        msew = Math.pow(2, ((curbp - lmb) << 1) - MSE_LKP_FRAC_BITS) *
-            srcblk.sb.stepWMSE * srcblk.wmseScaling;
+        // Without R-D statistics the distortion is not weighted, so it stays 0
+        msew = rdstats ? Math.pow(2, ((curbp - lmb) << 1) - MSE_LKP_FRAC_BITS) *
+            srcblk.sb.stepWMSE * srcblk.wmseScaling : 0;
         totdist = 0f;
         npass = 0;
         ltpidx = -1;
@@ -1467,7 +1576,8 @@ public class StdEntropyCoder extends EntropyCoder
             curbp--;
         }
         // Other bit-planes have all passes
-        while (curbp >= lmb) {
+        lastbp = false;
+        while (curbp >= lmb && !lastbp) {
             // Do we need the "lossless" 'fs' and 'fm' tables ?
             if (rev && curbp == lmb) {
                 fs = FS_LOSSLESS;
@@ -1515,10 +1625,19 @@ public class StdEntropyCoder extends EntropyCoder
             if (istermbuf[npass]) ltpidx = npass;
             npass++;
 
+            // Stop after this bit-plane if its refinement passes are not
+            // worth their rate (ROI passes are always coded)
+            if (minslope > 0 && curbp > lmb && npass >= ccb.nROIcp &&
+                ratebuf[npass - 1] > ratebuf[npass - 3] &&
+                (distbuf[npass - 1] - distbuf[npass - 3]) <
+                    minslope * (ratebuf[npass - 1] - ratebuf[npass - 3])) {
+                lastbp = true;
+            }
+
             // Do the clenup pass
             // We terminate if regular termination, last bit-plane, or next
             // bit-plane is "raw".
-            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || curbp == lmb ||
+            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || curbp == lmb || lastbp ||
                 ((options & OPT_BYPASS) != 0 &&
                     (31 - NUM_NON_BYPASS_MS_BP - skipbp) >= curbp);
             totdist += cleanuppass(srcblk, mq, istermbuf[npass], curbp, state,
@@ -1537,8 +1656,14 @@ public class StdEntropyCoder extends EntropyCoder
         ccb.data = new byte[out.size()];
         out.toByteArray(0, out.size(), ccb.data, 0);
         checkEndOfPassFF(ccb.data, ratebuf, istermbuf, npass);
-        ccb.selectConvexHull(ratebuf, distbuf,
-            (options & (OPT_BYPASS | OPT_TERM_PASS)) != 0 ? istermbuf : null, npass, rev);
+        if (rdstats) {
+            ccb.selectConvexHull(ratebuf, distbuf,
+                (options & (OPT_BYPASS | OPT_TERM_PASS)) != 0 ? istermbuf : null, npass, rev);
+        }
+        else {
+            ccb.selectLastPass(ratebuf,
+                (options & (OPT_BYPASS | OPT_TERM_PASS)) != 0 ? istermbuf : null, npass);
+        }
 
         // Reset MQ coder and bit output for next code-block
         mq.reset();
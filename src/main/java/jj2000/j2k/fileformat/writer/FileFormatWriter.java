@@ -54,6 +54,7 @@ import javax.imageio.stream.ImageOutputStream;
 
 import jj2000.j2k.fileformat.FileFormatBoxes;
 import jj2000.j2k.io.BEBufferedRandomAccessFile;
+import jj2000.j2k.util.CodecEvents;
 
 import org.w3c.dom.NodeList;
 
@@ -189,10 +190,12 @@ public class FileFormatWriter implements FileFormatBoxes
      */
     public int writeFileFormat() throws IOException
     {
+        Object event = CodecEvents.beginFileFormatWrite();
         writeMetadata(metadata);
 
         // Write the Codestream box
         writeContiguousCodeStreamBox();
+        CodecEvents.endFileFormatWrite(event, width, height, nc, clength);
 
         return CSB_LENGTH + otherLength;
     }
@@ -52,6 +52,8 @@ package jj2000.j2k.image;
 
 import java.awt.Point;
 
+import jj2000.j2k.util.StageStats;
+
 /**
  * This class provides a default implementation of the methods in the
  * 'ImgData' interface. The default implementation is just to return the value
@@ -81,6 +83,12 @@ public abstract class ImgDataAdapter implements ImgData
     /** The ImgData source */
     protected ImgData imgdatasrc;
 
+    /**
+     * The statistics to which the work of this object is accounted, or null
+     * if none are collected
+     */
+    protected StageStats stats;
+
 
     /**
      * Instantiates the ImgDataAdapter object specifying the ImgData source.
@@ -93,6 +101,17 @@ public abstract class ImgDataAdapter implements ImgData
     }
 
 
+    /**
+     * Sets the statistics to which the work of this object is accounted.
+     *
+     * @param stats The statistics, or null to not collect any.
+     */
+    public void setStats(StageStats stats)
+    {
+        this.stats = stats;
+    }
+
+
     /**
      * Returns the overall width of the current tile in pixels. This is the
      * tile's width without accounting for any component subsampling. This is
@@ -44,6 +44,9 @@
  * */
 package jj2000.j2k.image;
 
+import jj2000.j2k.util.StageStats;
+
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
 
 /**
  * This class is responsible of all data type conversions. It should be used,
@@ -248,6 +251,25 @@ public class ImgDataConverter extends ImgDataAdapter implements BlkImgDataSrc
      * @see #getCompData
      */
     private DataBlk getData(DataBlk blk, int c, boolean intern)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return convert(blk, c, intern);
+        }
+        stats.enter(J2KDecodeStats.CONVERSION);
+        try {
+            return convert(blk, c, intern);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getData().
+     */
+    private DataBlk convert(DataBlk blk, int c, boolean intern)
     {
         DataBlk reqBlk; // Reference to block used in request to source
 
@@ -51,8 +51,10 @@ import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.image.ImgDataAdapter;
 import jj2000.j2k.util.MathUtil;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.analysis.AnWTFilterSpec;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 /**
@@ -457,6 +459,25 @@ public class ForwCompTransf extends ImgDataAdapter
      */
     @Override
     public DataBlk getInternCompData(DataBlk blk, int c)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return transform(blk, c);
+        }
+        stats.enter(J2KEncodeStats.COMPONENT_TRANSFORM);
+        try {
+            return transform(blk, c);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCompData().
+     */
+    private DataBlk transform(DataBlk blk, int c)
     {
         switch (transfType) {
             case NONE:
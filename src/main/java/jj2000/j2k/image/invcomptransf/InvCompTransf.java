@@ -52,8 +52,11 @@ import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.image.ImgDataAdapter;
 import jj2000.j2k.util.MathUtil;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.synthesis.SynWTFilterSpec;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
+
 /**
  * This class apply inverse component transformations to the tiles depending
  * on specification read from the codestream header. These transformations can
@@ -134,6 +137,12 @@ public class InvCompTransf extends ImgDataAdapter
      */
     private boolean noCompTransf = false;
 
+    /**
+     * For each output component, whether it is going to be requested, or
+     * null if all of them may be
+     */
+    private boolean[] outComps;
+
 
     /**
      * Constructs a new ForwCompTransf object that operates on the
@@ -176,6 +185,99 @@ public class InvCompTransf extends ImgDataAdapter
     }
 
 
+    /**
+     * Specifies which output components are going to be requested. With the
+     * inverse ICT, the red and blue components only depend on the luminance
+     * and one of the chrominance components. If only one of them is needed,
+     * the other chrominance component is not requested from the source, so
+     * that it is not decoded at all. Requesting another output component
+     * anyway is still possible but decodes the first three components again.
+     *
+     * @param comps For each output component whether it is going to be
+     * requested, or null if all of them may be.
+     *
+     * @see #getSourceComps
+     */
+    public void setOutputComps(boolean[] comps)
+    {
+        outComps = comps;
+        outdata[0] = outdata[1] = outdata[2] = null;
+    }
+
+
+    /**
+     * Returns which components of the source are needed to compute the given
+     * output components in any tile.
+     *
+     * @param comps For each output component whether it is needed.
+     *
+     * @return For each source component whether it is needed.
+     *
+     * @see #setOutputComps
+     */
+    public boolean[] getSourceComps(boolean[] comps)
+    {
+        boolean[] srcComps = comps.clone();
+        if (noCompTransf || comps.length < 3 || !cts.isCompTransfUsed()) {
+            return srcComps;
+        }
+        for (int t = getNumTiles() - 1; t >= 0; t--) {
+            switch (getTransfType(t)) {
+                case INV_RCT:
+                    if (comps[0] || comps[1] || comps[2]) {
+                        srcComps[0] = srcComps[1] = srcComps[2] = true;
+                    }
+                    break;
+                case INV_ICT:
+                    // Red needs Cr, blue needs Cb and green needs both
+                    if (comps[0] || comps[1] || comps[2]) {
+                        srcComps[0] = true;
+                    }
+                    if (comps[0] || comps[1]) {
+                        srcComps[2] = true;
+                    }
+                    if (comps[1] || comps[2]) {
+                        srcComps[1] = true;
+                    }
+                    break;
+            }
+        }
+        return srcComps;
+    }
+
+
+    /**
+     * Returns the type of the component transformation of the given tile.
+     *
+     * @param t The index of the tile.
+     *
+     * @return The type of the transformation, NONE, INV_RCT or INV_ICT.
+     */
+    private int getTransfType(int t)
+    {
+        if (((Integer)cts.getTileDef(t)).intValue() == NONE)
+            return NONE;
+        int nc = src.getNumComps() > 3 ? 3 : src.getNumComps();
+        int rev = 0;
+        for (int c = 0; c < nc; c++)
+            rev += (wfs.isReversible(t, c) ? 1 : 0);
+        if (rev == 3) {
+            // All WT are reversible
+            return INV_RCT;
+        }
+        else if (rev == 0) {
+            // All WT irreversible
+            return INV_ICT;
+        }
+        else {
+            // Error
+            throw new IllegalArgumentException("Wavelet transformation and " +
+                "component transformation" +
+                " not coherent in tile" + t);
+        }
+    }
+
+
     /**
      * Returns a string with a descriptive text of which inverse component
      * transformation is used. This can be either "Inverse RCT" or "Inverse
@@ -388,6 +490,25 @@ public class InvCompTransf extends ImgDataAdapter
      */
     @Override
     public DataBlk getInternCompData(DataBlk blk, int c)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return transform(blk, c);
+        }
+        stats.enter(J2KDecodeStats.COMPONENT_TRANSFORM);
+        try {
+            return transform(blk, c);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCompData().
+     */
+    private DataBlk transform(DataBlk blk, int c)
     {
         // if specified in the command line that no component transform should
         // be made, return original data
@@ -595,6 +716,15 @@ public class InvCompTransf extends ImgDataAdapter
                 blk.setData(outdata[c]);
             }
 
+            // If only red or only blue is needed, only one of the
+            // chrominance components has to be decoded
+            boolean red = c == 0 || outComps == null || outComps[0];
+            boolean green = c == 1 || outComps == null || outComps[1];
+            boolean blue = c == 2 || outComps == null || outComps[2];
+            if (!green && red != blue) {
+                return invICTPartial(blk, c);
+            }
+
             outdata[(c + 1) % 3] = new int[outdata[c].length];
             outdata[(c + 2) % 3] = new int[outdata[c].length];
 
@@ -670,6 +800,61 @@ public class InvCompTransf extends ImgDataAdapter
     }
 
 
+    /**
+     * Applies the inverse irreversible component transformation to obtain
+     * only the red or only the blue component (c is 0 or 2), which needs
+     * only the luminance and one of the chrominance components. The output
+     * is not buffered since no other component is going to be requested.
+     *
+     * @param blk Determine the rectangular area to return
+     *
+     * @param c The index of the requested component
+     *
+     * @return Data of requested component
+     */
+    private DataBlk invICTPartial(DataBlk blk, int c)
+    {
+        int k, k0, k1, mink, i;
+        int w = blk.w; //width of output block
+        int h = blk.h; //height of ouput block
+        int[] out = outdata[c];
+        outdata[0] = outdata[1] = outdata[2] = null;
+
+        if (block0 == null || block0.getDataType() != DataBlk.TYPE_FLOAT)
+            block0 = new DataBlkFloat();
+        if (block1 == null || block1.getDataType() != DataBlk.TYPE_FLOAT)
+            block1 = new DataBlkFloat();
+        block0.w = block1.w = blk.w;
+        block0.h = block1.h = blk.h;
+        block0.ulx = block1.ulx = blk.ulx;
+        block0.uly = block1.uly = blk.uly;
+
+        // Red needs Cr (component 2), blue needs Cb (component 1)
+        block0 = src.getInternCompData(block0, 0);
+        float[] data0 = (float[])block0.getData();
+        block1 = src.getInternCompData(block1, c == 0 ? 2 : 1);
+        float[] data1 = (float[])block1.getData();
+        float f = c == 0 ? 1.402f : 1.772f;
+
+        blk.progressive = block0.progressive || block1.progressive;
+        blk.offset = 0;
+        blk.scanw = w;
+
+        k = w * h - 1;
+        k0 = block0.offset + (h - 1) * block0.scanw + w - 1;
+        k1 = block1.offset + (h - 1) * block1.scanw + w - 1;
+        for (i = h - 1; i >= 0; i--) {
+            for (mink = k - w; k > mink; k--, k0--, k1--) {
+                out[k] = (int)(data0[k0] + f * data1[k1] + 0.5f);
+            }
+            // Jump to beggining of previous line in input
+            k0 -= block0.scanw - w;
+            k1 -= block1.scanw - w;
+        }
+        return blk;
+    }
+
+
     /**
      * Changes the current tile, given the new indexes. An
      * IllegalArgumentException is thrown if the indexes do not
@@ -691,28 +876,7 @@ public class InvCompTransf extends ImgDataAdapter
         tIdx = getTileIdx(); // index of the current tile
 
         // initializations
-        if (((Integer)cts.getTileDef(tIdx)).intValue() == NONE)
-            transfType = NONE;
-        else {
-            int nc = src.getNumComps() > 3 ? 3 : src.getNumComps();
-            int rev = 0;
-            for (int c = 0; c < nc; c++)
-                rev += (wfs.isReversible(tIdx, c) ? 1 : 0);
-            if (rev == 3) {
-                // All WT are reversible
-                transfType = INV_RCT;
-            }
-            else if (rev == 0) {
-                // All WT irreversible
-                transfType = INV_ICT;
-            }
-            else {
-                // Error
-                throw new IllegalArgumentException("Wavelet transformation and " +
-                    "component transformation" +
-                    " not coherent in tile" + tIdx);
-            }
-        }
+        transfType = getTransfType(tIdx);
     }
 
 
@@ -734,28 +898,7 @@ public class InvCompTransf extends ImgDataAdapter
         tIdx = getTileIdx(); // index of the current tile
 
         // initializations
-        if (((Integer)cts.getTileDef(tIdx)).intValue() == NONE)
-            transfType = NONE;
-        else {
-            int nc = src.getNumComps() > 3 ? 3 : src.getNumComps();
-            int rev = 0;
-            for (int c = 0; c < nc; c++)
-                rev += (wfs.isReversible(tIdx, c) ? 1 : 0);
-            if (rev == 3) {
-                // All WT are reversible
-                transfType = INV_RCT;
-            }
-            else if (rev == 0) {
-                // All WT irreversible
-                transfType = INV_ICT;
-            }
-            else {
-                // Error
-                throw new IllegalArgumentException("Wavelet transformation and " +
-                    "component transformation" +
-                    " not coherent in tile" + tIdx);
-            }
-        }
+        transfType = getTransfType(tIdx);
     }
 
 }
@@ -48,14 +48,15 @@
 package jj2000.j2k.quantization.dequantizer;
 
 import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.decoder.TileDecoderSpecs;
 import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
-import jj2000.j2k.quantization.GuardBitsSpec;
-import jj2000.j2k.quantization.QuantStepSizeSpec;
-import jj2000.j2k.quantization.QuantTypeSpec;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
+
 /**
  * This class implements a scalar dequantizer with deadzone. The output can be
  * either integer ('int') or floating-point ('float') data. The dequantization
@@ -90,14 +91,11 @@ import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 public class StdDequantizer extends Dequantizer
 {
 
-    /** The quantizer type spec */
-    private QuantTypeSpec qts;
-
-    /** The quantizer step sizes spec */
-    private QuantStepSizeSpec qsss;
-
-    /** The number of guard bits spec */
-    private GuardBitsSpec gbs;
+    /**
+     * The decoder specifications, for the quantizer type, step sizes and
+     * number of guard bits
+     */
+    private DecoderSpecs decSpec;
 
     /** The decoding parameters of the dequantizer */
     private StdDequantizerParams params;
@@ -138,9 +136,7 @@ public class StdDequantizer extends Dequantizer
         if (utrb.length != src.getNumComps()) {
             throw new IllegalArgumentException("Invalid rb argument");
         }
-        this.qsss = decSpec.qsss;
-        this.qts = decSpec.qts;
-        this.gbs = decSpec.gbs;
+        this.decSpec = decSpec;
     }
 
 
@@ -265,6 +261,26 @@ public class StdDequantizer extends Dequantizer
     {
         // This method is declared final since getNextCodeBlock() relies on
         // the actual implementation of this method.
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return dequantize(c, m, n, sb, cblk);
+        }
+        stats.enter(J2KDecodeStats.DEQUANTIZATION);
+        try {
+            return dequantize(c, m, n, sb, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCodeBlock().
+     */
+    private DataBlk dequantize(int c, int m, int n, SubbandSyn sb,
+        DataBlk cblk)
+    {
         int j, jmin, k;
         int temp;
         float step;
@@ -273,10 +289,11 @@ public class StdDequantizer extends Dequantizer
         int[] outiarr, inarr;
         float[] outfarr;
         int w, h;
-        boolean reversible = qts.isReversible(tIdx, c);
-        boolean derived = qts.isDerived(tIdx, c);
-        StdDequantizerParams params = (StdDequantizerParams)qsss.getTileCompVal(tIdx, c);
-        int G = ((Integer)gbs.getTileCompVal(tIdx, c)).intValue();
+        TileDecoderSpecs ts = decSpec.getTileSpecs(tIdx);
+        boolean reversible = ts.reversible[c];
+        boolean derived = ts.derived[c];
+        StdDequantizerParams params = ts.qsss[c];
+        int G = ts.gbs[c];
 
         if (cblk != null) {
             outdtype = cblk.getDataType();
@@ -50,6 +50,7 @@ import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.quantization.GuardBitsSpec;
 import jj2000.j2k.quantization.QuantStepSizeSpec;
 import jj2000.j2k.quantization.QuantTypeSpec;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.analysis.CBlkWTData;
 import jj2000.j2k.wavelet.analysis.CBlkWTDataFloat;
@@ -57,6 +58,7 @@ import jj2000.j2k.wavelet.analysis.CBlkWTDataInt;
 import jj2000.j2k.wavelet.analysis.CBlkWTDataSrc;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 /**
@@ -310,6 +312,25 @@ public class StdQuantizer extends Quantizer
     {
         // NOTE: this method is declared final since getNextCodeBlock() relies
         // on this particular implementation
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return quantize(c, cblk);
+        }
+        stats.enter(J2KEncodeStats.QUANTIZATION);
+        try {
+            return quantize(c, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getNextInternCodeBlock().
+     */
+    private CBlkWTData quantize(int c, CBlkWTData cblk)
+    {
         int k, j;
         int tmp, shiftBits, jmin;
         int w, h;
@@ -47,9 +47,11 @@ package jj2000.j2k.roi;
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.quantization.dequantizer.CBlkQuantDataSrcDec;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.synthesis.MultiResImgDataAdapter;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
 
 /**
@@ -73,7 +75,14 @@ public class ROIDeScaler extends MultiResImgDataAdapter
 {
 
     /**
-     * The MaxShiftSpec containing the scaling values for all tile-components
+     * The decoder specifications, containing the scaling values for all
+     * tile-components, or null if they are given by 'mss'
+     */
+    private DecoderSpecs decSpec;
+
+    /**
+     * The MaxShiftSpec containing the scaling values for all tile-components,
+     * if there are no decoder specifications
      */
     private MaxShiftSpec mss;
 
@@ -114,6 +123,23 @@ public class ROIDeScaler extends MultiResImgDataAdapter
     }
 
 
+    /**
+     * Constructor of the ROI descaler which takes the scaling values from
+     * the compiled tile specifications, see createInstance().
+     *
+     * @param src The EntropyDecoder that is the source of data.
+     *
+     * @param decSpec The decoder specifications containing the scaling
+     * values for all tile-components.
+     */
+    private ROIDeScaler(CBlkQuantDataSrcDec src, DecoderSpecs decSpec)
+    {
+        super(src);
+        this.src = src;
+        this.decSpec = decSpec;
+    }
+
+
     /**
      * Returns the subband tree, for the specified tile-component. This method
      * returns the root element of the subband tree structure, see Subband and
@@ -278,6 +304,26 @@ public class ROIDeScaler extends MultiResImgDataAdapter
     @Override
     public DataBlk getInternCodeBlock(int c, int m, int n, SubbandSyn sb,
         DataBlk cblk)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return descale(c, m, n, sb, cblk);
+        }
+        stats.enter(J2KDecodeStats.DEQUANTIZATION);
+        try {
+            return descale(c, m, n, sb, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCodeBlock().
+     */
+    private DataBlk descale(int c, int m, int n, SubbandSyn sb,
+        DataBlk cblk)
     {
         int mi, i, j, k, wrap;
         int ulx, uly, w, h;
@@ -289,11 +335,15 @@ public class ROIDeScaler extends MultiResImgDataAdapter
         cblk = src.getInternCodeBlock(c, m, n, sb, cblk);
 
         // If there are no ROIs in the tile, Or if we already got all blocks
-        boolean noRoiInTile = false;
-        if (mss == null || mss.getTileCompVal(getTileIdx(), c) == null)
-            noRoiInTile = true;
-
-        if (noRoiInTile || cblk == null) {
+        int boost;
+        if (decSpec != null) {
+            boost = decSpec.getTileSpecs(getTileIdx()).rois[c];
+        }
+        else {
+            Object roi = mss == null ? null : mss.getTileCompVal(getTileIdx(), c);
+            boost = roi == null ? -1 : ((Integer)roi).intValue();
+        }
+        if (boost < 0 || cblk == null) {
             return cblk;
         }
         data = (int[])cblk.getData();
@@ -305,7 +355,6 @@ public class ROIDeScaler extends MultiResImgDataAdapter
         // Scale coefficients according to magnitude. If the magnitude of a
         // coefficient is lower than 2 pow 31-magbits then it is a background
         // coeff and should be up-scaled
-        int boost = ((Integer)mss.getTileCompVal(getTileIdx(), c)).intValue();
         int mask = ((1 << sb.magbits) - 1) << (31 - sb.magbits);
         int mask2 = (~mask) & 0x7FFFFFFF;
 
@@ -354,9 +403,9 @@ public class ROIDeScaler extends MultiResImgDataAdapter
         boolean noRoi = j2krparam.getNoROIDescaling();
         if (noRoi || decSpec.rois == null) {
             // no_roi specified in commandline!
-            return new ROIDeScaler(src, null);
+            return new ROIDeScaler(src, (MaxShiftSpec)null);
         }
 
-        return new ROIDeScaler(src, decSpec.rois);
+        return new ROIDeScaler(src, decSpec);
     }
 }
@@ -57,10 +57,12 @@ import jj2000.j2k.image.input.ImgReaderPGM;
 import jj2000.j2k.quantization.quantizer.CBlkQuantDataSrcEnc;
 import jj2000.j2k.quantization.quantizer.Quantizer;
 import jj2000.j2k.roi.MaxShiftSpec;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.analysis.CBlkWTData;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 /**
@@ -540,6 +542,25 @@ public class ROIScaler extends ImgDataAdapter implements CBlkQuantDataSrcEnc
      */
     @Override
     public CBlkWTData getNextInternCodeBlock(int c, CBlkWTData cblk)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return scale(c, cblk);
+        }
+        stats.enter(J2KEncodeStats.ROI_SCALING);
+        try {
+            return scale(c, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getNextInternCodeBlock().
+     */
+    private CBlkWTData scale(int c, CBlkWTData cblk)
     {
         int mi, i, j, k, wrap;
         int ulx, uly, w, h;
@@ -0,0 +1,232 @@
+/*
+ * Class:                   CodecEvents
+ *
+ * Description:             Hooks for recording codec operations as
+ *                          profiling events.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.util;
+
+/**
+ * This class provides the hooks through which the codec reports its
+ * operations to a profiler: the decoding of a tile, of the code-blocks of a
+ * subband and of a wavelet decomposition level, the encoding of a tile, the
+ * allocation of a layer and the writing of the file format.
+ *
+ * <P>
+ * Each operation is bracketed by a begin method, which returns an event
+ * object, and the matching end method, which takes the event and the
+ * properties of the operation. The event is null when the operation is not
+ * recorded, and may be null in any case.
+ *
+ * <P>
+ * This implementation records nothing, so that the codec runs on any JVM.
+ * The multi-release jar contains a version for Java 11 and later which
+ * records the operations as Java Flight Recorder events, in the
+ * "JPEG 2000" category. Its events are only created when they are enabled
+ * in a recording.
+ */
+public class CodecEvents
+{
+
+    /** This class has only static methods */
+    private CodecEvents()
+    {
+    }
+
+
+    /** Begins the decoding of a tile. */
+    public static Object beginTileDecode()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the decoding of a tile.
+     *
+     * @param event The event returned by beginTileDecode().
+     *
+     * @param tile The index of the tile.
+     *
+     * @param width The width of the decoded tile area.
+     *
+     * @param height The height of the decoded tile area.
+     *
+     * @param bytes The number of bytes read while decoding the tile.
+     */
+    public static void endTileDecode(Object event, int tile, int width, int height,
+        long bytes)
+    {
+    }
+
+
+    /** Begins the decoding of the code-blocks of a subband. */
+    public static Object beginCodeBlocksDecode()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the decoding of the code-blocks of a subband.
+     *
+     * @param event The event returned by beginCodeBlocksDecode().
+     *
+     * @param tile The index of the tile.
+     *
+     * @param comp The index of the component.
+     *
+     * @param resLvl The resolution level of the subband.
+     *
+     * @param sbandIdx The index of the subband in the resolution level.
+     *
+     * @param width The width of the subband.
+     *
+     * @param height The height of the subband.
+     *
+     * @param codeBlocks The number of code-blocks decoded.
+     */
+    public static void endCodeBlocksDecode(Object event, int tile, int comp, int resLvl,
+        int sbandIdx, int width, int height, int codeBlocks)
+    {
+    }
+
+
+    /** Begins the inverse wavelet transform of a decomposition level. */
+    public static Object beginInverseWT()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the inverse wavelet transform of a decomposition level.
+     *
+     * @param event The event returned by beginInverseWT().
+     *
+     * @param tile The index of the tile.
+     *
+     * @param comp The index of the component.
+     *
+     * @param resLvl The resolution level reconstructed.
+     *
+     * @param width The width of the reconstructed resolution level.
+     *
+     * @param height The height of the reconstructed resolution level.
+     */
+    public static void endInverseWT(Object event, int tile, int comp, int resLvl,
+        int width, int height)
+    {
+    }
+
+
+    /** Begins the encoding of a tile. */
+    public static Object beginTileEncode()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the encoding of a tile, up to the entropy coding.
+     *
+     * @param event The event returned by beginTileEncode().
+     *
+     * @param tile The index of the tile.
+     *
+     * @param width The width of the tile.
+     *
+     * @param height The height of the tile.
+     *
+     * @param codeBlocks The number of code-blocks coded.
+     *
+     * @param bytes The number of bytes of all coding passes.
+     */
+    public static void endTileEncode(Object event, int tile, int width, int height,
+        int codeBlocks, long bytes)
+    {
+    }
+
+
+    /** Begins the rate allocation of a layer. */
+    public static Object beginLayerAllocation()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the rate allocation of a layer.
+     *
+     * @param event The event returned by beginLayerAllocation().
+     *
+     * @param layer The index of the layer.
+     *
+     * @param targetBytes The maximum number of bytes of the layers up to
+     * this one.
+     *
+     * @param bytes The number of bytes of the layers up to this one.
+     */
+    public static void endLayerAllocation(Object event, int layer, long targetBytes,
+        long bytes)
+    {
+    }
+
+
+    /** Begins the writing of the file format. */
+    public static Object beginFileFormatWrite()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends the writing of the file format.
+     *
+     * @param event The event returned by beginFileFormatWrite().
+     *
+     * @param width The width of the image.
+     *
+     * @param height The height of the image.
+     *
+     * @param comps The number of components.
+     *
+     * @param bytes The number of bytes of the codestream.
+     */
+    public static void endFileFormatWrite(Object event, int width, int height, int comps,
+        long bytes)
+    {
+    }
+}
@@ -44,8 +44,10 @@
 package jj2000.j2k.util;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Vector;
 
 import jj2000.j2k.codestream.Markers;
@@ -54,7 +56,9 @@ import jj2000.j2k.io.BufferedRandomAccessFile;
 
 /**
  * This class takes a legal JPEG 2000 codestream and performs some
- * manipulation on it. Currently the manipulations supported are: Tile-parts
+ * manipulation on it. Currently the manipulations supported are: Tile-parts,
+ * packed packet headers, and TLM and PLT marker segments giving the length
+ * of the tile-parts and of the packets.
  */
 public class CodestreamManipulator
 {
@@ -81,6 +85,12 @@ public class CodestreamManipulator
      */
     private boolean tempEph;
 
+    /** Flag indicating whether TLM marker segments should be written */
+    private boolean tlm;
+
+    /** Flag indicating whether PLT marker segments should be written */
+    private boolean plt;
+
     /** The number of tiles in the image */
     private int nt;
 
@@ -93,6 +103,12 @@ public class CodestreamManipulator
     /** The length of a SOT plus a SOD marker */
     private static int TP_HEAD_LEN = 14;
 
+    /** The maximum number of tile-parts described by a TLM marker segment */
+    private static int MAX_TLM_ENTRIES = (65535 - 4) / 6;
+
+    /** The maximum length of the packet lengths in a PLT marker segment */
+    private static int MAX_PLT_DATA = 65535 - 3;
+
     /** The maximum number of a tile part index (TPsot) */
     private static int MAX_TPSOT = 16;
 
@@ -146,6 +162,42 @@ public class CodestreamManipulator
         boolean ppt, boolean tempSop,
         boolean tempEph)
     {
+        this(file, nt, pptp, ppm, ppt, tempSop, tempEph, false, false);
+    }
+
+
+    /**
+     * Instantiates a codestream manipulator which may also write TLM and PLT
+     * marker segments. The packets are found by their SOP and EPH markers,
+     * which must be used if any manipulation is requested.
+     *
+     * @param file The file of the original outfile
+     *
+     * @param nt The number of tiles in the image
+     *
+     * @param pptp Packets per tile-part. If zero, no division into tileparts
+     * is performed
+     *
+     * @param ppm Flag indicating that PPM marker is used
+     *
+     * @param ppt Flag indicating that PPT marker is used
+     *
+     * @param tempSop Flag indicating whether SOP merker should be removed
+     *
+     * @param tempEph Flag indicating whether EPH merker should be removed
+     *
+     * @param tlm Flag indicating that TLM marker segments should be written
+     * in the main header
+     *
+     * @param plt Flag indicating that PLT marker segments should be written
+     * in the tile-part headers
+     */
+    public CodestreamManipulator(File file, int nt, int pptp, boolean ppm,
+        boolean ppt, boolean tempSop,
+        boolean tempEph, boolean tlm, boolean plt)
+    {
+        this.tlm = tlm;
+        this.plt = plt;
         this.file = file;
         this.nt = nt;
         this.pptp = pptp;
@@ -158,7 +210,8 @@ public class CodestreamManipulator
 
     /**
      * This method performs the actual manipulation of the codestream which is
-     * the reparsing for tile parts and packed packet headers
+     * the reparsing for tile parts, packed packet headers and TLM and PLT
+     * marker segments
      *
      * @return The number of bytes that the file has increased by
      *
@@ -174,8 +227,9 @@ public class CodestreamManipulator
         packetData = new byte[nt][][];
         sopMarkSeg = new byte[nt][][];
 
-        // If neither packed packet header nor tile parts are used, return 0
-        if (ppmUsed == false && pptUsed == false && pptp == 0)
+        // If neither packed packet header, tile parts nor length markers are
+        // used, return 0
+        if (ppmUsed == false && pptUsed == false && pptp == 0 && !tlm && !plt)
             return 0;
 
         // Open file for reading and writing
@@ -396,6 +450,7 @@ public class CodestreamManipulator
     private void createTileParts() throws IOException
     {
         int i, prem, t, length;
+        int tpp;
         int pIndex, phIndex;
         int tppStart;
         int tilePart;
@@ -412,10 +467,9 @@ public class CodestreamManipulator
         for (t = 0; t < nt; t++) {
             // Calculate number of tile parts. If tileparts are not used,
             // put all packets in the first tilepart
-            if (pptp == 0)
-                pptp = ppt[t];
+            tpp = (pptp == 0) ? ppt[t] : pptp;
             prem = ppt[t];
-            numTileParts = (int)Math.ceil(((double)prem) / pptp);
+            numTileParts = (tpp == 0) ? 1 : (int)Math.ceil(((double)prem) / tpp);
             numPackets = packetHeaders[t].length;
             maxtp = (numTileParts > maxtp) ? numTileParts : maxtp;
             tileParts[t] = new byte[numTileParts][];
@@ -428,7 +482,7 @@ public class CodestreamManipulator
             for (tilePart = 0; tilePart < numTileParts; tilePart++) {
 
                 // Calculate number of packets in this tilepart
-                nomnp = (pptp > prem) ? prem : pptp;
+                nomnp = (tpp > prem) ? prem : tpp;
                 np = nomnp;
 
                 // Write tile part header
@@ -486,6 +540,23 @@ public class CodestreamManipulator
                 pIndex = p;
                 np = nomnp;
 
+                // Write PLT marker segments if PLT used, with the length of
+                // the packets in the tile-part data
+                if (plt) {
+                    int[] pktLen = new int[np];
+                    for (i = 0; i < np; i++) {
+                        p = tppStart + i;
+                        pktLen[i] = packetData[t][p].length;
+                        if (!tempSop) {
+                            pktLen[i] += Markers.SOP_LENGTH;
+                        }
+                        if (!(ppmUsed || pptUsed)) {
+                            pktLen[i] += packetHeaders[t][p].length;
+                        }
+                    }
+                    writePLT(temp, pktLen);
+                }
+
                 // Write SOD marker
                 temp.write(Markers.SOD >>> 8);
                 temp.write(Markers.SOD);
@@ -561,6 +632,28 @@ public class CodestreamManipulator
         // Write main header up to SOT marker
         fi.write(mainHeader, 0, mainHeader.length);
 
+        // If TLM used write the length of the tile parts, in the order in
+        // which they are written
+        if (tlm) {
+            int ntp = 0;
+            for (t = 0; t < numTiles; t++)
+                ntp += tileParts[t].length;
+            int[] tpTile = new int[ntp];
+            int[] tpLen = new int[ntp];
+            i = 0;
+            for (tp = 0; tp < maxtp; tp++)
+                for (t = 0; t < numTiles; t++) {
+                    if (tileParts[t].length > tp) {
+                        tpTile[i] = t;
+                        tpLen[i++] = tileParts[t][tp].length;
+                    }
+                }
+            ByteArrayOutputStream tlmMarkerSegments = new ByteArrayOutputStream();
+            writeTLM(tlmMarkerSegments, tpTile, tpLen);
+            temp = tlmMarkerSegments.toByteArray();
+            fi.write(temp, 0, temp.length);
+        }
+
         // If PPM used write all packet headers in PPM markers
         if (ppmUsed) {
             ByteArrayOutputStream ppmMarkerSegment = new ByteArrayOutputStream();
@@ -696,7 +789,7 @@ public class CodestreamManipulator
         // Write tile parts interleaved
         for (tp = 0; tp < maxtp; tp++)
             for (t = 0; t < nt; t++) {
-                if (tileParts[t].length >= tp) {
+                if (tileParts[t].length > tp) {
                     temp = tileParts[t][tp];
                     length = temp.length;
                     fi.write(temp, 0, length);
@@ -704,7 +797,89 @@ public class CodestreamManipulator
             }
         fi.writeShort(Markers.EOC);
     }
-}
 
 
+    /**
+     * Writes TLM marker segments giving the index and the length of
+     * tile-parts, in the order in which they appear in the codestream. The
+     * indexes are written on 16 bits and the lengths on 32 bits.
+     *
+     * @param out The stream to write the marker segments to
+     *
+     * @param tiles The tile index of each tile-part
+     *
+     * @param lengths The length of each tile-part, from its SOT marker to the
+     * end of its data (Psot)
+     *
+     * @exception java.io.IOException If an I/O error ocurred.
+     */
+    static void writeTLM(OutputStream out, int[] tiles, int[] lengths)
+        throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(out);
+        int z = 0;
+        for (int i = 0; i < tiles.length; z++) {
+            if (z > 255) {
+                throw new IllegalArgumentException("Too many tile-parts " +
+                    "for TLM marker segments");
+            }
+            int n = Math.min(tiles.length - i, MAX_TLM_ENTRIES);
+            dos.writeShort(Markers.TLM);
+            dos.writeShort(4 + 6 * n);
+            dos.write(z); // Ztlm
+            dos.write(0x60); // Stlm: 16 bits Ttlm, 32 bits Ptlm
+            for (int j = 0; j < n; j++, i++) {
+                dos.writeShort(tiles[i]);
+                dos.writeInt(lengths[i]);
+            }
+        }
+        dos.flush();
+    }
+
 
+    /**
+     * Writes the PLT marker segments giving the length of the packets of a
+     * tile-part. Each length is written on as many bytes as needed, 7 bits
+     * per byte with the most significant first, and the highest bit of each
+     * byte but the last one set.
+     *
+     * @param out The stream to write the marker segments to
+     *
+     * @param lengths The length of each packet of the tile-part
+     *
+     * @exception java.io.IOException If an I/O error ocurred.
+     */
+    static void writePLT(OutputStream out, int[] lengths) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(out);
+        ByteArrayOutputStream iplt = new ByteArrayOutputStream();
+        byte[] b = new byte[5];
+        int z = 0;
+        for (int j = 0; j <= lengths.length; j++) {
+            int n = 0;
+            if (j < lengths.length) {
+                n = 1;
+                while (n < 5 && lengths[j] >>> (7 * n) != 0) {
+                    n++;
+                }
+                for (int k = 0; k < n; k++) {
+                    b[k] = (byte)(lengths[j] >>> (7 * (n - 1 - k)) & 0x7f |
+                        (k < n - 1 ? 0x80 : 0));
+                }
+            }
+            if (n == 0 ? iplt.size() > 0 : iplt.size() + n > MAX_PLT_DATA) {
+                if (z > 255) {
+                    throw new IllegalArgumentException("Too many packets " +
+                        "for PLT marker segments");
+                }
+                dos.writeShort(Markers.PLT);
+                dos.writeShort(3 + iplt.size());
+                dos.write(z++); // Zplt
+                iplt.writeTo(dos);
+                iplt.reset();
+            }
+            iplt.write(b, 0, n);
+        }
+        dos.flush();
+    }
+}
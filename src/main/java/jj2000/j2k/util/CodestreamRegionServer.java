@@ -0,0 +1,536 @@
+/*
+ * Class:                   CodestreamRegionServer
+ *
+ * Description:             Location of the data-bins of a codestream
+ *                          needed for a region, resolution and quality.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import jj2000.j2k.codestream.CorruptedCodestreamException;
+import jj2000.j2k.codestream.Markers;
+import jj2000.j2k.codestream.reader.FileBitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.PktIndex;
+import jj2000.j2k.io.RandomAccessIO;
+
+/**
+ * This class serves the parts of a JPEG 2000 codestream needed to view a
+ * region of the image at a given resolution and quality, in the manner of a
+ * JPIP server (ISO/IEC 15444-9), without decoding the image. It can be
+ * embedded in any server, which receives the requests of its clients and
+ * sends them the data.
+ *
+ * <P>
+ * The parts of the codestream are returned as data-bins, each made of one
+ * or more byte ranges of the codestream: the main header, the header of
+ * each tile, and the packets of each precinct contributing to the region,
+ * up to the requested number of layers. As in JPIP, the main header
+ * data-bin starts with the SOC marker, and the tile header data-bins are
+ * made of the marker segments of the tile-part headers without their SOT
+ * marker segment and SOD marker, which may leave them empty. The precinct
+ * data-bins are identified as in JPIP, so that a client can cache them. Alternatively,
+ * the same data can be written as a legal codestream, in which the packets
+ * of the other precincts are empty (see CodestreamTranscoder.setRegion()).
+ *
+ * <P>
+ * The packets are located by parsing their heads with a
+ * FileBitstreamReaderAgent, tile by tile, and the geometry of the precincts
+ * is the one computed by the packet decoder. The methods are synchronized,
+ * so that an instance may be shared by the threads of a server.
+ * Codestreams with packed packet headers (PPM or PPT marker segments) are
+ * not supported.
+ */
+public class CodestreamRegionServer
+{
+
+    /** The class of the precinct data-bins */
+    public static final int PRECINCT = 0;
+
+    /** The class of the tile header data-bins */
+    public static final int TILE_HEADER = 2;
+
+    /** The class of the main header data-bin */
+    public static final int MAIN_HEADER = 6;
+
+    /** The length of a SOT marker segment */
+    private static final int SOT_LEN = 12;
+
+    /** The size of the buffer used to copy the data-bins */
+    private static final int BUF_SIZE = 1 << 16;
+
+    /** The input codestream */
+    private RandomAccessIO in;
+
+    /** The transcoder locating the packets of the input */
+    private CodestreamTranscoder tc;
+
+    /** The stream offset of the SOC marker */
+    private int start;
+
+    /** The length of the main header, from SOC to the first SOT marker */
+    private int mainLen;
+
+
+    /**
+     * Creates a server for the codestream which starts at the current
+     * position of the given stream, reading its headers.
+     *
+     * @param in The input stream.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted or not supported.
+     */
+    public CodestreamRegionServer(RandomAccessIO in) throws IOException
+    {
+        this.in = in;
+        start = in.getPos();
+        tc = new CodestreamTranscoder(in);
+
+        int savePos = in.getPos();
+        in.seek(start + 2);
+        while (in.readShort() != Markers.SOT) {
+            in.seek(in.getPos() + in.readUnsignedShort());
+        }
+        mainLen = in.getPos() - 2 - start;
+        in.seek(savePos);
+    }
+
+
+    /** Returns the number of tiles of the codestream, horizontally. */
+    public int getNumTilesX()
+    {
+        return tc.getNumTilesX();
+    }
+
+
+    /** Returns the number of tiles of the codestream, vertically. */
+    public int getNumTilesY()
+    {
+        return tc.getNumTilesY();
+    }
+
+
+    /** Returns the number of components of the codestream. */
+    public int getNumComps()
+    {
+        return tc.getNumComps();
+    }
+
+
+    /**
+     * Returns the data-bins needed to decode a region of the image: the main
+     * header, the headers of the tiles which intersect the region, and the
+     * packets of their precincts which contribute to the region. The
+     * precinct data-bins are sorted by tile, resolution level, component
+     * and precinct.
+     *
+     * @param x The horizontal coordinate of the upper-left corner of the
+     * region, in the image at full resolution.
+     *
+     * @param y The vertical coordinate of the upper-left corner of the
+     * region.
+     *
+     * @param w The width of the region.
+     *
+     * @param h The height of the region.
+     *
+     * @param reduction The number of highest resolution levels which are not
+     * needed.
+     *
+     * @param layers The number of quality layers, or -1 for all.
+     *
+     * @param comps The indexes of the components, in increasing order, or
+     * null for all.
+     *
+     * @return The data-bins.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted.
+     */
+    public synchronized DataBin[] getDataBins(int x, int y, int w, int h,
+        int reduction, int layers, int[] comps) throws IOException
+    {
+        int[] tiles = setView(x, y, w, h, reduction, layers, comps);
+        FileBitstreamReaderAgent breader = tc.getReader();
+        PktIndex pktIndex = tc.getPktIndex();
+        int ntX = tc.getNumTilesX();
+        int nt = ntX * tc.getNumTilesY();
+        int nc = tc.getNumComps();
+
+        ArrayList<DataBin> bins = new ArrayList<DataBin>();
+        DataBin main = new DataBin(MAIN_HEADER, 0, -1, -1, -1, -1);
+        main.add(start, mainLen);
+        bins.add(main);
+
+        int savePos = in.getPos();
+        for (int ty = tiles[1]; ty < tiles[3]; ty++) {
+            for (int tx = tiles[0]; tx < tiles[2]; tx++) {
+                int t = ty * ntX + tx;
+                DataBin head = new DataBin(TILE_HEADER, t, t, -1, -1, -1);
+                int[] tpOff = tc.getTilePartOffsets(t);
+                for (int tp = 0; tp < tpOff.length; tp++) {
+                    int len = tilePartHeaderLength(tpOff[tp]);
+                    if (len > 0) {
+                        head.add(tpOff[tp] + SOT_LEN, len);
+                    }
+                }
+                bins.add(head);
+
+                int[] pkts = tc.readPackets(tx, ty);
+                HashMap<Long, DataBin> precs = new HashMap<Long, DataBin>();
+                for (int j = 0; j < pkts.length; j++) {
+                    int i = pkts[j];
+                    if (!tc.isInRegion(t, i)) {
+                        continue;
+                    }
+                    int c = pktIndex.getComp(i);
+                    int r = pktIndex.getResLvl(i);
+                    int p = pktIndex.getPrecinct(i);
+                    // In-class identifier of JPIP, from the sequence number
+                    // of the precinct in the tile-component
+                    long s = p;
+                    for (int rr = 0; rr < r; rr++) {
+                        s += breader.getNumPrecinct(c, rr);
+                    }
+                    Long id = Long.valueOf(t + (c + s * nc) * nt);
+                    DataBin bin = precs.get(id);
+                    if (bin == null) {
+                        bin = new DataBin(PRECINCT, id.longValue(), t, c, r, p);
+                        precs.put(id, bin);
+                    }
+                    bin.add(pktIndex.getOffset(i), pktIndex.getLength(i));
+                    bin.layers++;
+                }
+                DataBin[] sorted = precs.values().toArray(new DataBin[precs.size()]);
+                Arrays.sort(sorted, new Comparator<DataBin>() {
+                    @Override
+                    public int compare(DataBin a, DataBin b)
+                    {
+                        if (a.resLvl != b.resLvl) {
+                            return a.resLvl < b.resLvl ? -1 : 1;
+                        }
+                        if (a.comp != b.comp) {
+                            return a.comp < b.comp ? -1 : 1;
+                        }
+                        return a.precinct < b.precinct ? -1 :
+                            (a.precinct == b.precinct ? 0 : 1);
+                    }
+                });
+                bins.addAll(Arrays.asList(sorted));
+            }
+        }
+        in.seek(savePos);
+        return bins.toArray(new DataBin[bins.size()]);
+    }
+
+
+    /**
+     * Writes the bytes of a data-bin, its ranges one after the other.
+     *
+     * @param bin The data-bin, as returned by getDataBins().
+     *
+     * @param out The stream where to write the data-bin.
+     *
+     * @return The number of bytes written.
+     *
+     * @exception IOException If an I/O error occurs.
+     */
+    public synchronized long writeDataBin(DataBin bin, OutputStream out)
+        throws IOException
+    {
+        int savePos = in.getPos();
+        byte[] buf = new byte[BUF_SIZE];
+        for (int k = 0; k < bin.n; k++) {
+            in.seek(bin.off[k]);
+            for (int len = bin.len[k]; len > 0;) {
+                int n = Math.min(len, buf.length);
+                in.readFully(buf, 0, n);
+                out.write(buf, 0, n);
+                len -= n;
+            }
+        }
+        in.seek(savePos);
+        return bin.getLength();
+    }
+
+
+    /**
+     * Writes a legal codestream with the data needed to decode a region of
+     * the image. It is made of the tiles which intersect the region, with
+     * the requested resolution levels, layers and components, and the
+     * packets of the precincts which do not contribute to the region are
+     * empty. It decodes to the same samples as the input inside the region.
+     *
+     * @param x The horizontal coordinate of the upper-left corner of the
+     * region, in the image at full resolution.
+     *
+     * @param y The vertical coordinate of the upper-left corner of the
+     * region.
+     *
+     * @param w The width of the region.
+     *
+     * @param h The height of the region.
+     *
+     * @param reduction The number of highest resolution levels to drop.
+     *
+     * @param layers The number of quality layers, or -1 for all.
+     *
+     * @param comps The indexes of the components, in increasing order, or
+     * null for all.
+     *
+     * @param out The stream where to write the codestream.
+     *
+     * @return The number of bytes written.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted.
+     *
+     * @see CodestreamTranscoder
+     */
+    public synchronized long writeCodestream(int x, int y, int w, int h,
+        int reduction, int layers, int[] comps, OutputStream out)
+        throws IOException
+    {
+        int[] tiles = setView(x, y, w, h, reduction, layers, comps);
+        tc.setTiles(tiles[0], tiles[1], tiles[2], tiles[3]);
+        return tc.transcode(out);
+    }
+
+
+    /**
+     * Sets the view of the transcoder.
+     *
+     * @return The range of tiles which intersect the region.
+     */
+    private int[] setView(int x, int y, int w, int h, int reduction,
+        int layers, int[] comps)
+    {
+        tc.setRegion(x, y, w, h);
+        tc.setResolutionReduction(reduction);
+        tc.setLayers(layers);
+        tc.setComponents(comps);
+        tc.initComps();
+        return tc.getRegionTiles();
+    }
+
+
+    /**
+     * Returns the length of the marker segments of a tile-part header,
+     * between the SOT marker segment and the SOD marker.
+     *
+     * @param off The stream offset of the tile-part.
+     */
+    private int tilePartHeaderLength(int off) throws IOException
+    {
+        in.seek(off + SOT_LEN);
+        short marker;
+        while ((marker = in.readShort()) != Markers.SOD) {
+            if ((marker & 0xFF00) != 0xFF00) {
+                throw new CorruptedCodestreamException("Marker expected " +
+                    "in tile-part header");
+            }
+            in.seek(in.getPos() + in.readUnsignedShort());
+        }
+        return in.getPos() - 2 - off - SOT_LEN;
+    }
+
+
+    /**
+     * A data-bin: a part of the codestream made of one or more byte ranges,
+     * as returned by CodestreamRegionServer.getDataBins().
+     */
+    public static class DataBin
+    {
+
+        /** The class of the data-bin */
+        private int cls;
+
+        /** The identifier of the data-bin in its class */
+        private long id;
+
+        /** The tile, component, resolution level and precinct indexes */
+        private int tile, comp, resLvl, precinct;
+
+        /** The number of layers of a precinct data-bin */
+        private int layers;
+
+        /** The offsets and lengths of the byte ranges */
+        private int[] off = new int[4], len = new int[4];
+
+        /** The number of byte ranges */
+        private int n;
+
+
+        /** Creates an empty data-bin. */
+        DataBin(int cls, long id, int tile, int comp, int resLvl,
+            int precinct)
+        {
+            this.cls = cls;
+            this.id = id;
+            this.tile = tile;
+            this.comp = comp;
+            this.resLvl = resLvl;
+            this.precinct = precinct;
+        }
+
+
+        /**
+         * Adds a byte range at the end of the data-bin, merging it with the
+         * previous one if they are contiguous.
+         */
+        void add(int off, int len)
+        {
+            if (n > 0 && this.off[n - 1] + this.len[n - 1] == off) {
+                this.len[n - 1] += len;
+                return;
+            }
+            if (n == this.off.length) {
+                this.off = Arrays.copyOf(this.off, 2 * n);
+                this.len = Arrays.copyOf(this.len, 2 * n);
+            }
+            this.off[n] = off;
+            this.len[n++] = len;
+        }
+
+
+        /**
+         * Returns the class of the data-bin: PRECINCT, TILE_HEADER or
+         * MAIN_HEADER.
+         */
+        public int getBinClass()
+        {
+            return cls;
+        }
+
+
+        /**
+         * Returns the identifier of the data-bin in its class. For the
+         * precinct data-bins, it is t+(c+s*C)*T where t is the tile index,
+         * c the component index, s the sequence number of the precinct in
+         * the tile-component, over all resolution levels, C the number of
+         * components and T the number of tiles. For the tile header
+         * data-bins it is the tile index, and 0 for the main header.
+         */
+        public long getId()
+        {
+            return id;
+        }
+
+
+        /** Returns the tile index, or -1 for the main header. */
+        public int getTile()
+        {
+            return tile;
+        }
+
+
+        /** Returns the component index of a precinct data-bin, or -1. */
+        public int getComp()
+        {
+            return comp;
+        }
+
+
+        /** Returns the resolution level of a precinct data-bin, or -1. */
+        public int getResLvl()
+        {
+            return resLvl;
+        }
+
+
+        /**
+         * Returns the index of the precinct in its resolution level, for a
+         * precinct data-bin, or -1.
+         */
+        public int getPrecinct()
+        {
+            return precinct;
+        }
+
+
+        /**
+         * Returns the number of layers, i.e. of packets, of a precinct
+         * data-bin, or 0.
+         */
+        public int getNumLayers()
+        {
+            return layers;
+        }
+
+
+        /** Returns the number of byte ranges of the data-bin. */
+        public int getNumRanges()
+        {
+            return n;
+        }
+
+
+        /** Returns the stream offset of the k-th byte range. */
+        public int getOffset(int k)
+        {
+            if (k >= n) {
+                throw new IndexOutOfBoundsException("" + k);
+            }
+            return off[k];
+        }
+
+
+        /** Returns the length of the k-th byte range. */
+        public int getLength(int k)
+        {
+            if (k >= n) {
+                throw new IndexOutOfBoundsException("" + k);
+            }
+            return len[k];
+        }
+
+
+        /** Returns the total length of the data-bin. */
+        public long getLength()
+        {
+            long l = 0;
+            for (int k = 0; k < n; k++) {
+                l += len[k];
+            }
+            return l;
+        }
+    }
+}
@@ -0,0 +1,1235 @@
+/*
+ * Class:                   CodestreamTranscoder
+ *
+ * Description:             Extraction of layers, resolution levels, tiles
+ *                          and components from a codestream.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
+
+import jj2000.j2k.codestream.CorruptedCodestreamException;
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.Markers;
+import jj2000.j2k.codestream.PrecInfo;
+import jj2000.j2k.codestream.ProgressionType;
+import jj2000.j2k.codestream.reader.FileBitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.codestream.reader.PktIndex;
+import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.io.RandomAccessIO;
+import jj2000.j2k.wavelet.synthesis.SynWTFilter;
+
+/**
+ * This class extracts a part of a legal JPEG 2000 codestream into a new
+ * legal codestream, without decoding it: the first quality layers, the
+ * lowest resolution levels, a rectangular range of tiles and a subset of the
+ * components. It can also change the progression order, by reordering the
+ * packets of each tile. The packets are located by parsing their heads with
+ * a FileBitstreamReaderAgent, and the selected ones are copied unchanged, so
+ * that the transcoding runs at the speed of the input and output.
+ *
+ * <P>
+ * The main and tile-part headers are rewritten for the extracted image: the
+ * image and tile sizes and offsets and the components in SIZ, the number of
+ * layers and of decomposition levels and the precinct sizes in COD and COC,
+ * the step sizes in QCD and QCC, the component indexes in COC, QCC, RGN,
+ * POC and CRG, the tile indexes and lengths in SOT and the sequence numbers
+ * of the SOP marker segments. Each tile is written as a single tile-part.
+ * The PLM and PLT marker segments of the input are dropped. TLM marker
+ * segments are written if the input has any or if requested (see
+ * setTLM()), and PLT marker segments if requested (see setPLT()).
+ *
+ * <P>
+ * A region of interest may also be set (see setRegion()), in which case the
+ * packets of the precincts which do not contribute to the region are
+ * written as empty packets. The extracted codestream then decodes to the
+ * same samples as the input inside the region only.
+ *
+ * <P>
+ * Codestreams with packed packet headers (PPM or PPT marker segments) are
+ * not supported. When more than one tile is extracted in a direction,
+ * dropping resolution levels requires the nominal tile size in that
+ * direction to be a multiple of the subsampling factor, since the tiles of
+ * the extracted image must contain the same samples as the original ones.
+ */
+public class CodestreamTranscoder
+{
+
+    /** The length of a SOT marker segment */
+    private static final int SOT_LEN = 12;
+
+    /** The size of the buffer used to copy the packets */
+    private static final int BUF_SIZE = 1 << 16;
+
+    /** The input codestream */
+    private RandomAccessIO in;
+
+    /** The decoder specifications of the input */
+    private DecoderSpecs decSpec;
+
+    /** The reader locating the packets of the input */
+    private FileBitstreamReaderAgent breader;
+
+    /** The packets of the tile last read by 'breader' */
+    private PktIndex pktIndex = new PktIndex();
+
+    /** The marker segments of the main header, between SOC and SOT */
+    private ArrayList<byte[]> mainSegs = new ArrayList<byte[]>();
+
+    /** The stream offsets of the tile-parts of each tile */
+    private int[][] tpOff;
+
+    /** The number of tile-parts of each tile */
+    private int[] ntp;
+
+    /** The capabilities of the codestream (Rsiz) */
+    private int rsiz;
+
+    /** The image and tile sizes and offsets, from SIZ */
+    private long xsiz, ysiz, xosiz, yosiz, xtsiz, ytsiz, xtosiz, ytosiz;
+
+    /** The number of components */
+    private int nc;
+
+    /** The depth and subsampling factors of each component, from SIZ */
+    private byte[] compSiz;
+
+    /** The number of tiles in each direction */
+    private int ntX, ntY;
+
+    /** The number of layers to keep, or -1 to keep all */
+    private int layers = -1;
+
+    /** The number of resolution levels to drop */
+    private int reduction;
+
+    /** The range of tiles to keep (the ends are exclusive) */
+    private int tx0, ty0, tx1, ty1;
+
+    /** The components to keep, or null to keep all */
+    private int[] comps;
+
+    /** The progression type of the output, or -1 to keep the input order */
+    private int progression = -1;
+
+    /** The region to keep, in image coordinates, or null to keep all */
+    private long[] region;
+
+    /** Whether or not to write TLM marker segments */
+    private boolean tlm;
+
+    /** Whether or not to write PLT marker segments */
+    private boolean plt;
+
+    /** The index of each component in the output, or -1 if dropped */
+    private int[] cmap;
+
+    /** The number of kept components whose index is less than each index */
+    private int[] nBelow;
+
+    /** The number of components in the output */
+    private int ncOut;
+
+
+    /**
+     * Creates a transcoder for the codestream which starts at the current
+     * position of the given stream, reading its headers.
+     *
+     * @param in The input stream.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted or not supported.
+     */
+    public CodestreamTranscoder(RandomAccessIO in) throws IOException
+    {
+        this.in = in;
+        int start = in.getPos();
+        J2KImageReadParamJava param = new J2KImageReadParamJava();
+        HeaderInfo hi = new HeaderInfo();
+        HeaderDecoder hd = new HeaderDecoder(in, param, hi);
+        decSpec = hd.getDecoderSpecs();
+        breader = new FileBitstreamReaderAgent(hd, in, decSpec, param, false, hi);
+        breader.setPktIndex(pktIndex);
+
+        int savePos = in.getPos();
+        in.seek(start);
+        if (in.readShort() != Markers.SOC) {
+            throw new CorruptedCodestreamException("SOC marker not found");
+        }
+        short marker;
+        while ((marker = in.readShort()) != Markers.SOT) {
+            byte[] seg = readSegment(marker);
+            if (marker == Markers.SIZ) {
+                readSIZ(seg);
+            }
+            else if (marker == Markers.PPM) {
+                throw new IOException("Codestreams with packed packet " +
+                    "headers cannot be transcoded");
+            }
+            else if (marker == Markers.TLM) {
+                tlm = true;
+            }
+            mainSegs.add(seg);
+        }
+        readTileParts(in.getPos() - 2);
+        in.seek(savePos);
+
+        tx1 = ntX;
+        ty1 = ntY;
+    }
+
+
+    /** Reads the image, tile and component sizes from a SIZ segment. */
+    private void readSIZ(byte[] seg)
+    {
+        rsiz = u16(seg, 4);
+        xsiz = u32(seg, 6);
+        ysiz = u32(seg, 10);
+        xosiz = u32(seg, 14);
+        yosiz = u32(seg, 18);
+        xtsiz = u32(seg, 22);
+        ytsiz = u32(seg, 26);
+        xtosiz = u32(seg, 30);
+        ytosiz = u32(seg, 34);
+        nc = u16(seg, 38);
+        compSiz = Arrays.copyOfRange(seg, 40, 40 + 3 * nc);
+        ntX = (int)((xsiz - xtosiz + xtsiz - 1) / xtsiz);
+        ntY = (int)((ysiz - ytosiz + ytsiz - 1) / ytsiz);
+    }
+
+
+    /**
+     * Finds the tile-parts of all the tiles, by following the lengths in
+     * their SOT marker segments.
+     *
+     * @param pos The stream offset of the first SOT marker.
+     */
+    private void readTileParts(int pos) throws IOException
+    {
+        int nt = ntX * ntY;
+        tpOff = new int[nt][1];
+        ntp = new int[nt];
+        int len = in.length();
+        while (pos + SOT_LEN <= len) {
+            in.seek(pos);
+            if (in.readShort() != Markers.SOT) {
+                break;
+            }
+            in.readUnsignedShort();
+            int t = in.readUnsignedShort();
+            long psot = in.readInt() & 0xFFFFFFFFL;
+            if (t >= nt) {
+                throw new CorruptedCodestreamException("Tile index out of " +
+                    "range in SOT marker: " + t);
+            }
+            if (ntp[t] == tpOff[t].length) {
+                tpOff[t] = Arrays.copyOf(tpOff[t], 2 * ntp[t]);
+            }
+            tpOff[t][ntp[t]++] = pos;
+            if (psot == 0) {
+                break;
+            }
+            pos += psot;
+        }
+    }
+
+
+    /** Returns the number of tiles of the input, horizontally. */
+    public int getNumTilesX()
+    {
+        return ntX;
+    }
+
+
+    /** Returns the number of tiles of the input, vertically. */
+    public int getNumTilesY()
+    {
+        return ntY;
+    }
+
+
+    /** Returns the number of components of the input. */
+    public int getNumComps()
+    {
+        return nc;
+    }
+
+
+    /**
+     * Sets the number of quality layers to keep. By default all the layers
+     * are kept.
+     *
+     * @param layers The number of layers, or -1 to keep all.
+     */
+    public void setLayers(int layers)
+    {
+        if (layers == 0 || layers < -1) {
+            throw new IllegalArgumentException("Invalid number of layers: " +
+                layers);
+        }
+        this.layers = layers;
+    }
+
+
+    /**
+     * Sets the number of resolution levels to drop, which divides the size
+     * of the image by 2^reduction. By default no resolution level is
+     * dropped.
+     *
+     * @param reduction The number of highest resolution levels to drop. It
+     * may not exceed the number of decomposition levels of any of the kept
+     * tile-components.
+     */
+    public void setResolutionReduction(int reduction)
+    {
+        if (reduction < 0) {
+            throw new IllegalArgumentException("Invalid resolution " +
+                "reduction: " + reduction);
+        }
+        this.reduction = reduction;
+    }
+
+
+    /**
+     * Sets the range of tiles to keep. By default all the tiles are kept.
+     *
+     * @param x0 The horizontal index of the first tile.
+     *
+     * @param y0 The vertical index of the first tile.
+     *
+     * @param x1 The horizontal index of the tile after the last one.
+     *
+     * @param y1 The vertical index of the tile after the last one.
+     */
+    public void setTiles(int x0, int y0, int x1, int y1)
+    {
+        if (x0 < 0 || y0 < 0 || x1 > ntX || y1 > ntY || x0 >= x1 || y0 >= y1) {
+            throw new IllegalArgumentException("Invalid tile range");
+        }
+        tx0 = x0;
+        ty0 = y0;
+        tx1 = x1;
+        ty1 = y1;
+    }
+
+
+    /**
+     * Sets the components to keep. By default all the components are kept.
+     * If a component transformation is used, the first 3 components must
+     * be kept.
+     *
+     * @param comps The indexes of the components, in increasing order, or
+     * null to keep all.
+     */
+    public void setComponents(int[] comps)
+    {
+        if (comps != null) {
+            if (comps.length == 0) {
+                throw new IllegalArgumentException("No component");
+            }
+            for (int i = 0; i < comps.length; i++) {
+                if (comps[i] < 0 || comps[i] >= nc ||
+                    i > 0 && comps[i] <= comps[i - 1]) {
+                    throw new IllegalArgumentException("Invalid component " +
+                        "indexes");
+                }
+            }
+            comps = comps.clone();
+        }
+        this.comps = comps;
+    }
+
+
+    /**
+     * Sets the region of the image to keep. The packets of the precincts
+     * which do not contribute to any sample of the region are replaced by
+     * empty packets. The coordinates are those of the image at full
+     * resolution, i.e. on the reference grid relative to the image offset.
+     * The tiles are not changed by the region, see setTiles(). By default
+     * the whole image is kept.
+     *
+     * @param x The horizontal coordinate of the upper-left corner.
+     *
+     * @param y The vertical coordinate of the upper-left corner.
+     *
+     * @param w The width of the region.
+     *
+     * @param h The height of the region.
+     */
+    public void setRegion(int x, int y, int w, int h)
+    {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0) {
+            throw new IllegalArgumentException("Invalid region");
+        }
+        region = new long[] { xosiz + x, yosiz + y, xosiz + x + (long)w,
+            yosiz + y + (long)h };
+    }
+
+
+    /**
+     * Sets the progression order of the output. The packets of each tile are
+     * reordered accordingly, and the progression order changes (POC marker
+     * segments) of the input are dropped. By default the packets are kept in
+     * the order of the input.
+     *
+     * @param type The progression type, as defined in ProgressionType, or
+     * -1 to keep the order of the input.
+     */
+    public void setProgressionType(int type)
+    {
+        if (type < -1 || type > ProgressionType.COMP_POS_RES_LY_PROG) {
+            throw new IllegalArgumentException("Invalid progression type: " +
+                type);
+        }
+        progression = type;
+    }
+
+
+    /**
+     * Sets whether or not PLT marker segments, which give the length of each
+     * packet, are written in the tile-part headers of the output. By
+     * default they are not.
+     *
+     * @param plt True to write PLT marker segments.
+     */
+    public void setPLT(boolean plt)
+    {
+        this.plt = plt;
+    }
+
+
+    /**
+     * Sets whether or not TLM marker segments are written in the main header
+     * of the output. By default they are written if the input has any.
+     *
+     * @param tlm True to write TLM marker segments.
+     */
+    public void setTLM(boolean tlm)
+    {
+        this.tlm = tlm;
+    }
+
+
+    /**
+     * Writes the extracted codestream, from SOC to EOC.
+     *
+     * @param out The stream where to write the codestream.
+     *
+     * @return The number of bytes written.
+     *
+     * @exception IOException If an I/O error occurs, or if the codestream is
+     * corrupted or not supported.
+     *
+     * @exception IllegalArgumentException If the codestream does not allow
+     * the extraction.
+     */
+    public long transcode(OutputStream out) throws IOException
+    {
+        initComps();
+
+        // Reads the headers and locates the packets of the kept tiles,
+        // before writing anything
+        int nx = tx1 - tx0;
+        int nt = nx * (ty1 - ty0);
+        byte[][] tileHead = new byte[nt][];
+        int[][] pktOff = new int[nt][];
+        int[][] pktLen = new int[nt][];
+        boolean[] sop = new boolean[nt];
+        boolean[] eph = new boolean[nt];
+        long[] tileLen = new long[nt];
+        for (int y = ty0; y < ty1; y++) {
+            for (int x = tx0; x < tx1; x++) {
+                int t = y * ntX + x;
+                int to = (y - ty0) * nx + x - tx0;
+                int[] pkts = readPackets(x, y);
+                sop[to] = ((Boolean)decSpec.sops.getTileDef(t)).booleanValue();
+                eph[to] = ((Boolean)decSpec.ephs.getTileDef(t)).booleanValue();
+                pktOff[to] = new int[pkts.length];
+                pktLen[to] = new int[pkts.length];
+                long len = 0;
+                for (int j = 0; j < pkts.length; j++) {
+                    if (isInRegion(t, pkts[j])) {
+                        pktOff[to][j] = pktIndex.getOffset(pkts[j]);
+                        pktLen[to][j] = pktIndex.getLength(pkts[j]);
+                    }
+                    else {
+                        // Empty packet
+                        pktOff[to][j] = -1;
+                        pktLen[to][j] = (sop[to] ? Markers.SOP_LENGTH : 0) + 1 +
+                            (eph[to] ? Markers.EPH_LENGTH : 0);
+                    }
+                    len += pktLen[to][j];
+                }
+                tileHead[to] = rewriteTileHeader(t, to, pktLen[to], len);
+                tileLen[to] = tileHead[to].length + len;
+            }
+        }
+        byte[] mainHead = rewriteMainHeader(tileLen);
+
+        // Writes the codestream
+        int savePos = in.getPos();
+        byte[] buf = new byte[BUF_SIZE];
+        out.write(mainHead);
+        long written = mainHead.length;
+        for (int to = 0; to < nt; to++) {
+            out.write(tileHead[to]);
+            for (int j = 0; j < pktOff[to].length; j++) {
+                if (pktOff[to][j] < 0) {
+                    writeEmptyPacket(out, j, sop[to], eph[to]);
+                }
+                else {
+                    copyPacket(out, pktOff[to][j], pktLen[to][j], j, buf);
+                }
+            }
+            written += tileLen[to];
+        }
+        out.write(Markers.EOC >> 8);
+        out.write(Markers.EOC);
+        in.seek(savePos);
+        return written + 2;
+    }
+
+
+    /**
+     * Computes the index of each component in the output from the
+     * components to keep.
+     */
+    void initComps()
+    {
+        cmap = new int[nc];
+        nBelow = new int[nc + 1];
+        if (comps == null) {
+            for (int c = 0; c < nc; c++) {
+                cmap[c] = c;
+            }
+            ncOut = nc;
+        }
+        else {
+            Arrays.fill(cmap, -1);
+            for (int i = 0; i < comps.length; i++) {
+                cmap[comps[i]] = i;
+            }
+            ncOut = comps.length;
+        }
+        for (int c = 0; c < nc; c++) {
+            nBelow[c + 1] = nBelow[c] + (cmap[c] < 0 ? 0 : 1);
+        }
+    }
+
+
+    /**
+     * Reads the packets of a tile into the packet index, and checks that the
+     * tile allows the extraction.
+     *
+     * @return The indexes in the packet index of the packets to keep, in the
+     * order of the output.
+     */
+    int[] readPackets(int x, int y)
+    {
+        int t = y * ntX + x;
+        breader.setTile(x, y);
+        for (int c = 0; c < nc; c++) {
+            if (cmap[c] >= 0 && decompLevels(t, c) < reduction) {
+                throw new IllegalArgumentException("Tile " + t + " has " +
+                    "less than " + reduction + " decomposition levels");
+            }
+        }
+        int n = 0;
+        int[] pkts = new int[pktIndex.getNumPackets()];
+        for (int i = 0; i < pkts.length; i++) {
+            if (isKept(t, i)) {
+                pkts[n++] = i;
+            }
+        }
+        pkts = Arrays.copyOf(pkts, n);
+        if (progression >= 0) {
+            sortPackets(pkts);
+        }
+        return pkts;
+    }
+
+
+    /**
+     * Sorts packets of the current tile in the order of the output
+     * progression. Each packet is given a key made of its layer, resolution
+     * level, component and precinct, the precinct being identified by the
+     * position of its upper-left corner on the reference grid (vertical
+     * first) for the progressions on positions.
+     *
+     * @param pkts The indexes of the packets in the packet index.
+     */
+    private void sortPackets(int[] pkts)
+    {
+        final int[][] key = new int[pkts.length][];
+        Integer[] order = new Integer[pkts.length];
+        for (int j = 0; j < pkts.length; j++) {
+            int i = pkts[j];
+            int l = pktIndex.getLayer(i);
+            int r = pktIndex.getResLvl(i);
+            int c = pktIndex.getComp(i);
+            int p = pktIndex.getPrecinct(i);
+            PrecInfo prec = breader.getPrecInfo(c, r, p);
+            switch (progression) {
+            case ProgressionType.LY_RES_COMP_POS_PROG:
+                key[j] = new int[] { l, r, c, p };
+                break;
+            case ProgressionType.RES_LY_COMP_POS_PROG:
+                key[j] = new int[] { r, l, c, p };
+                break;
+            case ProgressionType.RES_POS_COMP_LY_PROG:
+                key[j] = new int[] { r, prec.rguly, prec.rgulx, c, l };
+                break;
+            case ProgressionType.POS_COMP_RES_LY_PROG:
+                key[j] = new int[] { prec.rguly, prec.rgulx, c, r, l };
+                break;
+            default:
+                key[j] = new int[] { c, prec.rguly, prec.rgulx, r, l };
+                break;
+            }
+            order[j] = Integer.valueOf(j);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int[] ka = key[a.intValue()];
+                int[] kb = key[b.intValue()];
+                for (int k = 0; k < ka.length; k++) {
+                    if (ka[k] != kb[k]) {
+                        return ka[k] < kb[k] ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+        });
+        int[] tmp = pkts.clone();
+        for (int j = 0; j < pkts.length; j++) {
+            pkts[j] = tmp[order[j].intValue()];
+        }
+    }
+
+
+    /** Returns the number of decomposition levels of a tile-component. */
+    private int decompLevels(int t, int c)
+    {
+        return ((Integer)decSpec.dls.getTileCompVal(t, c)).intValue();
+    }
+
+
+    /** Returns whether or not the i-th packet of tile 't' is kept. */
+    private boolean isKept(int t, int i)
+    {
+        int c = pktIndex.getComp(i);
+        return cmap[c] >= 0 &&
+            (layers < 0 || pktIndex.getLayer(i) < layers) &&
+            pktIndex.getResLvl(i) <= decompLevels(t, c) - reduction;
+    }
+
+
+    /**
+     * Returns whether or not the i-th packet of tile 't' belongs to a
+     * precinct which contributes to the region to keep. The region is
+     * mapped to the resolution level of the precinct and extended on each
+     * side by the support of the synthesis filters (see filterMargin()).
+     */
+    boolean isInRegion(int t, int i)
+    {
+        if (region == null) {
+            return true;
+        }
+        int c = pktIndex.getComp(i);
+        int r = pktIndex.getResLvl(i);
+        PrecInfo prec = breader.getPrecInfo(c, r, pktIndex.getPrecinct(i));
+        int dl = decompLevels(t, c);
+        int ndl = dl - r;
+        int xr = compSiz[3 * c + 1] & 0xFF;
+        int yr = compSiz[3 * c + 2] & 0xFF;
+        int mx = filterMargin(decSpec.wfs.getHFilters(t, c), dl, r);
+        int my = filterMargin(decSpec.wfs.getVFilters(t, c), dl, r);
+        long x0 = ceilDiv(ceilDiv(region[0], xr), 1L << ndl) - mx;
+        long y0 = ceilDiv(ceilDiv(region[1], yr), 1L << ndl) - my;
+        long x1 = ceilDiv(ceilDiv(region[2], xr), 1L << ndl) + mx;
+        long y1 = ceilDiv(ceilDiv(region[3], yr), 1L << ndl) + my;
+        return prec.ulx < x1 && prec.ulx + prec.w > x0 &&
+            prec.uly < y1 && prec.uly + prec.h > y0;
+    }
+
+
+    /**
+     * Returns the number of samples by which a region, mapped to a
+     * resolution level, must be extended on each side to cover the
+     * precincts of that level which contribute to the region at full
+     * resolution.
+     *
+     * <P>
+     * A sample n of resolution level l+1 is synthesized from the samples
+     * of level l at the even positions 2j within the support L of the
+     * low-pass filter, and from the high-pass subband samples at the odd
+     * positions 2j+1 within the support H of the high-pass filter.
+     * Extending a region by m samples at level l+1 thus needs it extended
+     * by ceil((m+L)/2) samples at level l. From the full resolution down
+     * to level r, starting from 0, this converges to L. The subband
+     * samples of level r then need a further H samples, the precinct
+     * boundaries being at even positions. For the 9x7 filters (L=3, H=4)
+     * this is at most 7 samples, for the 5x3 ones (L=1, H=2) at most 3, at
+     * any number of decomposition levels. At level 0 only the low-pass
+     * samples are needed.
+     *
+     * @param filters The synthesis filters of the tile-component in one
+     * direction, by resolution level starting at 1, the last one being
+     * used for the higher levels.
+     *
+     * @param dl The number of decomposition levels of the tile-component.
+     *
+     * @param r The resolution level.
+     */
+    static int filterMargin(SynWTFilter[] filters, int dl, int r)
+    {
+        int m = 0;
+        for (int l = dl; l > r; l--) {
+            SynWTFilter f = filters[Math.min(l, filters.length) - 1];
+            m = (m + Math.max(f.getSynLowNegSupport(),
+                f.getSynLowPosSupport()) + 1) / 2;
+        }
+        if (r == 0) {
+            return m;
+        }
+        SynWTFilter f = filters[Math.min(r, filters.length) - 1];
+        return m + Math.max(f.getSynHighNegSupport(),
+            f.getSynHighPosSupport());
+    }
+
+
+    /**
+     * Returns the range of tiles which intersect the region to keep, or all
+     * the tiles if no region is set.
+     *
+     * @return The horizontal and vertical indexes of the first tile and of
+     * the tile after the last one.
+     */
+    int[] getRegionTiles()
+    {
+        if (region == null) {
+            return new int[] { 0, 0, ntX, ntY };
+        }
+        int x0 = (int)Math.max(0, (region[0] - xtosiz) / xtsiz);
+        int y0 = (int)Math.max(0, (region[1] - ytosiz) / ytsiz);
+        int x1 = (int)Math.min(ntX, ceilDiv(region[2] - xtosiz, xtsiz));
+        int y1 = (int)Math.min(ntY, ceilDiv(region[3] - ytosiz, ytsiz));
+        if (x0 >= x1 || y0 >= y1) {
+            throw new IllegalArgumentException("Region outside of the image");
+        }
+        return new int[] { x0, y0, x1, y1 };
+    }
+
+
+    /** Returns the packets of the tile last read by readPackets(). */
+    PktIndex getPktIndex()
+    {
+        return pktIndex;
+    }
+
+
+    /** Returns the reader locating the packets of the input. */
+    FileBitstreamReaderAgent getReader()
+    {
+        return breader;
+    }
+
+
+    /** Returns the stream offsets of the tile-parts of a tile. */
+    int[] getTilePartOffsets(int t)
+    {
+        return Arrays.copyOf(tpOff[t], ntp[t]);
+    }
+
+
+    /**
+     * Writes an empty packet, with a SOP marker segment and an EPH marker
+     * if they are used.
+     *
+     * @param seq The sequence number of the packet in its tile.
+     */
+    private void writeEmptyPacket(OutputStream out, int seq, boolean sop,
+        boolean eph) throws IOException
+    {
+        if (sop) {
+            out.write(Markers.SOP >> 8);
+            out.write(Markers.SOP);
+            out.write(0);
+            out.write(4);
+            out.write(seq >> 8);
+            out.write(seq);
+        }
+        out.write(0);
+        if (eph) {
+            out.write(Markers.EPH >> 8);
+            out.write(Markers.EPH);
+        }
+    }
+
+
+    /**
+     * Copies a packet to the output, renumbering its SOP marker segment if
+     * it has one.
+     *
+     * @param seq The sequence number of the packet in its tile.
+     */
+    private void copyPacket(OutputStream out, int off, int len, int seq,
+        byte[] buf) throws IOException
+    {
+        in.seek(off);
+        boolean first = true;
+        while (len > 0) {
+            int k = Math.min(len, buf.length);
+            in.readFully(buf, 0, k);
+            if (first && k >= 6 && buf[0] == (byte)(Markers.SOP >> 8) &&
+                buf[1] == (byte)Markers.SOP) {
+                buf[4] = (byte)(seq >> 8);
+                buf[5] = (byte)seq;
+            }
+            out.write(buf, 0, k);
+            first = false;
+            len -= k;
+        }
+    }
+
+
+    /**
+     * Returns the main header of the output, from SOC to the last marker
+     * segment before the first SOT.
+     *
+     * @param tileLen The length of each tile of the output.
+     */
+    private byte[] rewriteMainHeader(long[] tileLen) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream hbuf = new DataOutputStream(bos);
+        hbuf.writeShort(Markers.SOC);
+        for (int i = 0; i < mainSegs.size(); i++) {
+            byte[] seg = rewriteSegment(mainSegs.get(i), -1);
+            if (seg != null) {
+                hbuf.write(seg);
+            }
+        }
+        if (tlm) {
+            int[] tiles = new int[tileLen.length];
+            int[] lengths = new int[tileLen.length];
+            for (int t = 0; t < tileLen.length; t++) {
+                tiles[t] = t;
+                lengths[t] = (int)tileLen[t];
+            }
+            CodestreamManipulator.writeTLM(hbuf, tiles, lengths);
+        }
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Returns the tile-part header of a tile of the output, from SOT to SOD,
+     * made of the marker segments of all the tile-parts of the input tile.
+     *
+     * @param t The index of the tile in the input.
+     *
+     * @param to The index of the tile in the output.
+     *
+     * @param pktLen The length of each packet of the tile.
+     *
+     * @param len The total length of the packets of the tile.
+     */
+    private byte[] rewriteTileHeader(int t, int to, int[] pktLen, long len)
+        throws IOException
+    {
+        int savePos = in.getPos();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream hbuf = new DataOutputStream(bos);
+        for (int tp = 0; tp < ntp[t]; tp++) {
+            in.seek(tpOff[t][tp] + SOT_LEN);
+            short marker;
+            while ((marker = in.readShort()) != Markers.SOD) {
+                if (marker == Markers.PPT) {
+                    throw new IOException("Codestreams with packed packet " +
+                        "headers cannot be transcoded");
+                }
+                byte[] seg = rewriteSegment(readSegment(marker), t);
+                if (seg != null) {
+                    hbuf.write(seg);
+                }
+            }
+        }
+        in.seek(savePos);
+        if (plt) {
+            CodestreamManipulator.writePLT(hbuf, pktLen);
+        }
+        byte[] segs = bos.toByteArray();
+
+        long psot = SOT_LEN + segs.length + 2 + len;
+        if (psot > 0xFFFFFFFFL) {
+            throw new IOException("Tile " + t + " is too large for one " +
+                "tile-part");
+        }
+        bos = new ByteArrayOutputStream(SOT_LEN + segs.length + 2);
+        hbuf = new DataOutputStream(bos);
+        hbuf.writeShort(Markers.SOT);
+        hbuf.writeShort(SOT_LEN - 2);
+        hbuf.writeShort(to);
+        hbuf.writeInt((int)psot);
+        hbuf.write(0);
+        hbuf.write(1);
+        hbuf.write(segs);
+        hbuf.writeShort(Markers.SOD);
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Rewrites a marker segment of a main or tile-part header for the
+     * output.
+     *
+     * @param seg The marker segment of the input, including its marker.
+     *
+     * @param t The index of the tile, or -1 for the main header.
+     *
+     * @return The marker segment of the output, or null if it is dropped.
+     */
+    private byte[] rewriteSegment(byte[] seg, int t) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(seg.length);
+        DataOutputStream par = new DataOutputStream(bos);
+        short marker = (short)u16(seg, 0);
+        int i = 4;
+        switch (marker) {
+        case Markers.SIZ:
+            writeSIZ(par);
+            break;
+        case Markers.COD:
+            if (seg[8] != 0 && nc >= 3 &&
+                (cmap[0] != 0 || cmap[1] != 1 || cmap[2] != 2)) {
+                throw new IllegalArgumentException("The component " +
+                    "transformation requires the first 3 components");
+            }
+            par.write(seg[i]);
+            par.write(progression < 0 ? seg[i + 1] : progression);
+            par.writeShort(layers < 0 ? u16(seg, i + 2) :
+                Math.min(layers, u16(seg, i + 2)));
+            par.write(seg[i + 4]);
+            writeSPcox(par, seg, i + 5, seg[i] & 0xFF);
+            break;
+        case Markers.COC:
+            if (!writeComp(par, seg, i)) {
+                return null;
+            }
+            i += nc < 257 ? 1 : 2;
+            par.write(seg[i]);
+            writeSPcox(par, seg, i + 1, seg[i] & 0xFF);
+            break;
+        case Markers.QCC:
+            if (!writeComp(par, seg, i)) {
+                return null;
+            }
+            i += nc < 257 ? 1 : 2;
+            // fall through
+        case Markers.QCD:
+            writeSqcx(par, seg, i);
+            break;
+        case Markers.RGN:
+            if (!writeComp(par, seg, i)) {
+                return null;
+            }
+            i += nc < 257 ? 1 : 2;
+            par.write(seg, i, seg.length - i);
+            break;
+        case Markers.POC:
+            if (progression >= 0) {
+                return null;
+            }
+            writePOC(par, seg);
+            if (bos.size() == 0) {
+                return null;
+            }
+            break;
+        case Markers.CRG:
+            for (int c = 0; c < nc; c++) {
+                if (cmap[c] >= 0) {
+                    par.write(seg, i + 4 * c, 4);
+                }
+            }
+            break;
+        case Markers.TLM:
+        case Markers.PLM:
+        case Markers.PLT:
+            return null;
+        default:
+            return seg;
+        }
+        byte[] p = bos.toByteArray();
+        byte[] out = new byte[p.length + 4];
+        out[0] = seg[0];
+        out[1] = seg[1];
+        out[2] = (byte)((p.length + 2) >> 8);
+        out[3] = (byte)(p.length + 2);
+        System.arraycopy(p, 0, out, 4, p.length);
+        return out;
+    }
+
+
+    /** Writes the parameters of the SIZ marker segment of the output. */
+    private void writeSIZ(DataOutputStream par) throws IOException
+    {
+        // Keeps the tiles of the range, whose boundaries on the reduced
+        // reference grid are the reduced boundaries of the input tiles
+        long x0 = Math.max(xosiz, xtosiz + tx0 * xtsiz);
+        long y0 = Math.max(yosiz, ytosiz + ty0 * ytsiz);
+        long x1 = Math.min(xsiz, xtosiz + tx1 * xtsiz);
+        long y1 = Math.min(ysiz, ytosiz + ty1 * ytsiz);
+        long xto = xtosiz + tx0 * xtsiz;
+        long yto = ytosiz + ty0 * ytsiz;
+        long xt = reduceTileSize(xto, xtsiz, tx1 - tx0);
+        long yt = reduceTileSize(yto, ytsiz, ty1 - ty0);
+
+        par.writeShort(rsiz);
+        par.writeInt((int)reduce(x1));
+        par.writeInt((int)reduce(y1));
+        par.writeInt((int)reduce(x0));
+        par.writeInt((int)reduce(y0));
+        par.writeInt((int)xt);
+        par.writeInt((int)yt);
+        par.writeInt((int)reduce(xto));
+        par.writeInt((int)reduce(yto));
+        par.writeShort(ncOut);
+        for (int c = 0; c < nc; c++) {
+            if (cmap[c] >= 0) {
+                par.write(compSiz, 3 * c, 3);
+            }
+        }
+    }
+
+
+    /** Returns a coordinate on the reference grid once reduced. */
+    private long reduce(long x)
+    {
+        return (x + (1L << reduction) - 1) >> reduction;
+    }
+
+
+    /**
+     * Returns the nominal tile size of the output in a direction.
+     *
+     * @param to The offset of the first kept tile on the reference grid.
+     *
+     * @param ts The nominal tile size of the input.
+     *
+     * @param n The number of kept tiles.
+     */
+    private long reduceTileSize(long to, long ts, int n)
+    {
+        if (n == 1) {
+            return reduce(to + ts) - reduce(to);
+        }
+        if ((ts & ((1L << reduction) - 1)) != 0) {
+            throw new IllegalArgumentException("The tile size is not a " +
+                "multiple of " + (1 << reduction));
+        }
+        return ts >> reduction;
+    }
+
+
+    /**
+     * Writes the SPcod or SPcoc parameters of the output, dropping the
+     * decomposition levels and precinct sizes of the dropped resolution
+     * levels.
+     *
+     * @param i The index of the parameters in the input marker segment.
+     *
+     * @param scox The Scod or Scoc parameter.
+     */
+    private void writeSPcox(DataOutputStream par, byte[] seg, int i, int scox)
+        throws IOException
+    {
+        int ndl = (seg[i] & 0xFF) - reduction;
+        if (ndl < 0) {
+            throw new IllegalArgumentException("Cannot drop " + reduction +
+                " resolution levels from " + (ndl + reduction) +
+                " decomposition levels");
+        }
+        par.write(ndl);
+        par.write(seg, i + 1, 4);
+        if ((scox & Markers.SCOX_PRECINCT_PARTITION) != 0) {
+            par.write(seg, i + 5, ndl + 1);
+        }
+    }
+
+
+    /**
+     * Writes the Sqcx and SPqcx parameters of the output, dropping the step
+     * sizes of the subbands of the dropped resolution levels.
+     *
+     * @param i The index of Sqcx in the input marker segment.
+     */
+    private void writeSqcx(DataOutputStream par, byte[] seg, int i)
+        throws IOException
+    {
+        int sqcx = seg[i] & 0xFF;
+        int type = sqcx & ~(Markers.SQCX_GB_MSK << Markers.SQCX_GB_SHIFT);
+        int n = seg.length - i - 1;
+        if (type != Markers.SQCX_SCALAR_DERIVED) {
+            // One step size per subband, LL first then by decreasing
+            // decomposition level
+            int bps = type == Markers.SQCX_NO_QUANTIZATION ? 1 : 2;
+            int ndl = (n / bps - 1) / 3;
+            n = bps * (3 * Math.max(ndl - reduction, 0) + 1);
+        }
+        par.write(sqcx);
+        par.write(seg, i + 1, n);
+    }
+
+
+    /**
+     * Writes the component index of a COC, QCC or RGN marker segment of the
+     * output.
+     *
+     * @param i The index of the component in the input marker segment.
+     *
+     * @return False if the component is dropped.
+     */
+    private boolean writeComp(DataOutputStream par, byte[] seg, int i)
+        throws IOException
+    {
+        int c = nc < 257 ? seg[i] & 0xFF : u16(seg, i);
+        if (c >= nc || cmap[c] < 0) {
+            return false;
+        }
+        writeCompIdx(par, cmap[c]);
+        return true;
+    }
+
+
+    /**
+     * Writes the progression order changes of the output, dropping those
+     * which no longer contain any packet.
+     */
+    private void writePOC(DataOutputStream par, byte[] seg) throws IOException
+    {
+        int cb = nc < 257 ? 1 : 2;
+        for (int i = 4; i + 5 + 2 * cb <= seg.length; i += 5 + 2 * cb) {
+            int rs = seg[i] & 0xFF;
+            int cs = cb == 1 ? seg[i + 1] & 0xFF : u16(seg, i + 1);
+            int lye = u16(seg, i + 1 + cb);
+            int re = seg[i + 3 + cb] & 0xFF;
+            int ce = cb == 1 ? seg[i + 4 + cb] & 0xFF : u16(seg, i + 4 + cb);
+            if (ce == 0 && cb == 1) {
+                ce = 256;
+            }
+            cs = nBelow[Math.min(cs, nc)];
+            ce = nBelow[Math.min(ce, nc)];
+            if (layers >= 0) {
+                lye = Math.min(lye, layers);
+            }
+            if (cs >= ce || lye == 0) {
+                continue;
+            }
+            par.write(rs);
+            writeCompIdx(par, cs);
+            par.writeShort(lye);
+            par.write(re);
+            writeCompIdx(par, ce);
+            par.write(seg[i + 4 + 2 * cb]);
+        }
+    }
+
+
+    /** Writes a component index on 1 or 2 bytes, as the output requires. */
+    private void writeCompIdx(DataOutputStream par, int c) throws IOException
+    {
+        if (ncOut < 257) {
+            par.write(c);
+        }
+        else {
+            par.writeShort(c);
+        }
+    }
+
+
+    /**
+     * Reads a marker segment whose marker has just been read.
+     *
+     * @return The marker segment, including its marker and length.
+     */
+    private byte[] readSegment(short marker) throws IOException
+    {
+        int len = in.readUnsignedShort();
+        if (len < 2) {
+            throw new CorruptedCodestreamException("Invalid marker segment " +
+                "length: " + len);
+        }
+        byte[] seg = new byte[len + 2];
+        seg[0] = (byte)(marker >> 8);
+        seg[1] = (byte)marker;
+        seg[2] = (byte)(len >> 8);
+        seg[3] = (byte)len;
+        in.readFully(seg, 4, len - 2);
+        return seg;
+    }
+
+
+    /** Returns the quotient of a by b, rounded up, for a positive b. */
+    private static long ceilDiv(long a, long b)
+    {
+        return a >= 0 ? (a + b - 1) / b : -(-a / b);
+    }
+
+
+    /** Returns the unsigned 16 bits big-endian value at index i. */
+    private static int u16(byte[] b, int i)
+    {
+        return (b[i] & 0xFF) << 8 | b[i + 1] & 0xFF;
+    }
+
+
+    /** Returns the unsigned 32 bits big-endian value at index i. */
+    private static long u32(byte[] b, int i)
+    {
+        return (long)u16(b, i) << 16 | u16(b, i + 2);
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Class:                   StageStats
+ *
+ * Description:             Accumulates the time spent in the stages of a
+ *                          codec chain and event counters.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class accumulates the time spent in the stages of a codec chain, and
+ * a number of event counters. The stages and counters are identified by
+ * indices, whose meaning is defined by subclasses.
+ *
+ * <P>
+ * The modules of the chain call enter() when they start working and exit()
+ * when they return. Since the modules pull their data from each other, the
+ * stages nest: while a stage calls into another one, its own time is paused,
+ * so that the time of each stage is exclusive of the stages it calls and the
+ * times of all stages add up to the time spent in the outermost ones. The
+ * modules only hold a reference to an instance of this class while
+ * statistics are collected, and test it for null otherwise, so that the
+ * instrumentation costs nothing more when it is disabled.
+ *
+ * <P>
+ * The work that a module hands over to worker threads is accounted
+ * separately, as the time spent by each worker, since it runs concurrently
+ * with the stages.
+ *
+ * <P>
+ * An instance is not thread safe, it must be used by one thread at a time,
+ * like the codec chain it belongs to. The worker threads do not use it
+ * directly, their time is added by the module that collects their results.
+ */
+public class StageStats
+{
+
+    /** The names of the stages */
+    private final String[] stageNames;
+
+    /** The names of the counters */
+    private final String[] counterNames;
+
+    /** The accumulated exclusive time of each stage, in nanoseconds */
+    private final long[] times;
+
+    /** The counter values */
+    private final long[] counts;
+
+    /** The stack of the stages entered and not yet exited */
+    private int[] stack = new int[8];
+
+    /** The number of stages on the stack */
+    private int depth;
+
+    /** The time at which the stage on top of the stack was last resumed */
+    private long last;
+
+    /** The time spent by each worker thread, in nanoseconds */
+    private long[] workerTimes = new long[0];
+
+    /**
+     * The method returning the bytes allocated by a thread, or null if the
+     * JVM does not provide it
+     */
+    private static final Method threadAllocatedBytes;
+
+    static {
+        Method m = null;
+        try {
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (c.isInstance(bean)) {
+                m = c.getMethod("getThreadAllocatedBytes", long.class);
+                m.invoke(bean, Thread.currentThread().getId());
+            }
+        }
+        catch (Throwable e) {
+            m = null;
+        }
+        threadAllocatedBytes = m;
+    }
+
+
+    /**
+     * Creates a new instance with all times and counters set to 0.
+     *
+     * @param stageNames The names of the stages, the stage indices are the
+     * indices in this array.
+     *
+     * @param counterNames The names of the counters, the counter indices are
+     * the indices in this array.
+     */
+    public StageStats(String[] stageNames, String[] counterNames)
+    {
+        this.stageNames = stageNames.clone();
+        this.counterNames = counterNames.clone();
+        times = new long[stageNames.length];
+        counts = new long[counterNames.length];
+    }
+
+
+    /**
+     * Starts accounting time to the specified stage, pausing the stage that
+     * is currently running, if any. Each call must be followed by a call to
+     * exit(), usually in a finally block.
+     *
+     * @param stage The index of the stage.
+     */
+    public final void enter(int stage)
+    {
+        long now = System.nanoTime();
+        if (depth > 0) {
+            times[stack[depth - 1]] += now - last;
+        }
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * depth);
+        }
+        stack[depth++] = stage;
+        last = now;
+    }
+
+
+    /**
+     * Stops accounting time to the stage last entered, and resumes the
+     * stage that was running before it, if any.
+     */
+    public final void exit()
+    {
+        long now = System.nanoTime();
+        if (depth > 0) {
+            times[stack[--depth]] += now - last;
+        }
+        last = now;
+    }
+
+
+    /**
+     * Adds a value to a counter.
+     *
+     * @param counter The index of the counter.
+     *
+     * @param n The value to add.
+     */
+    public final void add(int counter, long n)
+    {
+        counts[counter] += n;
+    }
+
+
+    /**
+     * Raises a counter to a value, if it is lower. Used for high-water
+     * marks.
+     *
+     * @param counter The index of the counter.
+     *
+     * @param n The value.
+     */
+    public final void max(int counter, long n)
+    {
+        if (n > counts[counter]) {
+            counts[counter] = n;
+        }
+    }
+
+
+    /**
+     * Adds time spent by a worker thread.
+     *
+     * @param worker The index of the worker.
+     *
+     * @param time The time, in nanoseconds.
+     */
+    public final void addWorkerTime(int worker, long time)
+    {
+        if (worker >= workerTimes.length) {
+            workerTimes = Arrays.copyOf(workerTimes, worker + 1);
+        }
+        workerTimes[worker] += time;
+    }
+
+
+    /**
+     * Sets all times and counters to 0. Must not be called while a stage is
+     * running.
+     */
+    public void reset()
+    {
+        Arrays.fill(times, 0);
+        Arrays.fill(counts, 0);
+        workerTimes = new long[0];
+        depth = 0;
+    }
+
+
+    /** Returns the number of stages. */
+    public int getNumStages()
+    {
+        return times.length;
+    }
+
+
+    /**
+     * Returns the name of a stage.
+     *
+     * @param stage The index of the stage.
+     */
+    public String getStageName(int stage)
+    {
+        return stageNames[stage];
+    }
+
+
+    /**
+     * Returns the time spent in a stage, exclusive of the time spent in the
+     * stages called by it. The time of a stage that is running is only
+     * accounted for up to the moment another stage was entered or exited.
+     *
+     * @param stage The index of the stage.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getTime(int stage)
+    {
+        return times[stage];
+    }
+
+
+    /** Returns the sum of the times of all stages, in nanoseconds. */
+    public long getTotalTime()
+    {
+        long t = 0;
+        for (int i = 0; i < times.length; i++) {
+            t += times[i];
+        }
+        return t;
+    }
+
+
+    /**
+     * Returns the number of worker threads, which is one more than the
+     * highest index of a worker whose time was added, or 0 if there was
+     * none.
+     */
+    public int getNumWorkers()
+    {
+        return workerTimes.length;
+    }
+
+
+    /**
+     * Returns the time spent by a worker thread.
+     *
+     * @param worker The index of the worker.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getWorkerTime(int worker)
+    {
+        return workerTimes[worker];
+    }
+
+
+    /** Returns the number of counters. */
+    public int getNumCounters()
+    {
+        return counts.length;
+    }
+
+
+    /**
+     * Returns the name of a counter.
+     *
+     * @param counter The index of the counter.
+     */
+    public String getCounterName(int counter)
+    {
+        return counterNames[counter];
+    }
+
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param counter The index of the counter.
+     */
+    public long getCount(int counter)
+    {
+        return counts[counter];
+    }
+
+
+    /**
+     * Returns the number of bytes allocated on the heap by the current
+     * thread since it started, if the JVM can report it.
+     *
+     * @return The number of bytes, or -1 if it is not available.
+     */
+    public static long getThreadAllocatedBytes()
+    {
+        if (threadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return ((Long)threadAllocatedBytes.invoke(ManagementFactory.getThreadMXBean(),
+                Thread.currentThread().getId())).longValue();
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Returns the number of bytes currently used on the heap, including
+     * unreachable objects that were not yet collected.
+     *
+     * @return The number of bytes.
+     */
+    public static long getUsedHeap()
+    {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+
+    /**
+     * Returns the times in milliseconds, the counters and the times of the
+     * workers in milliseconds, as a list of name=value pairs.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(stageNames[i]).append('=')
+                .append(String.format(Locale.ROOT, "%.3f", times[i] / 1e6)).append("ms");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            sb.append(", ").append(counterNames[i]).append('=').append(counts[i]);
+        }
+        for (int i = 0; i < workerTimes.length; i++) {
+            sb.append(", worker").append(i).append('=')
+                .append(String.format(Locale.ROOT, "%.3f", workerTimes[i] / 1e6)).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -58,9 +58,11 @@ import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.util.MathUtil;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.WaveletTransform;
 
+import com.github.jaiimageio.jpeg2000.J2KEncodeStats;
 import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
 
 /**
@@ -396,9 +398,27 @@ public class ForwWTFull extends ForwardWT
     @Override
     public CBlkWTData getNextInternCodeBlock(int c, CBlkWTData cblk)
     {
-        int cbm, cbn, cn, cm;
-        int acb0x, acb0y;
-        SubbandAn sb;
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return decompose(c, cblk);
+        }
+        stats.enter(J2KEncodeStats.FWT);
+        try {
+            return decompose(c, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getNextInternCodeBlock(). Subclasses that decompose the tile
+     * differently override this method rather than getNextInternCodeBlock(),
+     * so that their time is accounted to the wavelet transform.
+     */
+    protected CBlkWTData decompose(int c, CBlkWTData cblk)
+    {
         intData = (filters.getWTDataType(tIdx, c) == DataBlk.TYPE_INT);
 
         //If the source image has not been decomposed
@@ -480,13 +500,57 @@ public class ForwWTFull extends ForwardWT
         } while (true);
 
 
+        // Initialize output code-block
+        if (cblk == null) {
+            if (intData) {
+                cblk = new CBlkWTDataInt();
+            }
+            else {
+                cblk = new CBlkWTDataFloat();
+            }
+        }
+        setCodeBlockGeometry(cblk, currentSubband[c], lastm[c], lastn[c]);
+
+        // Since we are in getNextInternCodeBlock() we can return a
+        // reference to the internal buffer, no need to copy. Just initialize
+        // the 'offset' and 'scanw'
+        cblk.offset = cblk.uly * decomposedComps[c].w + cblk.ulx;
+        cblk.scanw = decomposedComps[c].w;
+
+        // For the data just put a reference to our buffer
+        cblk.setData(decomposedComps[c].getData());
+        // Return code-block
+        return cblk;
+    }
+
+
+    /**
+     * Sets the subband, indexes, position and size of the code-block 'cbm',
+     * 'cbn' of the subband 'sb' in 'cblk'. The position is given in the
+     * coordinates of the tile-component, as returned by the
+     * getNext[Intern]CodeBlock methods. The data is left untouched.
+     *
+     * @param cblk The code-block to initialize.
+     *
+     * @param sb The subband to which the code-block belongs.
+     *
+     * @param cbm The vertical index of the code-block in the subband.
+     *
+     * @param cbn The horizontal index of the code-block in the subband.
+     */
+    void setCodeBlockGeometry(CBlkWTData cblk, SubbandAn sb, int cbm, int cbn)
+    {
+        int cn, cm;
+        int acb0x, acb0y;
+        Point ncblks = sb.numCb;
+
         // Project code-block partition origin to subband. Since the origin is
         // always 0 or 1, it projects to the low-pass side (throught the ceil
         // operator) as itself (i.e. no change) and to the high-pass side
         // (through the floor operator) as 0, always.
         acb0x = cb0x;
         acb0y = cb0y;
-        switch (currentSubband[c].sbandIdx) {
+        switch (sb.sbandIdx) {
             case Subband.WT_ORIENT_LL:
                 // No need to project since all low-pass => nothing to do
                 break;
@@ -503,18 +567,6 @@ public class ForwWTFull extends ForwardWT
             default:
                 throw new Error("Internal JJ2000 error");
         }
-        // Initialize output code-block
-        if (cblk == null) {
-            if (intData) {
-                cblk = new CBlkWTDataInt();
-            }
-            else {
-                cblk = new CBlkWTDataFloat();
-            }
-        }
-        cbn = lastn[c];
-        cbm = lastm[c];
-        sb = currentSubband[c];
         cblk.n = cbn;
         cblk.m = cbm;
         cblk.sb = sb;
@@ -556,17 +608,6 @@ public class ForwWTFull extends ForwardWT
             cblk.h = sb.uly + sb.h - cblk.uly;
         }
         cblk.wmseScaling = 1f;
-
-        // Since we are in getNextInternCodeBlock() we can return a
-        // reference to the internal buffer, no need to copy. Just initialize
-        // the 'offset' and 'scanw'
-        cblk.offset = cblk.uly * decomposedComps[c].w + cblk.ulx;
-        cblk.scanw = decomposedComps[c].w;
-
-        // For the data just put a reference to our buffer
-        cblk.setData(decomposedComps[c].getData());
-        // Return code-block
-        return cblk;
     }
 
 
@@ -611,6 +652,25 @@ public class ForwWTFull extends ForwardWT
      */
     @Override
     public CBlkWTData getNextCodeBlock(int c, CBlkWTData cblk)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return copyNextCodeBlock(c, cblk);
+        }
+        stats.enter(J2KEncodeStats.FWT);
+        try {
+            return copyNextCodeBlock(c, cblk);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getNextCodeBlock().
+     */
+    private CBlkWTData copyNextCodeBlock(int c, CBlkWTData cblk)
     {
         // We can not directly use getNextInternCodeBlock() since that returns
         // a reference to the internal buffer, we have to copy that data
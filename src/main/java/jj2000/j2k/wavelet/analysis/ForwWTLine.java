@@ -0,0 +1,746 @@
+/*
+ * Class:                   ForwWTLine
+ *
+ * Description:             This class implements the line-based
+ *                          forward wavelet transform for both integer
+ *                          and floating point implementations.
+ *
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.wavelet.analysis;
+
+import java.util.LinkedList;
+
+import jj2000.j2k.image.BlkImgDataSrc;
+import jj2000.j2k.image.DataBlk;
+import jj2000.j2k.image.DataBlkFloat;
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.wavelet.WaveletTransform;
+
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+/**
+ * This class implements the ForwardWT with a line-based approach, to be used
+ * either with the 5x3 integer or the 9x7 floating-point lifting filters.
+ *
+ * <P>
+ * Instead of decomposing the whole tile-component before the first
+ * code-block is returned, the source rows are pulled one by one and the
+ * vertical lifting steps are performed incrementally, so that each
+ * decomposition level only keeps a few rows. The rows of the leaf subbands
+ * are accumulated until a row of code-blocks is complete, and the
+ * code-blocks are then returned in that row order. Hence the memory
+ * requirements are proportional to the tile width times the code-block
+ * height, not to the tile size.
+ *
+ * <P>
+ * The lifting steps are performed in the same order and with the same
+ * arithmetic as the filters do in ForwWTFull, so the transformed
+ * coefficients are identical.
+ *
+ * @see ForwWTFull
+ */
+public class ForwWTLine extends ForwWTFull
+{
+
+    /** The source of image data */
+    private BlkImgDataSrc src;
+
+    /** Wavelet filters for all components and tiles */
+    private AnWTFilterSpec filters;
+
+    /**
+     * The ongoing decomposition of each component, in the current tile. An
+     * element is null if the decomposition has not started yet.
+     */
+    private CompDecomp decomps[];
+
+    /** Code-block used to calculate the geometry of the code-block rows */
+    private CBlkWTData geomBlk = new CBlkWTDataInt();
+
+
+    /**
+     * Initializes this object with the given source of image data and with
+     * all the decompositon parameters
+     *
+     * @param src From where the image data should be obtained.
+     *
+     * @param wp The encoder specifications
+     *
+     * @param pox The horizontal coordinate of the cell and code-block
+     * partition origin with respect to the canvas origin, on the reference
+     * grid.
+     *
+     * @param poy The vertical coordinate of the cell and code-block partition
+     * origin with respect to the canvas origin, on the reference grid.
+     *
+     * @see ForwardWT
+     */
+    public ForwWTLine(BlkImgDataSrc src, J2KImageWriteParamJava wp, int pox, int poy)
+    {
+        super(src, wp, pox, poy);
+        this.src = src;
+        this.filters = wp.getFilters();
+
+        decomps = new CompDecomp[src.getNumComps()];
+    }
+
+
+    /**
+     * Returns the implementation type of this wavelet transform, WT_IMPL_LINE
+     * (line-based transform). All components return the same.
+     *
+     * @param c The index of the component.
+     *
+     * @return WT_IMPL_LINE
+     */
+    @Override
+    public int getImplementationType(int c)
+    {
+        return WaveletTransform.WT_IMPL_LINE;
+    }
+
+
+    /**
+     * Implements getNextInternCodeBlock(), which returns the next code-block
+     * in the current tile for the specified component. The code-blocks are
+     * returned row by row as soon as the transform has produced them,
+     * interleaving the subbands of the different decomposition levels. Each
+     * code-block is returned only once and all code-blocks will be returned
+     * if the method is called 'N' times, where 'N' is the number of
+     * code-blocks in the tile. After all the code-blocks have been returned
+     * for the current tile calls to this method will return 'null'.
+     *
+     * <P>
+     * When changing the current tile (through 'setTile()' or 'nextTile()')
+     * this method will always return the first code-block, as if this method
+     * was never called before for the new current tile.
+     *
+     * <P>
+     * The data returned by this method is the data in the internal buffer
+     * of this object, and thus can not be modified by the caller. It is only
+     * valid until the next call to this method for the same component. The
+     * 'offset' and 'scanw' of the returned data have, in general, some
+     * non-zero value. The 'magbits' of the returned data is not set by this
+     * method and should be ignored. See the 'CBlkWTData' class.
+     *
+     * <P>
+     * The 'ulx' and 'uly' members of the returned 'CBlkWTData' object
+     * contain the coordinates of the top-left corner of the block, with
+     * respect to the tile, not the subband.
+     *
+     * @param c The component for which to return the next code-block.
+     *
+     * @param cblk If non-null this object will be used to return the new
+     * code-block. If null a new one will be allocated and returned.
+     *
+     * @return The next code-block in the current tile for component 'n', or
+     * null if all code-blocks for the current tile have been returned.
+     *
+     * @see CBlkWTData
+     */
+    @Override
+    protected CBlkWTData decompose(int c, CBlkWTData cblk)
+    {
+        CompDecomp d = decomps[c];
+        CBlkRow row;
+
+        if (d == null) {
+            d = decomps[c] = new CompDecomp(c);
+        }
+
+        // Get a row with code-blocks left to return, transforming more source
+        // rows if needed
+        row = d.current;
+        while (row == null || row.n == row.sb.numCb.x) {
+            if (row != null) {
+                // All code-blocks of the row returned, it can be reused
+                row.strip.spare = row.buf;
+                d.current = row = null;
+            }
+            if (!d.ready.isEmpty()) {
+                d.current = row = d.ready.removeFirst();
+            }
+            else if (d.nRead < d.h) {
+                d.readRow();
+            }
+            else {
+                // All code-blocks from all subbands in the current tile have
+                // been returned
+                return null;
+            }
+        }
+
+        // Initialize output code-block
+        if (cblk == null) {
+            if (d.intData) {
+                cblk = new CBlkWTDataInt();
+            }
+            else {
+                cblk = new CBlkWTDataFloat();
+            }
+        }
+        setCodeBlockGeometry(cblk, row.sb, row.m, row.n++);
+
+        // Return a reference to the row buffer, which starts at the first
+        // line of the code-block row
+        cblk.offset = cblk.ulx - row.sb.ulx;
+        cblk.scanw = row.sb.w;
+        cblk.setData(row.buf);
+        return cblk;
+    }
+
+
+    /**
+     * Changes the current tile, given the new coordinates. It also discards
+     * any ongoing decomposition.
+     *
+     * @param x The horizontal coordinate of the tile.
+     *
+     * @param y The vertical coordinate of the new tile.
+     */
+    @Override
+    public void setTile(int x, int y)
+    {
+        super.setTile(x, y);
+        if (decomps != null) {
+            for (int i = decomps.length - 1; i >= 0; i--) {
+                decomps[i] = null;
+            }
+        }
+    }
+
+
+    /**
+     * Advances to the next tile, in standard scan-line order (by rows then
+     * columns). It also discards any ongoing decomposition.
+     */
+    @Override
+    public void nextTile()
+    {
+        super.nextTile();
+        for (int i = decomps.length - 1; i >= 0; i--) {
+            decomps[i] = null;
+        }
+    }
+
+
+    /**
+     * Something that receives the rows of a subband, one at a time, in
+     * increasing order. The row is written in the array returned by
+     * 'getRowData()', starting at the 'getRowOffset()' index, and then
+     * 'rowDone()' is called.
+     */
+    private interface RowSink
+    {
+
+        /** Returns the array where the next row has to be written. */
+        Object getRowData();
+
+
+        /** Returns the index of the next row in the 'getRowData()' array. */
+        int getRowOffset();
+
+
+        /** Signals that the next row has been written. */
+        void rowDone();
+    }
+
+
+    /**
+     * The state of the decomposition of one component in the current tile.
+     */
+    private class CompDecomp
+    {
+
+        /** The component index */
+        final int c;
+
+        /** Whether the data is int (true) or float (false) */
+        final boolean intData;
+
+        /** The height of the tile-component */
+        final int h;
+
+        /** The number of rows read from the source so far */
+        int nRead;
+
+        /** The block used to read the source rows */
+        DataBlk bufblk;
+
+        /** The sink for the source rows, i.e. the transform of the root */
+        RowSink root;
+
+        /** The complete code-block rows, in order of completion */
+        LinkedList<CBlkRow> ready = new LinkedList<CBlkRow>();
+
+        /** The code-block row being returned, or null if none */
+        CBlkRow current;
+
+
+        /**
+         * Builds the decomposition pipeline for the component 'c' in the
+         * current tile.
+         *
+         * @param c The index of the component.
+         */
+        CompDecomp(int c)
+        {
+            this.c = c;
+            intData = (filters.getWTDataType(tIdx, c) == DataBlk.TYPE_INT);
+            h = getTileCompHeight(tIdx, c);
+            bufblk = intData ? (DataBlk)new DataBlkInt() : new DataBlkFloat();
+            bufblk.ulx = getCompULX(c);
+            bufblk.w = getTileCompWidth(tIdx, c);
+            bufblk.h = 1;
+            root = createSink(getAnSubbandTree(tIdx, c));
+        }
+
+
+        /**
+         * Creates the sink for the rows of a subband, either a decomposition
+         * level if the subband is a node, or a code-block strip if it is a
+         * leaf.
+         *
+         * @param sb The subband.
+         *
+         * @return The sink for the rows of the subband.
+         */
+        RowSink createSink(SubbandAn sb)
+        {
+            if (!sb.isNode) {
+                return new Strip(this, sb);
+            }
+            return new Level(this, sb);
+        }
+
+
+        /**
+         * Reads the next row of the tile-component from the source and feeds
+         * it to the transform.
+         */
+        void readRow()
+        {
+            int lstart = bufblk.ulx;
+            bufblk.uly = getCompULY(c) + nRead;
+            bufblk = src.getInternCompData(bufblk, c);
+            bufblk.ulx = lstart;
+            System.arraycopy(bufblk.getData(), bufblk.offset,
+                root.getRowData(), root.getRowOffset(), bufblk.w);
+            nRead++;
+            root.rowDone();
+        }
+    }
+
+
+    /**
+     * A decomposition level. It receives the rows of a node subband, performs
+     * the vertical lifting steps as soon as the needed rows are available,
+     * and then the horizontal filtering of each finished row, which is
+     * passed on to the sinks of the four child subbands.
+     */
+    private class Level implements RowSink
+    {
+
+        /** The node subband */
+        final SubbandAn sb;
+
+        /** Whether the data is int (true) or float (false) */
+        final boolean intData;
+
+        /** The number of vertical lifting steps (2 for 5x3, 4 for 9x7) */
+        final int nSteps;
+
+        /**
+         * The last rows received. Row 'i' is at index 'i % rows.length'. Only
+         * the rows that are still needed by the lifting steps are kept.
+         */
+        final Object rows[];
+
+        /** Temporary row for the scaled output, if any */
+        final Object tmp;
+
+        /** The number of rows received so far */
+        int nIn;
+
+        /** The sinks of the child subbands */
+        final RowSink ll, hl, lh, hh;
+
+
+        /**
+         * Creates the decomposition level of subband 'sb', and the sinks of
+         * its child subbands.
+         *
+         * @param d The component decomposition to which it belongs.
+         *
+         * @param sb The node subband.
+         */
+        Level(CompDecomp d, SubbandAn sb)
+        {
+            this.sb = sb;
+            intData = d.intData;
+            if (sb.vFilter instanceof AnWTFilterIntLift5x3) {
+                nSteps = 2;
+            }
+            else if (sb.vFilter instanceof AnWTFilterFloatLift9x7) {
+                nSteps = 4;
+            }
+            else {
+                throw new IllegalArgumentException("Line-based wavelet " +
+                    "transform does not support filter " + sb.vFilter);
+            }
+            // We need the rows from the one being finished to the last one
+            // received
+            rows = new Object[nSteps + 2];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = intData ? (Object)new int[sb.w] : new float[sb.w];
+            }
+            tmp = intData ? (Object)new int[sb.w] : new float[sb.w];
+            ll = d.createSink((SubbandAn)sb.getLL());
+            hl = d.createSink((SubbandAn)sb.getHL());
+            lh = d.createSink((SubbandAn)sb.getLH());
+            hh = d.createSink((SubbandAn)sb.getHH());
+        }
+
+
+        @Override
+        public Object getRowData()
+        {
+            return rows[nIn % rows.length];
+        }
+
+
+        @Override
+        public int getRowOffset()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public void rowDone()
+        {
+            int j = nIn++;
+
+            if (sb.h == 1) {
+                // Single row, no lifting
+                finishRow(0);
+                return;
+            }
+            advance(j);
+            if (nIn == sb.h) {
+                // Last row received, flush the lifting steps, the rows
+                // beyond the end being the symmetric extension
+                for (j = sb.h; j < sb.h + nSteps; j++) {
+                    advance(j);
+                }
+            }
+        }
+
+
+        /**
+         * Advances the lifting once row 'j' is available: row 'j-k' goes
+         * through the lifting step 'k', for all steps. Then row 'j-nSteps'
+         * is finished.
+         *
+         * @param j The index of the last row available.
+         */
+        private void advance(int j)
+        {
+            int i;
+
+            for (int k = 1; k <= nSteps; k++) {
+                i = j - k;
+                if (i < 0) {
+                    break;
+                }
+                // Odd steps update the odd rows of the canvas (high-pass) and
+                // even steps the even rows (low-pass)
+                if (i < sb.h && ((sb.ulcy + i) & 1) == (k & 1)) {
+                    liftRow(k, i);
+                }
+            }
+            i = j - nSteps;
+            if (i >= 0 && i < sb.h) {
+                finishRow(i);
+            }
+        }
+
+
+        /**
+         * Applies the lifting step 'k' to row 'i', using the neighbouring
+         * rows with symmetric extension at the borders.
+         *
+         * @param k The lifting step, starting at 1.
+         *
+         * @param i The index of the row.
+         */
+        private void liftRow(int k, int i)
+        {
+            int n = rows.length;
+            int ia = (i > 0) ? i - 1 : i + 1;
+            int ib = (i < sb.h - 1) ? i + 1 : i - 1;
+            int w = sb.w;
+
+            if (intData) {
+                int x[] = (int[])rows[i % n];
+                int a[] = (int[])rows[ia % n];
+                int b[] = (int[])rows[ib % n];
+                if (k == 1) {
+                    for (int l = 0; l < w; l++) {
+                        x[l] -= (a[l] + b[l]) >> 1;
+                    }
+                }
+                else {
+                    for (int l = 0; l < w; l++) {
+                        x[l] += (a[l] + b[l] + 2) >> 2;
+                    }
+                }
+            }
+            else {
+                float x[] = (float[])rows[i % n];
+                float a[] = (float[])rows[ia % n];
+                float b[] = (float[])rows[ib % n];
+                float coef;
+                switch (k) {
+                    case 1:
+                        coef = AnWTFilterFloatLift9x7.ALPHA;
+                        break;
+                    case 2:
+                        coef = AnWTFilterFloatLift9x7.BETA;
+                        break;
+                    case 3:
+                        coef = AnWTFilterFloatLift9x7.GAMMA;
+                        break;
+                    default:
+                        coef = AnWTFilterFloatLift9x7.DELTA;
+                        break;
+                }
+                for (int l = 0; l < w; l++) {
+                    x[l] += coef * (a[l] + b[l]);
+                }
+            }
+        }
+
+
+        /**
+         * Finishes row 'i', for which all the lifting steps have been done:
+         * normalizes it, filters it horizontally and passes the low and
+         * high-pass parts to the sinks of the child subbands.
+         *
+         * @param i The index of the row.
+         */
+        private void finishRow(int i)
+        {
+            boolean low = ((sb.ulcy + i) & 1) == 0;
+            Object in = rows[i % rows.length];
+            RowSink lo = low ? ll : lh;
+            RowSink hi = low ? hl : hh;
+            int w = sb.w;
+
+            // Normalize. A single row is left as is by the low-pass filter,
+            // and it is doubled by the high-pass one (Nyquist gain).
+            if (sb.h == 1) {
+                if (!low) {
+                    if (intData) {
+                        int x[] = (int[])in, t[] = (int[])tmp;
+                        for (int l = 0; l < w; l++) {
+                            t[l] = x[l] << 1;
+                        }
+                    }
+                    else {
+                        float x[] = (float[])in, t[] = (float[])tmp;
+                        for (int l = 0; l < w; l++) {
+                            t[l] = x[l] * 2;
+                        }
+                    }
+                    in = tmp;
+                }
+            }
+            else if (!intData) {
+                float x[] = (float[])in, t[] = (float[])tmp;
+                float f = low ? AnWTFilterFloatLift9x7.KL : AnWTFilterFloatLift9x7.KH;
+                for (int l = 0; l < w; l++) {
+                    t[l] = x[l] * f;
+                }
+                in = tmp;
+            }
+
+            // Horizontal decomposition
+            if (w > 0) {
+                if (sb.ulcx % 2 == 0) { // Even start index => use LPF
+                    sb.hFilter.analyze_lpf(in, 0, w, 1,
+                        lo.getRowData(), lo.getRowOffset(), 1,
+                        hi.getRowData(), hi.getRowOffset(), 1);
+                }
+                else { // Odd start index => use HPF
+                    sb.hFilter.analyze_hpf(in, 0, w, 1,
+                        lo.getRowData(), lo.getRowOffset(), 1,
+                        hi.getRowData(), hi.getRowOffset(), 1);
+                }
+            }
+            lo.rowDone();
+            hi.rowDone();
+        }
+    }
+
+
+    /**
+     * The rows of a leaf subband, accumulated until a row of code-blocks is
+     * complete. The complete rows are queued in the 'ready' list of the
+     * component decomposition.
+     */
+    private class Strip implements RowSink
+    {
+
+        /** The component decomposition to which it belongs */
+        final CompDecomp d;
+
+        /** The leaf subband */
+        final SubbandAn sb;
+
+        /** The buffer of the code-block row being filled */
+        Object buf;
+
+        /** A buffer no longer in use, to fill the next row, or null */
+        Object spare;
+
+        /** The index of the code-block row being filled */
+        int m;
+
+        /** The height of the code-block row being filled */
+        int cbh;
+
+        /** The number of rows already in the code-block row */
+        int nRows;
+
+
+        /**
+         * Creates the strip for the leaf subband 'sb'.
+         *
+         * @param d The component decomposition to which it belongs.
+         *
+         * @param sb The leaf subband.
+         */
+        Strip(CompDecomp d, SubbandAn sb)
+        {
+            this.d = d;
+            this.sb = sb;
+            startRow();
+        }
+
+
+        /** Starts the next code-block row, if any. */
+        private void startRow()
+        {
+            nRows = 0;
+            if (m < sb.numCb.y && sb.numCb.x > 0) {
+                setCodeBlockGeometry(geomBlk, sb, m, 0);
+                cbh = geomBlk.h;
+                if (spare != null) {
+                    buf = spare;
+                    spare = null;
+                }
+                else {
+                    buf = d.intData ? (Object)new int[sb.w * sb.nomCBlkH] :
+                        new float[sb.w * sb.nomCBlkH];
+                }
+            }
+            else {
+                // Empty subband, nothing to store
+                cbh = 0;
+                buf = null;
+            }
+        }
+
+
+        @Override
+        public Object getRowData()
+        {
+            return buf;
+        }
+
+
+        @Override
+        public int getRowOffset()
+        {
+            return nRows * sb.w;
+        }
+
+
+        @Override
+        public void rowDone()
+        {
+            if (buf == null) {
+                return;
+            }
+            if (++nRows == cbh) {
+                d.ready.add(new CBlkRow(this, m, buf));
+                m++;
+                startRow();
+            }
+        }
+    }
+
+
+    /** A complete row of code-blocks of a leaf subband. */
+    private static class CBlkRow
+    {
+
+        /** The strip from which the row comes */
+        final Strip strip;
+
+        /** The subband */
+        final SubbandAn sb;
+
+        /** The vertical index of the code-blocks in the subband */
+        final int m;
+
+        /** The data, starting at the first line of the row */
+        final Object buf;
+
+        /** The horizontal index of the next code-block to return */
+        int n;
+
+
+        CBlkRow(Strip strip, int m, Object buf)
+        {
+            this.strip = strip;
+            this.sb = strip.sb;
+            this.m = m;
+            this.buf = buf;
+        }
+    }
+
+}
@@ -89,9 +89,11 @@ public abstract class ForwardWT extends ImgDataAdapter
                 "the image. If 0 no wavelet transform is performed. All components " +
                 "and all tiles have the same number of decomposition levels.",
             "5" },
-        { "Wwt", "[full]",
-            "Specifies the wavelet transform to be used. Possible value is: " +
-                "'full' (full page). The value 'full' performs a normal DWT.",
+        { "Wwt", "[full|line]",
+            "Specifies the wavelet transform to be used. Possible values are: " +
+                "'full' (full page) and 'line' (line-based). The value 'full' " +
+                "performs a normal DWT. The value 'line' transforms the rows as " +
+                "they are read, holding only a strip of the tile in memory.",
             "full" },
     };
 
@@ -161,7 +163,17 @@ pl.checkList(OPT_PREFIX, pl.toNameArray(pinfo));
         prefx = 0;
         prefy = 0;
 
-        return new ForwWTFull(src, wp, prefx, prefy);
+        wtstr = wp.getWaveletTransform();
+        if (wtstr == null || wtstr.equals("full")) {
+            return new ForwWTFull(src, wp, prefx, prefy);
+        }
+        else if (wtstr.equals("line")) {
+            return new ForwWTLine(src, wp, prefx, prefy);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown wavelet transform '" +
+                wtstr + "'");
+        }
     }
 
 }
@@ -49,6 +49,7 @@ package jj2000.j2k.wavelet.synthesis;
 import java.awt.Point;
 
 import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.util.StageStats;
 
 /**
  * This class provides default implementation of the methods in the 'InvWT'
@@ -92,6 +93,12 @@ public abstract class InvWTAdapter implements InvWT
     /** The maximum available image resolution level */
     protected int maxImgRes;
 
+    /**
+     * The statistics to which the work of this object is accounted, or null
+     * if none are collected
+     */
+    protected StageStats stats;
+
 
     /**
      * Instantiates the 'InvWTAdapter' object using the specified
@@ -110,6 +117,17 @@ public abstract class InvWTAdapter implements InvWT
     }
 
 
+    /**
+     * Sets the statistics to which the work of this object is accounted.
+     *
+     * @param stats The statistics, or null to not collect any.
+     */
+    public void setStats(StageStats stats)
+    {
+        this.stats = stats;
+    }
+
+
     /**
      * Sets the image reconstruction resolution level. A value of 0 means
      * reconstruction of an image with the lowest resolution (dimension)
@@ -52,11 +52,15 @@ import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.util.CodecEvents;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.ProgressWatch;
+import jj2000.j2k.util.StageStats;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.WaveletTransform;
 
+import com.github.jaiimageio.jpeg2000.J2KDecodeStats;
+
 /**
  * This class implements the InverseWT with the full-page approach for int and
  * float data.
@@ -287,6 +291,25 @@ public class InvWTFull extends InverseWT
      */
     @Override
     public final DataBlk getInternCompData(DataBlk blk, int c)
+    {
+        StageStats stats = this.stats;
+        if (stats == null) {
+            return reconstruct(blk, c);
+        }
+        stats.enter(J2KDecodeStats.IDWT);
+        try {
+            return reconstruct(blk, c);
+        }
+        finally {
+            stats.exit();
+        }
+    }
+
+
+    /**
+     * Implements getInternCompData().
+     */
+    private DataBlk reconstruct(DataBlk blk, int c)
     {
         int tIdx = getTileIdx();
         if (src.getSynSubbandTree(tIdx, c).getHorWFilter() == null) {
@@ -557,6 +580,7 @@ public class InvWTFull extends InverseWT
             }
             ncblks = sb.numCb;
             dst_data = img.getData();
+            Object event = CodecEvents.beginCodeBlocksDecode();
             for (m = 0; m < ncblks.y; m++) {
                 for (n = 0; n < ncblks.x; n++) {
                     subbData = src.getInternCodeBlock(c, m, n, sb, subbData);
@@ -575,6 +599,8 @@ public class InvWTFull extends InverseWT
                     }
                 }
             }
+            CodecEvents.endCodeBlocksDecode(event, getTileIdx(), c, sb.resLvl, sb.sbandIdx,
+                sb.w, sb.h, ncblks.x * ncblks.y);
         }
         else if (sb.isNode) {
             // Reconstruct the lower resolution levels if the current subbands
@@ -590,7 +616,9 @@ public class InvWTFull extends InverseWT
                 waveletTreeReconstruction(img, (SubbandSyn)sb.getHH(), c);
 
                 //Perform the 2D wavelet decomposition of the current subband
+                Object event = CodecEvents.beginInverseWT();
                 wavelet2DReconstruction(img, sb, c);
+                CodecEvents.endInverseWT(event, getTileIdx(), c, sb.resLvl, sb.w, sb.h);
             }
         }
     }
@@ -52,6 +52,8 @@ package jj2000.j2k.wavelet.synthesis;
 
 import java.awt.Point;
 
+import jj2000.j2k.util.StageStats;
+
 /**
  * This class provides a default implementation for the methods of the
  * 'MultiResImgData' interface. The default implementation consists just in
@@ -82,6 +84,12 @@ public abstract class MultiResImgDataAdapter implements MultiResImgData
     /** The MultiResImgData source */
     protected MultiResImgData mressrc;
 
+    /**
+     * The statistics to which the work of this object is accounted, or null
+     * if none are collected
+     */
+    protected StageStats stats;
+
 
     /**
      * Instantiates the MultiResImgDataAdapter object specifying the
@@ -95,6 +103,17 @@ public abstract class MultiResImgDataAdapter implements MultiResImgData
     }
 
 
+    /**
+     * Sets the statistics to which the work of this object is accounted.
+     *
+     * @param stats The statistics, or null to not collect any.
+     */
+    public void setStats(StageStats stats)
+    {
+        this.stats = stats;
+    }
+
+
     /**
      * Returns the overall width of the current tile in pixels, for the given
      * resolution level. This is the tile's width without accounting for any
@@ -0,0 +1,468 @@
+/*
+ * Class:                   CodecEvents
+ *
+ * Description:             Records codec operations as Java Flight
+ *                          Recorder events.
+ *
+ *
+ * COPYRIGHT:
+ *
+ * This software module was originally developed by Raphaël Grosbois and
+ * Diego Santa Cruz (Swiss Federal Institute of Technology-EPFL); Joel
+ * Askelöf (Ericsson Radio Systems AB); and Bertrand Berthelot, David
+ * Bouchard, Félix Henry, Gerard Mozelle and Patrice Onno (Canon Research
+ * Centre France S.A) in the course of development of the JPEG2000
+ * standard as specified by ISO/IEC 15444 (JPEG 2000 Standard). This
+ * software module is an implementation of a part of the JPEG 2000
+ * Standard. Swiss Federal Institute of Technology-EPFL, Ericsson Radio
+ * Systems AB and Canon Research Centre France S.A (collectively JJ2000
+ * Partners) agree not to assert against ISO/IEC and users of the JPEG
+ * 2000 Standard (Users) any of their rights under the copyright, not
+ * including other intellectual property rights, for this software module
+ * with respect to the usage by ISO/IEC and Users of this software module
+ * or modifications thereof for use in hardware or software products
+ * claiming conformance to the JPEG 2000 Standard. Those intending to use
+ * this software module in hardware or software products are advised that
+ * their use may infringe existing patents. The original developers of
+ * this software module, JJ2000 Partners and ISO/IEC assume no liability
+ * for use of this software module or modifications thereof. No license
+ * or right to this software module is granted for non JPEG 2000 Standard
+ * conforming products. JJ2000 Partners have full right to use this
+ * software module for his/her own purpose, assign or donate this
+ * software module to any third party and to inhibit third parties from
+ * using this software module for non JPEG 2000 Standard conforming
+ * products. This copyright notice must be included in all copies or
+ * derivative works of this software module.
+ *
+ * Copyright (c) 1999/2000 JJ2000 Partners.
+ * */
+package jj2000.j2k.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class provides the hooks through which the codec reports its
+ * operations to a profiler, see the Java 6 version of this class.
+ *
+ * <P>
+ * This version is used on Java 11 and later, from the multi-release jar. It
+ * records the operations as Java Flight Recorder events, in the "JPEG 2000"
+ * category, named "jpeg2000.TileDecode", "jpeg2000.CodeBlocksDecode",
+ * "jpeg2000.InverseWT", "jpeg2000.TileEncode", "jpeg2000.LayerAllocation"
+ * and "jpeg2000.FileFormatWrite". An event object is only created when its
+ * type is enabled in a running recording. The events are not recorded if
+ * the runtime does not contain the jdk.jfr module.
+ */
+public class CodecEvents
+{
+
+    /** Whether the jdk.jfr module is present */
+    private static final boolean JFR = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+
+    /** This class has only static methods */
+    private CodecEvents()
+    {
+    }
+
+
+    /** Begins the decoding of a tile. */
+    public static Object beginTileDecode()
+    {
+        return JFR ? Jfr.beginTileDecode() : null;
+    }
+
+
+    /** Ends the decoding of a tile. */
+    public static void endTileDecode(Object event, int tile, int width, int height,
+        long bytes)
+    {
+        if (event != null) {
+            Jfr.endTileDecode(event, tile, width, height, bytes);
+        }
+    }
+
+
+    /** Begins the decoding of the code-blocks of a subband. */
+    public static Object beginCodeBlocksDecode()
+    {
+        return JFR ? Jfr.beginCodeBlocksDecode() : null;
+    }
+
+
+    /** Ends the decoding of the code-blocks of a subband. */
+    public static void endCodeBlocksDecode(Object event, int tile, int comp, int resLvl,
+        int sbandIdx, int width, int height, int codeBlocks)
+    {
+        if (event != null) {
+            Jfr.endCodeBlocksDecode(event, tile, comp, resLvl, sbandIdx, width, height,
+                codeBlocks);
+        }
+    }
+
+
+    /** Begins the inverse wavelet transform of a decomposition level. */
+    public static Object beginInverseWT()
+    {
+        return JFR ? Jfr.beginInverseWT() : null;
+    }
+
+
+    /** Ends the inverse wavelet transform of a decomposition level. */
+    public static void endInverseWT(Object event, int tile, int comp, int resLvl,
+        int width, int height)
+    {
+        if (event != null) {
+            Jfr.endInverseWT(event, tile, comp, resLvl, width, height);
+        }
+    }
+
+
+    /** Begins the encoding of a tile. */
+    public static Object beginTileEncode()
+    {
+        return JFR ? Jfr.beginTileEncode() : null;
+    }
+
+
+    /** Ends the encoding of a tile, up to the entropy coding. */
+    public static void endTileEncode(Object event, int tile, int width, int height,
+        int codeBlocks, long bytes)
+    {
+        if (event != null) {
+            Jfr.endTileEncode(event, tile, width, height, codeBlocks, bytes);
+        }
+    }
+
+
+    /** Begins the rate allocation of a layer. */
+    public static Object beginLayerAllocation()
+    {
+        return JFR ? Jfr.beginLayerAllocation() : null;
+    }
+
+
+    /** Ends the rate allocation of a layer. */
+    public static void endLayerAllocation(Object event, int layer, long targetBytes,
+        long bytes)
+    {
+        if (event != null) {
+            Jfr.endLayerAllocation(event, layer, targetBytes, bytes);
+        }
+    }
+
+
+    /** Begins the writing of the file format. */
+    public static Object beginFileFormatWrite()
+    {
+        return JFR ? Jfr.beginFileFormatWrite() : null;
+    }
+
+
+    /** Ends the writing of the file format. */
+    public static void endFileFormatWrite(Object event, int width, int height, int comps,
+        long bytes)
+    {
+        if (event != null) {
+            Jfr.endFileFormatWrite(event, width, height, comps, bytes);
+        }
+    }
+
+
+    /**
+     * The code using the jdk.jfr module, which is only loaded when the
+     * module is present.
+     */
+    private static final class Jfr
+    {
+        static final EventType TILE_DECODE = EventType.getEventType(TileDecode.class);
+        static final EventType CODE_BLOCKS_DECODE = EventType.getEventType(CodeBlocksDecode.class);
+        static final EventType INVERSE_WT = EventType.getEventType(InverseWT.class);
+        static final EventType TILE_ENCODE = EventType.getEventType(TileEncode.class);
+        static final EventType LAYER_ALLOCATION = EventType.getEventType(LayerAllocation.class);
+        static final EventType FILE_FORMAT_WRITE = EventType.getEventType(FileFormatWrite.class);
+
+
+        static Object beginTileDecode()
+        {
+            if (!TILE_DECODE.isEnabled()) {
+                return null;
+            }
+            TileDecode e = new TileDecode();
+            e.begin();
+            return e;
+        }
+
+
+        static Object beginCodeBlocksDecode()
+        {
+            if (!CODE_BLOCKS_DECODE.isEnabled()) {
+                return null;
+            }
+            CodeBlocksDecode e = new CodeBlocksDecode();
+            e.begin();
+            return e;
+        }
+
+
+        static Object beginInverseWT()
+        {
+            if (!INVERSE_WT.isEnabled()) {
+                return null;
+            }
+            InverseWT e = new InverseWT();
+            e.begin();
+            return e;
+        }
+
+
+        static Object beginTileEncode()
+        {
+            if (!TILE_ENCODE.isEnabled()) {
+                return null;
+            }
+            TileEncode e = new TileEncode();
+            e.begin();
+            return e;
+        }
+
+
+        static Object beginLayerAllocation()
+        {
+            if (!LAYER_ALLOCATION.isEnabled()) {
+                return null;
+            }
+            LayerAllocation e = new LayerAllocation();
+            e.begin();
+            return e;
+        }
+
+
+        static Object beginFileFormatWrite()
+        {
+            if (!FILE_FORMAT_WRITE.isEnabled()) {
+                return null;
+            }
+            FileFormatWrite e = new FileFormatWrite();
+            e.begin();
+            return e;
+        }
+
+
+        static void endTileDecode(Object event, int tile, int width, int height, long bytes)
+        {
+            TileDecode e = (TileDecode)event;
+            e.tile = tile;
+            e.width = width;
+            e.height = height;
+            e.bytes = bytes;
+            e.commit();
+        }
+
+
+        static void endCodeBlocksDecode(Object event, int tile, int comp, int resLvl,
+            int sbandIdx, int width, int height, int codeBlocks)
+        {
+            CodeBlocksDecode e = (CodeBlocksDecode)event;
+            e.tile = tile;
+            e.component = comp;
+            e.resolutionLevel = resLvl;
+            e.subband = sbandIdx;
+            e.width = width;
+            e.height = height;
+            e.codeBlocks = codeBlocks;
+            e.commit();
+        }
+
+
+        static void endInverseWT(Object event, int tile, int comp, int resLvl, int width,
+            int height)
+        {
+            InverseWT e = (InverseWT)event;
+            e.tile = tile;
+            e.component = comp;
+            e.resolutionLevel = resLvl;
+            e.width = width;
+            e.height = height;
+            e.commit();
+        }
+
+
+        static void endTileEncode(Object event, int tile, int width, int height,
+            int codeBlocks, long bytes)
+        {
+            TileEncode e = (TileEncode)event;
+            e.tile = tile;
+            e.width = width;
+            e.height = height;
+            e.codeBlocks = codeBlocks;
+            e.bytes = bytes;
+            e.commit();
+        }
+
+
+        static void endLayerAllocation(Object event, int layer, long targetBytes, long bytes)
+        {
+            LayerAllocation e = (LayerAllocation)event;
+            e.layer = layer;
+            e.targetBytes = targetBytes;
+            e.bytes = bytes;
+            e.commit();
+        }
+
+
+        static void endFileFormatWrite(Object event, int width, int height, int comps,
+            long bytes)
+        {
+            FileFormatWrite e = (FileFormatWrite)event;
+            e.width = width;
+            e.height = height;
+            e.components = comps;
+            e.bytes = bytes;
+            e.commit();
+        }
+    }
+
+
+    @Name("jpeg2000.TileDecode")
+    @Label("Tile Decode")
+    @Category("JPEG 2000")
+    @Description("Decoding of a tile, from the packets to the samples")
+    static final class TileDecode extends Event
+    {
+        @Label("Tile")
+        int tile;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+
+    @Name("jpeg2000.CodeBlocksDecode")
+    @Label("Code-Blocks Decode")
+    @Category("JPEG 2000")
+    @Description("Reading, entropy decoding and dequantization of the code-blocks of a subband")
+    static final class CodeBlocksDecode extends Event
+    {
+        @Label("Tile")
+        int tile;
+
+        @Label("Component")
+        int component;
+
+        @Label("Resolution Level")
+        int resolutionLevel;
+
+        @Label("Subband")
+        int subband;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Code-Blocks")
+        int codeBlocks;
+    }
+
+
+    @Name("jpeg2000.InverseWT")
+    @Label("Inverse Wavelet Transform")
+    @Category("JPEG 2000")
+    @Description("Inverse wavelet transform of a decomposition level")
+    static final class InverseWT extends Event
+    {
+        @Label("Tile")
+        int tile;
+
+        @Label("Component")
+        int component;
+
+        @Label("Resolution Level")
+        int resolutionLevel;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+
+    @Name("jpeg2000.TileEncode")
+    @Label("Tile Encode")
+    @Category("JPEG 2000")
+    @Description("Encoding of a tile, from the samples to the entropy coded code-blocks")
+    static final class TileEncode extends Event
+    {
+        @Label("Tile")
+        int tile;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Code-Blocks")
+        int codeBlocks;
+
+        @Label("Coded Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+
+    @Name("jpeg2000.LayerAllocation")
+    @Label("Layer Allocation")
+    @Category("JPEG 2000")
+    @Description("Rate allocation of a quality layer")
+    static final class LayerAllocation extends Event
+    {
+        @Label("Layer")
+        int layer;
+
+        @Label("Target Bytes")
+        @DataAmount
+        long targetBytes;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+
+    @Name("jpeg2000.FileFormatWrite")
+    @Label("File Format Write")
+    @Category("JPEG 2000")
+    @Description("Writing of the JP2 file format boxes and of the codestream box")
+    static final class FileFormatWrite extends Event
+    {
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Components")
+        int components;
+
+        @Label("Codestream Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.jaiimageio.jpeg2000;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Test;
+
+/**
+ * Test the code-block indexes kept by a {@link J2KIndexStore}
+ *
+ */
+public class J2KIndexStoreTest
+{
+
+    private final BufferedImage image = TestImages.testImage();
+
+
+    @Test
+    public void indexStore() throws Exception
+    {
+        J2KImageWriteParam writeParams = new J2KImageWriteParam();
+        writeParams.setLayers("0.5 1 2 8");
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(160, 128, 0, 0);
+        File file = File.createTempFile("index", ".jp2");
+        file.deleteOnExit();
+        write(file, TestImages.encode(image, writeParams));
+
+        final ByteArrayOutputStream[] stored = new ByteArrayOutputStream[1];
+        final int[] created = new int[1];
+        J2KIndexStore store = new J2KIndexStore() {
+            @Override
+            public InputStream openIndex()
+            {
+                return stored[0] == null ? null : new ByteArrayInputStream(stored[0].toByteArray());
+            }
+
+
+            @Override
+            public OutputStream createIndex()
+            {
+                created[0]++;
+                return stored[0] = new ByteArrayOutputStream();
+            }
+        };
+        int[] expected = TestImages.getRGB(image);
+        J2KDecodeStats[] stats = new J2KDecodeStats[4];
+        assertArrayEquals(expected, TestImages.getRGB(readWithIndex(file, null, stats, 0)));
+        for (int i = 1; i < 4; i++) {
+            assertArrayEquals(expected, TestImages.getRGB(readWithIndex(file, store, stats, i)));
+        }
+        assertEquals(1, created[0]);
+
+        // The packet heads are parsed to build the index, but not when
+        // decoding with it
+        assertEquals(4, stats[0].getTiles());
+        assertTrue(stats[0].getPacketHeads() > 4);
+        for (int i = 1; i < 4; i++) {
+            assertEquals(0, stats[i].getPacketHeads());
+            assertEquals(stats[0].getCodeBlocks(), stats[i].getCodeBlocks());
+            assertEquals(stats[0].getPasses(), stats[i].getPasses());
+        }
+
+        // A corrupted index is built again
+        byte[] index = stored[0].toByteArray();
+        index[index.length / 2] ^= 0x55;
+        stored[0].reset();
+        stored[0].write(index);
+        assertArrayEquals(expected, TestImages.getRGB(readWithIndex(file, store)));
+        assertEquals(2, created[0]);
+
+        // And so is the index of another codestream
+        write(file, TestImages.encode(image, new J2KImageWriteParam()));
+        assertArrayEquals(expected, TestImages.getRGB(readWithIndex(file, store)));
+        assertEquals(3, created[0]);
+
+        J2KFileIndexStore fileStore = J2KFileIndexStore.forImage(file);
+        fileStore.getFile().deleteOnExit();
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(expected, TestImages.getRGB(readWithIndex(file, fileStore)));
+            assertTrue(fileStore.getFile().isFile());
+        }
+        fileStore.getFile().delete();
+        file.delete();
+    }
+
+
+    private static void write(File file, byte[] data) throws Exception
+    {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+    }
+
+
+    /** Reads an image from a file, with the given index store. */
+    private static BufferedImage readWithIndex(File file, J2KIndexStore store) throws Exception
+    {
+        return readWithIndex(file, store, null, 0);
+    }
+
+
+    /**
+     * Reads an image from a file, with the given index store, and keeps the
+     * statistics of the decoding at the given index of an array, if not null.
+     */
+    private static BufferedImage readWithIndex(File file, J2KIndexStore store,
+        final J2KDecodeStats[] stats, final int i) throws Exception
+    {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        reader.setInput(iis);
+        J2KImageReadParam readParams = new J2KImageReadParam();
+        readParams.setIndexStore(store);
+        if (stats != null) {
+            readParams.setDecodeListener(new J2KDecodeListener() {
+                @Override
+                public void tileDecoded(J2KDecodeStats s, int tileIdx)
+                {
+                }
+
+
+                @Override
+                public void imageDecoded(J2KDecodeStats s)
+                {
+                    stats[i] = s;
+                }
+            });
+        }
+        BufferedImage read = reader.read(0, readParams);
+        reader.dispose();
+        iis.close();
+        return read;
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.jaiimageio.jpeg2000;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+import org.junit.Test;
+
+/**
+ * Test JPEG2000 reading
+ *
+ */
+public class Jpeg2000ReadTest
+{
+
+    private final BufferedImage image = TestImages.testImage();
+
+
+    @Test
+    public void tilePartChunks() throws Exception
+    {
+        byte[] data = TestImages.encode(image, new J2KImageWriteParam());
+        int[] expected = TestImages.getRGB(image);
+        // Unbuffered, chunks much smaller than the code-block segments, default
+        for (int size : new int[] { 0, 100, -1 }) {
+            J2KImageReadParam readParams = new J2KImageReadParam();
+            if (size >= 0) {
+                readParams.setTilePartChunkSize(size);
+            }
+            assertArrayEquals("size=" + size, expected,
+                TestImages.getRGB(TestImages.decode(data, readParams)));
+        }
+    }
+
+
+    @Test
+    public void qualityLayers() throws Exception
+    {
+        // The packets of the following layers are skipped with the layer
+        // progression, but still parsed with the resolution one
+        String[] progressions = { "layer", "res" };
+        int[] layers = { 1, 5, -1 };
+        int[][][] read = new int[progressions.length][layers.length][];
+        long[][] bytesRead = new long[progressions.length][layers.length];
+        for (int i = 0; i < progressions.length; i++) {
+            J2KImageWriteParam writeParams = new J2KImageWriteParam();
+            writeParams.setLossless(false);
+            writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+            writeParams.setEncodingRate(2.0f);
+            writeParams.setProgressionType(progressions[i]);
+            byte[] data = TestImages.encode(image, writeParams);
+
+            for (int j = 0; j < layers.length; j++) {
+                J2KImageReadParam readParams = new J2KImageReadParam();
+                readParams.setQualityLayers(layers[j]);
+                J2KDecodeStats[] stats = listen(readParams);
+                read[i][j] = TestImages.getRGB(TestImages.decode(data, readParams));
+                bytesRead[i][j] = stats[0].getBytesRead();
+            }
+        }
+        for (int j = 0; j < layers.length; j++) {
+            assertArrayEquals("layers=" + layers[j], read[0][j], read[1][j]);
+        }
+        assertFalse(Arrays.equals(read[0][0], read[0][1]));
+        assertFalse(Arrays.equals(read[0][1], read[0][2]));
+
+        // The reading stops after the last decoded layer when the layers
+        // are outermost, otherwise the whole codestream is read
+        assertTrue(bytesRead[0][0] < bytesRead[0][2] / 2);
+        assertTrue(bytesRead[0][1] > bytesRead[0][0]);
+        assertTrue(bytesRead[0][1] < bytesRead[0][2]);
+        for (int j = 0; j < layers.length; j++) {
+            assertEquals("layers=" + layers[j], bytesRead[0][2], bytesRead[1][j]);
+        }
+    }
+
+
+    @Test
+    public void sourceBands() throws Exception
+    {
+        int w = image.getWidth(), h = image.getHeight();
+        // Inverse ICT, RCT or no component transformation, with the
+        // components outermost or not
+        for (boolean lossless : new boolean[] { false, true }) {
+            for (boolean mct : new boolean[] { true, false }) {
+                for (String progression : new String[] { "comp-pos", "layer" }) {
+                    J2KImageWriteParam writeParams = new J2KImageWriteParam();
+                    writeParams.setLossless(lossless);
+                    writeParams.setComponentTransformation(mct);
+                    if (!lossless) {
+                        writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+                        writeParams.setEncodingRate(2.0f);
+                    }
+                    writeParams.setProgressionType(progression);
+                    byte[] data = TestImages.encode(image, writeParams);
+
+                    J2KImageReadParam allParams = new J2KImageReadParam();
+                    J2KDecodeStats[] allStats = listen(allParams);
+                    Raster all = TestImages.decode(data, allParams).getRaster();
+                    for (int b = 0; b < 3; b++) {
+                        String msg = "lossless=" + lossless + ", mct=" + mct + ", " + progression + ", band " + b;
+                        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+                        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+                        J2KImageReadParam readParams = (J2KImageReadParam)reader.getDefaultReadParam();
+                        J2KDecodeStats[] bandStats = listen(readParams);
+                        readParams.setSourceBands(new int[] { b });
+                        readParams.setDestinationBands(new int[] { 0 });
+                        Raster band = reader.readRaster(0, readParams);
+                        reader.dispose();
+                        assertEquals(1, band.getNumBands());
+                        assertArrayEquals(msg,
+                            all.getSamples(0, 0, w, h, b, (int[])null),
+                            band.getSamples(0, 0, w, h, 0, (int[])null));
+
+                        // Only the components needed by the inverse
+                        // component transformation are decoded: all for the
+                        // RCT, and Y with one chrominance for red and blue
+                        // with the ICT. Without PLT the data after the last
+                        // needed component is only left unread with the
+                        // components outermost.
+                        int needed = !mct ? 1 : lossless || b == 1 ? 3 : 2;
+                        assertEquals(msg, allStats[0].getCodeBlocks() * needed / 3, bandStats[0].getCodeBlocks());
+                        assertTrue(msg, bandStats[0].getBytesRead() <= allStats[0].getBytesRead());
+                        if (!mct && b == 0 && progression.equals("comp-pos")) {
+                            assertTrue(msg, bandStats[0].getBytesRead() < allStats[0].getBytesRead() * 0.9);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void decodeStats() throws Exception
+    {
+        byte[] data = TestImages.encode(image, new J2KImageWriteParam());
+
+        final List<Integer> tiles = new ArrayList<Integer>();
+        final J2KDecodeStats[] decoded = new J2KDecodeStats[1];
+        J2KImageReadParam readParams = new J2KImageReadParam();
+        readParams.setDecodeListener(new J2KDecodeListener() {
+            @Override
+            public void tileDecoded(J2KDecodeStats stats, int tileIdx)
+            {
+                tiles.add(tileIdx);
+            }
+
+
+            @Override
+            public void imageDecoded(J2KDecodeStats stats)
+            {
+                decoded[0] = stats;
+            }
+        });
+        BufferedImage read = TestImages.decode(data, readParams);
+
+        assertArrayEquals(TestImages.getRGB(image), TestImages.getRGB(read));
+        assertEquals(Arrays.asList(0), tiles);
+        J2KDecodeStats stats = decoded[0];
+        assertEquals(1, stats.getTiles());
+        assertTrue(stats.getBytesRead() > 0);
+        assertTrue(stats.getCodeBlocks() > 0);
+        assertTrue(stats.getPasses() >= stats.getCodeBlocks());
+        for (int stage : new int[] { J2KDecodeStats.HEADERS, J2KDecodeStats.PACKETS, J2KDecodeStats.ENTROPY,
+            J2KDecodeStats.IDWT, J2KDecodeStats.CONVERSION }) {
+            assertTrue(stats.getStageName(stage), stats.getTime(stage) > 0);
+        }
+    }
+
+
+    /**
+     * Sets a listener keeping the statistics of the decoded image in the
+     * returned array.
+     */
+    private static J2KDecodeStats[] listen(J2KImageReadParam readParams)
+    {
+        final J2KDecodeStats[] decoded = new J2KDecodeStats[1];
+        readParams.setDecodeListener(new J2KDecodeListener() {
+            @Override
+            public void tileDecoded(J2KDecodeStats stats, int tileIdx)
+            {
+            }
+
+
+            @Override
+            public void imageDecoded(J2KDecodeStats stats)
+            {
+                decoded[0] = stats;
+            }
+        });
+        return decoded;
+    }
+}
@@ -1,11 +1,18 @@
 package com.github.jaiimageio.jpeg2000;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import javax.imageio.IIOImage;
@@ -17,6 +24,8 @@ import javax.imageio.stream.ImageOutputStream;
 import org.junit.Before;
 import org.junit.Test;
 
+import jj2000.j2k.entropy.encoder.StdEntropyCoder;
+
 import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
 
 /**
@@ -70,6 +79,83 @@ public class Jpeg2000WriteTest
     }
 
 
+    @Test
+    public void losslessSingleLayer() throws Exception
+    {
+        BufferedImage gray = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte)gray.getRaster().getDataBuffer()).getData();
+        new Random(1337).nextBytes(data);
+
+        File f = File.createTempFile("test-jpeg2000-single", ".jp2");
+        f.deleteOnExit();
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("jp2").next();
+        J2KImageWriteParam writeParams = (J2KImageWriteParam)writer.getDefaultWriteParam();
+        writeParams.setLossless(true);
+        writeParams.setLayers(null);
+        final J2KEncodeStats[] encoded = new J2KEncodeStats[1];
+        writeParams.setEncodeListener(new J2KEncodeListener() {
+            @Override
+            public void imageEncoded(J2KEncodeStats stats)
+            {
+                encoded[0] = stats;
+            }
+        });
+
+        ImageOutputStream ios = ImageIO.createImageOutputStream(f);
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(gray, null, null), writeParams);
+        writer.dispose();
+        ios.close();
+
+        // All the passes are sent without rate-distortion optimization
+        assertEquals(0, encoded[0].getOptimizedLayers());
+        assertTrue(encoded[0].getPasses() > 0);
+
+        BufferedImage read = ImageIO.read(f);
+        assertEquals(SIZE, read.getWidth());
+        int[] expected = gray.getRaster().getSamples(0, 0, SIZE, SIZE, 0, (int[])null);
+        int[] actual = read.getRaster().getSamples(0, 0, SIZE, SIZE, 0, (int[])null);
+        assertArrayEquals(expected, actual);
+    }
+
+
+    @Test
+    public void losslessPackedRGB() throws Exception
+    {
+        BufferedImage img = TestImages.testImage();
+        int w = img.getWidth(), h = img.getHeight();
+        byte[] data = encode(img, true, "full");
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(data));
+        for (int b = 0; b < 3; b++) {
+            int[] expected = img.getRaster().getSamples(0, 0, w, h, b, (int[])null);
+            int[] actual = read.getRaster().getSamples(0, 0, w, h, b, (int[])null);
+            assertArrayEquals("band " + b, expected, actual);
+        }
+    }
+
+
+    @Test
+    public void losslessSubsampledRegion() throws Exception
+    {
+        J2KImageWriteParam writeParams = new J2KImageWriteParam();
+        writeParams.setLossless(true);
+        writeParams.setSourceRegion(new Rectangle(30, 17, 300, 200));
+        writeParams.setSourceSubsampling(2, 3, 1, 2);
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(64, 48, 0, 0);
+
+        byte[] data = TestImages.encode(image, writeParams);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(data));
+        assertEquals(150, read.getWidth());
+        assertEquals(66, read.getHeight());
+        for (int y = 0; y < 66; y++) {
+            for (int x = 0; x < 150; x++) {
+                assertEquals(image.getRGB(31 + 2 * x, 19 + 3 * y), read.getRGB(x, y));
+            }
+        }
+    }
+
+
     @Test
     public void lossyWrite() throws Exception
     {
@@ -99,4 +185,249 @@ public class Jpeg2000WriteTest
         assertEquals(SIZE, read.getWidth());
     }
 
+
+    @Test
+    public void lossyEarlyPassTermination() throws Exception
+    {
+        // A natural image, whose code-blocks differ enough in R-D slope for
+        // the coder to stop early on some of them. Stopping at the lower
+        // bound of the threshold itself, rather than at half of it, loses
+        // 0.15 dB at 0.05 bpp.
+        BufferedImage img = ImageIO.read(getClass().getResource("/test.png"));
+        for (float rate : new float[] { 0.05f, 0.2f }) {
+            final J2KEncodeStats[] stats = new J2KEncodeStats[2];
+            double[] psnr = new double[2];
+            for (int i = 0; i < 2; i++) {
+                final int n = i;
+                J2KImageWriteParam writeParams = new J2KImageWriteParam();
+                writeParams.setLossless(false);
+                writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+                writeParams.setEncodingRate(rate);
+                writeParams.setEarlyPassTermination(i == 1);
+                writeParams.setEncodeListener(new J2KEncodeListener() {
+                    @Override
+                    public void imageEncoded(J2KEncodeStats encoded)
+                    {
+                        stats[n] = encoded;
+                    }
+                });
+                byte[] data = TestImages.encode(img, writeParams);
+                psnr[i] = psnr(img, ImageIO.read(new ByteArrayInputStream(data)));
+            }
+            assertTrue("rate=" + rate, stats[1].getPasses() < stats[0].getPasses());
+            assertEquals("rate=" + rate, psnr[0], psnr[1], 0.05);
+        }
+    }
+
+
+    @Test
+    public void lineBasedTransform() throws Exception
+    {
+        // Odd sizes, to exercise the symmetric extension at all the borders
+        BufferedImage img = TestImages.testImage();
+        for (boolean lossless : new boolean[] { true, false }) {
+            byte[] full = encode(img, lossless, "full");
+            byte[] line = encode(img, lossless, "line");
+            assertArrayEquals("lossless=" + lossless, full, line);
+        }
+    }
+
+
+    @Test
+    public void directCodeBlockStorage() throws Exception
+    {
+        byte[][] out = new byte[2][];
+        for (int i = 0; i < 2; i++) {
+            J2KImageWriteParam writeParams = new J2KImageWriteParam();
+            writeParams.setLossless(false);
+            writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+            writeParams.setEncodingRate(1.0f);
+            writeParams.setDirectCodeBlockStorage(i == 1);
+            out[i] = TestImages.encode(image, writeParams);
+        }
+        assertArrayEquals(out[0], out[1]);
+    }
+
+
+    @Test
+    public void encodeStats() throws Exception
+    {
+        BufferedImage img = TestImages.testImage();
+
+        // The line-based transform replaces the decomposition of the full
+        // transform, its time must still be accounted to the FWT stage
+        for (String waveletTransform : new String[] { "full", "line" }) {
+            final J2KEncodeStats[] encoded = new J2KEncodeStats[1];
+            J2KImageWriteParam writeParams = new J2KImageWriteParam();
+            writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+            writeParams.setLossless(false);
+            writeParams.setEncodingRate(2.0f);
+            writeParams.setWaveletTransform(waveletTransform);
+            writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParams.setTiling(160, 128, 0, 0);
+            writeParams.setEncodeListener(new J2KEncodeListener() {
+                @Override
+                public void imageEncoded(J2KEncodeStats stats)
+                {
+                    encoded[0] = stats;
+                }
+            });
+            byte[] data;
+            long elapsed = System.nanoTime();
+            String threads = System.setProperty(StdEntropyCoder.THREADS_PROP_NAME, "2");
+            try {
+                data = TestImages.encode(img, writeParams);
+            }
+            finally {
+                if (threads == null) {
+                    System.clearProperty(StdEntropyCoder.THREADS_PROP_NAME);
+                }
+                else {
+                    System.setProperty(StdEntropyCoder.THREADS_PROP_NAME, threads);
+                }
+            }
+            elapsed = System.nanoTime() - elapsed;
+
+            J2KEncodeStats stats = encoded[0];
+            assertEquals(4, stats.getTiles());
+            assertEquals(data.length, stats.getBytesWritten());
+            assertTrue(stats.getCodeBlocks() > 0);
+            assertTrue(stats.getPasses() >= stats.getCodeBlocks());
+            assertTrue(stats.getCodeBlockData() > 0);
+            assertTrue(stats.getHeapUsed() > 0);
+            assertTrue(stats.getOptimizedLayers() > 1);
+
+            // The threads which got code-blocks to code, each one within the
+            // time of the encoding
+            int n = stats.getNumEntropyThreads();
+            assertTrue(n >= 1 && n <= 2);
+            long threadTime = 0;
+            for (int i = 0; i < n; i++) {
+                assertTrue(stats.getEntropyThreadTime(i) >= 0);
+                assertTrue(stats.getEntropyThreadTime(i) <= elapsed);
+                threadTime += stats.getEntropyThreadTime(i);
+            }
+            assertTrue(threadTime > 0);
+            for (int stage : new int[] { J2KEncodeStats.SOURCE, J2KEncodeStats.COMPONENT_TRANSFORM,
+                J2KEncodeStats.FWT, J2KEncodeStats.QUANTIZATION, J2KEncodeStats.RATE_ALLOCATION,
+                J2KEncodeStats.CODESTREAM, J2KEncodeStats.FILE_FORMAT }) {
+                assertTrue(waveletTransform + ": " + stats.getStageName(stage), stats.getTime(stage) > 0);
+            }
+        }
+    }
+
+
+    @Test
+    public void lengthMarkers() throws Exception
+    {
+        BufferedImage img = TestImages.testImage();
+        byte[][] streams = new byte[2][];
+        for (int i = 0; i < streams.length; i++) {
+            J2KImageWriteParam writeParams = new J2KImageWriteParam();
+            writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParams.setTiling(160, 128, 0, 0);
+            writeParams.setWriteCodeStreamOnly(true);
+            writeParams.setTLM(i == 1);
+            writeParams.setPLT(i == 1);
+            streams[i] = TestImages.encode(img, writeParams);
+        }
+        byte[] data = streams[1];
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        assertEquals(0xff4f, in.readUnsignedShort()); // SOC
+        List<Integer> tlm = new ArrayList<Integer>();
+        int added = 0;
+        int marker;
+        while ((marker = in.readUnsignedShort()) != 0xff90) {
+            int len = in.readUnsignedShort();
+            if (marker == 0xff52) {
+                assertEquals("no SOP nor EPH", 0, in.readUnsignedByte() & 0x06);
+                in.skipBytes(len - 3);
+            }
+            else if (marker == 0xff55) {
+                added += len + 2;
+                in.skipBytes(2);
+                for (int j = 0; j < (len - 4) / 6; j++) {
+                    assertEquals(tlm.size(), in.readUnsignedShort());
+                    tlm.add(in.readInt());
+                }
+            }
+            else {
+                in.skipBytes(len - 2);
+            }
+        }
+        assertEquals(4, tlm.size());
+        for (int t = 0; t < tlm.size(); t++) {
+            if (t > 0)
+                assertEquals(0xff90, in.readUnsignedShort());
+            in.skipBytes(4);
+            int psot = in.readInt();
+            assertEquals(tlm.get(t).intValue(), psot);
+            in.skipBytes(2);
+            int head = 12;
+            long packets = 0;
+            while ((marker = in.readUnsignedShort()) != 0xff93) {
+                int len = in.readUnsignedShort();
+                head += len + 2;
+                if (marker == 0xff58) {
+                    added += len + 2;
+                    in.skipBytes(1);
+                    for (int j = 0, v = 0; j < len - 3; j++) {
+                        int b = in.readUnsignedByte();
+                        v = v << 7 | b & 0x7f;
+                        if ((b & 0x80) == 0) {
+                            packets += v;
+                            v = 0;
+                        }
+                    }
+                }
+                else {
+                    in.skipBytes(len - 2);
+                }
+            }
+            assertEquals(psot - head - 2, packets);
+            in.skipBytes(psot - head - 2);
+        }
+        assertEquals(0xffd9, in.readUnsignedShort());
+        assertTrue(added > 0);
+        for (byte[] stream : streams) {
+            assertArrayEquals(TestImages.getRGB(img), TestImages.getRGB(TestImages.decode(stream, null)));
+        }
+    }
+
+
+    /**
+     * Returns the PSNR of the RGB samples of an image against the original.
+     */
+    private static double psnr(BufferedImage original, BufferedImage img)
+    {
+        assertEquals(original.getWidth(), img.getWidth());
+        assertEquals(original.getHeight(), img.getHeight());
+        double se = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int a = original.getRGB(x, y), b = img.getRGB(x, y);
+                for (int s = 0; s < 24; s += 8) {
+                    int d = (a >> s & 0xff) - (b >> s & 0xff);
+                    se += d * d;
+                }
+            }
+        }
+        return 10 * Math.log10(255.0 * 255.0 * 3 * img.getWidth() * img.getHeight() / se);
+    }
+
+
+    private static byte[] encode(BufferedImage img, boolean lossless, String waveletTransform)
+        throws Exception
+    {
+        J2KImageWriteParam writeParams = new J2KImageWriteParam();
+        writeParams.setLossless(lossless);
+        if (!lossless) {
+            writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+            writeParams.setEncodingRate(2.0f);
+        }
+        writeParams.setCodeBlockSize(new int[] { 32, 16 });
+        writeParams.setWaveletTransform(waveletTransform);
+        return TestImages.encode(img, writeParams);
+    }
+
 }
@@ -0,0 +1,160 @@
+package com.github.jaiimageio.jpeg2000;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriter;
+import com.github.jaiimageio.jpeg2000.impl.RenderedImageSrc;
+
+import jj2000.j2k.codestream.writer.FileCodestreamWriter;
+import jj2000.j2k.codestream.writer.HeaderEncoder;
+import jj2000.j2k.entropy.encoder.EntropyCoder;
+import jj2000.j2k.entropy.encoder.PostCompRateAllocator;
+import jj2000.j2k.image.ImgDataConverter;
+import jj2000.j2k.image.Tiler;
+import jj2000.j2k.image.forwcomptransf.ForwCompTransf;
+import jj2000.j2k.quantization.quantizer.Quantizer;
+import jj2000.j2k.roi.encoder.ROIScaler;
+import jj2000.j2k.wavelet.analysis.ForwardWT;
+
+/**
+ * Images and codestreams shared by the tests
+ *
+ */
+public final class TestImages
+{
+
+    /** The size of the random image */
+    public static final int SIZE = 1024;
+
+    /** The size of the test image */
+    public static final int WIDTH = 301, HEIGHT = 203;
+
+
+    private TestImages()
+    {
+    }
+
+
+    /** Returns an image of SIZE x SIZE random RGB pixels. */
+    public static BufferedImage randomImage()
+    {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Random r = new Random(1337);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                image.setRGB(x, y, r.nextInt(0xffffff));
+            }
+        }
+        return image;
+    }
+
+
+    /**
+     * Returns a WIDTH x HEIGHT part of the random image. The odd sizes
+     * exercise the borders of the wavelet transform and the code-blocks.
+     */
+    public static BufferedImage testImage()
+    {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, WIDTH, HEIGHT, randomImage().getRGB(3, 5, WIDTH, HEIGHT, null, 0, WIDTH),
+            0, WIDTH);
+        return img;
+    }
+
+
+    /**
+     * Encodes an image with the given parameters, which are typically a new
+     * {@link J2KImageWriteParam}, as done by the default parameters of the
+     * writer.
+     */
+    public static byte[] encode(RenderedImage img, J2KImageWriteParam param) throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("jp2").next();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(img, null, null), param);
+        writer.dispose();
+        ios.close();
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Encodes an image with the chain of <code>J2KImageWriter</code>, into
+     * a codestream without any rate allocation. The parameters, created for
+     * the same image, may have values which <code>J2KImageWriteParam</code>
+     * has not, like tile specific values or precinct sizes.
+     */
+    public static byte[] encode(RenderedImage img, J2KImageWriteParamJava wp) throws Exception
+    {
+        RenderedImageSrc imgsrc = new RenderedImageSrc(img, wp, new J2KImageWriter(null));
+        boolean[] signed = new boolean[imgsrc.getNumComps()];
+        Tiler tiler = new Tiler(imgsrc, 0, 0, 0, 0, wp.getTileWidth(), wp.getTileHeight());
+        ForwCompTransf fctransf = new ForwCompTransf(tiler, wp);
+        ImgDataConverter converter = new ImgDataConverter(fctransf);
+        ForwardWT dwt = ForwardWT.createInstance(converter, wp);
+        Quantizer quant = Quantizer.createInstance(dwt, wp);
+        ROIScaler rois = ROIScaler.createInstance(quant, wp);
+        EntropyCoder ecoder = EntropyCoder.createInstance(rois, wp,
+            wp.getCodeBlockSize(),
+            wp.getPrecinctPartition(),
+            wp.getBypass(),
+            wp.getResetMQ(),
+            wp.getTerminateOnByte(),
+            wp.getCausalCXInfo(),
+            wp.getCodeSegSymbol(),
+            wp.getMethodForMQLengthCalc(),
+            wp.getMethodForMQTermination());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FileCodestreamWriter bwriter = new FileCodestreamWriter(bos, Integer.MAX_VALUE);
+        PostCompRateAllocator ralloc = PostCompRateAllocator.createInstance(ecoder,
+            Float.MAX_VALUE, bwriter, wp);
+        HeaderEncoder headenc = new HeaderEncoder(imgsrc, signed, dwt, tiler, wp, rois, ralloc);
+        ralloc.setHeaderEncoder(headenc);
+        headenc.encodeMainHeader();
+        ralloc.initialize();
+        headenc.reset();
+        headenc.encodeMainHeader();
+        bwriter.commitBitstreamHeader(headenc);
+        ralloc.runAndWrite();
+        bwriter.close();
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Decodes a codestream with the given parameters, which are typically a
+     * new {@link J2KImageReadParam}, or <code>null</code> for the default
+     * ones.
+     */
+    public static BufferedImage decode(byte[] data, ImageReadParam param) throws Exception
+    {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+        BufferedImage read = reader.read(0, param);
+        reader.dispose();
+        return read;
+    }
+
+
+    /** Returns the RGB pixels of a whole image. */
+    public static int[] getRGB(BufferedImage img)
+    {
+        int w = img.getWidth(), h = img.getHeight();
+        return img.getRGB(0, 0, w, h, null, 0, w);
+    }
+}
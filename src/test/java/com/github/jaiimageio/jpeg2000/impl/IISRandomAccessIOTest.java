@@ -0,0 +1,235 @@
+package com.github.jaiimageio.jpeg2000.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.junit.Test;
+
+/**
+ * Test the buffered reading of an <code>ImageInputStream</code> by
+ * {@link IISRandomAccessIO}
+ *
+ */
+public class IISRandomAccessIOTest
+{
+
+    private static byte[] data(int n)
+    {
+        byte[] data = new byte[n];
+        new Random(1337).nextBytes(data);
+        return data;
+    }
+
+
+    /** Returns a stream which does not know its length */
+    private static ImageInputStream stream(byte[] data)
+    {
+        return new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+    }
+
+
+    private static int getInt(byte[] data, int pos)
+    {
+        return (data[pos] << 24) | ((data[pos + 1] & 0xFF) << 16) |
+            ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+
+    @Test
+    public void sequentialReads() throws Exception
+    {
+        byte[] data = data(40000);
+        IISRandomAccessIO in = new IISRandomAccessIO(stream(data));
+
+        // Mixed reads, so that multi-byte values straddle the refills of
+        // the growing read-ahead and of the full buffer
+        int pos = 0;
+        Random r = new Random(42);
+        while (pos < data.length - 8) {
+            assertEquals(pos, in.getPos());
+            switch (r.nextInt(4)) {
+                case 0:
+                    assertEquals(data[pos] & 0xFF, in.read());
+                    pos++;
+                    break;
+                case 1:
+                    assertEquals((short)((data[pos] << 8) | (data[pos + 1] & 0xFF)), in.readShort());
+                    pos += 2;
+                    break;
+                case 2:
+                    assertEquals(getInt(data, pos), in.readInt());
+                    pos += 4;
+                    break;
+                default:
+                    byte[] b = new byte[Math.min(r.nextInt(300), data.length - pos)];
+                    in.readFully(b, 0, b.length);
+                    for (int i = 0; i < b.length; i++) {
+                        assertEquals(data[pos + i], b[i]);
+                    }
+                    pos += b.length;
+            }
+        }
+        in.close();
+    }
+
+
+    @Test
+    public void seeks() throws Exception
+    {
+        byte[] data = data(40000);
+        ImageInputStream iis = stream(data);
+        iis.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        IISRandomAccessIO in = new IISRandomAccessIO(iis);
+
+        // Back and forth within the buffer, across its end and far from it
+        int[] offsets = { 0, 125, 3, 8190, 8189, 20000, 19999, 127, 39996, 0, 16383 };
+        for (int off : offsets) {
+            in.seek(off);
+            assertEquals(off, in.getPos());
+            assertEquals("offset " + off, Integer.reverseBytes(getInt(data, off)), in.readInt());
+            assertEquals(off + 4, in.getPos());
+        }
+
+        // A large read from the middle of the buffer
+        in.seek(100);
+        in.read();
+        byte[] b = new byte[20000];
+        in.readFully(b, 0, b.length);
+        for (int i = 0; i < b.length; i++) {
+            assertEquals(data[101 + i], b[i]);
+        }
+        assertEquals(20101, in.getPos());
+        assertEquals(data[20101], in.readByte());
+
+        in.skipBytes(-2);
+        assertEquals(data[20100] & 0xFF, in.read());
+        in.close();
+    }
+
+
+    @Test
+    public void startPosition() throws Exception
+    {
+        byte[] data = data(1000);
+        ImageInputStream iis = stream(data);
+        iis.seek(300);
+        IISRandomAccessIO in = new IISRandomAccessIO(iis);
+        assertEquals(300, in.getPos());
+        assertEquals(data[300] & 0xFF, in.read());
+        in.seek(10);
+        assertEquals(data[10] & 0xFF, in.read());
+        in.close();
+
+        // A stream seeked after the creation, which starts reading there
+        iis = stream(data);
+        in = new IISRandomAccessIO(iis);
+        iis.seek(500);
+        assertEquals(getInt(data, 500), in.readInt());
+        assertEquals(504, in.getPos());
+        in.close();
+    }
+
+
+    @Test
+    public void unknownLength() throws Exception
+    {
+        int[] lengths = { 0, 1, 127, 8191, 8192, 8193, 16385, 100000 };
+        for (int n : lengths) {
+            byte[] data = data(n);
+            ImageInputStream iis = stream(data);
+            assertEquals(-1, iis.length());
+            IISRandomAccessIO in = new IISRandomAccessIO(iis);
+            int pos = n / 3;
+            in.seek(pos);
+            if (n > 0) {
+                assertEquals(data[pos] & 0xFF, in.read());
+                pos++;
+            }
+            assertEquals("length " + n, n, in.length());
+            assertEquals("length " + n, n, in.length());
+
+            // The position and the buffered data are unchanged
+            assertEquals(pos, in.getPos());
+            for (; pos < Math.min(n, 20000); pos++) {
+                assertEquals(data[pos] & 0xFF, in.read());
+            }
+            in.close();
+        }
+    }
+
+
+    @Test
+    public void endOfStream() throws Exception
+    {
+        byte[] data = data(10000);
+        IISRandomAccessIO in = new IISRandomAccessIO(stream(data));
+
+        in.seek(9990);
+        byte[] b = new byte[20];
+        try {
+            in.readFully(b, 0, b.length);
+            fail("Small read past the end");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+
+        in.seek(5000);
+        b = new byte[6000];
+        try {
+            in.readFully(b, 0, b.length);
+            fail("Large read past the end");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+
+        in.seek(9998);
+        try {
+            in.readInt();
+            fail("Integer past the end");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+
+        // Reading up to the end exactly
+        in.seek(9990);
+        b = new byte[10];
+        in.readFully(b, 0, b.length);
+        assertEquals(data[9999], b[9]);
+        assertEquals(-1, in.read());
+        try {
+            in.readByte();
+            fail("Byte past the end");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+        in.close();
+    }
+
+
+    @Test
+    public void writeNotSupported() throws Exception
+    {
+        IISRandomAccessIO in = new IISRandomAccessIO(stream(data(10)));
+        try {
+            in.write(0);
+            fail("Write");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.jaiimageio.jpeg2000.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+import com.github.jaiimageio.impl.common.SimpleRenderedImage;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.TestImages;
+
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.image.Tiler;
+
+/**
+ * Test the reading of tiled sources by {@link RenderedImageSrc}
+ *
+ */
+public class RenderedImageSrcTest
+{
+
+    /**
+     * A tiled image whose size is not a multiple of its tile size, which
+     * counts how often each tile is computed.
+     */
+    private static class TiledImage extends SimpleRenderedImage
+    {
+        final BufferedImage image;
+
+        final Map<Point, Integer> fetches = new HashMap<Point, Integer>();
+
+
+        TiledImage(BufferedImage image, int tileWidth, int tileHeight)
+        {
+            this.image = image;
+            width = image.getWidth();
+            height = image.getHeight();
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            sampleModel = image.getSampleModel().createCompatibleSampleModel(tileWidth, tileHeight);
+            colorModel = image.getColorModel();
+        }
+
+
+        @Override
+        public Raster getTile(int tileX, int tileY)
+        {
+            Point key = new Point(tileX, tileY);
+            Integer n = fetches.get(key);
+            fetches.put(key, n == null ? 1 : n + 1);
+            WritableRaster tile = Raster.createWritableRaster(sampleModel,
+                new Point(tileXToX(tileX), tileYToY(tileY)));
+            tile.setRect(image.getRaster());
+            return tile;
+        }
+    }
+
+
+    @Test
+    public void tiledSource() throws Exception
+    {
+        BufferedImage img = new BufferedImage(301, 203, BufferedImage.TYPE_INT_RGB);
+        Random r = new Random(1337);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, r.nextInt(0xffffff));
+            }
+        }
+
+        // Whole image, a source region ending inside source tiles, and a
+        // subsampling whose grid skips the edges of some source tiles
+        Rectangle[] regions = { null, new Rectangle(13, 7, 250, 150), new Rectangle(5, 3, 290, 199) };
+        int[] subsampling = { 1, 1, 3 };
+        for (int i = 0; i < regions.length; i++) {
+            TiledImage src = new TiledImage(img, 48, 40);
+            ImageWriter writer = ImageIO.getImageWritersBySuffix("jp2").next();
+            J2KImageWriteParam writeParams = (J2KImageWriteParam)writer.getDefaultWriteParam();
+            writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParams.setTiling(64, 64, 0, 0);
+            writeParams.setSourceRegion(regions[i]);
+            writeParams.setSourceSubsampling(subsampling[i], subsampling[i], 0, 0);
+            writeParams.setLossless(true);
+
+            // Read the tiles as the encoder does
+            J2KImageWriteParamJava j2kwparam = new J2KImageWriteParamJava(
+                new IIOImage(src, null, null), writeParams);
+            RenderedImageSrc imgsrc = new RenderedImageSrc(src, j2kwparam, (J2KImageWriter)writer);
+            Tiler tiler = new Tiler(imgsrc, j2kwparam.getMinX(), j2kwparam.getMinY(),
+                j2kwparam.getTileGridXOffset(), j2kwparam.getTileGridYOffset(),
+                j2kwparam.getTileWidth(), j2kwparam.getTileHeight());
+            DataBlkInt blk = new DataBlkInt();
+            tiler.setTile(0, 0);
+            for (int t = 0; t < tiler.getNumTiles(); t++) {
+                if (t > 0)
+                    tiler.nextTile();
+                for (int c = 0; c < tiler.getNumComps(); c++) {
+                    blk.ulx = tiler.getCompULX(c);
+                    blk.uly = tiler.getCompULY(c);
+                    blk.w = tiler.getTileCompWidth(t, c);
+                    blk.h = tiler.getTileCompHeight(t, c);
+                    tiler.getInternCompData(blk, c);
+                }
+            }
+            assertEquals("region " + i, 0, imgsrc.getNumCachedSourceTiles());
+            assertTrue("region " + i, !src.fetches.isEmpty());
+            for (Map.Entry<Point, Integer> e : src.fetches.entrySet()) {
+                assertEquals("region " + i + ", tile " + e.getKey(), 1, e.getValue().intValue());
+            }
+
+            // The encoded image is the same as when read from a single tile
+            Rectangle region = regions[i] == null ? new Rectangle(0, 0, 301, 203) : regions[i];
+            BufferedImage expected = new BufferedImage(
+                (region.width + subsampling[i] - 1) / subsampling[i],
+                (region.height + subsampling[i] - 1) / subsampling[i], BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    expected.setRGB(x, y, img.getRGB(region.x + x * subsampling[i],
+                        region.y + y * subsampling[i]));
+                }
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(new TiledImage(img, 48, 40), null, null), writeParams);
+            writer.dispose();
+            ios.close();
+            BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+            int w = expected.getWidth(), h = expected.getHeight();
+            assertArrayEquals("region " + i, expected.getRGB(0, 0, w, h, null, 0, w),
+                read.getRGB(0, 0, w, h, null, 0, w));
+        }
+    }
+
+
+    /**
+     * Lossless round trips of the layouts read directly from the data buffer,
+     * and of one which is read through the raster instead.
+     */
+    @Test
+    public void directLayouts() throws Exception
+    {
+        int w = 97, h = 61;
+        // Three banks, the bands stored in another order than the banks
+        SampleModel banded = new BandedSampleModel(DataBuffer.TYPE_BYTE, w, h, w,
+            new int[] { 2, 0, 1 }, new int[] { 0, 0, 0 });
+        ComponentColorModel bandedCm = new ComponentColorModel(
+            ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+            Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        BufferedImage[] images = {
+            new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR),
+            new BufferedImage(w, h, BufferedImage.TYPE_USHORT_GRAY),
+            new BufferedImage(bandedCm, Raster.createWritableRaster(banded, null), false, null),
+            new BufferedImage(w, h, BufferedImage.TYPE_USHORT_565_RGB),
+        };
+        boolean[] direct = { true, true, true, false };
+        Random r = new Random(1337);
+        for (int i = 0; i < images.length; i++) {
+            WritableRaster raster = images[i].getRaster();
+            assertEquals("image " + i, direct[i],
+                RenderedImageSrc.isDirectLayout(raster.getSampleModel(), raster.getDataBuffer()));
+            // Full range samples, so that 16 bit ones have the high bit set
+            for (int b = 0; b < raster.getNumBands(); b++) {
+                int max = 1 << raster.getSampleModel().getSampleSize(b);
+                for (int y = 0; y < h; y++) {
+                    for (int x = 0; x < w; x++) {
+                        raster.setSample(x, y, b, r.nextInt(max));
+                    }
+                }
+            }
+
+            J2KImageWriteParam param = new J2KImageWriteParam();
+            param.setLossless(true);
+            Raster read = TestImages.decode(TestImages.encode(images[i], param), null).getRaster();
+            assertEquals("image " + i, raster.getNumBands(), read.getNumBands());
+            for (int b = 0; b < raster.getNumBands(); b++) {
+                assertArrayEquals("image " + i + ", band " + b,
+                    raster.getSamples(0, 0, w, h, b, (int[])null),
+                    read.getSamples(0, 0, w, h, b, (int[])null));
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package jj2000.j2k.codestream.reader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the code-block index of a tile kept by {@link CBlkIndex}
+ *
+ */
+public class CBlkIndexTest
+{
+
+    @Test
+    public void ids() throws Exception
+    {
+        CBlkIndex idx = new CBlkIndex();
+        idx.reset(2, new int[] { 1, 0 }, 3);
+        idx.addSubband(0, 0, 0, 2, 3);
+        idx.addSubband(0, 1, 1, 4, 1);
+        idx.addSubband(0, 1, 2, 1, 4);
+        idx.addSubband(0, 1, 3, 2, 2);
+        idx.addSubband(1, 0, 0, 3, 2);
+        assertEquals(24, idx.getNumCBlks());
+        assertEquals(3, idx.getNumLayers());
+
+        // By component, resolution level, subband and then in raster order
+        assertEquals(0, idx.getId(0, 0, 0, 0, 0));
+        assertEquals(3, idx.getId(0, 0, 0, 1, 1));
+        assertEquals(6, idx.getId(0, 1, 1, 0, 0));
+        assertEquals(13, idx.getId(0, 1, 2, 3, 0));
+        assertEquals(17, idx.getId(0, 1, 3, 1, 1));
+        assertEquals(22, idx.getId(1, 0, 0, 1, 1));
+        assertEquals(4, idx.getNumCBlksX(0, 1, 1));
+        assertEquals(4, idx.getNumCBlksY(0, 1, 2));
+
+        // Outside of the subbands
+        assertEquals(-1, idx.getId(0, 0, 0, 3, 0));
+        assertEquals(-1, idx.getId(0, 0, 0, 0, 2));
+        assertEquals(-1, idx.getId(0, 0, 1, 0, 0));
+        assertEquals(-1, idx.getId(1, 1, 1, 0, 0));
+        assertEquals(-1, idx.getId(2, 0, 0, 0, 0));
+        assertEquals(0, idx.getNumCBlksX(1, 1, 1));
+    }
+
+
+    @Test
+    public void growth() throws Exception
+    {
+        // Code-blocks are found in the first subbands while the later ones,
+        // with many more code-blocks, are added
+        CBlkIndex idx = new CBlkIndex();
+        idx.reset(1, new int[] { 2 }, 4);
+        idx.addSubband(0, 0, 0, 1, 1);
+        idx.create(0, 0, 0, 4, 4);
+        idx.addNTP(0, 0, 2);
+        idx.len[0] = 17;
+        idx.off[0] = 1000;
+        idx.pktIdx[0] = 0;
+        for (int s = 1; s <= 3; s++) {
+            idx.addSubband(0, 1, s, 2, 2);
+            int id = idx.getId(0, 1, s, 1, 0);
+            idx.create(id, 4 * s, 4, 4, 4);
+            idx.addNTP(id, 1, s);
+            idx.len[id * 4 + 1] = s;
+            idx.segLen[idx.allocSegLen(id, 1, 2)] = 40 + s;
+        }
+        for (int s = 1; s <= 3; s++) {
+            idx.addSubband(0, 2, s, 30, 40);
+        }
+        assertEquals(3613, idx.getNumCBlks());
+
+        assertTrue(idx.isFound(0));
+        assertEquals(4, idx.w[0]);
+        assertEquals(2, idx.ctp[0]);
+        assertEquals(17, idx.len[0]);
+        assertEquals(1000, idx.off[0]);
+        assertEquals(0, idx.pktIdx[0]);
+        assertEquals(-1, idx.pktIdx[1]);
+        for (int s = 1; s <= 3; s++) {
+            int id = idx.getId(0, 1, s, 1, 0);
+            assertTrue(idx.isFound(id));
+            assertEquals(4 * s, idx.ulx[id]);
+            assertEquals(s, idx.ctp[id]);
+            assertEquals(s, idx.ntp[id * 4 + 1]);
+            assertEquals(s, idx.len[id * 4 + 1]);
+            assertEquals(2, idx.segLen[idx.segIdx[id * 4 + 1]]);
+            assertEquals(40 + s, idx.segLen[idx.segIdx[id * 4 + 1] + 1]);
+            assertFalse(idx.isFound(id - 1));
+        }
+
+        // The last code-block can be used
+        int last = idx.getId(0, 2, 3, 39, 29);
+        assertEquals(3612, last);
+        idx.create(last, 0, 0, 1, 1);
+        idx.addNTP(last, 3, 1);
+        assertEquals(1, idx.ctp[last]);
+    }
+
+
+    @Test
+    public void reuse() throws Exception
+    {
+        CBlkIndex idx = new CBlkIndex();
+        idx.reset(1, new int[] { 0 }, 2);
+        idx.addSubband(0, 0, 0, 8, 8);
+        for (int id = 0; id < 64; id++) {
+            idx.create(id, id, id, 1, 1);
+            idx.addNTP(id, 0, 1);
+            idx.addNTP(id, 1, 2);
+        }
+        assertEquals(3, idx.ctp[63]);
+
+        // Removing a layer takes back its truncation points, removing the
+        // first one the code-block
+        idx.remove(5, 1);
+        assertTrue(idx.isFound(5));
+        assertEquals(1, idx.ctp[5]);
+        assertEquals(-1, idx.pktIdx[5 * 2 + 1]);
+        idx.remove(6, 0);
+        assertFalse(idx.isFound(6));
+
+        // A smaller tile with more layers, where nothing is found
+        idx.reset(2, new int[] { 0, 0 }, 5);
+        idx.addSubband(0, 0, 0, 2, 2);
+        idx.addSubband(1, 0, 0, 3, 3);
+        assertEquals(13, idx.getNumCBlks());
+        assertEquals(5, idx.getNumLayers());
+        for (int id = 0; id < 64; id++) {
+            assertFalse(idx.isFound(id));
+        }
+        assertEquals(-1, idx.getId(0, 0, 0, 2, 0));
+        idx.create(12, 1, 2, 3, 4);
+        idx.addNTP(12, 4, 7);
+        assertEquals(7, idx.ctp[12]);
+        assertEquals(0, idx.ntp[12 * 5]);
+        assertEquals(-1, idx.segIdx[12 * 5 + 4]);
+
+        // The same tile again, with the segment lengths reset
+        idx.reset(2, new int[] { 0, 0 }, 5);
+        idx.addSubband(0, 0, 0, 2, 2);
+        idx.addSubband(1, 0, 0, 3, 3);
+        assertFalse(idx.isFound(12));
+        assertEquals(1, idx.allocSegLen(0, 0, 3));
+    }
+
+
+    @Test
+    public void segLenPool() throws Exception
+    {
+        // The segment lengths of all the code-blocks and layers share one
+        // array, which grows as needed and is kept for the next tile
+        CBlkIndex idx = new CBlkIndex();
+        idx.reset(1, new int[] { 0 }, 3);
+        idx.addSubband(0, 0, 0, 10, 10);
+        for (int id = 0; id < 100; id++) {
+            idx.create(id, 0, 0, 1, 1);
+            for (int l = 0; l < 3; l++) {
+                int pos = idx.allocSegLen(id, l, 1 + id % 4);
+                for (int i = 0; i <= id % 4; i++) {
+                    idx.segLen[pos + i] = 1000 * id + 10 * l + i;
+                }
+            }
+        }
+        for (int id = 0; id < 100; id++) {
+            for (int l = 0; l < 3; l++) {
+                int k = idx.segIdx[id * 3 + l];
+                assertEquals(1 + id % 4, idx.segLen[k]);
+                for (int i = 0; i <= id % 4; i++) {
+                    assertEquals(1000 * id + 10 * l + i, idx.segLen[k + 1 + i]);
+                }
+            }
+        }
+        int[] pool = idx.segLen;
+        assertTrue(pool.length >= 3 * (25 * 2 + 25 * 3 + 25 * 4 + 25 * 5));
+
+        // The next tile starts at the beginning of the same array
+        idx.reset(1, new int[] { 0 }, 3);
+        idx.addSubband(0, 0, 0, 2, 2);
+        idx.create(3, 0, 0, 1, 1);
+        assertEquals(1, idx.allocSegLen(3, 2, 5));
+        assertEquals(0, idx.segIdx[3 * 3 + 2]);
+        assertEquals(-1, idx.segIdx[3 * 3 + 1]);
+        assertSame(pool, idx.segLen);
+    }
+
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void infoView() throws Exception
+    {
+        CBlkIndex idx = new CBlkIndex();
+        assertEquals(0, CBlkInfo.fromIndex(idx).length);
+
+        idx.reset(2, new int[] { 1, 0 }, 2);
+        idx.addSubband(0, 0, 0, 1, 1);
+        idx.addSubband(0, 1, 1, 2, 1);
+        idx.addSubband(0, 1, 2, 1, 2);
+        idx.addSubband(0, 1, 3, 1, 1);
+        idx.addSubband(1, 0, 0, 3, 2);
+        int id = idx.getId(0, 1, 2, 1, 0);
+        idx.create(id, 4, 8, 16, 32);
+        idx.msbSkipped[id] = 3;
+        idx.addNTP(id, 0, 4);
+        idx.addNTP(id, 1, 2);
+        idx.off[id * 2] = 100;
+        idx.len[id * 2] = 20;
+        idx.pktIdx[id * 2] = 1;
+        idx.off[id * 2 + 1] = 300;
+        idx.len[id * 2 + 1] = 9;
+        idx.pktIdx[id * 2 + 1] = 7;
+        int pos = idx.allocSegLen(id, 1, 2);
+        idx.segLen[pos] = 5;
+        idx.segLen[pos + 1] = 4;
+
+        CBlkInfo[][][][][] cbI = CBlkInfo.fromIndex(idx);
+        assertEquals(2, cbI.length);
+        assertEquals(2, cbI[0].length);
+        assertEquals(1, cbI[1].length);
+        assertEquals(1, cbI[0][0][0].length);
+        assertNull(cbI[0][1][0]);
+        assertEquals(1, cbI[0][1][1].length);
+        assertEquals(2, cbI[0][1][1][0].length);
+        assertEquals(2, cbI[1][0][0].length);
+        assertEquals(3, cbI[1][0][0][0].length);
+
+        CBlkInfo ci = cbI[0][1][2][1][0];
+        assertEquals(4, ci.ulx);
+        assertEquals(8, ci.uly);
+        assertEquals(16, ci.w);
+        assertEquals(32, ci.h);
+        assertEquals(3, ci.msbSkipped);
+        assertEquals(6, ci.ctp);
+        assertArrayEquals(new int[] { 4, 2 }, ci.ntp);
+        assertArrayEquals(new int[] { 100, 300 }, ci.off);
+        assertArrayEquals(new int[] { 20, 9 }, ci.len);
+        assertArrayEquals(new int[] { 1, 7 }, ci.pktIdx);
+        assertNull(ci.segLen[0]);
+        assertArrayEquals(new int[] { 5, 4 }, ci.segLen[1]);
+        assertNull(cbI[0][1][2][0][0]);
+        assertNull(cbI[1][0][0][1][2]);
+    }
+}
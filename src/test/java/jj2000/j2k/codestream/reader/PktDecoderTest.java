@@ -0,0 +1,163 @@
+package jj2000.j2k.codestream.reader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+
+/**
+ * Test the code-block geometry of the tiles decoded by {@link PktDecoder},
+ * which is shared by the tiles with the same geometry
+ *
+ */
+public class PktDecoderTest
+{
+
+    private static final int WIDTH = 500, HEIGHT = 330;
+
+    /**
+     * The number of decomposition levels. The tile sizes are multiples of
+     * 2^LEVELS, as the tiles are otherwise not found at the lower
+     * resolution levels by <code>J2KReadState</code>.
+     */
+    private static final int LEVELS = 4;
+
+    private static BufferedImage image;
+
+
+    @BeforeClass
+    public static void createImage()
+    {
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Random r = new Random(1337);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (int)(96 + 64 * Math.sin(x / 19.0) * Math.cos(y / 7.0));
+                image.setRGB(x, y, ((v + r.nextInt(16)) << 16) | ((x * y) & 0xFF) << 8 | v);
+            }
+        }
+    }
+
+
+    @Test
+    public void alignedTiles() throws Exception
+    {
+        // Tiles which are a multiple of the code-block size
+        checkTiles(96, 64, 32, 32);
+    }
+
+
+    @Test
+    public void unalignedTiles() throws Exception
+    {
+        // Tiles whose code-blocks are cut differently from one row of tiles
+        // to the next, with only some of them sharing a geometry
+        checkTiles(96, 80, 16, 64);
+    }
+
+
+    @Test
+    public void smallTiles() throws Exception
+    {
+        // Tiles smaller than the code-blocks in the lower resolution levels
+        checkTiles(32, 48, 64, 64);
+    }
+
+
+    /**
+     * Encodes the image losslessly with the given tiles and code-blocks and
+     * checks, at all resolution levels, that decoding it at once, where the
+     * tiles with the same geometry share their code-blocks, is the same as
+     * decoding each tile on its own.
+     */
+    private static void checkTiles(int tw, int th, int cbw, int cbh) throws Exception
+    {
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("jp2").next();
+        J2KImageWriteParam writeParams = (J2KImageWriteParam)writer.getDefaultWriteParam();
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(tw, th, 0, 0);
+        writeParams.setNumDecompositionLevels(LEVELS);
+        writeParams.setCodeBlockSize(new int[] { cbw, cbh });
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(image, null, null), writeParams);
+        writer.dispose();
+        ios.close();
+        byte[] data = bos.toByteArray();
+
+        BufferedImage read = decode(data, LEVELS, null);
+        assertPixels(image, 0, 0, read);
+
+        int ntx = (WIDTH + tw - 1) / tw, nty = (HEIGHT + th - 1) / th;
+        for (int res = LEVELS; res >= 0; res--) {
+            int scale = 1 << (LEVELS - res);
+            BufferedImage all = decode(data, res, null);
+            assertEquals(ceil(WIDTH, scale), all.getWidth());
+            assertEquals(ceil(HEIGHT, scale), all.getHeight());
+            for (int ty = 0; ty < nty; ty++) {
+                for (int tx = 0; tx < ntx; tx++) {
+                    Rectangle tile = new Rectangle(tx * tw, ty * th, tw, th)
+                        .intersection(new Rectangle(WIDTH, HEIGHT));
+                    int x0 = ceil(tile.x, scale), y0 = ceil(tile.y, scale);
+                    int x1 = ceil(tile.x + tile.width, scale), y1 = ceil(tile.y + tile.height, scale);
+                    if (x1 == x0 || y1 == y0) {
+                        continue;
+                    }
+                    BufferedImage one = decode(data, res, new Rectangle(x0, y0, x1 - x0, y1 - y0));
+                    assertEquals(x1 - x0, one.getWidth());
+                    assertEquals(y1 - y0, one.getHeight());
+                    assertPixels(all, x0, y0, one);
+                }
+            }
+        }
+    }
+
+
+    private static int ceil(int v, int scale)
+    {
+        return (v + scale - 1) / scale;
+    }
+
+
+    /**
+     * Decodes a region, given in the coordinates of the resolution level.
+     */
+    private static BufferedImage decode(byte[] data, int res, Rectangle region) throws Exception
+    {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+        J2KImageReadParam readParam = (J2KImageReadParam)reader.getDefaultReadParam();
+        readParam.setResolution(res);
+        readParam.setSourceRegion(region);
+        BufferedImage read = reader.read(0, readParam);
+        reader.dispose();
+        return read;
+    }
+
+
+    private static void assertPixels(BufferedImage expected, int x0, int y0, BufferedImage actual)
+    {
+        int w = actual.getWidth(), h = actual.getHeight();
+        int[] e = expected.getRGB(x0, y0, w, h, null, 0, w);
+        int[] a = actual.getRGB(0, 0, w, h, null, 0, w);
+        assertArrayEquals("region at " + x0 + "," + y0, e, a);
+    }
+}
@@ -0,0 +1,209 @@
+package jj2000.j2k.codestream.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import jj2000.j2k.io.RandomAccessIO;
+import jj2000.j2k.util.ISRandomAccessIO;
+
+/**
+ * Test the reading of packet heads by {@link PktHeaderBitReader}
+ *
+ */
+public class PktHeaderBitReaderTest
+{
+
+    private static RandomAccessIO source(byte[] data) throws Exception
+    {
+        return new ISRandomAccessIO(new ByteArrayInputStream(data));
+    }
+
+
+    private static byte[] bytes(int... v)
+    {
+        byte[] b = new byte[v.length];
+        for (int i = 0; i < v.length; i++) {
+            b[i] = (byte)v[i];
+        }
+        return b;
+    }
+
+
+    /**
+     * Unstuffs data one byte at a time: a byte following 0xFF only holds 7
+     * bits.
+     */
+    private static int[] unstuff(byte[] data, int len)
+    {
+        int[] bits = new int[len * 8];
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            int w = (i > 0 && data[i - 1] == (byte)0xFF) ? 7 : 8;
+            for (int k = w - 1; k >= 0; k--) {
+                bits[n++] = (data[i] >> k) & 1;
+            }
+        }
+        int[] b = new int[n];
+        System.arraycopy(bits, 0, b, 0, n);
+        return b;
+    }
+
+
+    @Test
+    public void unstuffing() throws Exception
+    {
+        // 8 bits of 0xFF, 7 of 0x7F, then 8 of 0x80 and 8 of 0x01
+        byte[] data = bytes(0xFF, 0x7F, 0x80, 0x01);
+        PktHeaderBitReader bin = new PktHeaderBitReader(source(data));
+        bin.sync();
+        assertEquals(0xFF, bin.readBits(8));
+        assertEquals(0x7F, bin.readBits(7));
+        assertEquals(1, bin.readBit());
+        assertEquals(0, bin.readBits(7));
+        assertEquals(0, bin.readBits(7));
+        assertEquals(1, bin.readBit());
+        try {
+            bin.readBit();
+            fail("Read past the end");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+
+        // Successive 0xFF bytes, only the MSB of the stuffed ones is dropped
+        data = bytes(0xFF, 0xFF, 0xFF, 0x00);
+        bin = new PktHeaderBitReader(new ByteArrayInputStream(data));
+        bin.sync();
+        assertEquals(0xFF, bin.readBits(8));
+        assertEquals(0x7F, bin.readBits(7));
+        assertEquals(0x7F, bin.readBits(7));
+        assertEquals(0, bin.readBits(7));
+    }
+
+
+    @Test
+    public void randomReads() throws Exception
+    {
+        // Long runs of bits, many 0xFF bytes, and reads of any size, so that
+        // the accumulator and the buffer are refilled at all offsets
+        Random r = new Random(1337);
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(r.nextInt(4) == 0 ? 0xFF : r.nextInt(256));
+        }
+        int[] bits = unstuff(data, data.length);
+        for (int pass = 0; pass < 2; pass++) {
+            PktHeaderBitReader bin = pass == 0 ? new PktHeaderBitReader(source(data)) :
+                new PktHeaderBitReader(new ByteArrayInputStream(data));
+            bin.sync();
+            int pos = 0;
+            while (pos < bits.length - 31) {
+                int n = r.nextInt(32);
+                if (n == 0) {
+                    assertEquals("bit " + pos, bits[pos++], bin.readBit());
+                    continue;
+                }
+                int v = 0;
+                for (int k = 0; k < n; k++) {
+                    v = (v << 1) | bits[pos++];
+                }
+                assertEquals("bit " + pos, v, bin.readBits(n));
+            }
+        }
+    }
+
+
+    @Test
+    public void finish() throws Exception
+    {
+        // Packet heads of 'len' bytes at offset 5, of which 'nbits' bits are
+        // read, each followed by the bytes of a packet body
+        int[][] heads = {
+            // Last byte partly read
+            { 0x12, 0x34, 0x56 },
+            // Last byte entirely read
+            { 0x80, 0x00 },
+            // Last byte read is 0xFF, its stuffed byte is part of the head
+            { 0x12, 0xFF, 0x00 },
+            // 0xFF read partly, with the stuffed byte not read at all
+            { 0xFF, 0x7F },
+            // A head longer than the read-ahead buffer
+            { 0xFF, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B,
+                0x0C, 0x0D, 0x0E, 0x0F, 0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17,
+                0x18, 0x19, 0x1A, 0x1B, 0x1C, 0x1D, 0x1E, 0x1F, 0xFF, 0x7F, 0x20, 0x21,
+                0x22, 0x23, 0x24, 0x25, 0x26 },
+        };
+        int[] nbits = { 17, 16, 16, 3, 323 };
+        for (int h = 0; h < heads.length; h++) {
+            byte[] head = bytes(heads[h]);
+            int len = head.length;
+            byte[] data = new byte[5 + len + 40];
+            System.arraycopy(head, 0, data, 5, len);
+            for (int i = 5 + len; i < data.length; i++) {
+                data[i] = (byte)(0x5A + i);
+            }
+            int[] bits = unstuff(head, len);
+
+            // Source which is read directly after the head
+            RandomAccessIO in = source(data);
+            in.seek(5);
+            PktHeaderBitReader bin = new PktHeaderBitReader(in);
+            bin.sync();
+            for (int k = 0; k < nbits[h]; k++) {
+                assertEquals("head " + h + ", bit " + k, bits[k], bin.readBit());
+            }
+            assertEquals("head " + h, 5 + len, bin.getPos());
+            bin.finish();
+            assertEquals("head " + h, 5 + len, in.getPos());
+            assertEquals("head " + h, data[5 + len], in.readByte());
+
+            // Buffer of packed heads, from which the reader goes on
+            ByteArrayInputStream bais = new ByteArrayInputStream(data, 5, data.length - 5);
+            bin = new PktHeaderBitReader(bais);
+            bin.sync();
+            for (int k = 0; k < nbits[h]; k++) {
+                assertEquals("head " + h + ", bit " + k, bits[k], bin.readBit());
+            }
+            bin.finish();
+            assertEquals("head " + h, data[5 + len], (byte)bais.read());
+        }
+    }
+
+
+    @Test
+    public void packedHeads() throws Exception
+    {
+        // Packed packet heads as found in PPM or PPT marker segments, each
+        // followed by an EPH marker: an empty packet, a packet whose head
+        // ends with 0xFF and a packet whose head ends within a byte
+        byte[] data = bytes(0x00, 0xFF, 0x92,
+            0xC3, 0xFF, 0x00, 0xFF, 0x92,
+            0xA5, 0x40, 0xFF, 0x92);
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        PktHeaderBitReader bin = new PktHeaderBitReader(bais);
+        int[][] reads = { { 1 }, { 8, 8, 7 }, { 3, 5, 2 } };
+        int[][] values = { { 0 }, { 0xC3, 0xFF, 0 }, { 5, 5, 1 } };
+        for (int p = 0; p < reads.length; p++) {
+            // The reader is given the buffer again for every packet, as done
+            // by PktDecoder
+            if (p > 0) {
+                bin.setInput(bais);
+            }
+            bin.sync();
+            for (int k = 0; k < reads[p].length; k++) {
+                assertEquals("packet " + p + ", read " + k, values[p][k],
+                    bin.readBits(reads[p][k]));
+            }
+            bin.finish();
+            assertEquals("packet " + p, 0xFF, bais.read());
+            assertEquals("packet " + p, 0x92, bais.read());
+        }
+        assertEquals(-1, bais.read());
+    }
+}
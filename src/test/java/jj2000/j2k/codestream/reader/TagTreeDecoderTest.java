@@ -0,0 +1,112 @@
+package jj2000.j2k.codestream.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import jj2000.j2k.codestream.writer.BitOutputBuffer;
+import jj2000.j2k.codestream.writer.TagTreeEncoder;
+
+/**
+ * Test the decoding of tag trees by {@link TagTreeDecoder}
+ *
+ */
+public class TagTreeDecoderTest
+{
+
+    /** The maximum value of the random trees */
+    private static final int MAX_VALUE = 12;
+
+
+    @Test
+    public void singleElement() throws Exception
+    {
+        // The value 3 is coded as three 0 bits then a 1 bit
+        PktHeaderBitReader in = new PktHeaderBitReader(
+            new ByteArrayInputStream(new byte[] { 0x10 }));
+        in.sync();
+        TagTreeDecoder tt = new TagTreeDecoder(1, 1);
+        assertEquals(Integer.MAX_VALUE, tt.update(0, 0, 2, in));
+        assertEquals(3, tt.update(0, 0, 5, in));
+        assertEquals(3, tt.getValue(0, 0));
+        in.finish();
+    }
+
+
+    @Test
+    public void twoLevels() throws Exception
+    {
+        // A 1x2 tree with values 1 and 2 under a root of 1: the root takes
+        // '01', the first leaf '1', the second leaf '01' at threshold 3
+        PktHeaderBitReader in = new PktHeaderBitReader(
+            new ByteArrayInputStream(new byte[] { 0x68 }));
+        in.sync();
+        TagTreeDecoder tt = new TagTreeDecoder(1, 2);
+        assertEquals(1, tt.update(0, 0, 3, in));
+        assertEquals(2, tt.update(0, 1, 3, in));
+        in.finish();
+    }
+
+
+    @Test
+    public void randomTrees() throws Exception
+    {
+        Random r = new Random(1337);
+        int[][] sizes = { { 7, 9 }, { 3, 5 }, { 1, 1 }, { 12, 2 }, { 1, 17 }, { 16, 16 }, { 2, 3 } };
+        TagTreeDecoder pooled = null;
+        for (int[] size : sizes) {
+            int h = size[0], w = size[1];
+            int[] values = new int[h * w];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = r.nextInt(MAX_VALUE);
+            }
+
+            // Code the tree with increasing thresholds, as done for the
+            // inclusion of code-blocks in successive layers
+            TagTreeEncoder enc = new TagTreeEncoder(h, w, values);
+            BitOutputBuffer out = new BitOutputBuffer();
+            for (int t = 1; t <= MAX_VALUE; t++) {
+                for (int i = 0; i < values.length; i++) {
+                    enc.encode(i / w, i % w, t, out);
+                }
+            }
+            byte[] data = out.toByteArray(null);
+
+            // Decode it with a new decoder, and with one reset from the
+            // previous tree, which may be larger or smaller
+            if (pooled == null) {
+                pooled = new TagTreeDecoder(h, w);
+            }
+            else {
+                pooled.reset(h, w);
+            }
+            TagTreeDecoder[] decoders = { new TagTreeDecoder(h, w), pooled };
+            for (TagTreeDecoder tt : decoders) {
+                assertEquals(h, tt.getHeight());
+                assertEquals(w, tt.getWidth());
+                PktHeaderBitReader in = new PktHeaderBitReader(new ByteArrayInputStream(data));
+                in.sync();
+                for (int t = 1; t <= MAX_VALUE; t++) {
+                    for (int i = 0; i < values.length; i++) {
+                        int v = tt.update(i / w, i % w, t, in);
+                        String msg = h + "x" + w + ", element " + i + ", threshold " + t;
+                        if (values[i] < t) {
+                            assertEquals(msg, values[i], v);
+                        }
+                        else {
+                            assertTrue(msg, v >= t);
+                        }
+                    }
+                }
+                for (int i = 0; i < values.length; i++) {
+                    assertEquals(values[i], tt.getValue(i / w, i % w));
+                }
+                assertEquals(data.length, in.getPos());
+            }
+        }
+    }
+}
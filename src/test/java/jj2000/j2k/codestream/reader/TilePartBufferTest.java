@@ -0,0 +1,106 @@
+package jj2000.j2k.codestream.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import jj2000.j2k.util.ISRandomAccessIO;
+
+/**
+ * Test the serving of tile-parts from memory by {@link TilePartBuffer}
+ *
+ */
+public class TilePartBufferTest
+{
+
+    private static TilePartBuffer buffer(byte[] data, int chunkSize) throws Exception
+    {
+        return new TilePartBuffer(new ISRandomAccessIO(new ByteArrayInputStream(data)), chunkSize);
+    }
+
+
+    private static byte[] data(int n)
+    {
+        byte[] data = new byte[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = (byte)(i * 7 + (i >> 8));
+        }
+        return data;
+    }
+
+
+    @Test
+    public void maxChunks() throws Exception
+    {
+        byte[] data = data(1000);
+        TilePartBuffer buf = buffer(data, 100);
+        buf.setMaxChunks(3);
+        buf.addTilePart(50, 900);
+
+        // A pass over the tile-part reads each of its 9 chunks once, while
+        // only 3 are held at any time
+        for (int i = 50; i < 950; i++) {
+            buf.seek(i);
+            assertEquals(data[i] & 0xFF, buf.read());
+            assertTrue(buf.getNumChunks() <= 3);
+        }
+        assertEquals(9, buf.getNumReads());
+        assertEquals(900, buf.getNumBytesRead());
+        assertEquals(6, buf.getNumEvictions());
+
+        // The 3 last chunks are still in memory
+        byte[] b = new byte[300];
+        buf.seek(650);
+        buf.readFully(b, 0, b.length);
+        assertEquals(9, buf.getNumReads());
+        for (int i = 0; i < b.length; i++) {
+            assertEquals(data[650 + i], b[i]);
+        }
+
+        // The first chunks are read again, dropping the least recently used
+        // ones, while the last used one is kept
+        buf.seek(50);
+        buf.readFully(b, 0, 200);
+        assertEquals(11, buf.getNumReads());
+        assertEquals(8, buf.getNumEvictions());
+        buf.seek(920);
+        buf.read();
+        assertEquals(11, buf.getNumReads());
+        assertEquals(3, buf.getNumChunks());
+
+        // The arrays are kept for the next tile, within the limit
+        buf.clear();
+        buf.addTilePart(0, 1000);
+        buf.seek(0);
+        buf.readFully(b, 0, b.length);
+        buf.seek(999);
+        assertEquals(data[999] & 0xFF, buf.read());
+        assertEquals(15, buf.getNumReads());
+        assertEquals(3, buf.getNumChunks());
+        buf.close();
+    }
+
+
+    @Test
+    public void growingChunks() throws Exception
+    {
+        byte[] data = data(1000);
+        TilePartBuffer buf = buffer(data, 256);
+        buf.setFirstChunkSize(16);
+        buf.addTilePart(0, 1000);
+
+        // Chunks of 16, 32, 64 and 128 bytes, then of 256 bytes
+        byte[] b = new byte[100];
+        buf.readFully(b, 0, b.length);
+        assertEquals(3, buf.getNumReads());
+        assertEquals(112, buf.getNumBytesRead());
+        buf.seek(999);
+        assertEquals(data[999] & 0xFF, buf.read());
+        assertEquals(4, buf.getNumReads());
+        assertEquals(360, buf.getNumBytesRead());
+        buf.close();
+    }
+}
@@ -0,0 +1,309 @@
+package jj2000.j2k.decoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.TestImages;
+import com.github.jaiimageio.jpeg2000.impl.IISRandomAccessIO;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageReadParamJava;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.io.RandomAccessIO;
+
+/**
+ * Test the decoding of codestreams whose tiles have their own COD and QCD
+ * marker segments, and the tile specifications compiled by
+ * {@link DecoderSpecs}
+ *
+ */
+public class DecoderSpecsTest
+{
+
+    /**
+     * The image size, which is not a multiple of the tile size so that the
+     * tiles of the last row and column are smaller
+     */
+    private static final int WIDTH = 250, HEIGHT = 190;
+
+    private static final int TILE = 64;
+
+    /** The number of tiles, horizontally and vertically */
+    private static final int NTX = 4, NTY = 3;
+
+    private static BufferedImage image;
+
+
+    @BeforeClass
+    public static void createImage()
+    {
+        // Smooth content with noise of the same level everywhere, so that the
+        // quantization errors of the tiles can be compared
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Random r = new Random(1337);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (int)(96 + 64 * Math.sin(x / 13.0) * Math.cos(y / 11.0));
+                image.setRGB(x, y, ((v + r.nextInt(32)) << 16) |
+                    (((x + r.nextInt(8)) & 0xFF) << 8) | ((v + y) / 2));
+            }
+        }
+    }
+
+
+    @Test
+    public void losslessTiles() throws Exception
+    {
+        J2KImageWriteParamJava wp = writeParam(J2KImageWriteParam.FILTER_53);
+        wp.setDecompositionLevel("3 t1 1 t4 0 t6 5");
+        wp.setCodeBlockSize("32 32 t2 16 16 t7 8 64");
+        wp.setGuardBits("2 t3 4");
+        wp.setSOP("false t6 true");
+        wp.setEPH("false t5 true");
+        byte[] data = TestImages.encode(image, wp);
+
+        // Only the tiles with their own values have a COD or QCD
+        List<List<Integer>> markers = getTileMarkers(data);
+        assertEquals(NTX * NTY, markers.size());
+        List<Integer> cod = Arrays.asList(1, 2, 4, 5, 6, 7);
+        List<Integer> qcd = Arrays.asList(1, 3, 4, 6);
+        for (int t = 0; t < markers.size(); t++) {
+            assertEquals("tile " + t, cod.contains(t), markers.get(t).contains(0xFF52));
+            assertEquals("tile " + t, qcd.contains(t), markers.get(t).contains(0xFF5C));
+        }
+
+        // The tiles are compiled with their own values, whatever the order
+        // in which they are read
+        Codestream cs = new Codestream(data);
+        BitstreamReaderAgent breader = cs.createReader();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < NTX * NTY; i++) {
+                int t = pass == 0 ? NTX * NTY - 1 - i : i;
+                breader.setTile(t % NTX, t / NTX);
+                TileDecoderSpecs ts = cs.decSpec.getTileSpecs(t);
+                String msg = "tile " + t;
+                assertEquals(msg, t, ts.tIdx);
+                int dl = t == 1 ? 1 : t == 4 ? 0 : t == 6 ? 5 : 3;
+                for (int c = 0; c < 3; c++) {
+                    assertTrue(msg, ts.reversible[c]);
+                    assertEquals(msg, dl, ts.dls[c]);
+                    assertEquals(msg, t == 3 ? 4 : 2, ts.gbs[c]);
+                    assertEquals(msg, -1, ts.rois[c]);
+                }
+                assertEquals(msg, dl, ts.minDls);
+                assertEquals(msg, t == 6, ts.sops);
+                assertEquals(msg, t == 5, ts.ephs);
+                assertEquals(msg, cs.decSpec.nls.getDefault(), ts.nls);
+            }
+        }
+
+        BufferedImage read = decode(data, null);
+        assertPixels(image, 0, 0, read);
+
+        // Single tiles, read in reverse order, and regions across tiles of
+        // different code-block sizes and decomposition levels
+        for (int t = NTX * NTY - 1; t >= 0; t--) {
+            Rectangle r = new Rectangle(t % NTX * TILE, t / NTX * TILE, TILE, TILE)
+                .intersection(new Rectangle(WIDTH, HEIGHT));
+            assertPixels(image, r.x, r.y, decode(data, r));
+        }
+        assertPixels(image, 37, 29, decode(data, new Rectangle(37, 29, 101, 77)));
+        assertPixels(image, 127, 63, decode(data, new Rectangle(127, 63, 2, 66)));
+    }
+
+
+    @Test
+    public void quantizedTiles() throws Exception
+    {
+        J2KImageWriteParamJava wp = writeParam(J2KImageWriteParam.FILTER_97);
+        wp.setDecompositionLevel("5 t2 2 t5 3");
+        wp.setQuantizationStep("0.0078125 t2 0.05 t9 0.002");
+        byte[] data = TestImages.encode(image, wp);
+
+        List<List<Integer>> markers = getTileMarkers(data);
+        List<Integer> qcd = Arrays.asList(2, 5, 9);
+        for (int t = 0; t < markers.size(); t++) {
+            assertEquals("tile " + t, qcd.contains(t), markers.get(t).contains(0xFF5C));
+        }
+
+        Codestream cs = new Codestream(data);
+        BitstreamReaderAgent breader = cs.createReader();
+        int[] order = { 9, 2, 0, 5, 11, 2, 9, 0 };
+        for (int t : order) {
+            breader.setTile(t % NTX, t / NTX);
+            TileDecoderSpecs ts = cs.decSpec.getTileSpecs(t);
+            int dl = t == 2 ? 2 : t == 5 ? 3 : 5;
+            for (int c = 0; c < 3; c++) {
+                assertFalse(ts.reversible[c]);
+                assertFalse(ts.derived[c]);
+                assertEquals(dl, ts.dls[c]);
+
+                // The step of the finest HH subband does not depend on the
+                // number of decomposition levels
+                float step = t == 2 ? 0.05f : t == 9 ? 0.002f : 0.0078125f;
+                float hh = ts.qsss[c].nStep[dl][3];
+                float ref = cs.decSpec.getTileSpecs(0).qsss[c].nStep[5][3];
+                assertEquals("tile " + t, step / 0.0078125f, hh / ref, 0.01f * step / 0.0078125f);
+            }
+        }
+
+        // The error of the tiles follows their quantization step
+        BufferedImage read = decode(data, null);
+        double coarse = mse(read, 2), fine = mse(read, 9);
+        for (int t = 0; t < NTX * NTY; t++) {
+            if (t != 2 && t != 9) {
+                double e = mse(read, t);
+                assertTrue("tile " + t + ": " + e + " >= " + coarse, e < coarse);
+                assertTrue("tile " + t + ": " + e + " <= " + fine, e > fine);
+            }
+        }
+
+        // A region covering parts of tiles with different quantization
+        Rectangle region = new Rectangle(50, 40, 150, 100);
+        BufferedImage part = decode(data, region);
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                assertEquals(read.getRGB(region.x + x, region.y + y), part.getRGB(x, y));
+            }
+        }
+    }
+
+
+    private static J2KImageWriteParamJava writeParam(String filter)
+    {
+        J2KImageWriteParam p = new J2KImageWriteParam();
+        p.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        p.setTiling(TILE, TILE, 0, 0);
+        p.setFilter(filter);
+        p.setLossless(J2KImageWriteParam.FILTER_53.equals(filter));
+        J2KImageWriteParamJava wp = new J2KImageWriteParamJava(new IIOImage(image, null, null), p);
+        wp.setFilters(filter);
+        return wp;
+    }
+
+
+    /**
+     * Returns the markers of the tile-part headers of a codestream, by tile.
+     */
+    private static List<List<Integer>> getTileMarkers(byte[] data)
+    {
+        List<List<Integer>> tiles = new ArrayList<List<Integer>>();
+        int pos = 2;
+        while (marker(data, pos) != 0xFF90) {
+            pos += 2 + length(data, pos);
+        }
+        while (marker(data, pos) == 0xFF90) {
+            int end = pos + ((data[pos + 6] & 0xFF) << 24 | (data[pos + 7] & 0xFF) << 16 |
+                (data[pos + 8] & 0xFF) << 8 | (data[pos + 9] & 0xFF));
+            assertEquals(tiles.size(), length(data, pos + 2));
+            List<Integer> markers = new ArrayList<Integer>();
+            for (pos += 12; marker(data, pos) != 0xFF93; pos += 2 + length(data, pos)) {
+                markers.add(marker(data, pos));
+            }
+            tiles.add(markers);
+            pos = end;
+        }
+        assertEquals(0xFFD9, marker(data, pos));
+        return tiles;
+    }
+
+
+    private static int marker(byte[] data, int pos)
+    {
+        return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+
+
+    private static int length(byte[] data, int pos)
+    {
+        return marker(data, pos + 2);
+    }
+
+
+    private static BufferedImage decode(byte[] data, Rectangle region) throws Exception
+    {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+        J2KImageReadParam readParam = (J2KImageReadParam)reader.getDefaultReadParam();
+        readParam.setSourceRegion(region);
+        BufferedImage read = reader.read(0, readParam);
+        reader.dispose();
+        return read;
+    }
+
+
+    private static void assertPixels(BufferedImage expected, int x0, int y0, BufferedImage actual)
+    {
+        int w = actual.getWidth(), h = actual.getHeight();
+        int[] e = expected.getRGB(x0, y0, w, h, null, 0, w);
+        int[] a = actual.getRGB(0, 0, w, h, null, 0, w);
+        assertArrayEquals("region at " + x0 + "," + y0, e, a);
+    }
+
+
+    /** Returns the mean squared error of a tile of a decoded image */
+    private static double mse(BufferedImage read, int t)
+    {
+        Rectangle r = new Rectangle(t % NTX * TILE, t / NTX * TILE, TILE, TILE)
+            .intersection(new Rectangle(WIDTH, HEIGHT));
+        double err = 0;
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                int a = image.getRGB(x, y), b = read.getRGB(x, y);
+                for (int s = 0; s < 24; s += 8) {
+                    int d = (a >> s & 0xFF) - (b >> s & 0xFF);
+                    err += d * d;
+                }
+            }
+        }
+        return err / (3 * r.width * r.height);
+    }
+
+
+    /** A parsed codestream, as done by <code>J2KReadState</code> */
+    private static final class Codestream
+    {
+        final J2KImageReadParamJava param = new J2KImageReadParamJava();
+        final RandomAccessIO in;
+        final HeaderInfo hi = new HeaderInfo();
+        final HeaderDecoder hd;
+        final DecoderSpecs decSpec;
+
+
+        Codestream(byte[] data) throws Exception
+        {
+            in = new IISRandomAccessIO(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+            hd = new HeaderDecoder(in, param, hi);
+            decSpec = hd.getDecoderSpecs();
+        }
+
+
+        BitstreamReaderAgent createReader() throws Exception
+        {
+            return BitstreamReaderAgent.createInstance(in, hd, param, decSpec, false, hi);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package jj2000.j2k.entropy.encoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+
+/**
+ * Test the layers built by {@link EBCOTRateAllocator}
+ *
+ */
+public class EBCOTRateAllocatorTest
+{
+
+    private static final int SIZE = 512;
+
+    /** The overall target bitrate, which is the one of the last layer */
+    private static final double RATE = 4;
+
+    /** The target bitrate of the first layer */
+    private static final double FIRST_RATE = 0.25;
+
+    private static BufferedImage image;
+
+
+    @BeforeClass
+    public static void createImage()
+    {
+        // Smooth content with some noise, so that code-blocks have very
+        // different rate-distortion slopes
+        image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Random r = new Random(1337);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int v = (int)(96 + 64 * Math.sin(x / 23.0) * Math.cos(y / 17.0));
+                int n = (x * y) % 97 < 48 ? r.nextInt(64) : r.nextInt(8);
+                image.setRGB(x, y, ((v + n) << 16) | ((x / 2) << 8) | ((v + y / 4) & 0xff));
+            }
+        }
+    }
+
+
+    @Test
+    public void tenLayers() throws Exception
+    {
+        checkLayers(10);
+    }
+
+
+    @Test
+    public void twentyLayers() throws Exception
+    {
+        checkLayers(20);
+    }
+
+
+    @Test
+    public void fortyLayers() throws Exception
+    {
+        checkLayers(40);
+    }
+
+
+    /**
+     * Encodes the image with the given number of layers, each of them an
+     * optimization point, and checks that the end of every layer in the
+     * codestream is within its target length, that every layer adds data
+     * and that the quality increases with the number of decoded layers.
+     */
+    private static void checkLayers(int numLayers) throws Exception
+    {
+        // Layer target bitrates evenly spaced on a log scale, and their
+        // lengths as computed by the allocator
+        float np = SIZE * SIZE / 8f;
+        int[] budgets = new int[numLayers];
+        StringBuilder spec = new StringBuilder();
+        for (int l = 0; l < numLayers - 1; l++) {
+            String rate = String.format(Locale.ROOT, "%.4f",
+                FIRST_RATE * Math.pow(RATE / FIRST_RATE, (double)l / (numLayers - 1)));
+            spec.append(rate).append(' ');
+            budgets[l] = (int)Math.floor((float)Double.parseDouble(rate) * np);
+        }
+        budgets[numLayers - 1] = (int)((float)RATE * np);
+
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("jp2").next();
+        J2KImageWriteParam writeParams = (J2KImageWriteParam)writer.getDefaultWriteParam();
+        writeParams.setEncodingRate(RATE);
+        writeParams.setLayers(spec.toString().trim());
+        writeParams.setProgressionType("layer");
+        writeParams.setSOP(true);
+        writeParams.setWriteCodeStreamOnly(true);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(image, null, null), writeParams);
+        writer.dispose();
+        ios.close();
+        byte[] data = bos.toByteArray();
+
+        // No layer was dropped for being too small
+        assertEquals(numLayers, getNumLayers(data));
+
+        // The packets are in layer order, each starting with a SOP marker
+        List<Integer> sop = getPacketOffsets(data);
+        assertEquals(0, sop.size() % numLayers);
+        int packets = sop.size() / numLayers;
+        int last = sop.get(0);
+        for (int l = 0; l < numLayers; l++) {
+            int end = l < numLayers - 1 ? sop.get((l + 1) * packets) : data.length - 2;
+            String msg = numLayers + " layers, layer " + l;
+            assertTrue(msg + ": " + end + " > " + budgets[l], end <= budgets[l]);
+            assertTrue(msg + " is empty", end > last);
+            last = end;
+        }
+
+        double psnr = 0;
+        for (int l = 1; l <= numLayers; l += (numLayers + 4) / 5) {
+            double p = psnr(decode(data, l));
+            assertTrue(numLayers + " layers, " + l + " decoded: " + p + " < " + psnr, p >= psnr);
+            psnr = p;
+        }
+    }
+
+
+    /**
+     * Returns the number of layers of the COD marker segment of a codestream.
+     */
+    private static int getNumLayers(byte[] data)
+    {
+        int pos = 2;
+        while ((data[pos + 1] & 0xff) != 0x52) {
+            pos += 2 + ((data[pos + 2] & 0xff) << 8 | (data[pos + 3] & 0xff));
+        }
+        return (data[pos + 6] & 0xff) << 8 | (data[pos + 7] & 0xff);
+    }
+
+
+    /**
+     * Returns the offsets of the SOP markers of a codestream, checking that
+     * their sequence numbers follow each other.
+     */
+    private static List<Integer> getPacketOffsets(byte[] data)
+    {
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (int i = 0; i < data.length - 6; i++) {
+            if ((data[i] & 0xff) == 0xff && (data[i + 1] & 0xff) == 0x91) {
+                int nsop = (data[i + 4] & 0xff) << 8 | (data[i + 5] & 0xff);
+                assertEquals(offsets.size() & 0xffff, nsop);
+                offsets.add(i);
+            }
+        }
+        return offsets;
+    }
+
+
+    private static BufferedImage decode(byte[] data, int layers) throws Exception
+    {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("jp2").next();
+        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+        J2KImageReadParam readParam = (J2KImageReadParam)reader.getDefaultReadParam();
+        readParam.setQualityLayers(layers);
+        BufferedImage read = reader.read(0, readParam);
+        reader.dispose();
+        return read;
+    }
+
+
+    private static double psnr(BufferedImage img)
+    {
+        double err = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int a = image.getRGB(x, y), b = img.getRGB(x, y);
+                for (int s = 0; s < 24; s += 8) {
+                    int d = (a >> s & 0xff) - (b >> s & 0xff);
+                    err += d * d;
+                }
+            }
+        }
+        return 10 * Math.log10(255.0 * 255.0 * 3 * SIZE * SIZE / err);
+    }
+}
@@ -0,0 +1,112 @@
+package jj2000.j2k.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Test;
+
+/**
+ * Test the Java Flight Recorder version of {@link CodecEvents}, from the
+ * Java 11 part of the multi-release jar
+ *
+ */
+public class CodecEventsTest
+{
+
+    /** The directory of the Java 11 classes in a multi-release jar */
+    private static final String VERSIONS = "META-INF/versions/11/";
+
+
+    @Test
+    public void multiReleaseJar() throws Exception
+    {
+        assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+
+        // The classes compiled by the 'jfr' profile, which is active on
+        // Java 11
+        File classes = new File(CodecEvents.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI());
+        assertTrue("Java 11 classes not compiled",
+            new File(classes, VERSIONS + "jj2000/j2k/util/CodecEvents.class").isFile());
+
+        // The jar as packaged, the versioned classes are used on Java 11
+        File jar = File.createTempFile("codec-events", ".jar");
+        jar.deleteOnExit();
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        mf.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), mf);
+        addEntries(out, classes, "");
+        out.close();
+
+        URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() },
+            ClassLoader.getSystemClassLoader().getParent());
+        Class<?> events = Class.forName(CodecEvents.class.getName(), true, loader);
+        assertEquals(loader, events.getClassLoader());
+        Class<?> tileDecode = Class.forName(CodecEvents.class.getName() + "$TileDecode",
+            false, loader);
+        assertEquals("jdk.jfr.Event", tileDecode.getSuperclass().getName());
+
+        // No event is created outside of a recording
+        Method begin = events.getMethod("beginTileDecode");
+        Method end = events.getMethod("endTileDecode", Object.class, int.class, int.class,
+            int.class, long.class);
+        assertNull(begin.invoke(null));
+
+        // An event is created and committed in a recording of its type
+        Class<?> recording = Class.forName("jdk.jfr.Recording");
+        Object r = recording.newInstance();
+        recording.getMethod("enable", String.class).invoke(r, "jpeg2000.TileDecode");
+        recording.getMethod("start").invoke(r);
+        try {
+            Object event = begin.invoke(null);
+            assertNotNull(event);
+            assertEquals(tileDecode, event.getClass());
+            end.invoke(null, event, 3, 64, 64, 1000L);
+        }
+        finally {
+            recording.getMethod("stop").invoke(r);
+            recording.getMethod("close").invoke(r);
+        }
+    }
+
+
+    private static void addEntries(JarOutputStream out, File dir, String path)
+        throws Exception
+    {
+        byte[] buf = new byte[8192];
+        for (File f : dir.listFiles()) {
+            String name = path + f.getName();
+            if (f.isDirectory()) {
+                out.putNextEntry(new JarEntry(name + "/"));
+                out.closeEntry();
+                addEntries(out, f, name + "/");
+            }
+            else if (!name.equals("META-INF/MANIFEST.MF")) {
+                out.putNextEntry(new JarEntry(name));
+                InputStream in = new FileInputStream(f);
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+                in.close();
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package jj2000.j2k.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import javax.imageio.ImageWriteParam;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.TestImages;
+
+/**
+ * Test the rewriting of codestreams by {@link CodestreamManipulator}
+ *
+ */
+public class CodestreamManipulatorTest
+{
+
+    /**
+     * The number of tiles of the test codestream, 5 by 4. The source region
+     * starts inside the first row and column of tiles, which have 72 packets
+     * each. The 12 other tiles have 144 packets.
+     */
+    private static final int NUM_TILES = 20;
+
+    /** The position and size of the test image on the reference grid */
+    private static final Rectangle IMAGE = new Rectangle(60, 60, 241, 143);
+
+    /**
+     * A region within the last tile, on the reference grid, so that the
+     * reader can skip the other tiles if it knows where the tile-parts are.
+     */
+    private static final Rectangle REGION = new Rectangle(260, 194, 30, 8);
+
+    private byte[] codestream;
+
+    private int[] pixels;
+
+
+    @Before
+    public void encode() throws Exception
+    {
+        J2KImageWriteParam writeParams = new J2KImageWriteParam();
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(64, 64, 0, 0);
+        writeParams.setSourceRegion(IMAGE);
+        writeParams.setSOP(true);
+        writeParams.setEPH(true);
+        writeParams.setWriteCodeStreamOnly(true);
+        codestream = TestImages.encode(TestImages.testImage(), writeParams);
+        assertEquals(NUM_TILES, countTileParts(codestream));
+        pixels = decode(codestream);
+    }
+
+
+    @Test
+    public void unevenTileParts() throws Exception
+    {
+        // The tiles of the first row and column fit in one tile-part, the
+        // others need two
+        byte[] data = manipulate(100, false, false);
+        assertEquals(NUM_TILES + 12, countTileParts(data));
+        assertArrayEquals(pixels, decode(data));
+    }
+
+
+    @Test
+    public void packedHeadersWithoutTileParts() throws Exception
+    {
+        // Every tile stays in one tile-part, whatever the packet count of
+        // the first tile
+        byte[] data = manipulate(0, false, true);
+        assertEquals(NUM_TILES, countTileParts(data));
+        assertArrayEquals(pixels, decode(data));
+    }
+
+
+    @Test
+    public void packedHeadersInMainHeaderWithTileLengths() throws Exception
+    {
+        byte[] data = manipulate(0, true, false, true);
+        assertArrayEquals(pixels, decode(data));
+        assertArrayEquals(region(pixels, REGION), decode(data, REGION));
+    }
+
+
+    @Test
+    public void packedHeadersInTileHeadersWithTileLengths() throws Exception
+    {
+        byte[] data = manipulate(0, false, true, true);
+        assertArrayEquals(pixels, decode(data));
+        assertArrayEquals(region(pixels, REGION), decode(data, REGION));
+    }
+
+
+    private byte[] manipulate(int pptp, boolean ppm, boolean ppt) throws Exception
+    {
+        return manipulate(pptp, ppm, ppt, false);
+    }
+
+
+    private byte[] manipulate(int pptp, boolean ppm, boolean ppt, boolean tlm)
+        throws Exception
+    {
+        File f = File.createTempFile("test-manipulator", ".j2c");
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            out.write(codestream);
+            out.close();
+            new CodestreamManipulator(f, NUM_TILES, pptp, ppm, ppt, false, false,
+                tlm, false).doCodestreamManipulation();
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            byte[] data = new byte[(int)f.length()];
+            in.readFully(data);
+            in.close();
+            return data;
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+
+    private static int[] decode(byte[] data) throws Exception
+    {
+        return TestImages.getRGB(TestImages.decode(data, null));
+    }
+
+
+    private static int[] decode(byte[] data, Rectangle region) throws Exception
+    {
+        J2KImageReadParam readParam = new J2KImageReadParam();
+        readParam.setSourceRegion(region);
+        BufferedImage read = TestImages.decode(data, readParam);
+        assertEquals(region.width, read.getWidth());
+        assertEquals(region.height, read.getHeight());
+        return TestImages.getRGB(read);
+    }
+
+
+    private static int[] region(int[] pixels, Rectangle region)
+    {
+        int[] rgb = new int[region.width * region.height];
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(pixels,
+                (region.y - IMAGE.y + y) * IMAGE.width + region.x - IMAGE.x,
+                rgb, y * region.width, region.width);
+        }
+        return rgb;
+    }
+
+
+    /**
+     * Counts the tile-parts of a codestream, by walking from one SOT marker
+     * to the next through their Psot field.
+     */
+    private static int countTileParts(byte[] data) throws Exception
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        assertEquals(0xff4f, in.readUnsignedShort()); // SOC
+        int marker;
+        while ((marker = in.readUnsignedShort()) != 0xff90) {
+            in.skipBytes(in.readUnsignedShort() - 2);
+        }
+        int n = 0;
+        for (; marker == 0xff90; marker = in.readUnsignedShort()) {
+            in.skipBytes(4);
+            in.skipBytes(in.readInt() - 10);
+            n++;
+        }
+        assertEquals(0xffd9, marker); // EOC
+        return n;
+    }
+}
@@ -0,0 +1,173 @@
+package jj2000.j2k.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+
+import org.junit.Test;
+
+import jj2000.j2k.codestream.Markers;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.TestImages;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+/**
+ * Test the data-bins of regions served by {@link CodestreamRegionServer}
+ *
+ */
+public class CodestreamRegionServerTest
+{
+
+    /** The tile size of the codestreams with small precincts */
+    private static final int TILE = 128;
+
+    /** The number of decomposition levels of the codestreams with small precincts */
+    private static final int LEVELS = 3;
+
+    private final BufferedImage image = TestImages.testImage();
+
+
+    @Test
+    public void regionInTile() throws Exception
+    {
+        J2KImageWriteParam writeParams = new J2KImageWriteParam();
+        writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+        writeParams.setLossless(false);
+        writeParams.setEncodingRate(2.0f);
+        writeParams.setLayers("0.5 1 2");
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(160, 128, 0, 0);
+        writeParams.setPLT(true);
+        writeParams.setWriteCodeStreamOnly(true);
+        byte[] data = TestImages.encode(image, writeParams);
+
+        // A region in tile (1, 1), at half resolution and 2 layers
+        CodestreamRegionServer server = new CodestreamRegionServer(new ISRandomAccessIO(new ByteArrayInputStream(data)));
+        CodestreamRegionServer.DataBin[] bins = server.getDataBins(170, 140, 50, 40, 1, 2, null);
+        assertEquals(CodestreamRegionServer.MAIN_HEADER, bins[0].getBinClass());
+        assertEquals(CodestreamRegionServer.TILE_HEADER, bins[1].getBinClass());
+        assertEquals(3, bins[1].getTile());
+        // The marker segments of the tile-part header, with a PLT, between
+        // its SOT marker segment and the SOD marker
+        assertEquals(1, bins[1].getNumRanges());
+        int off = bins[1].getOffset(0), end = off + bins[1].getLength(0);
+        assertEquals(Markers.SOT, (short)u16(data, off - 12));
+        assertEquals(3, u16(data, off - 8));
+        boolean plt = false;
+        int pos = off;
+        for (; pos < end; pos += 2 + u16(data, pos + 2)) {
+            plt |= (short)u16(data, pos) == Markers.PLT;
+        }
+        assertEquals(end, pos);
+        assertTrue(plt);
+        assertEquals(Markers.SOD, (short)u16(data, end));
+        // 5 resolution levels of 3 components, one precinct each
+        assertEquals(2 + 5 * 3, bins.length);
+        long total = 0;
+        for (int i = 2; i < bins.length; i++) {
+            assertEquals(CodestreamRegionServer.PRECINCT, bins[i].getBinClass());
+            assertEquals(2, bins[i].getNumLayers());
+            assertEquals(3 + (bins[i].getComp() + bins[i].getResLvl() * 3) * 4, bins[i].getId());
+        }
+        for (CodestreamRegionServer.DataBin bin : bins) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            assertEquals(bin.getLength(), server.writeDataBin(bin, bos));
+            assertEquals(bin.getLength(), bos.size());
+            total += bin.getLength();
+        }
+        assertTrue(total < data.length / 4);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        server.writeCodestream(170, 140, 50, 40, 1, 2, null, bos);
+        BufferedImage[] read = new BufferedImage[2];
+        byte[][] streams = { data, bos.toByteArray() };
+        for (int i = 0; i < streams.length; i++) {
+            J2KImageReadParam readParams = new J2KImageReadParam();
+            readParams.setQualityLayers(2);
+            readParams.setResolution(4);
+            read[i] = TestImages.decode(streams[i], readParams);
+        }
+        assertEquals(71, read[1].getWidth());
+        assertEquals(38, read[1].getHeight());
+        assertArrayEquals(read[0].getRGB(85, 70, 25, 20, null, 0, 25),
+            read[1].getRGB(5, 6, 25, 20, null, 0, 25));
+    }
+
+
+    @Test
+    public void regionsAtBoundaries() throws Exception
+    {
+        // Small regions on both sides of the boundaries of the 32x32
+        // precincts, of the code-blocks of the subbands, which are 16x16,
+        // and of the tiles, so that the precincts on the other side are only
+        // needed for the support of the synthesis filters
+        for (String filter : new String[] { J2KImageWriteParam.FILTER_53, J2KImageWriteParam.FILTER_97 }) {
+            byte[] data = encodePrecincts(filter);
+            CodestreamRegionServer server = new CodestreamRegionServer(new ISRandomAccessIO(new ByteArrayInputStream(data)));
+            for (int reduction = 0; reduction < 2; reduction++) {
+                J2KImageReadParam readParams = new J2KImageReadParam();
+                readParams.setResolution(LEVELS - reduction);
+                BufferedImage expected = TestImages.decode(data, readParams);
+                int scale = 1 << reduction;
+                for (int b : new int[] { 32, 64, TILE }) {
+                    for (int d = -3; d <= 3; d++) {
+                        int x = b + d, y = b + d;
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        server.writeCodestream(x, y, 2, 2, reduction, -1, null, bos);
+                        assertTrue(bos.size() < data.length);
+                        BufferedImage read = TestImages.decode(bos.toByteArray(), null);
+
+                        // The image starts at the first tile of the region
+                        int ox = ceil(x / TILE * TILE, scale), oy = ceil(y / TILE * TILE, scale);
+                        int x0 = ceil(x, scale), y0 = ceil(y, scale);
+                        int w = ceil(x + 2, scale) - x0, h = ceil(y + 2, scale) - y0;
+                        assertArrayEquals(filter + ", reduction " + reduction + ", at " + x,
+                            expected.getRGB(x0, y0, w, h, null, 0, w),
+                            read.getRGB(x0 - ox, y0 - oy, w, h, null, 0, w));
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Encodes the image with precincts of 32x32 samples at all resolution
+     * levels, which the parameters of the writer do not support.
+     */
+    private byte[] encodePrecincts(String filter) throws Exception
+    {
+        J2KImageWriteParam p = new J2KImageWriteParam();
+        p.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        p.setTiling(TILE, TILE, 0, 0);
+        p.setNumDecompositionLevels(LEVELS);
+        p.setFilter(filter);
+        p.setLossless(J2KImageWriteParam.FILTER_53.equals(filter));
+        J2KImageWriteParamJava wp = new J2KImageWriteParamJava(new IIOImage(image, null, null), p);
+        wp.setFilters(filter);
+        wp.setCodeBlockSize("16 16");
+        wp.setPrecinctPartition("32 32");
+        return TestImages.encode(image, wp);
+    }
+
+
+    private static int ceil(int v, int scale)
+    {
+        return (v + scale - 1) / scale;
+    }
+
+
+    private static int u16(byte[] b, int i)
+    {
+        return ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+    }
+}
@@ -0,0 +1,233 @@
+package jj2000.j2k.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+
+import org.junit.Test;
+
+import jj2000.j2k.codestream.PrecInfo;
+import jj2000.j2k.codestream.ProgressionType;
+import jj2000.j2k.codestream.reader.PktIndex;
+
+import com.github.jaiimageio.jpeg2000.J2KImageReadParam;
+import com.github.jaiimageio.jpeg2000.J2KImageWriteParam;
+import com.github.jaiimageio.jpeg2000.TestImages;
+import com.github.jaiimageio.jpeg2000.impl.J2KImageWriteParamJava;
+
+/**
+ * Test the transcoding of codestreams by {@link CodestreamTranscoder}
+ *
+ */
+public class CodestreamTranscoderTest
+{
+
+    private final BufferedImage image = TestImages.testImage();
+
+
+    @Test
+    public void transcode() throws Exception
+    {
+        for (boolean mct : new boolean[] { true, false }) {
+            J2KImageWriteParam writeParams = new J2KImageWriteParam();
+            writeParams.setFilter(J2KImageWriteParam.FILTER_97);
+            writeParams.setLossless(false);
+            writeParams.setEncodingRate(2.0f);
+            writeParams.setLayers("0.5 1 1.5 2");
+            writeParams.setComponentTransformation(mct);
+            writeParams.setSOP(true);
+            writeParams.setEPH(true);
+            writeParams.setProgressionType("res");
+            writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParams.setTiling(128, 96, 0, 0);
+            writeParams.setWriteCodeStreamOnly(true);
+            byte[] data = TestImages.encode(image, writeParams);
+
+            // The original decoded at the lower resolution and quality
+            J2KImageReadParam readParams = new J2KImageReadParam();
+            readParams.setQualityLayers(2);
+            readParams.setResolution(4);
+            Raster expected = TestImages.decode(data, readParams).getRaster();
+            assertEquals(151, expected.getWidth());
+            assertEquals(102, expected.getHeight());
+
+            CodestreamTranscoder tc = new CodestreamTranscoder(new ISRandomAccessIO(new ByteArrayInputStream(data)));
+            assertEquals(3, tc.getNumTilesX());
+            assertEquals(3, tc.getNumTilesY());
+            tc.setLayers(2);
+            tc.setResolutionReduction(1);
+            if (mct) {
+                tc.setComponents(new int[] { 1 });
+                try {
+                    tc.transcode(new ByteArrayOutputStream());
+                    assertTrue("component transformation", false);
+                }
+                catch (IllegalArgumentException e) {
+                    // expected
+                }
+                tc.setComponents(null);
+            }
+            else {
+                tc.setTiles(1, 1, 3, 3);
+                tc.setComponents(new int[] { 2 });
+                tc.setTLM(true);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            assertEquals(tc.transcode(bos), bos.size());
+            assertTrue(bos.size() < data.length / 2);
+
+            Raster read = TestImages.decode(bos.toByteArray(), null).getRaster();
+            if (mct) {
+                assertEquals(151, read.getWidth());
+                assertEquals(102, read.getHeight());
+                assertArrayEquals(expected.getPixels(0, 0, 151, 102, (int[])null),
+                    read.getPixels(0, 0, 151, 102, (int[])null));
+            }
+            else {
+                assertEquals(1, read.getNumBands());
+                assertEquals(151 - 64, read.getWidth());
+                assertEquals(102 - 48, read.getHeight());
+                assertArrayEquals(expected.getSamples(64, 48, 87, 54, 2, (int[])null),
+                    read.getSamples(0, 0, 87, 54, 0, (int[])null));
+            }
+        }
+    }
+
+
+    @Test
+    public void transcodeProgression() throws Exception
+    {
+        // Precincts of 32x32 samples, several per tile at each of the higher
+        // resolution levels
+        J2KImageWriteParam p = new J2KImageWriteParam();
+        p.setFilter(J2KImageWriteParam.FILTER_97);
+        p.setLossless(false);
+        p.setLayers("0.5 1 2");
+        p.setNumDecompositionLevels(3);
+        p.setProgressionType("layer");
+        p.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        p.setTiling(160, 128, 0, 0);
+        J2KImageWriteParamJava wp = new J2KImageWriteParamJava(new IIOImage(image, null, null), p);
+        wp.setFilters(J2KImageWriteParam.FILTER_97);
+        wp.setCodeBlockSize("16 16");
+        wp.setPrecinctPartition("32 32");
+        byte[] data = TestImages.encode(image, wp);
+
+        int[] types = { ProgressionType.LY_RES_COMP_POS_PROG, ProgressionType.RES_LY_COMP_POS_PROG,
+            ProgressionType.RES_POS_COMP_LY_PROG, ProgressionType.POS_COMP_RES_LY_PROG,
+            ProgressionType.COMP_POS_RES_LY_PROG };
+        for (int type : types) {
+            CodestreamTranscoder tc = new CodestreamTranscoder(new ISRandomAccessIO(new ByteArrayInputStream(data)));
+            tc.setProgressionType(type);
+            tc.setPLT(true);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            tc.transcode(bos);
+            byte[] out = bos.toByteArray();
+            assertTrue(out.length > data.length);
+
+            // Each tile has the packets of the input, in the order of the
+            // progression
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 2; x++) {
+                    List<int[]> expected = packets(data, x, y);
+                    sortPackets(expected, type);
+                    List<int[]> actual = packets(out, x, y);
+                    assertEquals(expected.size(), actual.size());
+                    for (int j = 0; j < actual.size(); j++) {
+                        assertArrayEquals("type " + type + ", tile " + x + "," + y + ", packet " + j,
+                            Arrays.copyOf(expected.get(j), 4), Arrays.copyOf(actual.get(j), 4));
+                    }
+                }
+            }
+
+            // Same image at full and reduced resolution
+            for (int res : new int[] { -1, 2 }) {
+                J2KImageReadParam readParams = new J2KImageReadParam();
+                readParams.setResolution(res);
+                assertArrayEquals("type " + type + ", res " + res,
+                    TestImages.getRGB(TestImages.decode(data, readParams)),
+                    TestImages.getRGB(TestImages.decode(out, readParams)));
+            }
+        }
+    }
+
+
+    /**
+     * Returns the packets of a tile in the order of the codestream, as the
+     * layer, resolution level, component and precinct index of each
+     * packet, followed by the position of the precinct on the reference
+     * grid (vertical first).
+     */
+    private static List<int[]> packets(byte[] data, int x, int y) throws Exception
+    {
+        CodestreamTranscoder tc = new CodestreamTranscoder(new ISRandomAccessIO(new ByteArrayInputStream(data)));
+        tc.initComps();
+        tc.readPackets(x, y);
+        PktIndex pktIndex = tc.getPktIndex();
+        List<int[]> pkts = new ArrayList<int[]>();
+        int maxPrec = 0;
+        for (int i = 0; i < pktIndex.getNumPackets(); i++) {
+            int c = pktIndex.getComp(i);
+            int r = pktIndex.getResLvl(i);
+            int p = pktIndex.getPrecinct(i);
+            PrecInfo prec = tc.getReader().getPrecInfo(c, r, p);
+            pkts.add(new int[] { pktIndex.getLayer(i), r, c, p, prec.rguly, prec.rgulx });
+            maxPrec = Math.max(maxPrec, p);
+        }
+        assertTrue("precincts", maxPrec >= 4);
+        return pkts;
+    }
+
+
+    /**
+     * Sorts packets in the order of a progression, as defined by the
+     * standard for the precinct positions of components which are not
+     * subsampled.
+     */
+    private static void sortPackets(List<int[]> pkts, final int type)
+    {
+        Collections.sort(pkts, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b)
+            {
+                int[] ka = key(a), kb = key(b);
+                for (int k = 0; k < ka.length; k++) {
+                    if (ka[k] != kb[k]) {
+                        return ka[k] < kb[k] ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+
+            private int[] key(int[] pkt)
+            {
+                int l = pkt[0], r = pkt[1], c = pkt[2], p = pkt[3], py = pkt[4], px = pkt[5];
+                switch (type) {
+                case ProgressionType.LY_RES_COMP_POS_PROG:
+                    return new int[] { l, r, c, p };
+                case ProgressionType.RES_LY_COMP_POS_PROG:
+                    return new int[] { r, l, c, p };
+                case ProgressionType.RES_POS_COMP_LY_PROG:
+                    return new int[] { r, py, px, c, l };
+                case ProgressionType.POS_COMP_RES_LY_PROG:
+                    return new int[] { py, px, c, r, l };
+                default:
+                    return new int[] { c, py, px, r, l };
+                }
+            }
+        });
+    }
+}